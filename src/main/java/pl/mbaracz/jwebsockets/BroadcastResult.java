@@ -0,0 +1,44 @@
+package pl.mbaracz.jwebsockets;
+
+/**
+ * Outcome of a broadcast, reported once the message has been written to all sessions connected when it started.
+ */
+public class BroadcastResult {
+
+    private final long delivered;
+    private final long failed;
+
+    /**
+     * Constructs a new broadcast result.
+     *
+     * @param delivered The number of sessions the message was written to.
+     * @param failed    The number of sessions whose channel was already inactive.
+     */
+    public BroadcastResult(long delivered, long failed) {
+        this.delivered = delivered;
+        this.failed = failed;
+    }
+
+    /**
+     * Returns the number of sessions the message was written and flushed to.
+     *
+     * @return The number of delivered messages.
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Returns the number of sessions which were closed before the message could be written to them.
+     *
+     * @return The number of failed deliveries.
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return "delivered=" + delivered + ", failed=" + failed;
+    }
+}
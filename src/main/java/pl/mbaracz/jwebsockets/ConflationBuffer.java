@@ -0,0 +1,78 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-session buffer of conflated messages, holding only the newest message for every conflation key.
+ * Used while the session is not writable, so the memory used by a slow subscriber is bounded by the number of keys.
+ */
+class ConflationBuffer {
+
+    private Map<Object, Entry> pending = new LinkedHashMap<>();
+
+    /**
+     * Stores a payload, replacing and releasing the pending payload with the same key.
+     * The ownership of the payload is transferred to this method.
+     *
+     * @param key        the conflation key.
+     * @param payload    the encoded message.
+     * @param statistics the statistics of the topic the message was published to.
+     */
+    synchronized void offer(Object key, ByteBuf payload, TopicStatistics statistics) {
+        Entry replaced = pending.put(key, new Entry(payload, statistics));
+
+        if (replaced != null) {
+            replaced.payload.release();
+            replaced.statistics.recordDrop();
+        }
+    }
+
+    /**
+     * Takes all pending payloads, transferring their ownership to the caller.
+     *
+     * @return the pending payloads in the order of their first arrival.
+     */
+    synchronized Collection<Entry> take() {
+        if (pending.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Collection<Entry> entries = pending.values();
+        pending = new LinkedHashMap<>();
+        return entries;
+    }
+
+    /**
+     * Checks if there are any pending payloads.
+     *
+     * @return true if the buffer is not empty.
+     */
+    synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Releases all pending payloads.
+     */
+    synchronized void release() {
+        pending.values().forEach(entry -> entry.payload.release());
+        pending.clear();
+    }
+
+    /**
+     * A pending payload together with the statistics of its topic.
+     */
+    static class Entry {
+        final ByteBuf payload;
+        final TopicStatistics statistics;
+
+        private Entry(ByteBuf payload, TopicStatistics statistics) {
+            this.payload = payload;
+            this.statistics = statistics;
+        }
+    }
+}
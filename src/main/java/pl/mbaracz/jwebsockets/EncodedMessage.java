@@ -0,0 +1,169 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.AbstractReferenceCounted;
+import pl.mbaracz.jwebsockets.message.MessageCodec;
+
+/**
+ * Message shared by many recipients, encoded lazily and at most once for every distinct codec used by them.
+ * Event loops delivering the message may request payloads concurrently; a codec is encoded by the first of them
+ * and the result is read without locking afterwards. All payloads are released with the message.
+ * <p>
+ * A message received already encoded, such as from another node of a cluster, is only decoded if a recipient uses
+ * another codec or the message itself is needed.
+ *
+ * @param <T> the type of WebSocket messages.
+ */
+class EncodedMessage<T> extends AbstractReferenceCounted {
+
+    private volatile T message;
+    private volatile Entry<T>[] entries = newEntries(0);
+    private long sequence;
+
+    /**
+     * Constructs a new message, not encoded yet.
+     *
+     * @param message the message.
+     */
+    EncodedMessage(T message) {
+        this.message = message;
+    }
+
+    /**
+     * Constructs a new message from its encoded payload, not decoded yet.
+     *
+     * @param codec   the codec the payload was encoded with.
+     * @param payload the encoded payload, its ownership is transferred to the message.
+     */
+    EncodedMessage(MessageCodec<T> codec, ByteBuf payload) {
+        Entry<T>[] initial = newEntries(1);
+        initial[0] = new Entry<>(codec, payload);
+        this.entries = initial;
+    }
+
+    /**
+     * Returns the message, decoding it on the first call if it was constructed from its payload.
+     *
+     * @return the message.
+     */
+    T getMessage() {
+        T current = message;
+
+        if (current != null) {
+            return current;
+        }
+
+        synchronized (this) {
+            if (message == null) {
+                Entry<T> source = entries[0];
+                message = source.codec.getDecoder().decode(ByteBufUtil.getBytes(source.payload));
+            }
+            return message;
+        }
+    }
+
+    /**
+     * Returns the publish sequence number of the message, assigned when session resumption is enabled.
+     *
+     * @return the sequence number, or 0 if none was assigned.
+     */
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Assigns the publish sequence number, before the message is handed over to the event loops.
+     *
+     * @param sequence the sequence number.
+     */
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Returns the message encoded with a codec, encoding it on the first call for the codec.
+     * The returned payload is owned by this message, recipients must write retained duplicates of it.
+     *
+     * @param codec the codec of the recipient.
+     * @return the encoded payload.
+     */
+    ByteBuf payload(MessageCodec<T> codec) {
+        ByteBuf payload = find(entries, codec);
+
+        if (payload != null) {
+            return payload;
+        }
+
+        synchronized (this) {
+            Entry<T>[] current = entries;
+            payload = find(current, codec);
+
+            if (payload == null) {
+                payload = Unpooled.wrappedBuffer(codec.getEncoder().encode(getMessage()));
+
+                Entry<T>[] updated = newEntries(current.length + 1);
+                System.arraycopy(current, 0, updated, 0, current.length);
+                updated[current.length] = new Entry<>(codec, payload);
+                entries = updated;
+            }
+            return payload;
+        }
+    }
+
+    /**
+     * Returns the size of the message encoded with the first codec it was encoded with.
+     *
+     * @return the size in bytes, or 0 if the message was not encoded yet.
+     */
+    int size() {
+        Entry<T>[] current = entries;
+        return current.length > 0 ? current[0].payload.readableBytes() : 0;
+    }
+
+    /**
+     * Returns the number of codecs the message was encoded with.
+     *
+     * @return the number of payloads.
+     */
+    int encodings() {
+        return entries.length;
+    }
+
+    @Override
+    public EncodedMessage<T> touch(Object hint) {
+        return this;
+    }
+
+    @Override
+    protected void deallocate() {
+        for (Entry<T> entry : entries) {
+            entry.payload.release();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T>[] newEntries(int length) {
+        return (Entry<T>[]) new Entry<?>[length];
+    }
+
+    private static <T> ByteBuf find(Entry<?>[] entries, MessageCodec<T> codec) {
+        for (Entry<?> entry : entries) {
+            if (entry.codec == codec) {
+                return entry.payload;
+            }
+        }
+        return null;
+    }
+
+    private static class Entry<T> {
+        private final MessageCodec<T> codec;
+        private final ByteBuf payload;
+
+        private Entry(MessageCodec<T> codec, ByteBuf payload) {
+            this.codec = codec;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeadersFactory;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
+import io.netty.handler.codec.http.websocketx.WebSocketDecoderConfig;
+import io.netty.util.AsciiString;
+import io.netty.util.ByteProcessor;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Handshake-only HTTP decoder used instead of the HTTP codec and aggregator when the lightweight handshake is enabled.
+ * It parses just the request line and the headers needed for the upgrade into a bodiless request, rejects requests
+ * with a body or with oversized headers before buffering them, and performs the version 13 handshake itself.
+ */
+class HandshakeDecoder extends ByteToMessageDecoder {
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final AsciiString[] RETAINED_HEADERS = {
+            HttpHeaderNames.HOST,
+            HttpHeaderNames.UPGRADE,
+            HttpHeaderNames.CONNECTION,
+            HttpHeaderNames.SEC_WEBSOCKET_KEY,
+            HttpHeaderNames.SEC_WEBSOCKET_VERSION,
+            HttpHeaderNames.SEC_WEBSOCKET_PROTOCOL,
+            HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS,
+            HttpHeaderNames.ORIGIN,
+            HttpHeaderNames.COOKIE
+    };
+
+    private static final FastThreadLocal<MessageDigest> SHA1 = new FastThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() throws NoSuchAlgorithmException {
+            return MessageDigest.getInstance("SHA-1");
+        }
+    };
+
+    private final int maxHeaderSize;
+    private int searchedBytes;
+    private boolean decoded;
+
+    /**
+     * Constructs a new handshake decoder.
+     *
+     * @param maxHeaderSize the maximum size of the request line and headers in bytes.
+     */
+    HandshakeDecoder(int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext context, ByteBuf in, List<Object> out) {
+        if (decoded) {
+            in.skipBytes(in.readableBytes());
+            return;
+        }
+
+        int end = findEndOfHeaders(in);
+
+        if (end < 0) {
+            if (in.readableBytes() > maxHeaderSize) {
+                reject(context, HttpResponseStatus.REQUEST_HEADER_FIELDS_TOO_LARGE, in);
+            }
+            return;
+        }
+
+        if (end - in.readerIndex() > maxHeaderSize) {
+            reject(context, HttpResponseStatus.REQUEST_HEADER_FIELDS_TOO_LARGE, in);
+            return;
+        }
+
+        String head = in.toString(in.readerIndex(), end - in.readerIndex(), StandardCharsets.ISO_8859_1);
+        in.readerIndex(end + 4);
+        decoded = true;
+
+        FullHttpRequest request = parse(head);
+
+        if (request == null) {
+            reject(context, HttpResponseStatus.BAD_REQUEST, in);
+            return;
+        }
+        out.add(request);
+    }
+
+    /**
+     * Checks if the request asks for the only handshake version supported by this decoder, version 13.
+     *
+     * @param request the upgrade request.
+     * @return true if the handshake can be performed.
+     */
+    static boolean isSupported(FullHttpRequest request) {
+        return request.headers().contains(HttpHeaderNames.SEC_WEBSOCKET_KEY)
+                && "13".equals(request.headers().get(HttpHeaderNames.SEC_WEBSOCKET_VERSION));
+    }
+
+    /**
+     * Performs the version 13 handshake for a request produced by this decoder, replacing the decoder with the
+     * WebSocket frame decoder and the HTTP response encoder with the frame encoder.
+     *
+     * @param context     the context of the handler processing the request.
+     * @param request     the supported upgrade request.
+     * @param subprotocol the selected subprotocol, or null if none was selected.
+     * @return the future of the handshake response.
+     */
+    static ChannelFuture handshake(ChannelHandlerContext context, FullHttpRequest request, String subprotocol) {
+        String key = request.headers().get(HttpHeaderNames.SEC_WEBSOCKET_KEY);
+
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SWITCHING_PROTOCOLS,
+                Unpooled.EMPTY_BUFFER, newHeaders(), newHeaders());
+        response.headers()
+                .set(HttpHeaderNames.UPGRADE, HttpHeaderValues.WEBSOCKET)
+                .set(HttpHeaderNames.CONNECTION, HttpHeaderValues.UPGRADE)
+                .set(HttpHeaderNames.SEC_WEBSOCKET_ACCEPT, accept(key));
+        if (subprotocol != null) {
+            response.headers().set(HttpHeaderNames.SEC_WEBSOCKET_PROTOCOL, subprotocol);
+        }
+
+        ChannelPipeline pipeline = context.pipeline();
+        WebSocketDecoderConfig config = WebSocketDecoderConfig.newBuilder().allowExtensions(true).build();
+
+        pipeline.replace(HandshakeDecoder.class, "wsdecoder", new WebSocket13FrameDecoder(config));
+        String encoderName = pipeline.context(HttpResponseEncoder.class).name();
+        pipeline.addBefore(encoderName, "wsencoder", new WebSocket13FrameEncoder(false));
+
+        return context.channel().writeAndFlush(response).addListener(future -> {
+            if (future.isSuccess()) {
+                pipeline.remove(encoderName);
+            }
+        });
+    }
+
+    /**
+     * Computes the value of the {@code Sec-WebSocket-Accept} header for a key.
+     *
+     * @param key the value of the {@code Sec-WebSocket-Key} header.
+     * @return the accept value.
+     */
+    static String accept(String key) {
+        MessageDigest digest = SHA1.get();
+        digest.reset();
+        byte[] hash = digest.digest((key + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII));
+        return Base64.getEncoder().encodeToString(hash);
+    }
+
+    /**
+     * Finds the empty line ending the headers, resuming the search where the previous call stopped.
+     *
+     * @param in the received bytes.
+     * @return the index of the {@code \r\n\r\n} sequence, or -1 if it was not received yet.
+     */
+    private int findEndOfHeaders(ByteBuf in) {
+        int from = in.readerIndex() + Math.max(0, searchedBytes - 3);
+        int to = in.writerIndex();
+
+        int index = in.forEachByte(from, to - from, new ByteProcessor() {
+            private int matched;
+
+            @Override
+            public boolean process(byte value) {
+                if (value == (matched % 2 == 0 ? '\r' : '\n')) {
+                    matched++;
+                } else {
+                    matched = value == '\r' ? 1 : 0;
+                }
+                return matched < 4;
+            }
+        });
+
+        if (index < 0) {
+            searchedBytes = in.readableBytes();
+            return -1;
+        }
+        return index - 3;
+    }
+
+    /**
+     * Parses the request line and the retained headers of a request without a body.
+     *
+     * @param head the request line and headers, without the final empty line.
+     * @return the request, or null if it is malformed or has a body.
+     */
+    private static FullHttpRequest parse(String head) {
+        int lineEnd = head.indexOf("\r\n");
+        String requestLine = lineEnd < 0 ? head : head.substring(0, lineEnd);
+
+        int firstSpace = requestLine.indexOf(' ');
+        int lastSpace = requestLine.lastIndexOf(' ');
+
+        if (firstSpace <= 0 || lastSpace <= firstSpace || !isToken(requestLine, 0, firstSpace)) {
+            return null;
+        }
+
+        HttpMethod method = HttpMethod.valueOf(requestLine.substring(0, firstSpace));
+        String uri = requestLine.substring(firstSpace + 1, lastSpace);
+
+        if (!"HTTP/1.1".equals(requestLine.substring(lastSpace + 1))) {
+            return null;
+        }
+
+        HttpHeaders headers = newHeaders();
+        int start = lineEnd < 0 ? head.length() : lineEnd + 2;
+
+        while (start < head.length()) {
+            int end = head.indexOf("\r\n", start);
+            if (end < 0) {
+                end = head.length();
+            }
+
+            int colon = head.indexOf(':', start);
+            if (colon < 0 || colon > end) {
+                return null;
+            }
+
+            AsciiString name = retainedHeader(head, start, colon);
+            if (name != null) {
+                headers.add(name, head.substring(colon + 1, end).trim());
+            } else if (isBodyHeader(head, start, colon, end)) {
+                return null;
+            }
+            start = end + 2;
+        }
+
+        return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, uri, Unpooled.EMPTY_BUFFER,
+                headers, newHeaders());
+    }
+
+    /**
+     * Checks if the characters between the given indexes form an HTTP token, as required of a method, so that the
+     * method can be created without throwing.
+     */
+    private static boolean isToken(String head, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = head.charAt(i);
+
+            if (c <= ' ' || c >= 0x7F || "\"(),/:;<=>?@[\\]{}".indexOf(c) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates headers without validation, as their names are constants and their values are taken from a request
+     * which was already split on line ends.
+     */
+    private static HttpHeaders newHeaders() {
+        return DefaultHttpHeadersFactory.headersFactory().withValidation(false).newHeaders();
+    }
+
+    private static AsciiString retainedHeader(String head, int start, int end) {
+        for (AsciiString name : RETAINED_HEADERS) {
+            if (name.length() == end - start && head.regionMatches(true, start, name.toString(), 0, name.length())) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isBodyHeader(String head, int start, int colon, int end) {
+        if (head.regionMatches(true, start, "Transfer-Encoding", 0, colon - start) && colon - start == 17) {
+            return true;
+        }
+        if (head.regionMatches(true, start, "Content-Length", 0, colon - start) && colon - start == 14) {
+            return !"0".equals(head.substring(colon + 1, end).trim());
+        }
+        return false;
+    }
+
+    private void reject(ChannelHandlerContext context, HttpResponseStatus status, ByteBuf in) {
+        decoded = true;
+        in.skipBytes(in.readableBytes());
+        context.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status))
+                .addListener(ChannelFutureListener.CLOSE);
+    }
+}
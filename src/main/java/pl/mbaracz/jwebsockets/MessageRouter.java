@@ -0,0 +1,150 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.mbaracz.jwebsockets.handler.MessageHandler;
+import pl.mbaracz.jwebsockets.handler.RoutedMessageHandler;
+import pl.mbaracz.jwebsockets.handler.UnroutedMessageHandler;
+import pl.mbaracz.jwebsockets.message.Discriminator;
+import pl.mbaracz.jwebsockets.message.MessageDecoder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dispatches incoming messages to handlers registered per message type. The type of a message is extracted from the
+ * encoded frame by a {@link Discriminator}, and only messages with a route are decoded, by the decoder of their route.
+ * Messages without a route are passed undecoded to the unrouted message handler, or dropped.
+ * <p>
+ * Sessions which expect acknowledgements or responses to requests of the server decode every message with their codec
+ * first, so that such messages are consumed before they are routed or dropped.
+ *
+ * @param <T> Type of messages handled by the server
+ * @param <D> Type of additional data associated with the session
+ */
+public class MessageRouter<T, D> {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageRouter.class);
+
+    private final Discriminator discriminator;
+    private final Map<Object, Route<?, T, D>> routes = new ConcurrentHashMap<>();
+    private volatile UnroutedMessageHandler<T, D> unroutedHandler;
+
+    /**
+     * Constructs a new message router.
+     *
+     * @param discriminator Extractor of the type of encoded messages
+     */
+    public MessageRouter(Discriminator discriminator) {
+        this.discriminator = discriminator;
+    }
+
+    /**
+     * Registers a route decoding the messages of a type with a dedicated decoder.
+     *
+     * @param type    The discriminator of the messages, as returned by the discriminator of this router
+     * @param decoder Decoder of the messages of the type
+     * @param handler Handler of the decoded messages
+     * @param <M>     Type of the decoded messages
+     * @return The message router instance for method chaining
+     * @throws IllegalStateException If a route for the type already exists
+     */
+    public <M> MessageRouter<T, D> route(Object type, MessageDecoder<M> decoder,
+                                         RoutedMessageHandler<M, T, D> handler) throws IllegalStateException {
+        if (routes.putIfAbsent(type, new Route<>(decoder, handler)) != null) {
+            throw new IllegalStateException("Route '" + type + "' already exists!");
+        }
+        return this;
+    }
+
+    /**
+     * Registers a route decoding the messages of a type with the codec of the session they were received from.
+     * Acknowledgements and responses to requests of the server are consumed instead of being passed to the handler.
+     *
+     * @param type    The discriminator of the messages, as returned by the discriminator of this router
+     * @param handler Handler of the decoded messages
+     * @return The message router instance for method chaining
+     * @throws IllegalStateException If a route for the type already exists
+     */
+    public MessageRouter<T, D> route(Object type, MessageHandler<T, D> handler) throws IllegalStateException {
+        return route(type, null, handler::handleMessage);
+    }
+
+    /**
+     * Sets the handler of messages without a route. By default, they are dropped.
+     *
+     * @param handler Handler of the undecoded messages
+     * @return The message router instance for method chaining
+     */
+    public MessageRouter<T, D> otherwise(UnroutedMessageHandler<T, D> handler) {
+        this.unroutedHandler = handler;
+        return this;
+    }
+
+    /**
+     * Dispatches a received message to the handler of its type.
+     *
+     * @param session The session the message was received from
+     * @param payload The encoded message, whose ownership stays with the caller
+     */
+    void dispatch(WebSocketSession<T, D> session, ByteBuf payload) {
+        T message = null;
+
+        if (session.isConsuming()) {
+            message = session.getCodec().getDecoder().decode(ByteBufUtil.getBytes(payload));
+
+            if (session.consume(message)) {
+                return;
+            }
+        }
+
+        Object type = discriminator.extract(payload);
+        Route<?, T, D> route = type != null ? routes.get(type) : null;
+
+        if (route != null) {
+            route.handle(session, payload, message);
+            return;
+        }
+
+        UnroutedMessageHandler<T, D> handler = unroutedHandler;
+
+        if (handler != null) {
+            handler.handleUnrouted(session, type, payload);
+        } else if (logger.isDebugEnabled()) {
+            logger.debug("Dropped message of type " + type + " without a route from session " + session.getId());
+        }
+    }
+
+    /**
+     * Decoder and handler of the messages of a type.
+     */
+    private static class Route<M, T, D> {
+
+        private final MessageDecoder<M> decoder;
+        private final RoutedMessageHandler<M, T, D> handler;
+
+        Route(MessageDecoder<M> decoder, RoutedMessageHandler<M, T, D> handler) {
+            this.decoder = decoder;
+            this.handler = handler;
+        }
+
+        /**
+         * Decodes and handles a message.
+         *
+         * @param decoded The message decoded with the codec of the session, or null if it was not decoded yet
+         */
+        @SuppressWarnings("unchecked")
+        void handle(WebSocketSession<T, D> session, ByteBuf payload, T decoded) {
+            if (decoder != null) {
+                handler.handleMessage(session, decoder.decode(ByteBufUtil.getBytes(payload)));
+                return;
+            }
+
+            // Routes without a decoder are only registered with M being T
+            T message = decoded != null ? decoded : session.getCodec().getDecoder().decode(ByteBufUtil.getBytes(payload));
+            handler.handleMessage(session, (M) message);
+        }
+    }
+}
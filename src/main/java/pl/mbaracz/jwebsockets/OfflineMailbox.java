@@ -0,0 +1,385 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.mbaracz.jwebsockets.configuration.WebSocketServerConfiguration;
+import pl.mbaracz.jwebsockets.message.MessageCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Mailboxes of messages sent to users without a connected session, by user key. Messages are stored encoded with the
+ * default codec, in memory up to the memory limit shared by all users and in an append-only spill file above it, and
+ * are drained to the next session of the user once it is open. The spill file is compacted once most of it is taken by
+ * discarded messages, so that it stays proportional to the spilled messages left.
+ * <p>
+ * The mailboxes and the spill file are confined to a single thread, so that callers and event loops never wait for
+ * the disk. Event loops are only given the loaded payloads to write.
+ *
+ * @param <T> the type of WebSocket messages.
+ * @param <D> the type of additional data associated with WebSocket sessions.
+ */
+class OfflineMailbox<T, D> {
+
+    private static final Logger logger = LoggerFactory.getLogger(OfflineMailbox.class);
+
+    /**
+     * The size of the spill file below which it is never compacted.
+     */
+    static final long COMPACTION_THRESHOLD = 64 * 1024;
+
+    private final WebSocketServerConfiguration<T> configuration;
+    private final Function<? super D, ?> userKey;
+    private final Function<Object, List<WebSocketSession<T, D>>> lookup;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("jwebsockets-mailbox", true));
+    private final Map<Object, ArrayDeque<Entry>> mailboxes = new HashMap<>();
+    private long memoryUsage;
+    private Path spillPath;
+    private FileChannel spillFile;
+    private long spillPosition;
+    private long spilledEntries;
+    private long spilledBytes;
+    private volatile int size;
+
+    /**
+     * Constructs new mailboxes.
+     *
+     * @param configuration the configuration providing the limits and the default codec.
+     * @param userKey       the function extracting the user key from the session data.
+     * @param lookup        the function returning the connected sessions of a user.
+     */
+    OfflineMailbox(WebSocketServerConfiguration<T> configuration, Function<? super D, ?> userKey,
+                   Function<Object, List<WebSocketSession<T, D>>> lookup) {
+        this.configuration = configuration;
+        this.userKey = userKey;
+        this.lookup = lookup;
+    }
+
+    /**
+     * Stores a message for a user without a connected session. The message is encoded by the caller, and stored
+     * asynchronously; if a session of the user connected in the meantime, it is sent to it instead.
+     *
+     * @param key     the user key.
+     * @param message the message.
+     * @throws IllegalStateException if the mailboxes are closed.
+     */
+    void store(Object key, T message) throws IllegalStateException {
+        if (executor.isShutdown()) {
+            throw new IllegalStateException("Offline mailbox is closed!");
+        }
+
+        byte[] payload = configuration.getDefaultCodec().getEncoder().encode(message);
+
+        executor.execute(() -> {
+            List<WebSocketSession<T, D>> sessions = lookup.apply(key);
+
+            if (sessions.isEmpty()) {
+                enqueue(key, payload);
+                return;
+            }
+            List<byte[]> payloads = new ArrayList<>(1);
+            payloads.add(payload);
+            deliver(sessions, key, payloads);
+        });
+    }
+
+    /**
+     * Drains the mailbox of the user of a newly opened session to it, once loaded from the disk.
+     *
+     * @param session the open session.
+     */
+    void drain(WebSocketSession<T, D> session) {
+        D data = session.getData();
+        Object key = data != null ? userKey.apply(data) : null;
+
+        if (key == null || executor.isShutdown()) {
+            return;
+        }
+
+        executor.execute(() -> {
+            ArrayDeque<Entry> mailbox = mailboxes.remove(key);
+
+            if (mailbox == null) {
+                return;
+            }
+
+            List<byte[]> payloads = new ArrayList<>(mailbox.size());
+            for (Entry entry : mailbox) {
+                byte[] payload = load(entry);
+                if (payload != null) {
+                    payloads.add(payload);
+                }
+            }
+            deliver(Collections.singletonList(session), key, payloads);
+            mailbox.forEach(this::discard);
+        });
+    }
+
+    /**
+     * Returns a future completed once the messages stored and the mailboxes drained before this call are processed.
+     *
+     * @return the future of processing the pending work.
+     */
+    CompletableFuture<Void> barrier() {
+        return CompletableFuture.runAsync(() -> {
+        }, executor);
+    }
+
+    /**
+     * Returns the number of stored messages of all users.
+     *
+     * @return the number of messages.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Stops accepting messages, waits for the pending ones to be stored and deletes the spill file.
+     * Stored messages are discarded.
+     */
+    void close() {
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (spillFile != null) {
+            try {
+                spillFile.close();
+                Files.deleteIfExists(spillPath);
+            } catch (IOException exception) {
+                logger.warn("Failed to delete the mailbox spill file " + spillPath, exception);
+            }
+        }
+    }
+
+    /**
+     * Writes payloads to the sessions of a user on their event loops. The payloads are put back into the mailbox once,
+     * after every session reported, and only if all of them were already closed.
+     */
+    private void deliver(List<WebSocketSession<T, D>> sessions, Object key, List<byte[]> payloads) {
+        if (payloads.isEmpty()) {
+            return;
+        }
+
+        AtomicInteger pending = new AtomicInteger(sessions.size());
+        AtomicBoolean accepted = new AtomicBoolean();
+
+        for (WebSocketSession<T, D> session : sessions) {
+            session.executor().execute(() -> {
+                if (session.getContext().channel().isActive()) {
+                    for (byte[] payload : payloads) {
+                        session.writePayload(toPayload(session, payload));
+                    }
+                    session.flush();
+                    accepted.set(true);
+                }
+                if (pending.decrementAndGet() == 0 && !accepted.get()) {
+                    executor.execute(() -> requeue(key, payloads));
+                }
+            });
+        }
+    }
+
+    private ByteBuf toPayload(WebSocketSession<T, D> session, byte[] payload) {
+        MessageCodec<T> codec = configuration.getDefaultCodec();
+
+        if (session.getCodec() == codec) {
+            return Unpooled.wrappedBuffer(payload);
+        }
+        return Unpooled.wrappedBuffer(session.getCodec().getEncoder().encode(codec.getDecoder().decode(payload)));
+    }
+
+    /**
+     * Puts undelivered payloads back in front of the messages stored for the user in the meantime.
+     */
+    private void requeue(Object key, List<byte[]> payloads) {
+        ArrayDeque<Entry> mailbox = mailboxes.computeIfAbsent(key, ignored -> new ArrayDeque<>());
+
+        for (int i = payloads.size() - 1; i >= 0; i--) {
+            mailbox.addFirst(createEntry(payloads.get(i)));
+        }
+        trim(mailbox);
+    }
+
+    private void enqueue(Object key, byte[] payload) {
+        ArrayDeque<Entry> mailbox = mailboxes.computeIfAbsent(key, ignored -> new ArrayDeque<>());
+
+        while (mailbox.size() >= configuration.getMailboxCapacity()) {
+            discard(mailbox.removeFirst());
+        }
+        mailbox.addLast(createEntry(payload));
+    }
+
+    /**
+     * Stores a payload in memory if it fits into the memory limit, or in the spill file otherwise.
+     */
+    private Entry createEntry(byte[] payload) {
+        Entry entry = memoryUsage + payload.length <= configuration.getMailboxMemoryLimit() ? null : spill(payload);
+
+        if (entry == null) {
+            entry = new Entry(payload, -1, payload.length);
+            memoryUsage += payload.length;
+        }
+        size++;
+        return entry;
+    }
+
+    private void trim(ArrayDeque<Entry> mailbox) {
+        while (mailbox.size() > configuration.getMailboxCapacity()) {
+            discard(mailbox.removeFirst());
+        }
+    }
+
+    /**
+     * Appends a payload to the spill file.
+     *
+     * @return the spilled entry, or null if the file cannot be written and the payload has to stay in memory.
+     */
+    private Entry spill(byte[] payload) {
+        try {
+            if (spillFile == null) {
+                openSpillFile();
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            long offset = spillPosition;
+            while (buffer.hasRemaining()) {
+                spillPosition += spillFile.write(buffer, spillPosition);
+            }
+            spilledEntries++;
+            spilledBytes += payload.length;
+            return new Entry(null, offset, payload.length);
+        } catch (IOException exception) {
+            logger.warn("Failed to spill an offline message, keeping it in memory", exception);
+            return null;
+        }
+    }
+
+    private void openSpillFile() throws IOException {
+        Path configured = configuration.getMailboxSpillFile();
+
+        spillPath = configured != null ? configured : Files.createTempFile("jwebsockets-mailbox", ".spill");
+        spillFile = FileChannel.open(spillPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private byte[] load(Entry entry) {
+        if (entry.payload != null) {
+            return entry.payload;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (spillFile.read(buffer, entry.offset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of the mailbox spill file");
+                }
+            }
+            return buffer.array();
+        } catch (IOException exception) {
+            logger.error("Failed to load a spilled offline message", exception);
+            return null;
+        }
+    }
+
+    private void discard(Entry entry) {
+        if (entry.payload != null) {
+            memoryUsage -= entry.length;
+        } else {
+            spilledBytes -= entry.length;
+
+            if (--spilledEntries == 0) {
+                // The spill file is reused from the start once no spilled message is left
+                spillPosition = 0;
+                try {
+                    spillFile.truncate(0);
+                } catch (IOException exception) {
+                    logger.warn("Failed to truncate the mailbox spill file", exception);
+                }
+            } else if (spillPosition > COMPACTION_THRESHOLD && spillPosition > 2 * spilledBytes) {
+                compact();
+            }
+        }
+        size--;
+    }
+
+    /**
+     * Moves the spilled messages left to the start of the spill file in their file order and truncates it after them.
+     * Every message moves towards the start, so that it never overwrites a message which is not moved yet.
+     */
+    private void compact() {
+        List<Entry> spilled = new ArrayList<>();
+        for (ArrayDeque<Entry> mailbox : mailboxes.values()) {
+            for (Entry entry : mailbox) {
+                if (entry.payload == null) {
+                    spilled.add(entry);
+                }
+            }
+        }
+        spilled.sort(Comparator.comparingLong(entry -> entry.offset));
+
+        long position = 0;
+        try {
+            for (Entry entry : spilled) {
+                if (entry.offset != position) {
+                    byte[] payload = load(entry);
+                    if (payload == null) {
+                        throw new IOException("Failed to load a spilled offline message");
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(payload);
+                    while (buffer.hasRemaining()) {
+                        spillFile.write(buffer, position + buffer.position());
+                    }
+                    entry.offset = position;
+                }
+                position += entry.length;
+            }
+            spillPosition = position;
+            spillFile.truncate(position);
+        } catch (IOException exception) {
+            logger.warn("Failed to compact the mailbox spill file", exception);
+        }
+    }
+
+    /**
+     * A stored message, kept either in memory or at an offset of the spill file.
+     */
+    private static final class Entry {
+        private final byte[] payload;
+        private long offset;
+        private final int length;
+
+        private Entry(byte[] payload, long offset, int length) {
+            this.payload = payload;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import pl.mbaracz.jwebsockets.message.Correlation;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Requests of a session waiting for their response, by correlation id. Timeouts of the requests of all sessions are
+ * scheduled on a single timing wheel, so that a request costs neither a scheduled task of an executor nor a thread.
+ *
+ * @param <T> the type of WebSocket messages.
+ */
+class PendingRequests<T> {
+
+    /**
+     * Timing wheel shared by request timeouts and by the expiry of parked sessions.
+     */
+    static final Timer TIMER = new HashedWheelTimer(
+            new DefaultThreadFactory("jwebsockets-timer", true), 10, TimeUnit.MILLISECONDS);
+
+    private final Correlation<T> correlation;
+    private final long defaultTimeoutMillis;
+    private LongObjectHashMap<PendingRequest<T>> requests;
+    private volatile int size;
+    private long nextId = Correlation.UNCORRELATED;
+    private boolean closed;
+
+    /**
+     * Constructs a new table of pending requests.
+     *
+     * @param correlation          the correlation of requests and responses.
+     * @param defaultTimeoutMillis the timeout of requests sent without an explicit timeout.
+     */
+    PendingRequests(Correlation<T> correlation, long defaultTimeoutMillis) {
+        this.correlation = correlation;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+    }
+
+    long getDefaultTimeoutMillis() {
+        return defaultTimeoutMillis;
+    }
+
+    /**
+     * Registers a new request and schedules its timeout.
+     *
+     * @param timeoutMillis the timeout in milliseconds.
+     * @return the pending request, already failed if the session is closed.
+     */
+    PendingRequest<T> register(long timeoutMillis) {
+        PendingRequest<T> request;
+
+        synchronized (this) {
+            if (closed) {
+                request = new PendingRequest<>(this, Correlation.UNCORRELATED);
+                request.completeExceptionally(new ClosedChannelException());
+                return request;
+            }
+            if (requests == null) {
+                requests = new LongObjectHashMap<>();
+            }
+
+            long id = ++nextId;
+            request = new PendingRequest<>(this, id);
+            requests.put(id, request);
+            size = requests.size();
+            request.timeout = TIMER.newTimeout(request, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        return request;
+    }
+
+    /**
+     * Sets the correlation id of a request.
+     *
+     * @param message the request message.
+     * @param request the pending request.
+     * @return the message to send.
+     */
+    T correlate(T message, PendingRequest<T> request) {
+        return correlation.setCorrelationId(message, request.id);
+    }
+
+    /**
+     * Completes the pending request a received message responds to.
+     *
+     * @param message the received message.
+     * @return true if the message was the response of a pending request.
+     */
+    boolean complete(T message) {
+        if (size == 0) {
+            return false;
+        }
+
+        long id = correlation.getCorrelationId(message);
+
+        if (id == Correlation.UNCORRELATED) {
+            return false;
+        }
+
+        PendingRequest<T> request;
+
+        synchronized (this) {
+            request = requests.remove(id);
+            size = requests.size();
+        }
+        if (request == null) {
+            return false;
+        }
+        request.timeout.cancel();
+        request.complete(message);
+        return true;
+    }
+
+    /**
+     * Removes a pending request and fails it.
+     *
+     * @param request the pending request.
+     * @param cause   the cause of the failure.
+     */
+    void fail(PendingRequest<T> request, Throwable cause) {
+        if (remove(request)) {
+            request.timeout.cancel();
+            request.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Fails all pending requests after the channel of the session is closed, and all requests sent afterwards.
+     */
+    void close() {
+        List<PendingRequest<T>> failed;
+
+        synchronized (this) {
+            closed = true;
+
+            if (requests == null || requests.isEmpty()) {
+                return;
+            }
+            failed = new ArrayList<>(requests.values());
+            requests.clear();
+            size = 0;
+        }
+
+        for (PendingRequest<T> request : failed) {
+            request.timeout.cancel();
+            request.completeExceptionally(new ClosedChannelException());
+        }
+    }
+
+    private synchronized boolean remove(PendingRequest<T> request) {
+        if (requests == null || requests.get(request.id) != request) {
+            return false;
+        }
+        requests.remove(request.id);
+        size = requests.size();
+        return true;
+    }
+
+    /**
+     * Future of a request, which is also the task of its timeout.
+     *
+     * @param <T> the type of WebSocket messages.
+     */
+    static final class PendingRequest<T> extends CompletableFuture<T> implements TimerTask {
+
+        private final PendingRequests<T> owner;
+        private final long id;
+        private Timeout timeout;
+
+        PendingRequest(PendingRequests<T> owner, long id) {
+            this.owner = owner;
+            this.id = id;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (owner.remove(this)) {
+                completeExceptionally(new TimeoutException("Request " + id + " timed out!"));
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+            if (cancelled && owner.remove(this)) {
+                timeout.cancel();
+            }
+            return cancelled;
+        }
+    }
+}
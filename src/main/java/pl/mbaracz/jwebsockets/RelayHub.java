@@ -0,0 +1,263 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.mbaracz.jwebsockets.topic.TopicTrie;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Upstream side of the relay protocol, serving the edge servers connected with the
+ * {@value pl.mbaracz.jwebsockets.client.RelayClient#SUBPROTOCOL} subprotocol.
+ * <p>
+ * An edge sends a binary frame with the topic or topic pattern whenever its first local session subscribes to it or
+ * its last one unsubscribes. Every message published to a topic some edge is interested in is written to that edge
+ * once, as a binary frame holding the topic and the payload encoded with the default codec, without copying the
+ * payload. Relay connections are not sessions of the server: they receive no broadcasts and are not passed to the
+ * open, message and close handlers.
+ * <p>
+ * Messages are queued per edge and written by the event loop of its connection, which writes them only while the
+ * connection is writable and flushes once for all messages written together. An edge which falls behind by more than
+ * {@value #MAX_PENDING_BYTES} bytes is disconnected rather than buffered without bound, and subscribes again once its
+ * relay client reconnects.
+ */
+final class RelayHub {
+
+    private static final Logger logger = LoggerFactory.getLogger(RelayHub.class);
+
+    private static final byte SUBSCRIBE = 1;
+    private static final byte UNSUBSCRIBE = 2;
+    private static final byte PUBLISH = 3;
+
+    static final int MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+    private final List<Relay> relays = new CopyOnWriteArrayList<>();
+
+    /**
+     * Takes over an upgraded relay connection, replacing the server handler in its pipeline.
+     *
+     * @param context the context of the server handler of the connection.
+     */
+    void open(ChannelHandlerContext context) {
+        Relay relay = new Relay(context.channel());
+        relays.add(relay);
+        context.channel().closeFuture().addListener(future -> {
+            relays.remove(relay);
+            relay.drain();
+        });
+        context.pipeline().replace(context.handler(), "jwebsockets-relay", new RelayHandler(relay));
+    }
+
+    /**
+     * Checks if any edge is interested in a topic, directly or through a topic pattern.
+     *
+     * @param topic the concrete topic.
+     * @return true if a message published to the topic would be relayed.
+     */
+    boolean hasInterest(String topic) {
+        for (Relay relay : relays) {
+            if (relay.isInterested(topic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Relays a message to all edges interested in its topic, without waiting for them to be written.
+     *
+     * @param topic   the concrete topic.
+     * @param payload the message encoded with the default codec, only valid during the call.
+     */
+    void publish(String topic, ByteBuf payload) {
+        ByteBuf header = null;
+
+        try {
+            for (Relay relay : relays) {
+                if (!relay.isInterested(topic)) {
+                    continue;
+                }
+                if (header == null) {
+                    byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+                    header = Unpooled.buffer(5 + name.length).writeByte(PUBLISH).writeInt(name.length).writeBytes(name);
+                }
+                relay.offer(Unpooled.wrappedBuffer(header.retainedDuplicate(), payload.retainedDuplicate()));
+            }
+        } finally {
+            if (header != null) {
+                header.release();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of connected edges.
+     *
+     * @return the number of relay connections.
+     */
+    int size() {
+        return relays.size();
+    }
+
+    /**
+     * A connected edge with the topics and topic patterns its sessions subscribe to, and the messages not yet written
+     * to it.
+     */
+    private static final class Relay {
+        private final Channel channel;
+        private final Set<String> topics = ConcurrentHashMap.newKeySet();
+        private final TopicTrie<String> patterns = new TopicTrie<>();
+        private final Queue<ByteBuf> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicLong pendingBytes = new AtomicLong();
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private Relay(Channel channel) {
+            this.channel = channel;
+        }
+
+        private boolean isInterested(String topic) {
+            return topics.contains(topic) || (!patterns.isEmpty() && !patterns.match(topic).isEmpty());
+        }
+
+        /**
+         * Queues a message for this edge and submits its writing, or disconnects the edge if too many bytes are
+         * already queued. The ownership of the content is transferred to this method.
+         */
+        private void offer(ByteBuf content) {
+            if (pendingBytes.addAndGet(content.readableBytes()) > MAX_PENDING_BYTES) {
+                pendingBytes.addAndGet(-content.readableBytes());
+                content.release();
+
+                if (channel.isActive()) {
+                    logger.warn("Closing the relay connection of " + channel.remoteAddress() + ", which fell behind by "
+                            + MAX_PENDING_BYTES + " bytes");
+                    channel.close();
+                }
+                return;
+            }
+            pending.offer(content);
+
+            if (!draining.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                channel.eventLoop().execute(this::drain);
+            } catch (RejectedExecutionException ignored) {
+                // The event loop is shut down, so the connection is closed and nothing else drains the queue
+                draining.set(false);
+                release();
+            }
+        }
+
+        /**
+         * Writes the queued messages while the connection is writable and flushes them once, or releases them if the
+         * connection is closed. Runs on the event loop of the connection.
+         */
+        private void drain() {
+            // Cleared first, so that a message queued while writing submits the task again rather than being left
+            draining.set(false);
+
+            if (!channel.isActive()) {
+                release();
+                return;
+            }
+
+            boolean written = false;
+            ByteBuf content;
+
+            while (channel.isWritable() && (content = pending.poll()) != null) {
+                pendingBytes.addAndGet(-content.readableBytes());
+                channel.write(new BinaryWebSocketFrame(content));
+                written = true;
+            }
+            if (written) {
+                channel.flush();
+            }
+        }
+
+        private void release() {
+            ByteBuf content;
+
+            while ((content = pending.poll()) != null) {
+                pendingBytes.addAndGet(-content.readableBytes());
+                content.release();
+            }
+        }
+    }
+
+    /**
+     * Handles the frames received from an edge.
+     */
+    private static final class RelayHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+        private final Relay relay;
+
+        private RelayHandler(Relay relay) {
+            this.relay = relay;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext context, WebSocketFrame frame) {
+            if (frame instanceof BinaryWebSocketFrame) {
+                handleInterest(context, frame.content());
+            } else if (frame instanceof PingWebSocketFrame) {
+                context.writeAndFlush(new PongWebSocketFrame(frame.content().retain()));
+            } else if (frame instanceof CloseWebSocketFrame) {
+                context.writeAndFlush(frame.retain()).addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+
+        private void handleInterest(ChannelHandlerContext context, ByteBuf content) {
+            byte type = content.readByte();
+            String topic = content.toString(StandardCharsets.UTF_8);
+            boolean pattern = TopicTrie.isPattern(topic);
+
+            if (type == SUBSCRIBE) {
+                if (pattern) {
+                    relay.patterns.computeIfAbsent(topic, name -> name);
+                } else {
+                    relay.topics.add(topic);
+                }
+            } else if (type == UNSUBSCRIBE) {
+                if (pattern) {
+                    relay.patterns.remove(topic);
+                } else {
+                    relay.topics.remove(topic);
+                }
+            } else {
+                logger.warn("Unknown relay frame type " + type + " from " + context.channel().remoteAddress()
+                        + ": " + ByteBufUtil.hexDump(content));
+            }
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext context) {
+            if (context.channel().isWritable()) {
+                relay.drain();
+            }
+            context.fireChannelWritabilityChanged();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext context, Throwable cause) {
+            logger.warn("Closing the relay connection of " + context.channel().remoteAddress(), cause);
+            context.close();
+        }
+    }
+}
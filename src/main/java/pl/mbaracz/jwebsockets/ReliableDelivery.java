@@ -0,0 +1,90 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import pl.mbaracz.jwebsockets.message.Acknowledgement;
+import pl.mbaracz.jwebsockets.message.SequenceHeader;
+
+/**
+ * Reliable delivery state of a session: numbers outgoing messages, keeps them until the client acknowledges them and
+ * trims them on acknowledgement. Confined to the event loop of the session.
+ *
+ * @param <T> the type of WebSocket messages.
+ */
+class ReliableDelivery<T> {
+
+    private final Acknowledgement<T> acknowledgement;
+    private final SequenceHeader header;
+    private final ResendBuffer buffer;
+
+    /**
+     * Constructs the reliable delivery state of a new session.
+     *
+     * @param acknowledgement the recognizer of acknowledgements.
+     * @param header          the writer of sequence number headers.
+     * @param capacity        the capacity of the resend buffer.
+     */
+    ReliableDelivery(Acknowledgement<T> acknowledgement, SequenceHeader header, int capacity) {
+        this.acknowledgement = acknowledgement;
+        this.header = header;
+        this.buffer = new ResendBuffer(capacity);
+    }
+
+    /**
+     * Numbers and buffers a payload, returning the frame content to write. The ownership of the payload is transferred
+     * to this method, and the ownership of the returned content to the caller.
+     *
+     * @param payload   the encoded message.
+     * @param allocator the allocator of the header.
+     * @return the header followed by the payload.
+     */
+    ByteBuf sequence(ByteBuf payload, ByteBufAllocator allocator) {
+        long sequence = buffer.append(payload);
+        return frame(sequence, payload, allocator);
+    }
+
+    /**
+     * Returns the frame content of a buffered message.
+     *
+     * @param sequence  the sequence number.
+     * @param payload   the buffered payload, whose ownership stays with the buffer.
+     * @param allocator the allocator of the header.
+     * @return the header followed by the payload.
+     */
+    ByteBuf frame(long sequence, ByteBuf payload, ByteBufAllocator allocator) {
+        ByteBuf prefix = allocator.buffer(20);
+        header.write(sequence, prefix);
+
+        CompositeByteBuf content = allocator.compositeBuffer(2);
+        content.addComponents(true, prefix, payload.retainedDuplicate());
+        return content;
+    }
+
+    /**
+     * Trims the resend buffer if a received message is an acknowledgement.
+     *
+     * @param message the received message.
+     * @return true if the message was an acknowledgement.
+     */
+    boolean acknowledge(T message) {
+        long sequence = acknowledgement.getAcknowledgedSequence(message);
+
+        if (sequence == Acknowledgement.NONE) {
+            return false;
+        }
+        buffer.acknowledge(sequence);
+        return true;
+    }
+
+    ResendBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Releases all buffered payloads.
+     */
+    void release() {
+        buffer.release();
+    }
+}
@@ -0,0 +1,86 @@
+package pl.mbaracz.jwebsockets;
+
+import java.util.Map;
+
+/**
+ * Bounded ring of the last messages published to a topic or a topic pattern, kept while session resumption is
+ * enabled so that resumed sessions can receive the messages they missed. Messages are shared with the subscribers
+ * and keep their publish sequence numbers, which grow in the order in which they are appended.
+ *
+ * @param <T> the type of WebSocket messages.
+ */
+class ReplayBuffer<T> {
+
+    private final EncodedMessage<?>[] messages;
+    private int head;
+    private int size;
+    private long evicted;
+    private boolean released;
+
+    /**
+     * Constructs a new replay buffer.
+     *
+     * @param capacity the number of messages kept.
+     */
+    ReplayBuffer(int capacity) {
+        this.messages = new EncodedMessage<?>[capacity];
+    }
+
+    /**
+     * Appends a published message, evicting the oldest one if the buffer is full. The buffer retains its own
+     * reference to the message, the caller keeps ownership of its reference.
+     *
+     * @param message the message with its sequence number assigned.
+     */
+    synchronized void add(EncodedMessage<T> message) {
+        if (released) {
+            return;
+        }
+        if (size == messages.length) {
+            EncodedMessage<?> oldest = messages[head];
+            evicted = oldest.getSequence();
+            oldest.release();
+            messages[head] = null;
+            head = (head + 1) % messages.length;
+            size--;
+        }
+        message.retain();
+        messages[(head + size) % messages.length] = message;
+        size++;
+    }
+
+    /**
+     * Collects the messages published after a sequence number, retaining a reference for the caller. Messages already
+     * present in the target map, because they were also published to another collected topic, are skipped.
+     *
+     * @param after  the last sequence number delivered to the session.
+     * @param target the collected messages by sequence number.
+     * @return {@code false} if messages published after the sequence number have already been evicted.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized boolean collect(long after, Map<Long, EncodedMessage<T>> target) {
+        for (int i = 0; i < size; i++) {
+            EncodedMessage<T> message = (EncodedMessage<T>) messages[(head + i) % messages.length];
+
+            if (message.getSequence() > after && !target.containsKey(message.getSequence())) {
+                message.retain();
+                target.put(message.getSequence(), message);
+            }
+        }
+        return evicted <= after;
+    }
+
+    /**
+     * Releases all messages, once the topic is removed.
+     */
+    synchronized void release() {
+        released = true;
+
+        while (size > 0) {
+            messages[head].release();
+            messages[head] = null;
+            head = (head + 1) % messages.length;
+            size--;
+        }
+    }
+}
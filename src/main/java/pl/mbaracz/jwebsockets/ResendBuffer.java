@@ -0,0 +1,116 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Bounded ring buffer of the messages sent to a session in reliable delivery mode and not acknowledged yet, by their
+ * sequence number. Payloads are retained references to the encoded message shared with the other subscribers of the
+ * same publish, so buffering a message costs a reference and not a copy.
+ * <p>
+ * The buffer is confined to the event loop of the session.
+ */
+class ResendBuffer {
+
+    private final ByteBuf[] payloads;
+    private long nextSequence = 1;
+    private long firstSequence = 1;
+    private long acknowledged;
+    private long evicted;
+
+    /**
+     * Constructs a new resend buffer.
+     *
+     * @param capacity the maximum number of unacknowledged messages.
+     */
+    ResendBuffer(int capacity) {
+        this.payloads = new ByteBuf[capacity];
+    }
+
+    /**
+     * Assigns the next sequence number to a payload and buffers it until it is acknowledged. If the buffer is full,
+     * the oldest unacknowledged payload is evicted. The ownership of the payload is transferred to this method.
+     *
+     * @param payload the encoded message.
+     * @return the sequence number of the message.
+     */
+    long append(ByteBuf payload) {
+        if (nextSequence - firstSequence == payloads.length) {
+            payloads[index(firstSequence)].release();
+            payloads[index(firstSequence)] = null;
+            firstSequence++;
+            evicted++;
+        }
+
+        long sequence = nextSequence++;
+        payloads[index(sequence)] = payload;
+        return sequence;
+    }
+
+    /**
+     * Releases the payloads of all messages up to and including a sequence number.
+     *
+     * @param sequence the acknowledged sequence number.
+     */
+    void acknowledge(long sequence) {
+        long last = Math.min(sequence, nextSequence - 1);
+
+        if (last <= acknowledged) {
+            return;
+        }
+        acknowledged = last;
+
+        while (firstSequence <= last) {
+            payloads[index(firstSequence)].release();
+            payloads[index(firstSequence)] = null;
+            firstSequence++;
+        }
+    }
+
+    /**
+     * Returns the buffered payload of a message.
+     *
+     * @param sequence the sequence number.
+     * @return the payload owned by this buffer, or null if the message was acknowledged or evicted.
+     */
+    ByteBuf get(long sequence) {
+        if (sequence < firstSequence || sequence >= nextSequence) {
+            return null;
+        }
+        return payloads[index(sequence)];
+    }
+
+    long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    long getFirstSequence() {
+        return firstSequence;
+    }
+
+    long getAcknowledged() {
+        return acknowledged;
+    }
+
+    int size() {
+        return (int) (nextSequence - firstSequence);
+    }
+
+    long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Releases all buffered payloads.
+     */
+    void release() {
+        while (firstSequence < nextSequence) {
+            payloads[index(firstSequence)].release();
+            payloads[index(firstSequence)] = null;
+            firstSequence++;
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % payloads.length);
+    }
+}
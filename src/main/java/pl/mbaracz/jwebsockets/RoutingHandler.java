@@ -0,0 +1,63 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import pl.mbaracz.jwebsockets.routing.PathTrie;
+
+import java.util.Map;
+
+/**
+ * Routes upgrade requests to the handler of the server whose path matches the request path, then replaces itself
+ * with that handler, so that routing costs nothing once the connection is upgraded.
+ */
+@ChannelHandler.Sharable
+class RoutingHandler extends ChannelInboundHandlerAdapter {
+
+    /**
+     * Channel attribute holding the path parameters of the routed request until the server handler reads them.
+     */
+    static final AttributeKey<Map<String, String>> PATH_PARAMETERS = AttributeKey.valueOf("jwebsockets.pathParameters");
+
+    private final PathTrie<WebSocketServerHandler<?, ?>> routes;
+
+    /**
+     * Constructs a new routing handler.
+     *
+     * @param routes the server handlers by their path patterns.
+     */
+    RoutingHandler(PathTrie<WebSocketServerHandler<?, ?>> routes) {
+        this.routes = routes;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext context, Object message) {
+        if (!(message instanceof FullHttpRequest)) {
+            ReferenceCountUtil.release(message);
+            return;
+        }
+
+        FullHttpRequest request = (FullHttpRequest) message;
+        PathTrie.Match<WebSocketServerHandler<?, ?>> match = routes.match(new QueryStringDecoder(request.uri()).path());
+
+        if (match == null) {
+            request.release();
+            context.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND))
+                    .addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+
+        context.channel().attr(PATH_PARAMETERS).set(match.getParameters());
+        context.pipeline().addAfter(context.name(), null, match.getValue());
+        context.pipeline().remove(this);
+        context.fireChannelRead(request);
+    }
+}
@@ -0,0 +1,140 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.util.concurrent.EventExecutor;
+import pl.mbaracz.jwebsockets.index.SessionIndex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of secondary session indexes, maintained when sessions are opened, closed or their data changes,
+ * and used to send messages to the sessions matching a key without scanning all connected sessions.
+ *
+ * @param <T> the type of WebSocket messages.
+ * @param <D> the type of additional data associated with WebSocket sessions.
+ */
+class SessionIndexRegistry<T, D> {
+
+    private final Map<String, SessionIndex<D, WebSocketSession<T, D>>> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Registers an index and populates it with the already connected sessions.
+     *
+     * @param index    the index to register.
+     * @param sessions the connected sessions.
+     * @throws IllegalStateException if an index with the same name is already registered.
+     */
+    void register(SessionIndex<D, WebSocketSession<T, D>> index, Collection<WebSocketSession<T, D>> sessions) throws IllegalStateException {
+        if (indexes.putIfAbsent(index.getName(), index) != null) {
+            throw new IllegalStateException("Index '" + index.getName() + "' already exists!");
+        }
+        sessions.forEach(session -> index.add(session, session.getData()));
+    }
+
+    /**
+     * Unregisters an index.
+     *
+     * @param name the name of the index.
+     * @return true if the index was registered.
+     */
+    boolean unregister(String name) {
+        return indexes.remove(name) != null;
+    }
+
+    /**
+     * Adds a newly opened session to all indexes.
+     *
+     * @param session the session to add.
+     */
+    void add(WebSocketSession<T, D> session) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        D data = session.getData();
+        indexes.values().forEach(index -> index.add(session, data));
+    }
+
+    /**
+     * Removes a closed session from all indexes.
+     *
+     * @param session the session to remove.
+     */
+    void remove(WebSocketSession<T, D> session) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        indexes.values().forEach(index -> index.remove(session));
+    }
+
+    /**
+     * Moves a session to the keys extracted from its new data.
+     *
+     * @param session the session whose data changed.
+     * @param data    the new data.
+     */
+    void update(WebSocketSession<T, D> session, D data) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        indexes.values().forEach(index -> index.add(session, data));
+    }
+
+    /**
+     * Returns the sessions indexed under a key.
+     *
+     * @param name the name of the index.
+     * @param key  the key to look up.
+     * @return the matching sessions, never null.
+     * @throws IllegalArgumentException if the index does not exist.
+     */
+    List<WebSocketSession<T, D>> get(String name, Object key) throws IllegalArgumentException {
+        return getIndex(name).get(key);
+    }
+
+    /**
+     * Returns the sessions indexed under a primitive key.
+     *
+     * @param name the name of the index.
+     * @param key  the key to look up.
+     * @return the matching sessions, never null.
+     * @throws IllegalArgumentException if the index does not exist.
+     */
+    List<WebSocketSession<T, D>> get(String name, long key) throws IllegalArgumentException {
+        return getIndex(name).get(key);
+    }
+
+    /**
+     * Sends a message to sessions without blocking the caller, encoding it at most once per codec and submitting a
+     * single task per event loop.
+     *
+     * @param sessions the receiving sessions.
+     * @param message  the message to send.
+     * @return a future completed with the number of delivered and failed writes once all event loops are done.
+     */
+    CompletableFuture<BroadcastResult> send(List<WebSocketSession<T, D>> sessions, T message) {
+        if (sessions.size() == 1) {
+            return SubscriberSet.send(Collections.singletonList(sessions.get(0).executor()), executor -> sessions, message);
+        }
+
+        Map<EventExecutor, List<WebSocketSession<T, D>>> partitions = new HashMap<>();
+        for (WebSocketSession<T, D> session : sessions) {
+            partitions.computeIfAbsent(session.executor(), key -> new ArrayList<>()).add(session);
+        }
+        return SubscriberSet.send(partitions.keySet(), partitions::get, message);
+    }
+
+    private SessionIndex<D, WebSocketSession<T, D>> getIndex(String name) throws IllegalArgumentException {
+        SessionIndex<D, WebSocketSession<T, D>> index = indexes.get(name);
+
+        if (index == null) {
+            throw new IllegalArgumentException("Index '" + name + "' does not exist!");
+        }
+        return index;
+    }
+}
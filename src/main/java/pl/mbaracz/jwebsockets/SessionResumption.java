@@ -0,0 +1,156 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.util.Timeout;
+import pl.mbaracz.jwebsockets.message.MessageCodec;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parked state of closed sessions, by resume token. A parked session keeps its topics alive in the registry, so
+ * that their replay buffers hold the messages it misses, until it is resumed or its grace period expires on the
+ * shared timing wheel.
+ *
+ * @param <T> the type of WebSocket messages.
+ * @param <D> the type of additional data associated with WebSocket sessions.
+ */
+class SessionResumption<T, D> {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Map<String, ParkedSession<T, D>> parked = new ConcurrentHashMap<>();
+    private final TopicRegistry<T, D> topics;
+
+    /**
+     * Constructs a new store of parked sessions.
+     *
+     * @param topics the topic registry of the server.
+     */
+    SessionResumption(TopicRegistry<T, D> topics) {
+        this.topics = topics;
+    }
+
+    /**
+     * Generates a new resume token, unguessable and safe to pass in a query string.
+     *
+     * @return the token.
+     */
+    String newToken() {
+        byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Parks the state of a session whose channel was closed. Must be called from the event loop of the session,
+     * before it is released.
+     *
+     * @param session           the closed session, which has a resume token.
+     * @param gracePeriodMillis the time for which the session can be resumed.
+     */
+    void park(WebSocketSession<T, D> session, long gracePeriodMillis) {
+        ParkedSession<T, D> state = new ParkedSession<>(session.getResumeToken(), session.getData(), session.getCodec(),
+                topics.park(session), session.getDeliveredSequence(), session.detachReliableDelivery());
+
+        parked.put(state.token, state);
+        state.timeout = PendingRequests.TIMER.newTimeout(timeout -> expire(state), gracePeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Removes the parked session with the given token, so that it can be resumed only once.
+     *
+     * @param token the resume token presented by the client.
+     * @return the parked session, or null if the token is unknown or expired.
+     */
+    ParkedSession<T, D> take(String token) {
+        ParkedSession<T, D> state = parked.remove(token);
+
+        if (state != null && state.timeout != null) {
+            state.timeout.cancel();
+        }
+        return state;
+    }
+
+    /**
+     * Hands the parked state over to the session which resumed it, replaying the missed messages.
+     * Must be called from the event loop of the session, once it is open.
+     *
+     * @param session the resuming session.
+     * @param state   the parked session taken with {@link #take}.
+     */
+    void resume(WebSocketSession<T, D> session, ParkedSession<T, D> state) {
+        session.setResumeToken(state.token);
+
+        if (state.delivery != null) {
+            // Buffered payloads are encoded with the codec of the closed session
+            if (state.codec == session.getCodec()) {
+                session.resumeReliableDelivery(state.delivery);
+            } else {
+                state.delivery.release();
+            }
+        }
+        session.setResumed(topics.resume(session, state.topics, state.deliveredSequence));
+    }
+
+    /**
+     * Releases a parked session which was taken but will not be resumed.
+     *
+     * @param state the parked session, may be null.
+     */
+    void discard(ParkedSession<T, D> state) {
+        if (state == null) {
+            return;
+        }
+        topics.unpark(state.topics);
+
+        if (state.delivery != null) {
+            state.delivery.release();
+        }
+    }
+
+    /**
+     * Returns the number of sessions which can currently be resumed.
+     *
+     * @return the number of parked sessions.
+     */
+    int size() {
+        return parked.size();
+    }
+
+    private void expire(ParkedSession<T, D> state) {
+        if (parked.remove(state.token, state)) {
+            discard(state);
+        }
+    }
+
+    /**
+     * State of a closed session kept for resumption.
+     */
+    static final class ParkedSession<T, D> {
+        private final String token;
+        private final D data;
+        private final MessageCodec<T> codec;
+        private final List<String> topics;
+        private final long deliveredSequence;
+        private final ReliableDelivery<T> delivery;
+        private volatile Timeout timeout;
+
+        private ParkedSession(String token, D data, MessageCodec<T> codec, List<String> topics, long deliveredSequence,
+                              ReliableDelivery<T> delivery) {
+            this.token = token;
+            this.data = data;
+            this.codec = codec;
+            this.topics = topics;
+            this.deliveredSequence = deliveredSequence;
+            this.delivery = delivery;
+        }
+
+        D getData() {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Concurrent set of sessions partitioned by the event loop owning their channel, so that a fan-out can submit a
+ * single task per event loop which writes to all of its local channels. A partition is removed together with its last
+ * session, atomically with respect to additions to it, so that event loops without sessions receive no tasks.
+ *
+ * @param <T> the type of WebSocket messages.
+ * @param <D> the type of additional data associated with WebSocket sessions.
+ */
+class SubscriberSet<T, D> {
+
+    private final Map<EventExecutor, Set<WebSocketSession<T, D>>> partitions = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Adds a session to the partition of its event loop.
+     *
+     * @param session the session to add.
+     * @return true if the session was added, false if it was already present.
+     */
+    boolean add(WebSocketSession<T, D> session) {
+        boolean[] added = new boolean[1];
+
+        partitions.compute(session.executor(), (executor, partition) -> {
+            Set<WebSocketSession<T, D>> current = partition != null ? partition : ConcurrentHashMap.newKeySet();
+            added[0] = current.add(session);
+            return current;
+        });
+        if (!added[0]) {
+            return false;
+        }
+        size.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Removes a session from the partition of its event loop.
+     *
+     * @param session the session to remove.
+     * @return true if the session was removed, false if it was not present.
+     */
+    boolean remove(WebSocketSession<T, D> session) {
+        boolean[] removed = new boolean[1];
+
+        partitions.computeIfPresent(session.executor(), (executor, partition) -> {
+            removed[0] = partition.remove(session);
+            return partition.isEmpty() ? null : partition;
+        });
+        if (!removed[0]) {
+            return false;
+        }
+        size.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Checks if a session is present.
+     *
+     * @param session the session to check.
+     * @return true if the session is present.
+     */
+    boolean contains(WebSocketSession<T, D> session) {
+        Set<WebSocketSession<T, D>> partition = partitions.get(session.executor());
+        return partition != null && partition.contains(session);
+    }
+
+    boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the event loops owning at least one session.
+     *
+     * @return the set of event loops.
+     */
+    Set<EventExecutor> executors() {
+        return partitions.keySet();
+    }
+
+    /**
+     * Returns the sessions owned by an event loop.
+     *
+     * @param executor the event loop.
+     * @return the sessions of the event loop, never null.
+     */
+    Set<WebSocketSession<T, D>> partition(EventExecutor executor) {
+        Set<WebSocketSession<T, D>> partition = partitions.get(executor);
+        return partition != null ? partition : Collections.emptySet();
+    }
+
+    /**
+     * Performs an action for every session in all partitions.
+     *
+     * @param action the action to perform.
+     */
+    void forEach(Consumer<WebSocketSession<T, D>> action) {
+        partitions.values().forEach(partition -> partition.forEach(action));
+    }
+
+    /**
+     * Sends a message to all sessions without blocking the caller. The message is encoded at most once per codec and
+     * a single task is submitted to every event loop, which writes it to all of its sessions.
+     *
+     * @param message the message to send.
+     * @return a future completed with the number of delivered and failed writes once all event loops are done.
+     */
+    CompletableFuture<BroadcastResult> send(T message) {
+        return send(new HashSet<>(executors()), this::partition, message);
+    }
+
+    /**
+     * Sends a message to sessions grouped by event loop without blocking the caller. The message is encoded at most
+     * once per codec and a single task is submitted to every event loop, which writes it to all of its sessions.
+     *
+     * @param executors  the event loops owning the receiving sessions.
+     * @param partitions the function returning the receiving sessions of an event loop, called on that event loop.
+     * @param message    the message to send.
+     * @param <T>        the type of WebSocket messages.
+     * @param <D>        the type of additional data associated with WebSocket sessions.
+     * @return a future completed with the number of delivered and failed writes once all event loops are done.
+     */
+    static <T, D> CompletableFuture<BroadcastResult> send(Collection<EventExecutor> executors,
+                                                          Function<EventExecutor, ? extends Iterable<WebSocketSession<T, D>>> partitions,
+                                                          T message) {
+        CompletableFuture<BroadcastResult> result = new CompletableFuture<>();
+
+        if (executors.isEmpty()) {
+            result.complete(new BroadcastResult(0, 0));
+            return result;
+        }
+
+        EncodedMessage<T> encoded = new EncodedMessage<>(message);
+        AtomicInteger remaining = new AtomicInteger(executors.size());
+        LongAdder delivered = new LongAdder();
+        LongAdder failed = new LongAdder();
+
+        try {
+            for (EventExecutor executor : executors) {
+                encoded.retain();
+
+                TopicRegistry.execute(executor, () -> {
+                    try {
+                        for (WebSocketSession<T, D> session : partitions.apply(executor)) {
+                            if (session.sendPayload(encoded.payload(session.getCodec()).retainedDuplicate())) {
+                                delivered.increment();
+                            } else {
+                                failed.increment();
+                            }
+                        }
+                    } finally {
+                        encoded.release();
+
+                        if (remaining.decrementAndGet() == 0) {
+                            result.complete(new BroadcastResult(delivered.sum(), failed.sum()));
+                        }
+                    }
+                });
+            }
+        } finally {
+            encoded.release();
+        }
+        return result;
+    }
+}
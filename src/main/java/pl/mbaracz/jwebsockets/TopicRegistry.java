@@ -0,0 +1,1509 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.mbaracz.jwebsockets.cluster.ClusterBus;
+import pl.mbaracz.jwebsockets.configuration.WebSocketServerConfiguration;
+import pl.mbaracz.jwebsockets.message.MessageCodec;
+import pl.mbaracz.jwebsockets.topic.HotTopic;
+import pl.mbaracz.jwebsockets.topic.HotTopicSketch;
+import pl.mbaracz.jwebsockets.topic.RetainedMessageCache;
+import pl.mbaracz.jwebsockets.topic.TopicLog;
+import pl.mbaracz.jwebsockets.topic.TopicTrie;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Registry of pub/sub topics and their subscribers, maintaining statistics of every topic.
+ * Exact topics are kept in a hash map, while wildcard subscriptions are kept in a {@link TopicTrie}.
+ * <p>
+ * While session resumption is enabled, every published message is numbered and kept in the replay buffers of the
+ * topics it was published to. The numbers come from a single sequence shared by all topics, because a session keeps
+ * one delivered sequence number for all of its topics and a resumed session receives the messages it missed on all of
+ * them in the order of publishing. Resolving the subscribers, numbering a message and queueing it for the event loops
+ * is then serialized by one lock, so that sequence numbers, replay buffers and the order of deliveries of every
+ * session agree with each other. The queues of the event loops are lock-free, and waking the event loops up to drain
+ * them, as well as encoding, logging, retaining and forwarding messages, happen outside of the lock. Publishers on
+ * different cores still contend on the lock for every message; {@code ResumptionBenchmark} measures the cost of the
+ * serialization.
+ * <p>
+ * Messages of persisted topics are also appended to their {@link TopicLog}. Publishing to a persisted topic holds the
+ * lock of its log, so that a subscriber replaying the log receives every message exactly once.
+ * <p>
+ * Once the server joins a cluster, topics and topic patterns are announced to the {@link ClusterBus} when they get
+ * their first subscriber and when they are removed, and published messages are forwarded to the interested nodes.
+ *
+ * @param <T> the type of WebSocket messages.
+ * @param <D> the type of additional data associated with WebSocket sessions.
+ */
+class TopicRegistry<T, D> {
+
+    private static final Logger logger = LoggerFactory.getLogger(TopicRegistry.class);
+
+    /**
+     * Number of replayed messages written to a session between flushes.
+     */
+    private static final int REPLAY_FLUSH_INTERVAL = 1024;
+
+    /**
+     * Number of topics monitored by the hot topic sketch.
+     */
+    static final int HOT_TOPIC_CAPACITY = 100;
+
+    private final Map<String, Topic<T, D>> topics = new ConcurrentHashMap<>();
+    private final TopicTrie<Topic<T, D>> patterns = new TopicTrie<>();
+    private final Map<String, Conflation<T>> conflations = new ConcurrentHashMap<>();
+    private final HotTopicSketch hotTopics = new HotTopicSketch(HOT_TOPIC_CAPACITY);
+    /**
+     * Statistics of the topics holding weight deferred because the hot topic sketch was busy.
+     */
+    private final Set<TopicStatistics> deferredHotTopics = ConcurrentHashMap.newKeySet();
+    private final RetainedMessageCache<EncodedMessage<T>> retained;
+    private final WebSocketServerConfiguration<T> configuration;
+    private final Object sequenceLock = new Object();
+    private long sequence;
+    /**
+     * Deliveries of numbered messages waiting for every event loop, in the order of their sequence numbers.
+     */
+    private final Map<EventExecutor, SequencedDeliveries> sequenced = new ConcurrentHashMap<>();
+    /**
+     * Guards retaining messages and submitting them to the subscribers against subscribing to retained topics, so
+     * that a new subscriber receives every retained message once, either in its snapshot or after it.
+     */
+    private final Object retainedLock = new Object();
+    private final Map<String, TopicLog> logs = new ConcurrentHashMap<>();
+    private ScheduledExecutorService logFlusher;
+    private volatile ClusterBus bus;
+    private volatile RelayHub relays;
+
+    /**
+     * Constructs a new registry.
+     *
+     * @param configuration the configuration providing the message codecs.
+     */
+    TopicRegistry(WebSocketServerConfiguration<T> configuration) {
+        this.configuration = configuration;
+        this.retained = new RetainedMessageCache<>(configuration::getRetainedMessagesMemoryLimit, EncodedMessage::size);
+    }
+
+    /**
+     * Subscribes a session to a topic or a topic pattern, creating the topic if it does not exist.
+     *
+     * @param session the session to subscribe.
+     * @param topic   the name of the topic or the topic pattern.
+     */
+    void subscribe(WebSocketSession<T, D> session, String topic) {
+        subscribe(session, topic, true);
+    }
+
+    /**
+     * Subscribes a session to a topic or a topic pattern, creating the topic if it does not exist.
+     *
+     * @param session      the session to subscribe.
+     * @param topic        the name of the topic or the topic pattern.
+     * @param sendRetained true to send the retained messages of the topic to the session.
+     */
+    private void subscribe(WebSocketSession<T, D> session, String topic, boolean sendRetained) {
+        if (!sendRetained || (!TopicTrie.isPattern(topic) && !retained.isRetained(topic))) {
+            register(session, topic, false);
+            return;
+        }
+
+        synchronized (retainedLock) {
+            List<EncodedMessage<T>> snapshot = snapshotRetainedMessages(topic);
+            if (snapshot.isEmpty()) {
+                register(session, topic, false);
+                return;
+            }
+
+            Topic<T, D> subscribed = register(session, topic, true);
+            if (subscribed == null) {
+                snapshot.forEach(EncodedMessage::release);
+                return;
+            }
+            // Submitted while holding the lock, so the snapshot is written after the deliveries of older retained
+            // messages and before the deliveries of newer ones
+            submitInOrder(session.executor(), () -> writeRetainedMessages(session, subscribed, snapshot));
+        }
+    }
+
+    /**
+     * Adds a session to the subscribers of a topic or a topic pattern, creating the topic if it does not exist.
+     * Deliveries to a pending session are buffered in {@link Topic#pending} until its retained messages are written.
+     *
+     * @param session the session to subscribe.
+     * @param topic   the name of the topic or the topic pattern.
+     * @param pending true to add the session as pending.
+     * @return the topic if the session was subscribed, null if it already was.
+     */
+    private Topic<T, D> register(WebSocketSession<T, D> session, String topic, boolean pending) {
+        if (TopicTrie.isPattern(topic)) {
+            synchronized (patterns) {
+                Topic<T, D> existing = patterns.computeIfAbsent(topic, this::newTopic);
+                if (!existing.subscribe(session, pending)) {
+                    return null;
+                }
+                session.getTopics().add(topic);
+                return existing;
+            }
+        }
+
+        boolean[] added = new boolean[1];
+        Topic<T, D> subscribed = topics.compute(topic, (name, existing) -> {
+            Topic<T, D> result = existing != null ? existing : newTopic(name);
+            if (result.subscribe(session, pending)) {
+                session.getTopics().add(name);
+                added[0] = true;
+            }
+            return result;
+        });
+        return added[0] ? subscribed : null;
+    }
+
+    /**
+     * Checks if a session is subscribed to a topic.
+     *
+     * @param session the session to check.
+     * @param topic   the name of the topic.
+     * @return true if the session is subscribed, false otherwise.
+     */
+    boolean isSubscribed(WebSocketSession<T, D> session, String topic) {
+        Topic<T, D> existing = getTopic(topic);
+        return existing != null && existing.subscribers.contains(session);
+    }
+
+    /**
+     * Unsubscribes a session from a topic or a topic pattern, removing it if it has no subscribers left.
+     *
+     * @param session the session to unsubscribe.
+     * @param topic   the name of the topic or the topic pattern.
+     */
+    void unsubscribe(WebSocketSession<T, D> session, String topic) {
+        if (TopicTrie.isPattern(topic)) {
+            synchronized (patterns) {
+                Topic<T, D> existing = patterns.get(topic);
+                if (existing == null) {
+                    return;
+                }
+                if (existing.subscribers.remove(session)) {
+                    existing.statistics.recordUnsubscribe();
+                    session.getTopics().remove(topic);
+                }
+                removeIfUnused(topic, existing);
+            }
+            return;
+        }
+
+        topics.computeIfPresent(topic, (name, existing) -> {
+            if (existing.subscribers.remove(session)) {
+                existing.statistics.recordUnsubscribe();
+                session.getTopics().remove(name);
+            }
+            return retainIfUsed(existing);
+        });
+    }
+
+    /**
+     * Unsubscribes a session from all of its topics.
+     *
+     * @param session the session to unsubscribe.
+     */
+    void unsubscribeAll(WebSocketSession<T, D> session) {
+        for (String topic : session.getTopics()) {
+            unsubscribe(session, topic);
+        }
+    }
+
+    /**
+     * Removes all topics and subscriptions.
+     */
+    void clear() {
+        synchronized (patterns) {
+            for (String pattern : getPatterns()) {
+                Topic<T, D> existing = patterns.remove(pattern);
+                if (existing != null) {
+                    existing.subscribers.forEach(session -> session.getTopics().remove(pattern));
+                    discard(existing);
+                }
+            }
+        }
+        for (String name : topics.keySet()) {
+            topics.computeIfPresent(name, (key, existing) -> {
+                existing.subscribers.forEach(session -> session.getTopics().remove(key));
+                discard(existing);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Publishes a message to all subscribers of a topic and of the patterns matching it, encoding it at most once
+     * for every codec used by the subscribers.
+     * Sessions subscribed both to the topic and to a matching pattern receive the message once. A single task is
+     * submitted to every event loop owning at least one subscriber, or executed inline if called from that loop.
+     *
+     * @param topic   the name of the topic, it cannot contain wildcards.
+     * @param message the message to publish.
+     * @throws IllegalArgumentException if the topic contains wildcards.
+     */
+    void publish(String topic, T message) throws IllegalArgumentException {
+        if (TopicTrie.isPattern(topic)) {
+            throw new IllegalArgumentException("Cannot publish to topic pattern '" + topic + "'!");
+        }
+
+        EncodedMessage<T> encoded = new EncodedMessage<>(message);
+        try {
+            publishEncoded(topic, encoded, true);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    /**
+     * Publishes a message received from another node of the cluster to the local subscribers, without forwarding it.
+     * The payload is delivered without decoding to the subscribers using the default codec.
+     *
+     * @param topic   the name of the topic, it cannot contain wildcards.
+     * @param payload the message encoded with the default codec, retained if it is needed after the call.
+     * @throws IllegalArgumentException if the topic contains wildcards.
+     */
+    void publishRemote(String topic, ByteBuf payload) throws IllegalArgumentException {
+        if (TopicTrie.isPattern(topic)) {
+            throw new IllegalArgumentException("Cannot publish to topic pattern '" + topic + "'!");
+        }
+
+        EncodedMessage<T> encoded = new EncodedMessage<>(configuration.getDefaultCodec(), payload.retain());
+        try {
+            publishEncoded(topic, encoded, false);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private void publishEncoded(String topic, EncodedMessage<T> encoded, boolean forward) {
+        TopicLog log = logs.isEmpty() ? null : logs.get(topic);
+
+        if (log != null) {
+            synchronized (log) {
+                publishResolved(topic, encoded, log, forward);
+            }
+        } else {
+            publishResolved(topic, encoded, null, forward);
+        }
+    }
+
+    /**
+     * Resolves the subscribers of a concrete topic and publishes a message to them.
+     *
+     * @param topic   the concrete topic.
+     * @param encoded the message to publish, owned by the caller.
+     * @param log     the log of the topic, or null if it is not persisted.
+     * @param forward true to forward the message to the nodes of the cluster interested in the topic.
+     */
+    private void publishResolved(String topic, EncodedMessage<T> encoded, TopicLog log, boolean forward) {
+        boolean retain = retained.isRetained(topic);
+        ClusterBus cluster = forward ? bus : null;
+        boolean remote = cluster != null && cluster.hasInterest(topic);
+        RelayHub hub = relays;
+        boolean relayed = hub != null && hub.hasInterest(topic);
+
+        if (log != null) {
+            log.append(encoded.payload(configuration.getDefaultCodec()), System.currentTimeMillis());
+        }
+        if (retain) {
+            encoded.payload(configuration.getDefaultCodec());
+
+            synchronized (retainedLock) {
+                retained.add(topic, encoded);
+                fanOutSequenced(topic, encoded, true);
+            }
+        } else {
+            fanOutSequenced(topic, encoded, false);
+        }
+        if (remote) {
+            cluster.publish(topic, encoded.payload(configuration.getDefaultCodec()));
+        }
+        if (relayed) {
+            hub.publish(topic, encoded.payload(configuration.getDefaultCodec()));
+        }
+    }
+
+    /**
+     * Resolves the subscribers of a concrete topic and submits a message to them, holding the sequence lock while
+     * session resumption is enabled.
+     *
+     * @param topic   the concrete topic.
+     * @param encoded the message to publish, owned by the caller.
+     * @param retain  true if the topic is retained and the retained lock is held.
+     */
+    private void fanOutSequenced(String topic, EncodedMessage<T> encoded, boolean retain) {
+        if (configuration.isSessionResumption()) {
+            // Subscribers are resolved and the message numbered and submitted atomically, as resumed sessions expect
+            synchronized (sequenceLock) {
+                fanOut(topic, resolve(topic), encoded, retain);
+            }
+            scheduleSequenced();
+        } else {
+            fanOut(topic, resolve(topic), encoded, retain);
+        }
+    }
+
+    /**
+     * Numbers a message while session resumption is enabled, and submits it to the event loops of the subscribers of
+     * the given topics. Must be called while holding the sequence lock if session resumption is enabled.
+     *
+     * @param topic   the concrete topic.
+     * @param targets the topic and the patterns matching it.
+     * @param encoded the message to publish, owned by the caller.
+     * @param retain  true if the topic is retained and the retained lock is held.
+     */
+    private void fanOut(String topic, List<Topic<T, D>> targets, EncodedMessage<T> encoded, boolean retain) {
+        if (targets.isEmpty()) {
+            return;
+        }
+
+        Object conflationKey = getConflationKey(topic, encoded);
+
+        if (configuration.isSessionResumption()) {
+            record(targets, encoded);
+        }
+        for (Topic<T, D> target : targets) {
+            target.statistics.recordPublish();
+        }
+        for (EventExecutor executor : getExecutors(targets)) {
+            encoded.retain();
+            submit(executor, () -> deliver(executor, targets, encoded, conflationKey, retain));
+        }
+    }
+
+    /**
+     * Publishes many messages to many topics in one pass. Every message is encoded at most once per codec, the frames are grouped by
+     * the receiving session and each session is flushed only once. Messages of a single topic keep their order.
+     * A single task is submitted to every event loop owning at least one receiving session.
+     *
+     * @param messages the messages to publish, grouped by topic.
+     * @throws IllegalArgumentException if any of the topics contains wildcards.
+     */
+    void publishAll(Map<String, ? extends List<? extends T>> messages) throws IllegalArgumentException {
+        for (String topic : messages.keySet()) {
+            if (TopicTrie.isPattern(topic)) {
+                throw new IllegalArgumentException("Cannot publish to topic pattern '" + topic + "'!");
+            }
+        }
+
+        if (!logs.isEmpty()) {
+            messages = publishLogged(messages);
+        }
+
+        publishAllResolved(messages);
+    }
+
+    /**
+     * Publishes the messages of persisted topics one by one, under the lock of their log.
+     *
+     * @param messages the messages to publish, grouped by topic.
+     * @return the messages of the topics which are not persisted.
+     */
+    private Map<String, List<? extends T>> publishLogged(Map<String, ? extends List<? extends T>> messages) {
+        Map<String, List<? extends T>> remaining = new LinkedHashMap<>();
+
+        for (Map.Entry<String, ? extends List<? extends T>> entry : messages.entrySet()) {
+            if (!logs.containsKey(entry.getKey())) {
+                remaining.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            for (T message : entry.getValue()) {
+                publish(entry.getKey(), message);
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Publishes many messages to many concrete topics in one pass. The messages are encoded and forwarded first, so
+     * that only retaining them, resolving the subscribers, numbering the messages and submitting the batches is done
+     * under the retained and sequence locks.
+     *
+     * @param messages the messages to publish, grouped by topic.
+     */
+    private void publishAllResolved(Map<String, ? extends List<? extends T>> messages) {
+        Map<String, List<EncodedMessage<T>>> prepared = new LinkedHashMap<>();
+        Map<String, List<Object>> conflationKeys = new HashMap<>();
+        Map<String, List<EncodedMessage<T>>> messagesToRetain = new LinkedHashMap<>();
+        List<EncodedMessage<T>> messagesToRelease = new ArrayList<>();
+        ClusterBus cluster = bus;
+        RelayHub hub = relays;
+
+        try {
+            for (Map.Entry<String, ? extends List<? extends T>> entry : messages.entrySet()) {
+                boolean subscribed = !resolve(entry.getKey()).isEmpty();
+                boolean retain = retained.isRetained(entry.getKey());
+                boolean remote = cluster != null && cluster.hasInterest(entry.getKey());
+                boolean relayed = hub != null && hub.hasInterest(entry.getKey());
+
+                if ((!subscribed && !retain && !remote && !relayed) || entry.getValue().isEmpty()) {
+                    continue;
+                }
+
+                List<EncodedMessage<T>> encoded = new ArrayList<>(entry.getValue().size());
+                List<Object> keys = new ArrayList<>(entry.getValue().size());
+                for (T message : entry.getValue()) {
+                    EncodedMessage<T> encodedMessage = new EncodedMessage<>(message);
+                    messagesToRelease.add(encodedMessage);
+                    encoded.add(encodedMessage);
+                    keys.add(getConflationKey(entry.getKey(), encodedMessage));
+                    if (retain || remote || relayed || configuration.isSessionResumption()) {
+                        encodedMessage.payload(configuration.getDefaultCodec());
+                    }
+                    if (retain) {
+                        messagesToRetain.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).add(encodedMessage);
+                    }
+                    if (remote) {
+                        cluster.publish(entry.getKey(), encodedMessage.payload(configuration.getDefaultCodec()));
+                    }
+                    if (relayed) {
+                        hub.publish(entry.getKey(), encodedMessage.payload(configuration.getDefaultCodec()));
+                    }
+                }
+                prepared.put(entry.getKey(), encoded);
+                conflationKeys.put(entry.getKey(), keys);
+            }
+
+            if (messagesToRetain.isEmpty()) {
+                fanOutAllSequenced(prepared, conflationKeys);
+                return;
+            }
+            synchronized (retainedLock) {
+                messagesToRetain.forEach((topic, encoded) -> encoded.forEach(message -> retained.add(topic, message)));
+                fanOutAllSequenced(prepared, conflationKeys);
+            }
+        } finally {
+            messagesToRelease.forEach(EncodedMessage::release);
+        }
+    }
+
+    /**
+     * Submits encoded messages to the subscribers of their topics, holding the sequence lock while session
+     * resumption is enabled.
+     *
+     * @param messages       the encoded messages, grouped by topic.
+     * @param conflationKeys the conflation keys of the messages, grouped by topic.
+     */
+    private void fanOutAllSequenced(Map<String, List<EncodedMessage<T>>> messages, Map<String, List<Object>> conflationKeys) {
+        if (configuration.isSessionResumption()) {
+            synchronized (sequenceLock) {
+                fanOutAll(messages, conflationKeys);
+            }
+            scheduleSequenced();
+        } else {
+            fanOutAll(messages, conflationKeys);
+        }
+    }
+
+    /**
+     * Numbers encoded messages while session resumption is enabled, groups their frames by the receiving session and
+     * submits a single batch to every event loop. Must be called while holding the sequence lock if session
+     * resumption is enabled.
+     *
+     * @param messages       the encoded messages, grouped by topic.
+     * @param conflationKeys the conflation keys of the messages, grouped by topic.
+     */
+    private void fanOutAll(Map<String, List<EncodedMessage<T>>> messages, Map<String, List<Object>> conflationKeys) {
+        Map<EventExecutor, Map<WebSocketSession<T, D>, List<PendingWrite>>> batches = new HashMap<>();
+
+        for (Map.Entry<String, List<EncodedMessage<T>>> entry : messages.entrySet()) {
+            List<Topic<T, D>> targets = resolve(entry.getKey());
+            List<EncodedMessage<T>> encoded = entry.getValue();
+            List<Object> keys = conflationKeys.get(entry.getKey());
+
+            if (targets.isEmpty()) {
+                continue;
+            }
+            if (configuration.isSessionResumption()) {
+                encoded.forEach(encodedMessage -> record(targets, encodedMessage));
+            }
+
+            Set<WebSocketSession<T, D>> recipients = targets.size() > 1 ? new HashSet<>() : null;
+
+            for (Topic<T, D> target : targets) {
+                for (int i = 0; i < encoded.size(); i++) {
+                    target.statistics.recordPublish();
+                }
+                for (EventExecutor executor : target.subscribers.executors()) {
+                    for (WebSocketSession<T, D> session : target.subscribers.partition(executor)) {
+                        if (recipients != null && !recipients.add(session)) {
+                            continue;
+                        }
+                        List<PendingWrite> batch = batches
+                                .computeIfAbsent(executor, key -> new HashMap<>())
+                                .computeIfAbsent(session, key -> new ArrayList<>());
+                        // Checked again on the event loop, as the retained messages may be written by then
+                        Topic<T, D> pending = !target.pending.isEmpty() && target.pending.containsKey(session)
+                                ? target : null;
+                        for (int i = 0; i < encoded.size(); i++) {
+                            ByteBuf payload = encoded.get(i).payload(session.getCodec()).retainedDuplicate();
+                            batch.add(new PendingWrite(payload, target.statistics, keys.get(i),
+                                    encoded.get(i).getSequence(), pending));
+                        }
+                    }
+                }
+            }
+        }
+
+        batches.forEach((executor, batch) -> submit(executor, () -> deliverBatch(batch)));
+    }
+
+    /**
+     * Submits a delivery to an event loop. While session resumption is enabled, the delivery is only queued in the
+     * order of sequence numbers, and the event loop is woken up by {@link #scheduleSequenced()} once the sequence
+     * lock is released.
+     *
+     * @param executor the event loop.
+     * @param task     the delivery.
+     */
+    private void submit(EventExecutor executor, Runnable task) {
+        if (configuration.isSessionResumption()) {
+            sequenced.computeIfAbsent(executor, SequencedDeliveries::new).offer(task);
+        } else {
+            execute(executor, task);
+        }
+    }
+
+    /**
+     * Submits a task to an event loop behind the deliveries submitted to it so far, and ahead of the later ones.
+     *
+     * @param executor the event loop.
+     * @param task     the task to run.
+     */
+    private void submitInOrder(EventExecutor executor, Runnable task) {
+        if (configuration.isSessionResumption()) {
+            SequencedDeliveries deliveries = sequenced.computeIfAbsent(executor, SequencedDeliveries::new);
+            deliveries.offer(task);
+            deliveries.schedule();
+        } else {
+            execute(executor, task);
+        }
+    }
+
+    /**
+     * Schedules the draining of the queued deliveries on every event loop which is not draining them yet.
+     */
+    private void scheduleSequenced() {
+        for (SequencedDeliveries deliveries : sequenced.values()) {
+            deliveries.schedule();
+        }
+    }
+
+    /**
+     * Resolves the exact topic and all patterns matching a concrete topic.
+     *
+     * @param topic the concrete topic.
+     * @return the matching topics, never null.
+     */
+    private List<Topic<T, D>> resolve(String topic) {
+        Topic<T, D> exact = topics.get(topic);
+        List<Topic<T, D>> matches = patterns.match(topic);
+
+        if (exact == null) {
+            return matches;
+        }
+        if (matches.isEmpty()) {
+            return Collections.singletonList(exact);
+        }
+
+        List<Topic<T, D>> result = new ArrayList<>(matches.size() + 1);
+        result.add(exact);
+        result.addAll(matches);
+        return result;
+    }
+
+    /**
+     * Returns all event loops owning subscribers of the given topics.
+     *
+     * @param targets the topics.
+     * @return the set of event loops.
+     */
+    private Set<EventExecutor> getExecutors(List<Topic<T, D>> targets) {
+        if (targets.size() == 1) {
+            return targets.get(0).subscribers.executors();
+        }
+
+        Set<EventExecutor> executors = new HashSet<>();
+        for (Topic<T, D> target : targets) {
+            executors.addAll(target.subscribers.executors());
+        }
+        return executors;
+    }
+
+    /**
+     * Runs a task on an event loop, inline if the current thread is that event loop.
+     *
+     * @param executor the event loop.
+     * @param task     the task to run.
+     */
+    static void execute(EventExecutor executor, Runnable task) {
+        if (executor.inEventLoop()) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Delivers a message to all subscribers of the given topics owned by an event loop, updating the topic
+     * statistics. Must be called from that event loop. The ownership of the message is transferred to this method.
+     *
+     * @param executor      the event loop owning the receiving sessions.
+     * @param targets       the topics to deliver to.
+     * @param encoded       the message, encoded once for every codec of the subscribers.
+     * @param conflationKey the conflation key of the message, or null if the topic is not conflated.
+     * @param retain        true if the message was retained, so that it is part of the snapshot of every session
+     *                      still pending.
+     */
+    private void deliver(EventExecutor executor, List<Topic<T, D>> targets, EncodedMessage<T> encoded,
+                         Object conflationKey, boolean retain) {
+        Set<WebSocketSession<T, D>> recipients = targets.size() > 1 ? new HashSet<>() : null;
+        long sequence = encoded.getSequence();
+
+        try {
+            for (Topic<T, D> target : targets) {
+                TopicStatistics statistics = target.statistics;
+                long delivered = 0;
+
+                for (WebSocketSession<T, D> session : target.subscribers.partition(executor)) {
+                    List<PendingWrite> buffered = target.pending.isEmpty() ? null : target.pending.get(session);
+
+                    if (buffered != null && retain) {
+                        // Retained before the session subscribed, so the message is written with its snapshot
+                        continue;
+                    }
+                    if (recipients != null && !recipients.add(session)) {
+                        continue;
+                    }
+                    ByteBuf payload = encoded.payload(session.getCodec());
+
+                    if (buffered != null) {
+                        buffered.add(new PendingWrite(payload.retainedDuplicate(), statistics, conflationKey, sequence, null));
+                        continue;
+                    }
+                    if (sequence != 0) {
+                        session.setDeliveredSequence(sequence);
+                    }
+
+                    if (conflationKey != null && session.isConflating()) {
+                        session.conflate(conflationKey, payload.retainedDuplicate(), statistics);
+                        continue;
+                    }
+                    int bytes = payload.readableBytes();
+                    if (session.sendPayload(payload.retainedDuplicate())) {
+                        statistics.recordDelivery(bytes);
+                        delivered++;
+                    } else {
+                        statistics.recordDrop();
+                    }
+                }
+
+                recordHotTopicWeight(statistics, delivered);
+            }
+        } finally {
+            encoded.release();
+        }
+    }
+
+    /**
+     * Writes batches of encoded payloads to sessions owned by a single event loop, flushing every session once.
+     * Must be called from that event loop.
+     *
+     * @param batch the pending writes grouped by session, their payloads are owned by this method.
+     */
+    private void deliverBatch(Map<WebSocketSession<T, D>, List<PendingWrite>> batch) {
+        Map<TopicStatistics, long[]> delivered = new IdentityHashMap<>();
+
+        for (Map.Entry<WebSocketSession<T, D>, List<PendingWrite>> entry : batch.entrySet()) {
+            WebSocketSession<T, D> session = entry.getKey();
+
+            for (PendingWrite write : entry.getValue()) {
+                List<PendingWrite> buffered = write.pending != null ? write.pending.pending.get(session) : null;
+
+                if (buffered != null) {
+                    buffered.add(write);
+                } else if (write(session, write)) {
+                    delivered.computeIfAbsent(write.statistics, key -> new long[1])[0]++;
+                }
+            }
+            session.flush();
+        }
+
+        delivered.forEach((statistics, count) -> recordHotTopicWeight(statistics, count[0]));
+    }
+
+    /**
+     * Writes an encoded payload to a session without flushing it, or conflates it if the session is conflating.
+     * Must be called from the event loop of the session.
+     *
+     * @param session the receiving session.
+     * @param write   the pending write, its payload is owned by this method.
+     * @return true if the payload was written, false if it was conflated or dropped.
+     */
+    private boolean write(WebSocketSession<T, D> session, PendingWrite write) {
+        int bytes = write.payload.readableBytes();
+
+        if (write.sequence != 0) {
+            session.setDeliveredSequence(write.sequence);
+        }
+        if (write.conflationKey != null && session.isConflating()) {
+            session.conflate(write.conflationKey, write.payload, write.statistics);
+            return false;
+        }
+        if (!session.writePayload(write.payload)) {
+            write.statistics.recordDrop();
+            return false;
+        }
+        write.statistics.recordDelivery(bytes);
+        return true;
+    }
+
+    /**
+     * Connects the registry to a cluster bus, announcing the topics and topic patterns which already have subscribers.
+     *
+     * @param cluster the cluster bus, not started yet.
+     * @throws IllegalStateException if the registry is already connected to a cluster bus.
+     */
+    synchronized void joinCluster(ClusterBus cluster) throws IllegalStateException {
+        if (bus != null) {
+            throw new IllegalStateException("Server has already joined a cluster!");
+        }
+        bus = cluster;
+
+        // Announced under the locks which topics are created and removed under, so that a topic removed meanwhile is
+        // not announced after its withdrawal. A topic created meanwhile may be announced twice, which the bus ignores.
+        for (String topic : new ArrayList<>(topics.keySet())) {
+            topics.computeIfPresent(topic, (name, existing) -> {
+                cluster.addInterest(name);
+                return existing;
+            });
+        }
+        synchronized (patterns) {
+            for (String pattern : getPatterns()) {
+                cluster.addInterest(pattern);
+            }
+        }
+    }
+
+    /**
+     * Relays the messages published to this registry, including the ones received from the cluster, to the edge
+     * servers interested in their topics.
+     *
+     * @param hub the hub of the connected edges.
+     */
+    void setRelayHub(RelayHub hub) {
+        relays = hub;
+    }
+
+    /**
+     * Disconnects the registry from its cluster bus and closes the bus.
+     */
+    synchronized void leaveCluster() {
+        ClusterBus cluster = bus;
+
+        if (cluster != null) {
+            bus = null;
+            cluster.close();
+        }
+    }
+
+    /**
+     * Persists the messages of a topic in a log, opening the existing log of the topic if there is one.
+     *
+     * @param topic the concrete topic.
+     * @throws IllegalArgumentException if the topic contains wildcards.
+     * @throws IllegalStateException    if the topic log directory is not configured.
+     * @throws UncheckedIOException     if the log cannot be opened.
+     */
+    void persist(String topic) throws IllegalArgumentException, IllegalStateException, UncheckedIOException {
+        if (TopicTrie.isPattern(topic)) {
+            throw new IllegalArgumentException("Cannot persist topic pattern '" + topic + "'!");
+        }
+
+        Path directory = configuration.getTopicLogDirectory();
+
+        if (directory == null) {
+            throw new IllegalStateException("Topic log directory is not configured!");
+        }
+
+        ScheduledExecutorService maintenance = startLogFlusher();
+        logs.computeIfAbsent(topic, name -> {
+            try {
+                return new TopicLog(directory.resolve(getLogDirectoryName(name)), configuration.getTopicLogSegmentSize(),
+                        configuration.getTopicLogRetentionBytes(), configuration.getTopicLogRetentionMillis(), maintenance);
+            } catch (IOException exception) {
+                throw new UncheckedIOException("Failed to open the log of topic '" + name + "'", exception);
+            }
+        });
+    }
+
+    /**
+     * Stops persisting a topic and closes its log, which is kept on the disk.
+     *
+     * @param topic the concrete topic.
+     */
+    void closeLog(String topic) {
+        TopicLog log = logs.remove(topic);
+
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    /**
+     * Closes the logs of all persisted topics.
+     */
+    void closeLogs() {
+        for (String topic : logs.keySet()) {
+            closeLog(topic);
+        }
+
+        synchronized (logs) {
+            if (logFlusher != null) {
+                logFlusher.shutdown();
+                logFlusher = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last message persisted in the log of a topic.
+     *
+     * @param topic the concrete topic.
+     * @return the sequence number, or 0 if the log is empty.
+     * @throws IllegalArgumentException if the topic is not persisted.
+     */
+    long getLogSequence(String topic) throws IllegalArgumentException {
+        return requireLog(topic).getLastSequence();
+    }
+
+    /**
+     * Subscribes a session to a persisted topic and replays its log to the session from a sequence number.
+     * The messages published after the log was read are delivered after the replayed ones, none is delivered twice.
+     *
+     * @param session      the session to subscribe.
+     * @param topic        the persisted topic.
+     * @param fromSequence the sequence number of the first replayed message.
+     * @throws IllegalArgumentException if the topic is not persisted.
+     */
+    void subscribe(WebSocketSession<T, D> session, String topic, long fromSequence) throws IllegalArgumentException {
+        TopicLog log = requireLog(topic);
+
+        synchronized (log) {
+            subscribe(session, topic, false);
+
+            long toSequence = log.getLastSequence();
+            // Submitted while holding the lock, so the replay runs before the deliveries of newer messages
+            submitInOrder(session.executor(), () -> replay(session, log, fromSequence, toSequence));
+        }
+    }
+
+    /**
+     * Writes the messages of a log to a session, transcoding them if the session does not use the default codec.
+     * Must be called from the event loop of the session.
+     */
+    private void replay(WebSocketSession<T, D> session, TopicLog log, long fromSequence, long toSequence) {
+        MessageCodec<T> codec = configuration.getDefaultCodec();
+        int[] written = new int[1];
+
+        log.read(fromSequence, toSequence, (sequence, timestamp, payload) -> {
+            if (session.getCodec() == codec) {
+                session.writePayload(payload);
+            } else {
+                T message = codec.getDecoder().decode(ByteBufUtil.getBytes(payload));
+                payload.release();
+                session.writePayload(Unpooled.wrappedBuffer(session.getCodec().getEncoder().encode(message)));
+            }
+            if (++written[0] % REPLAY_FLUSH_INTERVAL == 0) {
+                session.flush();
+            }
+        });
+        session.flush();
+    }
+
+    private TopicLog requireLog(String topic) throws IllegalArgumentException {
+        TopicLog log = logs.get(topic);
+
+        if (log == null) {
+            throw new IllegalArgumentException("Topic '" + topic + "' is not persisted!");
+        }
+        return log;
+    }
+
+    /**
+     * Starts the thread flushing the logs, which also prepares their next segments and deletes the expired ones.
+     *
+     * @return the executor of the thread.
+     */
+    private ScheduledExecutorService startLogFlusher() {
+        synchronized (logs) {
+            if (logFlusher != null) {
+                return logFlusher;
+            }
+            long interval = configuration.getTopicLogFlushIntervalMillis();
+            logFlusher = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("jwebsockets-topic-log", true));
+            logFlusher.scheduleWithFixedDelay(this::flushLogs, interval, interval, TimeUnit.MILLISECONDS);
+            return logFlusher;
+        }
+    }
+
+    private void flushLogs() {
+        for (Map.Entry<String, TopicLog> entry : logs.entrySet()) {
+            try {
+                entry.getValue().flush();
+            } catch (RuntimeException exception) {
+                logger.error("Failed to flush the log of topic '" + entry.getKey() + "'", exception);
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the directory of a topic log, escaping characters which are not safe in file names.
+     */
+    private static String getLogDirectoryName(String topic) {
+        try {
+            return URLEncoder.encode(topic, "UTF-8").replace(".", "%2E").replace("*", "%2A");
+        } catch (UnsupportedEncodingException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * Unsubscribes a closed session from all of its topics and topic patterns, keeping them and their replay buffers
+     * until the parked session is resumed or expires.
+     *
+     * @param session the closed session.
+     * @return the topics and topic patterns the session was subscribed to.
+     */
+    List<String> park(WebSocketSession<T, D> session) {
+        List<String> parked = new ArrayList<>(session.getTopics());
+
+        for (String topic : parked) {
+            if (TopicTrie.isPattern(topic)) {
+                synchronized (patterns) {
+                    Topic<T, D> existing = patterns.get(topic);
+                    if (existing != null) {
+                        park(session, existing);
+                    }
+                }
+            } else {
+                topics.computeIfPresent(topic, (name, existing) -> {
+                    park(session, existing);
+                    return existing;
+                });
+            }
+            session.getTopics().remove(topic);
+        }
+        return parked;
+    }
+
+    private void park(WebSocketSession<T, D> session, Topic<T, D> topic) {
+        if (topic.subscribers.remove(session)) {
+            topic.statistics.recordUnsubscribe();
+        }
+        topic.parked++;
+    }
+
+    /**
+     * Releases the topics kept for a parked session, removing those which are no longer used.
+     *
+     * @param parked the topics and topic patterns returned by {@link #park}.
+     */
+    void unpark(List<String> parked) {
+        for (String topic : parked) {
+            if (TopicTrie.isPattern(topic)) {
+                synchronized (patterns) {
+                    Topic<T, D> existing = patterns.get(topic);
+                    if (existing != null && existing.parked > 0) {
+                        existing.parked--;
+                        removeIfUnused(topic, existing);
+                    }
+                }
+            } else {
+                topics.computeIfPresent(topic, (name, existing) -> {
+                    if (existing.parked > 0) {
+                        existing.parked--;
+                    }
+                    return retainIfUsed(existing);
+                });
+            }
+        }
+    }
+
+    /**
+     * Subscribes a resumed session to the topics of its parked predecessor and sends it the messages published to
+     * them after the last one delivered to the predecessor, in the order of publishing. Retained messages are not
+     * sent again. Must be called from the event loop of the session.
+     *
+     * @param session the resumed session.
+     * @param parked  the topics and topic patterns returned by {@link #park}.
+     * @param after   the sequence number of the last message delivered to the parked session.
+     * @return {@code false} if some of the missed messages had already been evicted from the replay buffers.
+     */
+    boolean resume(WebSocketSession<T, D> session, List<String> parked, long after) {
+        Map<Long, EncodedMessage<T>> missed = new TreeMap<>();
+        boolean complete = true;
+
+        synchronized (sequenceLock) {
+            for (String topic : parked) {
+                subscribe(session, topic, false);
+
+                Topic<T, D> existing = getTopic(topic);
+                if (existing != null && existing.replay != null) {
+                    complete &= existing.replay.collect(after, missed);
+                }
+            }
+            unpark(parked);
+        }
+
+        for (EncodedMessage<T> encoded : missed.values()) {
+            session.setDeliveredSequence(encoded.getSequence());
+            session.writePayload(encoded.payload(session.getCodec()).retainedDuplicate());
+            encoded.release();
+        }
+        session.flush();
+        return complete;
+    }
+
+    /**
+     * Numbers a message and appends it to the replay buffers of the topics it is published to.
+     * Must be called while holding the sequence lock.
+     *
+     * @param targets the topics.
+     * @param encoded the message.
+     */
+    private void record(List<Topic<T, D>> targets, EncodedMessage<T> encoded) {
+        encoded.setSequence(++sequence);
+
+        for (Topic<T, D> target : targets) {
+            if (target.replay != null) {
+                target.replay.add(encoded);
+            }
+        }
+    }
+
+    private Topic<T, D> newTopic(String name) {
+        ClusterBus cluster = bus;
+
+        if (cluster != null) {
+            cluster.addInterest(name);
+        }
+        return new Topic<>(name, configuration.isSessionResumption() ? configuration.getReplayBufferCapacity() : 0);
+    }
+
+    /**
+     * Releases a removed topic and withdraws the interest of this node in it.
+     */
+    private void discard(Topic<T, D> existing) {
+        ClusterBus cluster = bus;
+
+        if (cluster != null) {
+            cluster.removeInterest(existing.statistics.getTopic());
+        }
+        existing.release();
+    }
+
+    /**
+     * Removes a topic pattern which is no longer used. Must be called while holding the lock of the patterns.
+     */
+    private void removeIfUnused(String pattern, Topic<T, D> existing) {
+        if (existing.isUnused()) {
+            patterns.remove(pattern);
+            discard(existing);
+        }
+    }
+
+    /**
+     * Returns the topic to keep in the map, or null if it is no longer used.
+     */
+    private Topic<T, D> retainIfUsed(Topic<T, D> existing) {
+        if (existing.isUnused()) {
+            discard(existing);
+            return null;
+        }
+        return existing;
+    }
+
+    /**
+     * Makes a topic conflated, so that subscribers which are not writable keep only the newest message per key.
+     *
+     * @param topic        the concrete topic to conflate.
+     * @param keyExtractor the function extracting the conflation key from a message, or null to conflate the whole topic.
+     */
+    void conflate(String topic, Function<? super T, ?> keyExtractor) {
+        conflations.put(topic, new Conflation<>(keyExtractor));
+    }
+
+    /**
+     * Restores the default mode of a conflated topic.
+     *
+     * @param topic the concrete topic.
+     */
+    void removeConflation(String topic) {
+        conflations.remove(topic);
+    }
+
+    /**
+     * Checks if a topic is conflated.
+     *
+     * @param topic the concrete topic.
+     * @return true if the topic is conflated.
+     */
+    boolean isConflated(String topic) {
+        return conflations.containsKey(topic);
+    }
+
+    /**
+     * Enables retention of the last messages of a topic, delivered to every new subscriber.
+     *
+     * @param topic    the concrete topic.
+     * @param capacity the number of retained messages.
+     * @throws IllegalArgumentException if the topic contains wildcards or the capacity is not positive.
+     */
+    void retain(String topic, int capacity) throws IllegalArgumentException {
+        if (TopicTrie.isPattern(topic)) {
+            throw new IllegalArgumentException("Cannot retain messages of topic pattern '" + topic + "'!");
+        }
+        retained.setCapacity(topic, capacity);
+    }
+
+    /**
+     * Disables retention of a topic, releasing its retained messages.
+     *
+     * @param topic the concrete topic.
+     */
+    void removeRetention(String topic) {
+        retained.remove(topic);
+    }
+
+    /**
+     * Returns the total size of retained messages.
+     *
+     * @return the memory usage in bytes.
+     */
+    long getRetainedMemoryUsage() {
+        return retained.getMemoryUsage();
+    }
+
+    /**
+     * Returns the retained messages of a topic, or of all retained topics matching a pattern, each retained for the
+     * caller.
+     *
+     * @param topic the subscribed topic or topic pattern.
+     * @return the retained messages, oldest first per topic.
+     */
+    private List<EncodedMessage<T>> snapshotRetainedMessages(String topic) {
+        if (!TopicTrie.isPattern(topic)) {
+            return retained.snapshot(topic);
+        }
+
+        List<EncodedMessage<T>> snapshot = new ArrayList<>();
+        for (String retainedTopic : retained.getTopics()) {
+            if (TopicTrie.matches(topic, retainedTopic)) {
+                snapshot.addAll(retained.snapshot(retainedTopic));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Writes retained messages to a new subscriber and releases them, followed by the messages buffered for the
+     * subscriber while it was pending. Must be called from the event loop of the session.
+     *
+     * @param session    the new subscriber.
+     * @param subscribed the topic or topic pattern the session is pending on.
+     * @param snapshot   the retained messages returned by {@link #snapshotRetainedMessages}.
+     */
+    private void writeRetainedMessages(WebSocketSession<T, D> session, Topic<T, D> subscribed,
+                                       List<EncodedMessage<T>> snapshot) {
+        List<PendingWrite> buffered = subscribed.pending.remove(session);
+        Map<TopicStatistics, long[]> delivered = new IdentityHashMap<>();
+
+        for (EncodedMessage<T> encoded : snapshot) {
+            session.writePayload(encoded.payload(session.getCodec()).retainedDuplicate());
+            encoded.release();
+        }
+        for (PendingWrite write : buffered) {
+            if (write(session, write)) {
+                delivered.computeIfAbsent(write.statistics, key -> new long[1])[0]++;
+            }
+        }
+        session.flush();
+
+        delivered.forEach((statistics, count) -> recordHotTopicWeight(statistics, count[0]));
+    }
+
+    /**
+     * Returns the conflation key of a message published to a topic.
+     *
+     * @param topic   the concrete topic.
+     * @param encoded the published message, decoded only if the topic is conflated by a key.
+     * @return the conflation key, or null if the topic is not conflated.
+     */
+    private Object getConflationKey(String topic, EncodedMessage<T> encoded) {
+        if (conflations.isEmpty()) {
+            return null;
+        }
+
+        Conflation<T> conflation = conflations.get(topic);
+
+        if (conflation == null) {
+            return null;
+        }
+        if (conflation.keyExtractor == null) {
+            return topic;
+        }
+        return Arrays.asList(topic, conflation.keyExtractor.apply(encoded.getMessage()));
+    }
+
+    /**
+     * Retrieves the names of all topics and topic patterns having at least one subscriber.
+     *
+     * @return an unmodifiable set of the topic names.
+     */
+    Set<String> getTopics() {
+        if (patterns.isEmpty()) {
+            return Collections.unmodifiableSet(topics.keySet());
+        }
+        Set<String> result = new HashSet<>(topics.keySet());
+        result.addAll(getPatterns());
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Retrieves statistics of a topic or a topic pattern.
+     *
+     * @param topic the name of the topic or the topic pattern.
+     * @return the statistics, or null if the topic does not exist.
+     */
+    TopicStatistics getStatistics(String topic) {
+        Topic<T, D> existing = getTopic(topic);
+        return existing != null ? existing.statistics : null;
+    }
+
+    /**
+     * Retrieves the topics with the highest number of delivered messages.
+     *
+     * @param limit the maximum number of returned topics.
+     * @return the hottest topics ordered descending.
+     */
+    List<HotTopic> getHotTopics(int limit) {
+        recordDeferredHotTopicWeights(true);
+        return hotTopics.top(limit);
+    }
+
+    private Topic<T, D> getTopic(String topic) {
+        return TopicTrie.isPattern(topic) ? patterns.get(topic) : topics.get(topic);
+    }
+
+    private Set<String> getPatterns() {
+        Set<String> result = new HashSet<>();
+        for (Topic<T, D> pattern : patterns.values()) {
+            result.add(pattern.statistics.getTopic());
+        }
+        return result;
+    }
+
+    /**
+     * Records the delivered messages in the hot topic sketch, deferring the weight if the sketch is busy. Once the
+     * sketch is acquired, the weight deferred by other topics is recorded as well, so that it is not held back until
+     * those topics are published again.
+     *
+     * @param statistics the statistics of the published topic.
+     * @param delivered  the number of delivered messages.
+     */
+    private void recordHotTopicWeight(TopicStatistics statistics, long delivered) {
+        long weight = delivered + statistics.takeDeferredHotTopicWeight();
+
+        if (weight == 0) {
+            return;
+        }
+        if (!hotTopics.tryOffer(statistics.getTopic(), weight)) {
+            // Deferred before the topic is added, so that whoever removes it also takes the weight
+            statistics.deferHotTopicWeight(weight);
+            deferredHotTopics.add(statistics);
+            return;
+        }
+        if (!deferredHotTopics.isEmpty()) {
+            recordDeferredHotTopicWeights(false);
+        }
+    }
+
+    /**
+     * Records the weight deferred by all topics in the hot topic sketch.
+     *
+     * @param wait true to wait for the sketch if it is busy, false to defer the remaining weight again.
+     */
+    private void recordDeferredHotTopicWeights(boolean wait) {
+        for (TopicStatistics statistics : deferredHotTopics) {
+            deferredHotTopics.remove(statistics);
+            long weight = statistics.takeDeferredHotTopicWeight();
+
+            if (weight == 0) {
+                continue;
+            }
+            if (wait) {
+                hotTopics.offer(statistics.getTopic(), weight);
+            } else if (!hotTopics.tryOffer(statistics.getTopic(), weight)) {
+                statistics.deferHotTopicWeight(weight);
+                deferredHotTopics.add(statistics);
+                return;
+            }
+        }
+    }
+
+    /**
+     * An encoded message waiting to be written to a session, together with the statistics of its topic.
+     */
+    /**
+     * Lock-free queue of the deliveries of numbered messages to the sessions of an event loop, drained by a single
+     * task on that event loop, so that the deliveries run in the order they were queued in.
+     */
+    private static class SequencedDeliveries implements Runnable {
+
+        private final EventExecutor executor;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private SequencedDeliveries(EventExecutor executor) {
+            this.executor = executor;
+        }
+
+        void offer(Runnable task) {
+            tasks.offer(task);
+        }
+
+        /**
+         * Submits the drain task, unless the queue is empty or the task is already submitted.
+         */
+        void schedule() {
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                execute(executor, this);
+            }
+        }
+
+        @Override
+        public void run() {
+            // Cleared first, so that a delivery queued while draining submits the task again rather than being left
+            scheduled.set(false);
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to deliver a message", e);
+                }
+            }
+        }
+    }
+
+    private static class PendingWrite {
+        private final ByteBuf payload;
+        private final TopicStatistics statistics;
+        private final Object conflationKey;
+        private final long sequence;
+        /**
+         * The topic the session was pending on when the write was prepared, or null if it was not.
+         */
+        private final Topic<?, ?> pending;
+
+        private PendingWrite(ByteBuf payload, TopicStatistics statistics, Object conflationKey, long sequence,
+                             Topic<?, ?> pending) {
+            this.payload = payload;
+            this.statistics = statistics;
+            this.conflationKey = conflationKey;
+            this.sequence = sequence;
+            this.pending = pending;
+        }
+    }
+
+    /**
+     * Conflation settings of a topic.
+     */
+    private static class Conflation<T> {
+        private final Function<? super T, ?> keyExtractor;
+
+        private Conflation(Function<? super T, ?> keyExtractor) {
+            this.keyExtractor = keyExtractor;
+        }
+    }
+
+    /**
+     * A single topic holding its subscribers and statistics, and the replay buffer if session resumption is enabled.
+     * A topic is kept while it has subscribers or parked sessions.
+     */
+    private static class Topic<T, D> {
+        private final SubscriberSet<T, D> subscribers = new SubscriberSet<>();
+        /**
+         * Subscribers waiting for their retained messages, with the messages buffered for them in the meantime.
+         * Only the event loop of a subscriber adds to its buffer, and only after the subscriber became pending.
+         */
+        private final Map<WebSocketSession<T, D>, List<PendingWrite>> pending = new ConcurrentHashMap<>();
+        private final TopicStatistics statistics;
+        private final ReplayBuffer<T> replay;
+        private int parked;
+
+        private Topic(String name, int replayCapacity) {
+            this.statistics = new TopicStatistics(name);
+            this.replay = replayCapacity > 0 ? new ReplayBuffer<>(replayCapacity) : null;
+        }
+
+        private boolean isUnused() {
+            return subscribers.isEmpty() && parked == 0;
+        }
+
+        private boolean subscribe(WebSocketSession<T, D> session, boolean pending) {
+            // Added first, so that no delivery sees the session before it is pending
+            boolean added = pending && this.pending.putIfAbsent(session, new ArrayList<>()) == null;
+
+            if (!subscribers.add(session)) {
+                if (added) {
+                    this.pending.remove(session);
+                }
+                return false;
+            }
+            statistics.recordSubscribe();
+            return true;
+        }
+
+        private void release() {
+            if (replay != null) {
+                replay.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package pl.mbaracz.jwebsockets;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live statistics of a single pub/sub topic.
+ * All counters are updated without locking, so they can be safely recorded on the publish path. The counters are only
+ * updated by the server, users read them through {@link WebSocketServer#getTopicStatistics(String)}.
+ */
+public class TopicStatistics {
+
+    /**
+     * Interval after which the publish rate is recalculated.
+     */
+    private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * Smoothing factor of the one-minute exponentially weighted moving average, ticked every 5 seconds.
+     */
+    private static final double ALPHA = 1 - Math.exp(-5 / 60.0);
+
+    private final String topic;
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final LongAdder publishedMessages = new LongAdder();
+    private final LongAdder deliveredMessages = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder uncounted = new LongAdder();
+    private final AtomicLong pendingHotTopicWeight = new AtomicLong();
+    private final AtomicLong lastTick = new AtomicLong(System.nanoTime());
+    private volatile boolean rateInitialized;
+    private volatile double rate;
+
+    /**
+     * Constructs statistics for the given topic.
+     *
+     * @param topic The name of the topic.
+     */
+    TopicStatistics(String topic) {
+        this.topic = topic;
+    }
+
+    /**
+     * Records a single publish of a message to this topic.
+     */
+    void recordPublish() {
+        tickIfNecessary();
+        uncounted.increment();
+        publishedMessages.increment();
+    }
+
+    /**
+     * Records a message successfully written to a subscriber.
+     *
+     * @param bytes The size of the written payload in bytes.
+     */
+    void recordDelivery(int bytes) {
+        deliveredMessages.increment();
+        bytesSent.add(bytes);
+    }
+
+    /**
+     * Records a message which could not be written to a subscriber.
+     */
+    void recordDrop() {
+        droppedMessages.increment();
+    }
+
+    /**
+     * Records a subscriber joining the topic.
+     */
+    void recordSubscribe() {
+        subscribers.incrementAndGet();
+    }
+
+    /**
+     * Records a subscriber leaving the topic.
+     */
+    void recordUnsubscribe() {
+        subscribers.decrementAndGet();
+    }
+
+    /**
+     * Adds hot topic weight which could not be recorded immediately because the sketch was busy.
+     *
+     * @param weight The weight to defer.
+     */
+    void deferHotTopicWeight(long weight) {
+        pendingHotTopicWeight.addAndGet(weight);
+    }
+
+    /**
+     * Takes all deferred hot topic weight, atomically resetting it to zero, so that weight deferred concurrently is
+     * never lost.
+     *
+     * @return The deferred weight.
+     */
+    long takeDeferredHotTopicWeight() {
+        return pendingHotTopicWeight.getAndSet(0);
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.get();
+    }
+
+    public long getPublishedMessages() {
+        return publishedMessages.sum();
+    }
+
+    public long getDeliveredMessages() {
+        return deliveredMessages.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    /**
+     * Returns the one-minute exponentially weighted moving average of published messages.
+     *
+     * @return The publish rate in messages per second.
+     */
+    public double getPublishRate() {
+        tickIfNecessary();
+        return rate * TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Updates the moving average for every tick interval elapsed since the last update.
+     */
+    private void tickIfNecessary() {
+        long oldTick = lastTick.get();
+        long newTick = System.nanoTime();
+        long age = newTick - oldTick;
+
+        if (age <= TICK_INTERVAL) {
+            return;
+        }
+
+        long newIntervalStartTick = newTick - age % TICK_INTERVAL;
+
+        if (!lastTick.compareAndSet(oldTick, newIntervalStartTick)) {
+            return;
+        }
+
+        long requiredTicks = age / TICK_INTERVAL;
+        for (long i = 0; i < requiredTicks; i++) {
+            tick();
+        }
+    }
+
+    private void tick() {
+        double instantRate = (double) uncounted.sumThenReset() / TICK_INTERVAL;
+
+        if (rateInitialized) {
+            rate += ALPHA * (instantRate - rate);
+        } else {
+            rate = instantRate;
+            rateInitialized = true;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.*;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.mbaracz.jwebsockets.configuration.WebSocketClientConfiguration;
+import pl.mbaracz.jwebsockets.configuration.WebSocketClientConfigurer;
+import pl.mbaracz.jwebsockets.handler.CloseHandler;
+import pl.mbaracz.jwebsockets.handler.MessageHandler;
+import pl.mbaracz.jwebsockets.handler.OpenHandler;
+import pl.mbaracz.jwebsockets.message.MessageCodec;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WebSocketClient connects to WebSocket servers and represents every connection as a {@link WebSocketSession}, so
+ * that the codecs, handlers, requests and fan-out of the server are shared by both sides of a link.
+ * <p>
+ * The client is configured with the message encoder and decoder, the subprotocols requested in the order of
+ * preference, the client SSL context, the correlation of requests and the maximum handshake response size.
+ * Connections are established asynchronously, either one by one or through a pool of connections per
+ * server, and messages sent to many sessions are encoded at most once per codec and written with one task per event
+ * loop.
+ *
+ * @param <T> Type of messages to be handled by the client
+ * @param <D> Type of additional data associated with the session
+ */
+public class WebSocketClient<T, D> implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketClient.class);
+
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private final WebSocketClientConfiguration<T> configuration = new WebSocketClientConfiguration<>();
+    private final SubscriberSet<T, D> sessions = new SubscriberSet<>();
+    private final Map<URI, Pool> pools = new ConcurrentHashMap<>();
+    private final AtomicLong sessionIds = new AtomicLong();
+    private final HttpHeaders headers = new DefaultHttpHeaders();
+    private final EventLoopGroup group;
+    private final boolean ownsGroup;
+    private OpenHandler<T, D> openHandler;
+    private CloseHandler<T, D> closeHandler;
+    private MessageHandler<T, D> messageHandler;
+    private volatile int poolSize = 1;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a client with its own event loops, shut down when the client is closed.
+     */
+    public WebSocketClient() {
+        this.group = new NioEventLoopGroup(0, new DefaultThreadFactory("jwebsockets-client", true));
+        this.ownsGroup = true;
+    }
+
+    /**
+     * Constructs a client running on the given event loops, for example the ones of a server it links to other
+     * servers. The event loops are not shut down when the client is closed.
+     *
+     * @param group The event loops handling the connections
+     */
+    public WebSocketClient(EventLoopGroup group) {
+        this.group = group;
+        this.ownsGroup = false;
+    }
+
+    /**
+     * Configures the client using the provided configurer.
+     *
+     * @param configurer The configurer to customize the client configuration
+     * @return The WebSocket client instance for method chaining
+     */
+    public WebSocketClient<T, D> configure(WebSocketClientConfigurer<T> configurer) {
+        configurer.configure(configuration);
+        return this;
+    }
+
+    /**
+     * Sets the message handler for the client.
+     *
+     * @param handler The message handler to be set
+     * @return The WebSocket client instance for method chaining
+     */
+    public WebSocketClient<T, D> onMessage(MessageHandler<T, D> handler) {
+        this.messageHandler = handler;
+        return this;
+    }
+
+    /**
+     * Sets the close handler for the client, called when a server closes a connection with a close frame.
+     *
+     * @param handler The close handler to be set
+     * @return The WebSocket client instance for method chaining
+     */
+    public WebSocketClient<T, D> onClose(CloseHandler<T, D> handler) {
+        this.closeHandler = handler;
+        return this;
+    }
+
+    /**
+     * Sets the open handler for the client, called once a connection is upgraded and before its session is returned.
+     *
+     * @param handler The open handler to be set
+     * @return The WebSocket client instance for method chaining
+     */
+    public WebSocketClient<T, D> onOpen(OpenHandler<T, D> handler) {
+        this.openHandler = handler;
+        return this;
+    }
+
+    /**
+     * Sets the number of connections to every server used by {@link #acquire(URI)}. The size applies to the pools
+     * already in use as well, on their next acquisition: a larger pool opens its additional connections when their
+     * turn comes, while a smaller one closes the connections beyond its size once they are open.
+     *
+     * @param poolSize The number of pooled connections per server
+     * @return The WebSocket client instance for method chaining
+     * @throws IllegalArgumentException If the pool size is not positive
+     */
+    public WebSocketClient<T, D> setPoolSize(int poolSize) throws IllegalArgumentException {
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive!");
+        }
+        this.poolSize = poolSize;
+        return this;
+    }
+
+    /**
+     * Adds a header to the upgrade requests, for example to authenticate the client.
+     *
+     * @param name  The name of the header
+     * @param value The value of the header
+     * @return The WebSocket client instance for method chaining
+     */
+    public synchronized WebSocketClient<T, D> addHeader(String name, String value) {
+        headers.add(name, value);
+        return this;
+    }
+
+    /**
+     * Opens a new connection to a server without blocking the caller.
+     *
+     * @param uri The WebSocket URI of the server, with the ws or wss scheme
+     * @return A future completed with the open session, or completed exceptionally if the connection or the
+     * handshake fails
+     * @throws IllegalArgumentException If the URI does not use the ws or wss scheme
+     * @throws IllegalStateException    If the client is closed or message encoder/decoder was not provided
+     */
+    public CompletableFuture<WebSocketSession<T, D>> connect(URI uri) throws IllegalArgumentException, IllegalStateException {
+        Map<String, MessageCodec<T>> subprotocols = configuration.getSubprotocols();
+        String requested = subprotocols.isEmpty() ? null : String.join(",", subprotocols.keySet());
+        WebSocketClientHandshaker handshaker = newHandshaker(uri, requested);
+
+        if (configuration.getMessageDecoder() == null) {
+            throw new IllegalStateException("Message decoder is not provided, cannot connect!");
+        }
+        if (configuration.getMessageEncoder() == null) {
+            throw new IllegalStateException("Message encoder is not provided, cannot connect!");
+        }
+
+        CompletableFuture<WebSocketSession<T, D>> future = new CompletableFuture<>();
+
+        open(uri, handshaker, new WebSocketClientHandler(handshaker, future)).addListener((ChannelFuture connect) -> {
+            if (!connect.isSuccess()) {
+                future.completeExceptionally(connect.cause());
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Opens a new connection to a server whose frames are handled by the given handler instead of a session, for
+     * protocols of their own carried over WebSocket, such as relays. The handler is added after the handshake and
+     * receives its {@link WebSocketClientProtocolHandler.ClientHandshakeStateEvent#HANDSHAKE_COMPLETE} event, and the
+     * connection is neither a session of this client nor closed with it.
+     *
+     * @param uri         The WebSocket URI of the server, with the ws or wss scheme
+     * @param subprotocol The subprotocol to request, or null
+     * @param handler     The handler of the frames received by the connection
+     * @return The future of connecting the channel, without waiting for the handshake
+     * @throws IllegalArgumentException If the URI does not use the ws or wss scheme
+     * @throws IllegalStateException    If the client is closed
+     */
+    public ChannelFuture connect(URI uri, String subprotocol, ChannelHandler handler)
+            throws IllegalArgumentException, IllegalStateException {
+        return open(uri, newHandshaker(uri, subprotocol), handler);
+    }
+
+    /**
+     * Returns a pooled connection to a server, opening it if it is not open yet. Up to the pool size connections are
+     * opened to every server, and they are handed out in turn, so that the load is spread over all of them.
+     * A connection which failed or was closed is reopened when its turn comes.
+     *
+     * @param uri The WebSocket URI of the server, with the ws or wss scheme
+     * @return A future completed with the pooled session
+     * @throws IllegalArgumentException If the URI does not use the ws or wss scheme
+     * @throws IllegalStateException    If the client is closed or message encoder/decoder was not provided
+     */
+    public CompletableFuture<WebSocketSession<T, D>> acquire(URI uri) throws IllegalArgumentException, IllegalStateException {
+        Pool pool = pools.computeIfAbsent(uri, key -> new Pool());
+
+        synchronized (pool) {
+            pool.resize(poolSize);
+            int slot = pool.next++;
+            CompletableFuture<WebSocketSession<T, D>> connection = pool.connections.get(slot);
+
+            if (connection == null || isBroken(connection)) {
+                connection = connect(uri);
+                pool.connections.set(slot, connection);
+            }
+            return connection;
+        }
+    }
+
+    /**
+     * Sends many messages to a session, flushing it once after all of them are written.
+     *
+     * @param session  The session to send to
+     * @param messages The messages to send, in order
+     * @return The number of messages written, less than the number of messages if the connection is closed
+     */
+    public int sendBatch(WebSocketSession<T, D> session, List<? extends T> messages) {
+        MessageCodec<T> codec = session.getCodec();
+        int written = 0;
+
+        for (T message : messages) {
+            if (!session.writePayload(Unpooled.wrappedBuffer(codec.getEncoder().encode(message)))) {
+                break;
+            }
+            written++;
+        }
+        session.flush();
+        return written;
+    }
+
+    /**
+     * Sends a message to all open sessions of this client without blocking the caller. The message is encoded at most
+     * once per codec and a single task is submitted to every event loop, which writes it to all of its sessions.
+     *
+     * @param message The message to send
+     * @return A future completed with the number of delivered and failed writes once all event loops are done
+     */
+    public CompletableFuture<BroadcastResult> broadcast(T message) {
+        return sessions.send(message);
+    }
+
+    /**
+     * Returns a snapshot of all open sessions of this client.
+     *
+     * @return The open sessions
+     */
+    public Collection<WebSocketSession<T, D>> getSessions() {
+        List<WebSocketSession<T, D>> snapshot = new ArrayList<>(sessions.size());
+        sessions.forEach(snapshot::add);
+        return snapshot;
+    }
+
+    /**
+     * Returns the number of open sessions of this client.
+     *
+     * @return The number of sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Closes all connections of this client, and shuts down its event loops if they are owned by it.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pools.clear();
+
+        List<ChannelFuture> closing = new ArrayList<>();
+        sessions.forEach(session -> closing.add(session.getContext().channel().close()));
+        closing.forEach(ChannelFuture::syncUninterruptibly);
+
+        if (ownsGroup) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+    }
+
+    /**
+     * Sets up the pipeline of a connection and connects it, for sessions and handlers of their own alike.
+     */
+    private ChannelFuture open(URI uri, WebSocketClientHandshaker handshaker, ChannelHandler handler) {
+        boolean secure = "wss".equalsIgnoreCase(uri.getScheme());
+        int port = uri.getPort() != -1 ? uri.getPort() : secure ? 443 : 80;
+
+        return new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        SslContext sslContext = configuration.getSslContext();
+                        if (secure) {
+                            channel.pipeline().addLast(sslContext.newHandler(channel.alloc(), uri.getHost(), port));
+                        }
+                        channel.pipeline()
+                                .addLast(new HttpClientCodec())
+                                .addLast(new HttpObjectAggregator(configuration.getMaxHandshakeResponseSize()))
+                                .addLast(new WebSocketClientProtocolHandler(handshaker, false))
+                                .addLast(handler);
+                    }
+                })
+                .connect(uri.getHost(), port);
+    }
+
+    private synchronized WebSocketClientHandshaker newHandshaker(URI uri, String subprotocol) {
+        boolean secure = "wss".equalsIgnoreCase(uri.getScheme());
+
+        if (!secure && !"ws".equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("URI must use the ws or wss scheme!");
+        }
+        if (closed) {
+            throw new IllegalStateException("Client is closed!");
+        }
+        if (secure && configuration.getSslContext() == null) {
+            throw new IllegalStateException("SSL context is not provided, cannot connect to " + uri + "!");
+        }
+        return WebSocketClientHandshakerFactory.newHandshaker(uri, WebSocketVersion.V13, subprotocol, true,
+                new DefaultHttpHeaders().add(headers), MAX_FRAME_SIZE);
+    }
+
+    private static boolean isBroken(CompletableFuture<? extends WebSocketSession<?, ?>> connection) {
+        if (!connection.isDone()) {
+            return false;
+        }
+        return connection.isCompletedExceptionally() || !connection.join().getContext().channel().isActive();
+    }
+
+    /**
+     * Opens a session once the handshake completes, then handles the frames received by it.
+     */
+    private class WebSocketClientHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+        private final WebSocketClientHandshaker handshaker;
+        private final CompletableFuture<WebSocketSession<T, D>> future;
+        private WebSocketSession<T, D> session;
+
+        private WebSocketClientHandler(WebSocketClientHandshaker handshaker, CompletableFuture<WebSocketSession<T, D>> future) {
+            this.handshaker = handshaker;
+            this.future = future;
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext context, Object event) {
+            if (event == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+                open(context);
+            } else if (event == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_TIMEOUT) {
+                future.completeExceptionally(new WebSocketClientHandshakeException("Handshake timed out"));
+            }
+            context.fireUserEventTriggered(event);
+        }
+
+        private void open(ChannelHandlerContext context) {
+            session = new WebSocketSession<>(sessionIds.incrementAndGet(), context, configuration.getDefaultCodec());
+
+            String subprotocol = handshaker.actualSubprotocol();
+            if (subprotocol != null && configuration.getSubprotocols().containsKey(subprotocol)) {
+                session.setSubprotocol(subprotocol, configuration.getSubprotocols().get(subprotocol));
+            }
+            if (configuration.getCorrelation() != null) {
+                session.setPendingRequests(new PendingRequests<>(configuration.getCorrelation(), configuration.getRequestTimeoutMillis()));
+            }
+            sessions.add(session);
+
+            if (closed) {
+                context.close();
+                return;
+            }
+            if (openHandler != null) {
+                openHandler.handleOpen(session);
+            }
+            future.complete(session);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext context, WebSocketFrame frame) {
+            if (frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame) {
+                handleMessageFrame(frame.content());
+            } else if (frame instanceof CloseWebSocketFrame) {
+                CloseWebSocketFrame closeFrame = (CloseWebSocketFrame) frame;
+                context.writeAndFlush(closeFrame.retain()).addListener(ChannelFutureListener.CLOSE);
+
+                if (closeHandler != null) {
+                    closeHandler.handleClose(session, closeFrame.reasonText(), closeFrame.statusCode());
+                }
+            }
+        }
+
+        private void handleMessageFrame(ByteBuf content) {
+            byte[] bytes = new byte[content.readableBytes()];
+            content.getBytes(content.readerIndex(), bytes);
+
+            T message = session.getCodec().getDecoder().decode(bytes);
+            session.updateLastMessageTime();
+
+            if (session.consume(message)) {
+                return;
+            }
+            if (messageHandler != null) {
+                messageHandler.handleMessage(session, message);
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext context) {
+            context.flush();
+            context.fireChannelReadComplete();
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext context) {
+            if (session != null && sessions.remove(session)) {
+                session.release();
+            }
+            future.completeExceptionally(new ClosedChannelException());
+            context.fireChannelInactive();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext context, Throwable cause) {
+            logger.warn("Closing the connection to " + context.channel().remoteAddress(), cause);
+            future.completeExceptionally(cause);
+            context.close();
+        }
+    }
+
+    /**
+     * Pooled connections to a single server, handed out in turn. Guarded by its own monitor.
+     */
+    private final class Pool {
+        private final List<CompletableFuture<WebSocketSession<T, D>>> connections = new ArrayList<>();
+        private int next;
+
+        /**
+         * Adds empty slots up to the given size, or drops the slots beyond it and closes their connections, including
+         * the ones still being opened once they are.
+         */
+        private void resize(int size) {
+            while (connections.size() < size) {
+                connections.add(null);
+            }
+            while (connections.size() > size) {
+                CompletableFuture<WebSocketSession<T, D>> dropped = connections.remove(connections.size() - 1);
+
+                if (dropped != null) {
+                    dropped.thenAccept(session -> session.getContext().channel().close());
+                }
+            }
+            if (next >= size) {
+                next = 0;
+            }
+        }
+    }
+}
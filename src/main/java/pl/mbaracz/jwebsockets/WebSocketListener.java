@@ -0,0 +1,170 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.ssl.SslContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.mbaracz.jwebsockets.routing.PathTrie;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Listener serving many WebSocket servers on a single port. Every server is an endpoint with its own message types,
+ * codecs and handlers, reachable at its path, which may contain parameters such as {@code /rooms/{room}}.
+ * All endpoints share the same socket and event loops.
+ */
+public class WebSocketListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketListener.class);
+
+    private final PathTrie<WebSocketServerHandler<?, ?>> routes = new PathTrie<>();
+    private final List<WebSocketServer<?, ?>> servers = new ArrayList<>();
+    private SslContext sslContext;
+    private int maxHttpContentLength = 65536;
+    private boolean lightweightHandshake;
+    private int maxHandshakeHeaderSize = 8192;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel channel;
+
+    /**
+     * Adds an endpoint served at the path of the server.
+     *
+     * @param server The WebSocket server handling the endpoint
+     * @return The listener instance for method chaining
+     * @throws IllegalStateException    If the listener is already running
+     * @throws IllegalArgumentException If another endpoint is already served at the same path
+     */
+    public synchronized WebSocketListener route(WebSocketServer<?, ?> server) throws IllegalStateException, IllegalArgumentException {
+        if (channel != null) {
+            throw new IllegalStateException("Cannot add routes while the listener is running!");
+        }
+        routes.add(server.getPath(), new WebSocketServerHandler<>(server));
+        servers.add(server);
+        return this;
+    }
+
+    /**
+     * Sets the SSL context used for all endpoints.
+     *
+     * @param sslContext The SSL context
+     * @return The listener instance for method chaining
+     */
+    public WebSocketListener setSslContext(SslContext sslContext) {
+        this.sslContext = sslContext;
+        return this;
+    }
+
+    /**
+     * Sets the maximum size of the content of HTTP upgrade requests.
+     *
+     * @param maxHttpContentLength The maximum content length in bytes
+     * @return The listener instance for method chaining
+     */
+    public WebSocketListener setMaxHttpContentLength(int maxHttpContentLength) {
+        this.maxHttpContentLength = maxHttpContentLength;
+        return this;
+    }
+
+    /**
+     * Enables the lightweight handshake for all endpoints.
+     *
+     * @param lightweightHandshake True to enable the lightweight handshake, false otherwise
+     * @return The listener instance for method chaining
+     */
+    public WebSocketListener setLightweightHandshake(boolean lightweightHandshake) {
+        this.lightweightHandshake = lightweightHandshake;
+        return this;
+    }
+
+    /**
+     * Sets the maximum size of the request line and headers accepted by the lightweight handshake.
+     *
+     * @param maxHandshakeHeaderSize The maximum size in bytes
+     * @return The listener instance for method chaining
+     */
+    public WebSocketListener setMaxHandshakeHeaderSize(int maxHandshakeHeaderSize) {
+        this.maxHandshakeHeaderSize = maxHandshakeHeaderSize;
+        return this;
+    }
+
+    /**
+     * Starts listening on the specified port and marks all routed servers as running.
+     *
+     * @param port Port number to listen on
+     * @return The listener instance for method chaining
+     * @throws IllegalStateException If the listener is already running, a server has no encoder or decoder,
+     *                               or the port cannot be bound
+     */
+    public synchronized WebSocketListener listen(int port) throws IllegalStateException {
+        if (channel != null) {
+            throw new IllegalStateException("WebSocket listener is already running on port " + port + "!");
+        }
+        for (WebSocketServer<?, ?> server : servers) {
+            if (server.getConfiguration().getMessageDecoder() == null || server.getConfiguration().getMessageEncoder() == null) {
+                throw new IllegalStateException("Message encoder or decoder is not provided for path " + server.getPath() + "!");
+            }
+        }
+
+        RoutingHandler router = new RoutingHandler(routes);
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup();
+
+        try {
+            channel = new ServerBootstrap()
+                    .group(bossGroup, workerGroup)
+                    .channel(NioServerSocketChannel.class)
+                    .childHandler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel channel) {
+                            WebSocketServerChannelInitializer.addHttpHandlers(channel, sslContext, lightweightHandshake,
+                                    maxHandshakeHeaderSize, maxHttpContentLength);
+                            channel.pipeline().addLast(router);
+                        }
+                    })
+                    .bind(port)
+                    .syncUninterruptibly()
+                    .channel();
+        } catch (Exception exception) {
+            shutdown();
+            throw new IllegalStateException("Cannot listen on port " + port + "!", exception);
+        }
+
+        servers.forEach(server -> server.setRunning(true));
+        logger.info("Started WebSocket listener at port " + port + " with " + servers.size() + " endpoints");
+        return this;
+    }
+
+    /**
+     * Stops the listener, closing all connections, and marks all routed servers as stopped.
+     *
+     * @throws IllegalStateException If the listener is not running
+     */
+    public synchronized void stop() throws IllegalStateException {
+        if (channel == null) {
+            throw new IllegalStateException("Listener is already stopped!");
+        }
+        channel.close().syncUninterruptibly();
+        shutdown();
+        servers.forEach(server -> {
+            server.closeResources();
+            server.setRunning(false);
+        });
+    }
+
+    public synchronized boolean isRunning() {
+        return channel != null;
+    }
+
+    private void shutdown() {
+        channel = null;
+        bossGroup.shutdownGracefully().syncUninterruptibly();
+        workerGroup.shutdownGracefully().syncUninterruptibly();
+    }
+}
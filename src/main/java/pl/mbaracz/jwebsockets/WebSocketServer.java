@@ -1,23 +1,36 @@
 package pl.mbaracz.jwebsockets;
 
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelId;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.Channel;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pl.mbaracz.jwebsockets.client.RelayClient;
+import pl.mbaracz.jwebsockets.cluster.ClusterBus;
 import pl.mbaracz.jwebsockets.configuration.WebSocketServerConfiguration;
 import pl.mbaracz.jwebsockets.configuration.WebSocketServerConfigurer;
 import pl.mbaracz.jwebsockets.handler.CloseHandler;
 import pl.mbaracz.jwebsockets.handler.MessageHandler;
 import pl.mbaracz.jwebsockets.handler.OpenHandler;
 import pl.mbaracz.jwebsockets.handler.UpgradeHandler;
-
+import pl.mbaracz.jwebsockets.index.ConcurrentLongObjectMap;
+import pl.mbaracz.jwebsockets.index.KeySessionIndex;
+import pl.mbaracz.jwebsockets.index.LongSessionIndex;
+import pl.mbaracz.jwebsockets.topic.HotTopic;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 /**
  * WebSocketServer represents a WebSocket server that listens for incoming WebSocket connections.
@@ -30,17 +43,29 @@ public class WebSocketServer<T, D> {
 
     private static final Logger logger = LoggerFactory.getLogger(WebSocketServer.class);
 
+    /**
+     * Name of the index of sessions by user key, registered by {@link #enableOfflineMailbox(Function)}.
+     */
+    static final String MAILBOX_INDEX = "jwebsockets.mailbox";
+
     private final String path;
     private Thread serverThread;
     private OpenHandler<T, D> openHandler;
     private UpgradeHandler<T, D> upgradeHandler;
     private CloseHandler<T, D> closeHandler;
     private MessageHandler<T, D> messageHandler;
+    private MessageRouter<T, D> messageRouter;
     private CompletableFuture<Void> completableFuture;
     private final AtomicBoolean running = new AtomicBoolean(false);
-    private final Map<ChannelId, WebSocketSession<T, D>> sessions = new ConcurrentHashMap<>();
-    private final Map<String, Set<WebSocketSession<T, D>>> topics = new HashMap<>();
+    private final ConcurrentLongObjectMap<WebSocketSession<T, D>> sessions = new ConcurrentLongObjectMap<>();
+    private final AtomicLong sessionIds = new AtomicLong();
+    private final SubscriberSet<T, D> sessionsByExecutor = new SubscriberSet<>();
     private final WebSocketServerConfiguration<T> configuration = new WebSocketServerConfiguration<>();
+    private final TopicRegistry<T, D> topics = new TopicRegistry<>(configuration);
+    private final SessionIndexRegistry<T, D> indexes = new SessionIndexRegistry<>();
+    private final SessionResumption<T, D> resumption = new SessionResumption<>(topics);
+    private volatile OfflineMailbox<T, D> mailbox;
+    private volatile RelayHub relays;
 
     /**
      * Default constructor initializing the WebSocket server with the root path.
@@ -77,6 +102,19 @@ public class WebSocketServer<T, D> {
      */
     public WebSocketServer<T, D> onMessage(MessageHandler<T, D> handler) {
         this.messageHandler = handler;
+        this.messageRouter = null;
+        return this;
+    }
+
+    /**
+     * Sets the message router dispatching incoming messages by their type, replacing the message handler.
+     *
+     * @param router Message router to be set
+     * @return The WebSocket server instance for method chaining
+     */
+    public WebSocketServer<T, D> onMessage(MessageRouter<T, D> router) {
+        this.messageRouter = router;
+        this.messageHandler = null;
         return this;
     }
 
@@ -115,24 +153,42 @@ public class WebSocketServer<T, D> {
 
     /**
      * Subscribes a WebSocket session to a given topic.
+     * Topics are hierarchical with levels separated by a dot, such as {@code prices.eur.usd}. The topic may contain
+     * wildcards: {@code *} matches exactly one level and {@code >} matches one or more trailing levels,
+     * e.g. {@code prices.*.usd} or {@code prices.>}. Retained messages of the subscribed topics are sent immediately.
      *
      * @param session The WebSocket session to subscribe.
-     * @param topic   The topic to subscribe the session to.
+     * @param topic   The topic or topic pattern to subscribe the session to.
+     * @throws IllegalArgumentException If the topic pattern is malformed.
+     */
+    public void subscribe(WebSocketSession<T, D> session, String topic) throws IllegalArgumentException {
+        topics.subscribe(session, topic);
+    }
+
+    /**
+     * Subscribes a WebSocket session to a persisted topic and replays to it the messages of the topic log, starting
+     * from a sequence number. Messages published later are delivered after the replayed ones, none of them twice.
+     * Retained messages are not sent, and replay starts at the oldest kept message if older ones were deleted.
+     *
+     * @param session      The WebSocket session to subscribe.
+     * @param topic        The persisted topic.
+     * @param fromSequence The sequence number of the first message to replay, 1 for the whole log.
+     * @throws IllegalArgumentException If the topic is not persisted.
+     * @see #persistTopic(String)
      */
-    public void subscribe(WebSocketSession<T, D> session, String topic) {
-        topics.computeIfAbsent(topic, k -> new HashSet<>()).add(session);
+    public void subscribe(WebSocketSession<T, D> session, String topic, long fromSequence) throws IllegalArgumentException {
+        topics.subscribe(session, topic, fromSequence);
     }
 
     /**
-     * Checks if a WebSocket session is subscribed to a given topic.
+     * Checks if a WebSocket session is subscribed to a given topic or topic pattern.
      *
      * @param session The WebSocket session to check.
-     * @param topic   The topic to check the subscription for.
+     * @param topic   The topic or topic pattern to check the subscription for.
      * @return true if the session is subscribed to the topic, false otherwise.
      */
     public boolean isSubscribed(WebSocketSession<T, D> session, String topic) {
-        Set<WebSocketSession<T, D>> subscribers = topics.get(topic);
-        return subscribers != null && subscribers.contains(session);
+        return topics.isSubscribed(session, topic);
     }
 
     /**
@@ -142,34 +198,280 @@ public class WebSocketServer<T, D> {
      * @param topic   The topic to unsubscribe the session from.
      */
     public void unsubscribe(WebSocketSession<T, D> session, String topic) {
-        Set<WebSocketSession<T, D>> subscribers = topics.get(topic);
+        topics.unsubscribe(session, topic);
+    }
+
+    /**
+     * Unsubscribes all WebSocket sessions from all topics.
+     */
+    public void unsubscribeAllTopics() {
+        topics.clear();
+    }
+
+    /**
+     * Publishes a message to all WebSocket sessions subscribed to a given topic or to a pattern matching it.
+     * The message is encoded only once, regardless of the number of subscribers.
+     *
+     * @param topic   The topic to which the message will be published, it cannot contain wildcards.
+     * @param message The message to be published.
+     * @throws IllegalArgumentException If the topic contains wildcards.
+     */
+    public void publish(String topic, T message) throws IllegalArgumentException {
+        topics.publish(topic, message);
+    }
+
+    /**
+     * Publishes many messages to many topics in one pass, which is cheaper than calling {@link #publish} for each of
+     * them. Every message is encoded only once, the frames are grouped by the receiving session and each session is
+     * flushed only once. Messages published to a single topic are delivered in the order of the list.
+     *
+     * @param messages The messages to be published, grouped by topic.
+     * @throws IllegalArgumentException If any of the topics contains wildcards.
+     */
+    public void publishAll(Map<String, ? extends List<? extends T>> messages) throws IllegalArgumentException {
+        topics.publishAll(messages);
+    }
+
+    /**
+     * Publishes many messages to a single topic in one pass, flushing each subscriber only once.
+     *
+     * @param topic    The topic to which the messages will be published, it cannot contain wildcards.
+     * @param messages The messages to be published, in order.
+     * @throws IllegalArgumentException If the topic contains wildcards.
+     */
+    public void publishBatch(String topic, List<? extends T> messages) throws IllegalArgumentException {
+        topics.publishAll(Collections.singletonMap(topic, messages));
+    }
+
+    /**
+     * Makes a topic conflated: while a subscriber is not writable, only the newest pending message of the topic is
+     * kept for it and older ones are dropped. Intended for ticker-style topics, where slow subscribers only need the
+     * latest state. Conflation applies to messages published to this exact topic.
+     *
+     * @param topic The topic to conflate.
+     */
+    public void conflateTopic(String topic) {
+        topics.conflate(topic, null);
+    }
+
+    /**
+     * Makes a topic conflated per message key: while a subscriber is not writable, only the newest pending message
+     * with a given key is kept for it, e.g. the latest price of every instrument published to the topic.
+     *
+     * @param topic        The topic to conflate.
+     * @param keyExtractor The function extracting the conflation key from a message.
+     */
+    public void conflateTopic(String topic, Function<? super T, ?> keyExtractor) {
+        topics.conflate(topic, keyExtractor);
+    }
+
+    /**
+     * Restores the default mode of a conflated topic, where every published message is delivered.
+     *
+     * @param topic The topic to restore.
+     */
+    public void removeTopicConflation(String topic) {
+        topics.removeConflation(topic);
+    }
+
+    /**
+     * Checks if a topic is conflated.
+     *
+     * @param topic The topic to check.
+     * @return true if the topic is conflated, false otherwise.
+     */
+    public boolean isTopicConflated(String topic) {
+        return topics.isConflated(topic);
+    }
+
+    /**
+     * Retains the last published messages of a topic, so that every new subscriber immediately receives them.
+     * Messages are cached already encoded and shared between subscribers. The total size of retained messages is
+     * bounded by {@link WebSocketServerConfiguration#setRetainedMessagesMemoryLimit(long)}, once exceeded the oldest
+     * messages of the least recently used topics are evicted.
+     *
+     * @param topic    The topic to retain, it cannot contain wildcards.
+     * @param capacity The number of retained messages.
+     * @throws IllegalArgumentException If the topic contains wildcards or the capacity is not positive.
+     */
+    public void retainTopic(String topic, int capacity) throws IllegalArgumentException {
+        topics.retain(topic, capacity);
+    }
+
+    /**
+     * Stops retaining messages of a topic and releases its retained messages.
+     *
+     * @param topic The topic to stop retaining.
+     */
+    public void removeTopicRetention(String topic) {
+        topics.removeRetention(topic);
+    }
+
+    /**
+     * Persists the messages published to a topic in an append-only log, stored in memory-mapped segment files in the
+     * {@linkplain WebSocketServerConfiguration#setTopicLogDirectory(Path) topic log directory}. Every message gets a
+     * sequence number, and subscribers can replay the log with {@link #subscribe(WebSocketSession, String, long)}.
+     * If the topic was persisted before a restart, its log is recovered and its sequence numbers continue.
+     * <p>
+     * Messages are stored encoded with the default codec, and written to the disk in groups at the
+     * {@linkplain WebSocketServerConfiguration#setTopicLogFlushInterval(long, java.util.concurrent.TimeUnit) flush
+     * interval}.
+     *
+     * @param topic The topic to persist, it cannot contain wildcards.
+     * @throws IllegalArgumentException If the topic contains wildcards.
+     * @throws IllegalStateException    If the topic log directory is not configured.
+     * @throws UncheckedIOException     If the log cannot be opened.
+     */
+    public void persistTopic(String topic) throws IllegalArgumentException, IllegalStateException, UncheckedIOException {
+        topics.persist(topic);
+    }
+
+    /**
+     * Stops persisting a topic and closes its log, which is kept on the disk.
+     *
+     * @param topic The persisted topic.
+     */
+    public void closeTopicLog(String topic) {
+        topics.closeLog(topic);
+    }
+
+    /**
+     * Returns the sequence number of the last message persisted in the log of a topic.
+     *
+     * @param topic The persisted topic.
+     * @return The sequence number, or 0 if no message was persisted yet.
+     * @throws IllegalArgumentException If the topic is not persisted.
+     */
+    public long getTopicLogSequence(String topic) throws IllegalArgumentException {
+        return topics.getLogSequence(topic);
+    }
+
+    /**
+     * Connects the server to a cluster of nodes through a bus, so that messages published on any node reach the
+     * subscribers on all of them. The bus learns which topics have subscribers on this node, and a published message
+     * is forwarded, already encoded with the default codec, only to the nodes having subscribers of its topic.
+     * Messages received from other nodes are delivered to the local subscribers, retained and persisted like local
+     * ones. The bus is closed when the server stops.
+     *
+     * @param bus The cluster bus, not started yet.
+     * @return The WebSocket server instance for method chaining
+     * @throws IllegalStateException If the server has already joined a cluster
+     * @throws UncheckedIOException  If the bus cannot be started
+     */
+    public WebSocketServer<T, D> joinCluster(ClusterBus bus) throws IllegalStateException, UncheckedIOException {
+        topics.joinCluster(bus);
+
+        try {
+            bus.start(topics::publishRemote);
+        } catch (IOException exception) {
+            topics.leaveCluster();
+            throw new UncheckedIOException("Failed to join the cluster", exception);
+        }
+        return this;
+    }
+
+    /**
+     * Disconnects the server from its cluster and closes the bus. Published messages reach the local subscribers only.
+     */
+    public void leaveCluster() {
+        topics.leaveCluster();
+    }
+
+    /**
+     * Makes this server an edge of an upstream server accepting relays. The edge subscribes upstream to a topic when
+     * its first local session subscribes to it and unsubscribes when the last one leaves, over a single connection.
+     * Relayed messages are delivered to the local subscribers without decoding, so both servers must share the
+     * default codec. An edge cannot join a cluster, the relay takes its place.
+     *
+     * @param upstream The WebSocket URI of the upstream server
+     * @return The WebSocket server instance for method chaining
+     * @throws IllegalArgumentException If the URI does not use the ws or wss scheme
+     * @throws IllegalStateException    If the server has already joined a cluster or relays from an upstream server
+     * @throws UncheckedIOException     If the relay client cannot be started
+     */
+    public WebSocketServer<T, D> relayFrom(URI upstream)
+            throws IllegalArgumentException, IllegalStateException, UncheckedIOException {
+        return joinCluster(new RelayClient(upstream));
+    }
 
-        if (subscribers == null) {
-            return;
+    /**
+     * Accepts connections of edge servers relaying from this server, which request the
+     * {@value RelayClient#SUBPROTOCOL} subprotocol. Every edge receives the messages published to the topics its
+     * sessions subscribe to, including the messages received from the cluster. The upgrade handler is called for
+     * relay connections, so it can authenticate the edges, but the other handlers are not.
+     *
+     * @return The WebSocket server instance for method chaining
+     * @throws IllegalStateException If the server already accepts relays
+     */
+    public synchronized WebSocketServer<T, D> acceptRelays() throws IllegalStateException {
+        if (relays != null) {
+            throw new IllegalStateException("Server already accepts relays!");
         }
+        relays = new RelayHub();
+        topics.setRelayHub(relays);
+        return this;
+    }
+
+    /**
+     * Returns the number of edge servers relaying from this server.
+     *
+     * @return The number of relay connections
+     */
+    public int getRelayCount() {
+        RelayHub current = relays;
+        return current != null ? current.size() : 0;
+    }
 
-        subscribers.remove(session);
+    boolean isAcceptingRelays() {
+        return relays != null;
+    }
 
-        if (subscribers.isEmpty()) {
-            topics.remove(topic);
+    /**
+     * Checks if any edge server is interested in a topic.
+     *
+     * @param topic The concrete topic
+     * @return True if a message published to the topic is relayed
+     */
+    boolean hasRelayInterest(String topic) {
+        RelayHub current = relays;
+        return current != null && current.hasInterest(topic);
+    }
+
+    /**
+     * Turns an upgraded connection into a relay connection, which is not a session of this server.
+     *
+     * @param context The context of the server handler of the connection
+     */
+    void openRelay(ChannelHandlerContext context) {
+        WebSocketSession<?, ?> session = context.channel().attr(WebSocketServerHandler.SESSION).getAndSet(null);
+
+        if (session != null) {
+            removeSession(session.getId());
         }
+        relays.open(context);
     }
 
     /**
-     * Unsubscribes all WebSocket sessions from all topics.
+     * Closes the resources held by the server beyond its connections once it is stopped: the logs of all persisted
+     * topics, the cluster bus and the offline mailbox.
      */
-    public void unsubscribeAllTopics() {
-        topics.clear();
+    void closeResources() {
+        topics.closeLogs();
+        topics.leaveCluster();
+
+        OfflineMailbox<T, D> current = mailbox;
+        if (current != null) {
+            current.close();
+        }
     }
 
     /**
-     * Publishes a message to all WebSocket sessions subscribed to a given topic.
+     * Returns the total size of currently retained topic messages.
      *
-     * @param topic   The topic to which the message will be published.
-     * @param message The message to be published.
+     * @return The memory usage in bytes.
      */
-    public void publish(String topic, T message) {
-        topics.getOrDefault(topic, Collections.emptySet()).forEach(session -> session.sendMessage(message));
+    public long getRetainedMessagesMemoryUsage() {
+        return topics.getRetainedMemoryUsage();
     }
 
     /**
@@ -178,7 +480,186 @@ public class WebSocketServer<T, D> {
      * @return A set of topics
      */
     public Set<String> getTopics() {
-        return topics.keySet();
+        return topics.getTopics();
+    }
+
+    /**
+     * Retrieves the statistics of a topic, such as the subscriber count, publish rate, bytes sent and dropped messages.
+     *
+     * @param topic The topic to retrieve the statistics for.
+     * @return The topic statistics, or null if no session is subscribed to the topic
+     */
+    public TopicStatistics getTopicStatistics(String topic) {
+        return topics.getStatistics(topic);
+    }
+
+    /**
+     * Retrieves the topics with the highest number of delivered messages.
+     * The ranking is estimated with a space-saving sketch monitoring a bounded number of topics.
+     *
+     * @param limit The maximum number of returned topics
+     * @return The hottest topics, ordered by the estimated number of delivered messages descending
+     */
+    public List<HotTopic> getHotTopics(int limit) {
+        return topics.getHotTopics(limit);
+    }
+
+    /**
+     * Registers a secondary index of sessions over a key extracted from their data, such as a user name.
+     * The index is maintained when sessions are opened, closed or their data is set.
+     *
+     * @param name         The unique name of the index
+     * @param keyExtractor Function extracting the key from the session data, sessions with null keys are not indexed
+     * @return The WebSocket server instance for method chaining
+     * @throws IllegalStateException If an index with the same name already exists
+     */
+    public WebSocketServer<T, D> addIndex(String name, Function<? super D, ?> keyExtractor) throws IllegalStateException {
+        indexes.register(new KeySessionIndex<>(name, keyExtractor), sessions.values());
+        return this;
+    }
+
+    /**
+     * Registers a secondary index of sessions over a primitive long key extracted from their data, such as a user id.
+     * The index is maintained when sessions are opened, closed or their data is set.
+     *
+     * @param name         The unique name of the index
+     * @param keyExtractor Function extracting the key from the session data
+     * @return The WebSocket server instance for method chaining
+     * @throws IllegalStateException If an index with the same name already exists
+     */
+    public WebSocketServer<T, D> addLongIndex(String name, ToLongFunction<? super D> keyExtractor) throws IllegalStateException {
+        indexes.register(new LongSessionIndex<>(name, keyExtractor), sessions.values());
+        return this;
+    }
+
+    /**
+     * Removes a secondary index of sessions.
+     *
+     * @param name The name of the index
+     * @return True if the index existed, false otherwise
+     */
+    public boolean removeIndex(String name) {
+        return indexes.unregister(name);
+    }
+
+    /**
+     * Returns the sessions whose data has the given key in an index.
+     *
+     * @param indexName The name of the index
+     * @param key       The key to look up
+     * @return The matching sessions, never null
+     * @throws IllegalArgumentException If the index does not exist
+     */
+    public List<WebSocketSession<T, D>> getSessions(String indexName, Object key) throws IllegalArgumentException {
+        return indexes.get(indexName, key);
+    }
+
+    /**
+     * Sends a message to all sessions whose data has the given key in an index without blocking the caller, encoding
+     * it at most once per codec.
+     *
+     * @param indexName The name of the index
+     * @param key       The key to look up
+     * @param message   The message to send
+     * @return A future completed with the number of delivered and failed writes once all event loops are done
+     * @throws IllegalArgumentException If the index does not exist
+     */
+    public CompletableFuture<BroadcastResult> sendTo(String indexName, Object key, T message) throws IllegalArgumentException {
+        return indexes.send(indexes.get(indexName, key), message);
+    }
+
+    /**
+     * Sends a message to all sessions whose data has the given primitive key in an index without blocking the caller,
+     * encoding it at most once per codec.
+     *
+     * @param indexName The name of the index
+     * @param key       The key to look up
+     * @param message   The message to send
+     * @return A future completed with the number of delivered and failed writes once all event loops are done
+     * @throws IllegalArgumentException If the index does not exist
+     */
+    public CompletableFuture<BroadcastResult> sendTo(String indexName, long key, T message) throws IllegalArgumentException {
+        return indexes.send(indexes.get(indexName, key), message);
+    }
+
+    /**
+     * Enables offline mailboxes of users, keyed by a user key extracted from the session data. Messages sent with
+     * {@link #sendToUser(Object, Object)} to a user without a connected session are stored, and drained to the next
+     * session of the user right after the open handler.
+     * <p>
+     * Mailboxes are kept in memory up to the {@linkplain WebSocketServerConfiguration#setMailboxMemoryLimit(long)
+     * memory limit}, and spilled to an append-only file above it. Storing, spilling and loading run on a dedicated
+     * thread, so the event loops never wait for the disk. Mailboxes are lost when the server stops.
+     *
+     * @param userKey Function extracting the user key from the session data, sessions with null keys have no mailbox
+     * @return The WebSocket server instance for method chaining
+     * @throws IllegalStateException If the offline mailbox is already enabled
+     */
+    public synchronized WebSocketServer<T, D> enableOfflineMailbox(Function<? super D, ?> userKey) throws IllegalStateException {
+        if (mailbox != null) {
+            throw new IllegalStateException("Offline mailbox is already enabled!");
+        }
+        addIndex(MAILBOX_INDEX, userKey);
+        mailbox = new OfflineMailbox<>(configuration, userKey, key -> indexes.get(MAILBOX_INDEX, key));
+        return this;
+    }
+
+    /**
+     * Sends a message to all connected sessions of a user, or stores it in the offline mailbox of the user if none is
+     * connected. A message that no session accepted, for instance because the only session was closing, is stored
+     * as well.
+     *
+     * @param userKey The user key
+     * @param message The message to send
+     * @return A future completed with the number of delivered and failed writes, with no delivered writes if the
+     * message was stored
+     * @throws IllegalStateException If the offline mailbox is not enabled
+     */
+    public CompletableFuture<BroadcastResult> sendToUser(Object userKey, T message) throws IllegalStateException {
+        OfflineMailbox<T, D> current = mailbox;
+
+        if (current == null) {
+            throw new IllegalStateException("Offline mailbox is not enabled!");
+        }
+
+        List<WebSocketSession<T, D>> sessions = indexes.get(MAILBOX_INDEX, userKey);
+        if (sessions.isEmpty()) {
+            current.store(userKey, message);
+            return CompletableFuture.completedFuture(new BroadcastResult(0, 0));
+        }
+        return indexes.send(sessions, message).thenApply(result -> {
+            if (result.getDelivered() == 0) {
+                current.store(userKey, message);
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Returns the number of messages stored in the offline mailboxes of all users.
+     *
+     * @return The number of stored messages, 0 if the offline mailbox is not enabled
+     */
+    public int getOfflineMessageCount() {
+        OfflineMailbox<T, D> current = mailbox;
+        return current != null ? current.size() : 0;
+    }
+
+    OfflineMailbox<T, D> getOfflineMailbox() {
+        return mailbox;
+    }
+
+    /**
+     * Drains the offline mailbox of the user of a newly opened session to it.
+     *
+     * @param session The open session
+     */
+    void drainMailbox(WebSocketSession<T, D> session) {
+        OfflineMailbox<T, D> current = mailbox;
+
+        if (current != null) {
+            current.drain(session);
+        }
     }
 
     /**
@@ -228,6 +709,7 @@ public class WebSocketServer<T, D> {
             } finally {
                 bossGroup.shutdownGracefully();
                 workerGroup.shutdownGracefully();
+                closeResources();
                 running.set(false);
                 completableFuture.complete(null);
             }
@@ -247,6 +729,9 @@ public class WebSocketServer<T, D> {
         if (!running.get()) {
             throw new IllegalStateException("Server is already stopped!");
         }
+        if (serverThread == null) {
+            throw new IllegalStateException("Server is served by a listener, stop the listener instead!");
+        }
         logger.info("Stopping WebSocket server...");
 
         completableFuture = new CompletableFuture<>();
@@ -257,23 +742,28 @@ public class WebSocketServer<T, D> {
     }
 
     /**
-     * Broadcasts a message to all connected WebSocket sessions.
+     * Broadcasts a message to all connected WebSocket sessions without blocking the caller.
+     * The message is encoded at most once per codec and a single task is submitted to every event loop, which writes it to all of its
+     * sessions in parallel with the other event loops. No server-wide lock is held, so broadcasts do not serialize.
      *
      * @param message The message to be broadcast
+     * @return A future completed with the number of delivered and failed writes once all event loops are done
+     * @throws IllegalStateException If the server is not running
      */
-    public synchronized void broadcast(T message) {
+    public CompletableFuture<BroadcastResult> broadcast(T message) throws IllegalStateException {
         if (!running.get()) {
             throw new IllegalStateException("Server is not running, cannot broadcast!");
         }
-        sessions.values().forEach(session -> session.sendMessage(message));
+
+        return sessionsByExecutor.send(message);
     }
 
     /**
-     * Returns an unmodifiable collection of all currently connected WebSocket sessions.
+     * Returns an unmodifiable snapshot of all currently connected WebSocket sessions.
      *
      * @return A collection of connected WebSocket sessions
      */
-    public synchronized Collection<WebSocketSession<T, D>> getConnectedSessions() {
+    public Collection<WebSocketSession<T, D>> getConnectedSessions() {
         return Collections.unmodifiableCollection(sessions.values());
     }
 
@@ -287,32 +777,149 @@ public class WebSocketServer<T, D> {
     }
 
     /**
-     * Retrieves a WebSocket session by its channel ID.
+     * Retrieves a WebSocket session by its id.
      *
-     * @param id The channel ID of the session to retrieve
-     * @return The WebSocket session associated with the given channel ID, or null if no session exists for the ID
+     * @param id The id of the session
+     * @return The WebSocket session with the given id, or null if it is not connected
      */
-    synchronized WebSocketSession<T, D> getSessionByChannelId(ChannelId id) {
+    public WebSocketSession<T, D> getSession(long id) {
         return sessions.get(id);
     }
 
     /**
-     * Removes a WebSocket session associated with the given channel ID.
+     * Returns the number of currently connected WebSocket sessions.
+     *
+     * @return The number of sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Retrieves the WebSocket session of a channel, stored in its attribute while the channel is active.
      *
-     * @param id The channel ID of the session to remove
+     * @param channel The channel of the session to retrieve
+     * @return The WebSocket session of the channel, or null if the channel has no session
      */
-    synchronized void removeSession(ChannelId id) {
-        sessions.remove(id);
+    @SuppressWarnings("unchecked")
+    WebSocketSession<T, D> getSessionByChannel(Channel channel) {
+        return (WebSocketSession<T, D>) channel.attr(WebSocketServerHandler.SESSION).get();
     }
 
     /**
-     * Adds a WebSocket session associated with the given channel ID.
+     * Removes a WebSocket session with the given id.
+     *
+     * @param id The id of the session to remove
+     */
+    void removeSession(long id) {
+        WebSocketSession<T, D> session = sessions.remove(id);
+
+        if (session != null) {
+            sessionsByExecutor.remove(session);
+            session.detachIndexes();
+
+            if (session.getResumeToken() != null && configuration.isSessionResumption()) {
+                resumption.park(session, configuration.getResumptionGracePeriodMillis());
+            } else {
+                topics.unsubscribeAll(session);
+            }
+            session.release();
+        }
+    }
+
+    /**
+     * Takes the parked session whose resume token is passed in the query of an upgrade request, and restores its
+     * data in the upgraded session, so that the upgrade handler sees it.
+     *
+     * @param session         The session being upgraded
+     * @param queryParameters The query parameters of the upgrade request
+     * @return The parked session, or null if no valid resume token was passed
+     */
+    SessionResumption.ParkedSession<T, D> takeParkedSession(WebSocketSession<T, D> session,
+                                                            Map<String, List<String>> queryParameters) {
+        if (!configuration.isSessionResumption()) {
+            return null;
+        }
+
+        List<String> tokens = queryParameters.get(WebSocketSession.RESUME_TOKEN_PARAMETER);
+        SessionResumption.ParkedSession<T, D> parked = tokens == null || tokens.isEmpty()
+                ? null
+                : resumption.take(tokens.get(0));
+
+        if (parked != null) {
+            session.setData(parked.getData());
+        }
+        return parked;
+    }
+
+    /**
+     * Releases a parked session taken for an upgrade which did not complete.
+     *
+     * @param parked The parked session, may be null
+     */
+    void discardParkedSession(SessionResumption.ParkedSession<T, D> parked) {
+        resumption.discard(parked);
+    }
+
+    /**
+     * Completes the opening of an upgraded session, before the open handler: assigns its resume token, or resumes
+     * the parked session it presented the token of.
+     *
+     * @param session The upgraded session
+     * @param parked  The parked session taken for the upgrade, or null
+     */
+    void openSession(WebSocketSession<T, D> session, SessionResumption.ParkedSession<T, D> parked) {
+        if (parked != null) {
+            resumption.resume(session, parked);
+        } else if (configuration.isSessionResumption()) {
+            session.setResumeToken(resumption.newToken());
+        }
+    }
+
+    /**
+     * Returns the number of closed sessions which can still be resumed.
+     *
+     * @return The number of parked sessions
+     */
+    public int getParkedSessionCount() {
+        return resumption.size();
+    }
+
+    /**
+     * Adds a WebSocket session.
      *
-     * @param id      The channel ID of the session to add
      * @param session The WebSocket session to add
      */
-    synchronized void addSession(ChannelId id, WebSocketSession<T, D> session) {
-        sessions.put(id, session);
+    void addSession(WebSocketSession<T, D> session) {
+        sessions.put(session.getId(), session);
+        sessionsByExecutor.add(session);
+        session.attachIndexes(indexes);
+
+        if (configuration.getCorrelation() != null) {
+            session.setPendingRequests(new PendingRequests<>(configuration.getCorrelation(), configuration.getRequestTimeoutMillis()));
+        }
+        if (configuration.isReliableDelivery()) {
+            session.setReliableDelivery(new ReliableDelivery<>(configuration.getAcknowledgement(),
+                    configuration.getSequenceHeader(), configuration.getResendBufferCapacity()));
+        }
+    }
+
+    /**
+     * Generates the id of a new session.
+     *
+     * @return The next session id
+     */
+    long nextSessionId() {
+        return sessionIds.incrementAndGet();
+    }
+
+    /**
+     * Marks the server as running or stopped when it is served by a {@link WebSocketListener}.
+     *
+     * @param running True if the listener serving this server is running
+     */
+    void setRunning(boolean running) {
+        this.running.set(running);
     }
 
     String getPath() {
@@ -335,6 +942,10 @@ public class WebSocketServer<T, D> {
         return messageHandler;
     }
 
+    MessageRouter<T, D> getMessageRouter() {
+        return messageRouter;
+    }
+
     CloseHandler<T, D> getCloseHandler() {
         return closeHandler;
     }
@@ -4,9 +4,9 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseEncoder;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.ssl.SslContext;
-import io.netty.handler.stream.ChunkedWriteHandler;
 import pl.mbaracz.jwebsockets.configuration.WebSocketServerConfiguration;
 
 /**
@@ -18,6 +18,7 @@ import pl.mbaracz.jwebsockets.configuration.WebSocketServerConfiguration;
 public class WebSocketServerChannelInitializer<T, D> extends ChannelInitializer<Channel> {
 
     private final WebSocketServer<T, D> webSocketServer;
+    private final WebSocketServerHandler<T, D> handler;
 
     /**
      * Constructs a WebSocketServerChannelInitializer with the provided WebSocket server.
@@ -26,10 +27,12 @@ public class WebSocketServerChannelInitializer<T, D> extends ChannelInitializer<
      */
     public WebSocketServerChannelInitializer(WebSocketServer<T, D> webSocketServer) {
         this.webSocketServer = webSocketServer;
+        this.handler = new WebSocketServerHandler<>(webSocketServer);
     }
 
     /**
      * Initializes the channel pipeline with the necessary handlers for WebSocket communication.
+     * The HTTP handlers are removed by the handshake, leaving only the frame codec and the shared server handler.
      *
      * @param channel the socket channel being initialized.
      */
@@ -39,14 +42,34 @@ public class WebSocketServerChannelInitializer<T, D> extends ChannelInitializer<
 
         WebSocketServerConfiguration<T> configuration = webSocketServer.getConfiguration();
 
-        SslContext sslContext = configuration.getSslContext();
+        addHttpHandlers(channel, configuration.getSslContext(), configuration.isLightweightHandshake(),
+                configuration.getMaxHandshakeHeaderSize(), configuration.getMaxHttpContentLength());
+        pipeline.addLast(handler);
+    }
+
+    /**
+     * Adds the SSL and HTTP handlers needed to receive upgrade requests, shared with {@link WebSocketListener}.
+     *
+     * @param channel                the channel being initialized.
+     * @param sslContext             the SSL context, or null for plain connections.
+     * @param lightweightHandshake   true to use the lightweight handshake decoder.
+     * @param maxHandshakeHeaderSize the maximum size of headers accepted by the lightweight handshake decoder.
+     * @param maxHttpContentLength   the maximum content length accepted by the HTTP aggregator.
+     */
+    static void addHttpHandlers(Channel channel, SslContext sslContext, boolean lightweightHandshake,
+                                int maxHandshakeHeaderSize, int maxHttpContentLength) {
+        ChannelPipeline pipeline = channel.pipeline();
+
         if (sslContext != null) {
             pipeline.addLast(sslContext.newHandler(channel.alloc()));
         }
 
-        pipeline.addLast(new HttpServerCodec());
-        pipeline.addLast(new ChunkedWriteHandler());
-        pipeline.addLast(new HttpObjectAggregator(65536));
-        pipeline.addLast(new WebSocketServerHandler<>(webSocketServer));
+        if (lightweightHandshake) {
+            pipeline.addLast(new HttpResponseEncoder());
+            pipeline.addLast(new HandshakeDecoder(maxHandshakeHeaderSize));
+        } else {
+            pipeline.addLast(new HttpServerCodec());
+            pipeline.addLast(new HttpObjectAggregator(maxHttpContentLength));
+        }
     }
 }
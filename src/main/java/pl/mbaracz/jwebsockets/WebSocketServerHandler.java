@@ -1,39 +1,46 @@
 package pl.mbaracz.jwebsockets;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelId;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.http.websocketx.*;
+import io.netty.util.AttributeKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pl.mbaracz.jwebsockets.client.RelayClient;
 import pl.mbaracz.jwebsockets.configuration.WebSocketServerConfiguration;
 import pl.mbaracz.jwebsockets.handler.OpenHandler;
 import pl.mbaracz.jwebsockets.handler.UpgradeHandler;
 import pl.mbaracz.jwebsockets.message.MessageDecoder;
-import pl.mbaracz.jwebsockets.message.MessageEncoder;
 
-import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.function.BiConsumer;
 import java.util.regex.Pattern;
 
 /**
  * Handles WebSocket and HTTP communication for the WebSocket server.
+ * The handler is stateless, all per-connection state is kept in the session, so one instance is shared by all channels.
  *
  * @param <T> the type of WebSocket messages.
  * @param <D> the type of additional data associated with WebSocket sessions.
  */
+@ChannelHandler.Sharable
 public class WebSocketServerHandler<T, D> extends SimpleChannelInboundHandler<Object> {
 
     private static final Logger logger = LoggerFactory.getLogger(WebSocketServerHandler.class);
-    private final BiConsumer<T, ChannelHandlerContext> messageSender;
+
+    /**
+     * Channel attribute holding the session of the channel, so that it can be found without a server-wide lookup.
+     */
+    static final AttributeKey<WebSocketSession<?, ?>> SESSION = AttributeKey.valueOf("jwebsockets.session");
+
     private final WebSocketServer<T, D> webSocketServer;
-    private WebSocketServerHandshaker handshaker;
 
     /**
      * Constructs a WebSocketServerHandler with the provided WebSocket server.
@@ -42,28 +49,6 @@ public class WebSocketServerHandler<T, D> extends SimpleChannelInboundHandler<Ob
      */
     public WebSocketServerHandler(WebSocketServer<T, D> webSocketServer) {
         this.webSocketServer = webSocketServer;
-        this.messageSender = getMessageSender(webSocketServer.getConfiguration());
-    }
-
-    /**
-     * Determines the message sender based on the WebSocket server configuration.
-     *
-     * @param configuration the WebSocket server configuration.
-     * @return the message sender function.
-     */
-    private BiConsumer<T, ChannelHandlerContext> getMessageSender(WebSocketServerConfiguration<T> configuration) {
-        MessageEncoder<T> encoder = configuration.getMessageEncoder();
-
-        if (configuration.isRespondWithBinaryFrame()) {
-            return (message, context) -> {
-                ByteBuf byteBuf = Unpooled.wrappedBuffer(encoder.encode(message));
-                context.writeAndFlush(new BinaryWebSocketFrame(byteBuf));
-            };
-        }
-        return (message, context) -> {
-            String stringMessage = new String(encoder.encode(message), StandardCharsets.UTF_8);
-            context.writeAndFlush(new TextWebSocketFrame(stringMessage));
-        };
     }
 
     @Override
@@ -81,17 +66,57 @@ public class WebSocketServerHandler<T, D> extends SimpleChannelInboundHandler<Ob
         context.flush();
     }
 
+    @Override
+    public void handlerAdded(ChannelHandlerContext context) {
+        // Handlers added by the router after the channel became active do not receive the channelActive event
+        if (context.channel().isActive()) {
+            createSession(context);
+        }
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext context) {
-        WebSocketSession<T, D> session = new WebSocketSession<>(context, messageSender);
-        webSocketServer.addSession(context.channel().id(), session);
+        createSession(context);
+        context.fireChannelActive();
+    }
+
+    /**
+     * Creates the session of the channel, unless it already exists.
+     *
+     * @param context the channel handler context.
+     */
+    private void createSession(ChannelHandlerContext context) {
+        if (context.channel().hasAttr(SESSION) && context.channel().attr(SESSION).get() != null) {
+            return;
+        }
+
+        WebSocketServerConfiguration<T> configuration = webSocketServer.getConfiguration();
+        WebSocketSession<T, D> session = new WebSocketSession<>(webSocketServer.nextSessionId(), context,
+                configuration.getDefaultCodec());
+        context.channel().attr(SESSION).set(session);
+        webSocketServer.addSession(session);
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext context) {
-        ChannelId channelId = context.channel().id();
-        logger.debug("Channel with id " + channelId + " is now inactive");
-        webSocketServer.removeSession(channelId);
+        logger.debug("Channel with id " + context.channel().id() + " is now inactive");
+
+        WebSocketSession<?, ?> session = context.channel().attr(SESSION).getAndSet(null);
+        if (session != null) {
+            webSocketServer.removeSession(session.getId());
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext context) {
+        if (context.channel().isWritable()) {
+            WebSocketSession<T, D> session = getSession(context);
+
+            if (session != null) {
+                session.drainConflated();
+            }
+        }
+        context.fireChannelWritabilityChanged();
     }
 
     @Override
@@ -102,6 +127,17 @@ public class WebSocketServerHandler<T, D> extends SimpleChannelInboundHandler<Ob
         }
     }
 
+    /**
+     * Returns the session of the channel, stored when the channel became active.
+     *
+     * @param context the channel handler context.
+     * @return the session, or null if the channel is not active.
+     */
+    @SuppressWarnings("unchecked")
+    private WebSocketSession<T, D> getSession(ChannelHandlerContext context) {
+        return (WebSocketSession<T, D>) context.channel().attr(SESSION).get();
+    }
+
     /**
      * Constructs the WebSocket location URL based on the request.
      *
@@ -119,16 +155,44 @@ public class WebSocketServerHandler<T, D> extends SimpleChannelInboundHandler<Ob
     }
 
     /**
-     * Determines if the HTTP request should be upgraded to WebSocket.
+     * Determines if the HTTP request should be upgraded to WebSocket. The query string is ignored when comparing
+     * the path, requests routed to this server by a {@link WebSocketListener} already matched its path.
      *
      * @param request the HTTP request.
+     * @param uri     the decoded request URI.
+     * @param routed  true if the request was routed by a listener.
      * @return true if the request should be upgraded, false otherwise.
      */
-    private boolean shouldUpgrade(FullHttpRequest request) {
+    private boolean shouldUpgrade(FullHttpRequest request, QueryStringDecoder uri, boolean routed) {
         if (request.method() != HttpMethod.GET) return false;
         if (request.decoderResult().isFailure()) return false;
         if (!Objects.equals(request.headers().get("Upgrade"), "websocket")) return false;
-        return Objects.equals(request.uri(), webSocketServer.getPath());
+        return routed || Objects.equals(uri.path(), webSocketServer.getPath());
+    }
+
+    /**
+     * Selects the first subprotocol requested by the client which is supported by the server. The relay subprotocol
+     * is supported when the server accepts relays.
+     *
+     * @param request the HTTP request.
+     * @return the selected subprotocol, or null if none was requested or none is supported.
+     */
+    private String selectSubprotocol(FullHttpRequest request) {
+        String requested = request.headers().get(HttpHeaderNames.SEC_WEBSOCKET_PROTOCOL);
+        Map<String, ?> supported = webSocketServer.getConfiguration().getSubprotocols();
+        boolean relays = webSocketServer.isAcceptingRelays();
+
+        if (requested == null || (supported.isEmpty() && !relays)) {
+            return null;
+        }
+
+        for (String subprotocol : requested.split(",")) {
+            String name = subprotocol.trim();
+            if (supported.containsKey(name) || (relays && RelayClient.SUBPROTOCOL.equals(name))) {
+                return name;
+            }
+        }
+        return null;
     }
 
     /**
@@ -178,7 +242,7 @@ public class WebSocketServerHandler<T, D> extends SimpleChannelInboundHandler<Ob
      * @param session    the WebSocket session associated with the frame.
      */
     private void handleCloseFrame(ChannelHandlerContext context, CloseWebSocketFrame closeFrame, WebSocketSession<T, D> session) {
-        handshaker.close(context.channel(), closeFrame.retain());
+        context.writeAndFlush(closeFrame.retain()).addListener(ChannelFutureListener.CLOSE);
 
         if (session != null && webSocketServer.getCloseHandler() != null) {
             webSocketServer.getCloseHandler().handleClose(session, closeFrame.reasonText(), closeFrame.statusCode());
@@ -194,12 +258,24 @@ public class WebSocketServerHandler<T, D> extends SimpleChannelInboundHandler<Ob
      */
     private void handleMessageFrame(MessageDecoder<T> decoder, WebSocketFrame frame, WebSocketSession<T, D> session) {
         ByteBuf content = frame.content();
+        MessageRouter<T, D> router = webSocketServer.getMessageRouter();
+
+        if (router != null) {
+            session.updateLastMessageTime();
+            router.dispatch(session, content);
+            return;
+        }
+
         byte[] bytes = new byte[content.readableBytes()];
         content.getBytes(content.readerIndex(), bytes);
 
         T message = decoder.decode(bytes);
         session.updateLastMessageTime();
 
+        if (session.consume(message)) {
+            return;
+        }
+
         if (webSocketServer.getMessageHandler() != null) {
             webSocketServer.getMessageHandler().handleMessage(session, message);
         }
@@ -212,7 +288,7 @@ public class WebSocketServerHandler<T, D> extends SimpleChannelInboundHandler<Ob
      * @param frame   the WebSocket frame.
      */
     private void handleWebSocketFrame(ChannelHandlerContext context, WebSocketFrame frame) {
-        WebSocketSession<T, D> session = webSocketServer.getSessionByChannelId(context.channel().id());
+        WebSocketSession<T, D> session = getSession(context);
 
         if (session == null) {
             logger.warn("Received " + frame.getClass() + " while session is null!");
@@ -224,9 +300,9 @@ public class WebSocketServerHandler<T, D> extends SimpleChannelInboundHandler<Ob
         if (frame instanceof CloseWebSocketFrame) {
             handleCloseFrame(context, (CloseWebSocketFrame) frame, session);
         } else if (frame instanceof TextWebSocketFrame && configuration.isAllowTextFrames()) {
-            handleMessageFrame(configuration.getMessageDecoder(), frame, session);
-        } else if (frame instanceof BinaryWebSocketFrame && configuration.isAllowBinaryFrames()) {
-            handleMessageFrame(configuration.getMessageDecoder(), frame, session);
+            handleMessageFrame(session.getCodec().getDecoder(), frame, session);
+        } else if (frame instanceof BinaryWebSocketFrame && (configuration.isAllowBinaryFrames() || session.getCodec().isBinary())) {
+            handleMessageFrame(session.getCodec().getDecoder(), frame, session);
         } else if (frame instanceof PingWebSocketFrame && configuration.isPingPongEnabled()) {
             context.write(new PongWebSocketFrame(frame.content().retain()));
         } else {
@@ -241,7 +317,12 @@ public class WebSocketServerHandler<T, D> extends SimpleChannelInboundHandler<Ob
      * @param request the HTTP request.
      */
     private void handleHttpRequest(ChannelHandlerContext context, FullHttpRequest request) {
-        if (!shouldUpgrade(request)) {
+        Map<String, String> pathParameters = context.channel().hasAttr(RoutingHandler.PATH_PARAMETERS)
+                ? context.channel().attr(RoutingHandler.PATH_PARAMETERS).getAndSet(null)
+                : null;
+        QueryStringDecoder uri = new QueryStringDecoder(request.uri());
+
+        if (!shouldUpgrade(request, uri, pathParameters != null)) {
             sendBadRequestResponse(context);
             return;
         }
@@ -250,18 +331,29 @@ public class WebSocketServerHandler<T, D> extends SimpleChannelInboundHandler<Ob
             sendForbiddenResponse(context);
             return;
         }
-        WebSocketServerHandshakerFactory wsFactory = new WebSocketServerHandshakerFactory(getWebSocketLocation(request), null, true);
+        String subprotocol = selectSubprotocol(request);
+        boolean lightweight = context.pipeline().get(HandshakeDecoder.class) != null;
+        WebSocketServerHandshaker handshaker = null;
 
-        handshaker = wsFactory.newHandshaker(request);
+        if (lightweight) {
+            if (!HandshakeDecoder.isSupported(request)) {
+                sendUnsupportedVersionResponse(context);
+                return;
+            }
+        } else {
+            WebSocketServerHandshakerFactory wsFactory = new WebSocketServerHandshakerFactory(getWebSocketLocation(request), subprotocol, true);
 
-        if (handshaker == null) {
-            WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(context.channel());
-            return;
+            handshaker = wsFactory.newHandshaker(request);
+
+            if (handshaker == null) {
+                sendUnsupportedVersionResponse(context);
+                return;
+            }
         }
 
         UpgradeHandler<T, D> upgradeHandler = webSocketServer.getUpgradeHandler();
 
-        WebSocketSession<T, D> session = webSocketServer.getSessionByChannelId(context.channel().id());
+        WebSocketSession<T, D> session = getSession(context);
 
         if (session == null) {
             logger.warn("Unable to process upgrade, session is null");
@@ -269,24 +361,55 @@ public class WebSocketServerHandler<T, D> extends SimpleChannelInboundHandler<Ob
             return;
         }
 
+        boolean relay = RelayClient.SUBPROTOCOL.equals(subprotocol);
+
+        if (subprotocol != null && !relay) {
+            session.setSubprotocol(subprotocol, webSocketServer.getConfiguration().getSubprotocols().get(subprotocol));
+        }
+        session.setRequestParameters(pathParameters != null ? pathParameters : Collections.emptyMap(), uri.parameters());
+        SessionResumption.ParkedSession<T, D> parked = relay ? null : webSocketServer.takeParkedSession(session, uri.parameters());
+
         if (upgradeHandler != null) {
             HttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST);
 
             if (!upgradeHandler.handleUpgrade(request, session, response)) {
+                webSocketServer.discardParkedSession(parked);
                 context.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
                 return;
             }
         }
-        handshaker.handshake(context.channel(), request).addListener(it -> {
-            if (it.isSuccess()) {
+        ChannelFuture handshake = lightweight
+                ? HandshakeDecoder.handshake(context, request, subprotocol)
+                : handshaker.handshake(context.channel(), request);
+
+        handshake.addListener(it -> {
+            if (!it.isSuccess()) {
+                webSocketServer.discardParkedSession(parked);
+            } else if (relay) {
+                webSocketServer.openRelay(context);
+            } else {
+                webSocketServer.openSession(session, parked);
+
                 OpenHandler<T, D> openHandler = webSocketServer.getOpenHandler();
                 if (openHandler != null) {
                     openHandler.handleOpen(session);
                 }
+                webSocketServer.drainMailbox(session);
             }
         });
     }
 
+    /**
+     * Sends a response listing the supported WebSocket versions to the client and closes the connection, as the
+     * lightweight handshake decoder does not parse any further request.
+     *
+     * @param context the channel handler context.
+     */
+    private void sendUnsupportedVersionResponse(ChannelHandlerContext context) {
+        WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(context.channel())
+                .addListener(ChannelFutureListener.CLOSE);
+    }
+
     /**
      * Sends a forbidden response to the client.
      *
@@ -1,9 +1,25 @@
 package pl.mbaracz.jwebsockets;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.concurrent.EventExecutor;
+import pl.mbaracz.jwebsockets.message.MessageCodec;
 
+import java.nio.channels.ClosedChannelException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.function.BiConsumer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Represents a WebSocket session with a client, maintaining connection details and enabling message sending.
@@ -13,19 +29,77 @@ import java.util.function.BiConsumer;
  */
 public class WebSocketSession<T, D> {
 
-    private final BiConsumer<T, ChannelHandlerContext> messageSender;
+    /**
+     * Query parameter of the upgrade request carrying the resume token of a closed session.
+     */
+    public static final String RESUME_TOKEN_PARAMETER = "resume";
+
+    private final long id;
+    private volatile MessageCodec<T> codec;
+    private volatile String subprotocol;
     private final ChannelHandlerContext context;
     private final Date connectedSince;
+    private final Set<String> topics = ConcurrentHashMap.newKeySet();
+    private volatile ConflationBuffer conflationBuffer;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private volatile SessionIndexRegistry<T, D> indexes;
+    private volatile PendingRequests<T> requests;
+    private volatile ReliableDelivery<T> reliableDelivery;
+    private volatile String resumeToken;
+    private volatile boolean resumed;
+    private volatile boolean replayComplete = true;
+    private long deliveredSequence;
+    private Map<String, String> pathParameters = Collections.emptyMap();
+    private Map<String, List<String>> queryParameters = Collections.emptyMap();
     private Date lastMessageTime;
     private D data;
 
     /**
      * Constructs a new WebSocketSession.
      */
-    WebSocketSession(ChannelHandlerContext context, BiConsumer<T, ChannelHandlerContext> messageSender) {
+    WebSocketSession(long id, ChannelHandlerContext context, MessageCodec<T> codec) {
+        this.id = id;
         this.context = context;
         this.connectedSince = new Date();
-        this.messageSender = messageSender;
+        this.codec = codec;
+    }
+
+    /**
+     * Returns the identifier of this session, unique within its server.
+     *
+     * @return The session id.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the subprotocol negotiated during the handshake.
+     *
+     * @return The subprotocol, or null if none was negotiated.
+     */
+    public String getSubprotocol() {
+        return subprotocol;
+    }
+
+    /**
+     * Returns the codec used to encode messages sent to and decode messages received from this session.
+     *
+     * @return The message codec.
+     */
+    public MessageCodec<T> getCodec() {
+        return codec;
+    }
+
+    /**
+     * Sets the subprotocol negotiated during the handshake together with its codec.
+     *
+     * @param subprotocol The subprotocol.
+     * @param codec       The codec of the subprotocol.
+     */
+    void setSubprotocol(String subprotocol, MessageCodec<T> codec) {
+        this.subprotocol = subprotocol;
+        this.codec = codec;
     }
 
     /**
@@ -54,12 +128,21 @@ public class WebSocketSession<T, D> {
     }
 
     /**
-     * Sets the additional data associated with this session.
+     * Sets the additional data associated with this session, updating the session indexes of the server.
+     * After mutating the data in place, set it again so that the indexes see the new keys.
      *
      * @param data The additional data to be set.
      */
     public void setData(D data) {
         this.data = data;
+
+        // Serialized with detaching, so that a session closed in the meantime is never indexed again
+        synchronized (this) {
+            SessionIndexRegistry<T, D> registry = indexes;
+            if (registry != null) {
+                registry.update(this, data);
+            }
+        }
     }
 
     /**
@@ -71,6 +154,36 @@ public class WebSocketSession<T, D> {
         return data;
     }
 
+    /**
+     * Returns the parameters captured from the path of the upgrade request, such as {@code room} for an endpoint
+     * routed at {@code /rooms/{room}}.
+     *
+     * @return The path parameters, never null.
+     */
+    public Map<String, String> getPathParameters() {
+        return pathParameters;
+    }
+
+    /**
+     * Returns the parameters of the query string of the upgrade request.
+     *
+     * @return The query parameters, never null.
+     */
+    public Map<String, List<String>> getQueryParameters() {
+        return queryParameters;
+    }
+
+    /**
+     * Sets the parameters of the upgrade request, called before the upgrade handler.
+     *
+     * @param pathParameters  The path parameters.
+     * @param queryParameters The query parameters.
+     */
+    void setRequestParameters(Map<String, String> pathParameters, Map<String, List<String>> queryParameters) {
+        this.pathParameters = pathParameters;
+        this.queryParameters = queryParameters;
+    }
+
     /**
      * Returns the ChannelChandlerContext associated with this session.
      *
@@ -80,12 +193,456 @@ public class WebSocketSession<T, D> {
         return context;
     }
 
+    /**
+     * Returns the mutable set of topics this session is subscribed to, maintained by the topic registry.
+     *
+     * @return The set of topic names.
+     */
+    Set<String> getTopics() {
+        return topics;
+    }
+
+    /**
+     * Adds this newly opened session to the session indexes, which are updated from now on when its data changes.
+     *
+     * @param indexes The index registry.
+     */
+    void attachIndexes(SessionIndexRegistry<T, D> indexes) {
+        synchronized (this) {
+            this.indexes = indexes;
+            indexes.add(this);
+        }
+    }
+
+    /**
+     * Removes this closed session from the session indexes, atomically with respect to data changes.
+     */
+    void detachIndexes() {
+        synchronized (this) {
+            SessionIndexRegistry<T, D> registry = indexes;
+            if (registry != null) {
+                indexes = null;
+                registry.remove(this);
+            }
+        }
+    }
+
+    /**
+     * Sets the table of requests waiting for a response of the client, if requests are supported by the server.
+     *
+     * @param requests The pending requests.
+     */
+    void setPendingRequests(PendingRequests<T> requests) {
+        this.requests = requests;
+    }
+
+    /**
+     * Sets the reliable delivery state of this session, if reliable delivery is enabled on the server.
+     *
+     * @param reliableDelivery The reliable delivery state.
+     */
+    void setReliableDelivery(ReliableDelivery<T> reliableDelivery) {
+        this.reliableDelivery = reliableDelivery;
+    }
+
+    /**
+     * Returns the highest sequence number acknowledged by the client in reliable delivery mode.
+     * The value is exact on the event loop of the session, and may lag behind when read from other threads.
+     *
+     * @return The acknowledged sequence number, 0 if none or if reliable delivery is disabled.
+     */
+    public long getAcknowledgedSequence() {
+        ReliableDelivery<T> delivery = reliableDelivery;
+        return delivery != null ? delivery.getBuffer().getAcknowledged() : 0;
+    }
+
+    /**
+     * Returns the number of messages sent in reliable delivery mode and not acknowledged yet.
+     * The value is exact on the event loop of the session, and may lag behind when read from other threads.
+     *
+     * @return The number of unacknowledged messages, 0 if reliable delivery is disabled.
+     */
+    public int getUnacknowledgedCount() {
+        ReliableDelivery<T> delivery = reliableDelivery;
+        return delivery != null ? delivery.getBuffer().size() : 0;
+    }
+
+    /**
+     * Returns the token with which the client can resume this session after its channel is closed, by passing it in
+     * the {@value #RESUME_TOKEN_PARAMETER} query parameter of the next upgrade request. A resumed session keeps the
+     * token of the session it resumed. Applications send the token to the client, typically from the open handler.
+     *
+     * @return The resume token, or null if session resumption is disabled or the session is not open yet.
+     */
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    /**
+     * Sets the resume token once the session is open.
+     *
+     * @param resumeToken The resume token.
+     */
+    void setResumeToken(String resumeToken) {
+        this.resumeToken = resumeToken;
+    }
+
+    /**
+     * Checks if this session took over the subscriptions and data of a closed session.
+     *
+     * @return {@code true} if the session was resumed.
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Checks if all messages missed while the resumed session was closed could be replayed. If not, the oldest of
+     * them had already been evicted from the replay buffers and the client should fetch the current state instead.
+     *
+     * @return {@code false} only if the session was resumed and some missed messages were lost.
+     */
+    public boolean isReplayComplete() {
+        return replayComplete;
+    }
+
+    /**
+     * Marks this session as resumed.
+     *
+     * @param replayComplete {@code true} if all missed messages were replayed.
+     */
+    void setResumed(boolean replayComplete) {
+        this.resumed = true;
+        this.replayComplete = replayComplete;
+    }
+
+    /**
+     * Returns the publish sequence number of the last topic message delivered to this session.
+     * Must be called from the event loop of the session.
+     *
+     * @return The sequence number, 0 if none.
+     */
+    long getDeliveredSequence() {
+        return deliveredSequence;
+    }
+
+    /**
+     * Records the delivery of a topic message. Must be called from the event loop of the session.
+     *
+     * @param sequence The publish sequence number of the message.
+     */
+    void setDeliveredSequence(long sequence) {
+        if (sequence > deliveredSequence) {
+            deliveredSequence = sequence;
+        }
+    }
+
+    /**
+     * Detaches the reliable delivery state, so that it survives the release of this session.
+     *
+     * @return The reliable delivery state, or null if reliable delivery is disabled.
+     */
+    ReliableDelivery<T> detachReliableDelivery() {
+        ReliableDelivery<T> delivery = reliableDelivery;
+        reliableDelivery = null;
+        return delivery;
+    }
+
+    /**
+     * Takes over the reliable delivery state of a resumed session and writes again its unacknowledged messages
+     * with their original sequence numbers. Must be called from the event loop of the session.
+     *
+     * @param delivery The reliable delivery state of the resumed session.
+     */
+    void resumeReliableDelivery(ReliableDelivery<T> delivery) {
+        ReliableDelivery<T> current = reliableDelivery;
+
+        if (current != null) {
+            current.release();
+        }
+        reliableDelivery = delivery;
+
+        ResendBuffer buffer = delivery.getBuffer();
+        for (long sequence = buffer.getFirstSequence(); sequence <= buffer.getLastSequence(); sequence++) {
+            ByteBuf content = delivery.frame(sequence, buffer.get(sequence), context.alloc());
+            context.write(codec.isBinary() ? new BinaryWebSocketFrame(content) : new TextWebSocketFrame(content));
+        }
+    }
+
+    /**
+     * Returns the event loop owning the channel of this session.
+     *
+     * @return The event executor.
+     */
+    EventExecutor executor() {
+        return context.executor();
+    }
+
     /**
      * Sends a message to the client associated with this session.
      *
      * @param message The message to be sent.
      */
     public void sendMessage(T message) {
-        messageSender.accept(message, context);
+        sendPayload(Unpooled.wrappedBuffer(codec.getEncoder().encode(message)));
+    }
+
+    /**
+     * Sends a request to the client and waits for its response, with the default request timeout of the server.
+     *
+     * @param request The request to be sent.
+     * @return The future completed with the response of the client, or completed exceptionally with a
+     * {@link java.util.concurrent.TimeoutException} on timeout or a {@link java.nio.channels.ClosedChannelException}
+     * if the session is closed first.
+     * @throws IllegalStateException If no correlation is configured on the server.
+     * @see pl.mbaracz.jwebsockets.configuration.WebSocketServerConfiguration#setCorrelation
+     */
+    public CompletableFuture<T> request(T request) throws IllegalStateException {
+        PendingRequests<T> pending = requirePendingRequests();
+        return request(pending, request, pending.getDefaultTimeoutMillis());
+    }
+
+    /**
+     * Sends a request to the client and waits for its response.
+     *
+     * @param request The request to be sent.
+     * @param timeout The time to wait for the response.
+     * @param unit    The unit of the timeout.
+     * @return The future completed with the response of the client.
+     * @throws IllegalStateException If no correlation is configured on the server.
+     * @see #request(Object)
+     */
+    public CompletableFuture<T> request(T request, long timeout, TimeUnit unit) throws IllegalStateException {
+        return request(requirePendingRequests(), request, unit.toMillis(timeout));
+    }
+
+    private CompletableFuture<T> request(PendingRequests<T> pending, T request, long timeoutMillis) {
+        PendingRequests.PendingRequest<T> future = pending.register(timeoutMillis);
+
+        if (future.isDone()) {
+            return future;
+        }
+
+        try {
+            T correlated = pending.correlate(request, future);
+
+            if (!sendPayload(Unpooled.wrappedBuffer(codec.getEncoder().encode(correlated)))) {
+                pending.fail(future, new ClosedChannelException());
+            }
+        } catch (RuntimeException exception) {
+            pending.fail(future, exception);
+        }
+        return future;
+    }
+
+    private PendingRequests<T> requirePendingRequests() {
+        PendingRequests<T> pending = requests;
+
+        if (pending == null) {
+            throw new IllegalStateException("Requests require a correlation to be configured!");
+        }
+        return pending;
+    }
+
+    /**
+     * Checks whether this session may receive acknowledgements of reliable delivery or responses to requests.
+     *
+     * @return {@code true} if received messages have to be passed to {@link #consume} first.
+     */
+    boolean isConsuming() {
+        return reliableDelivery != null || requests != null;
+    }
+
+    /**
+     * Consumes a received message if it is an acknowledgement of reliable delivery or the response to a request.
+     *
+     * @param message The received message.
+     * @return {@code true} if the message was consumed and must not be passed to the message handler.
+     */
+    boolean consume(T message) {
+        ReliableDelivery<T> delivery = reliableDelivery;
+
+        if (delivery != null && delivery.acknowledge(message)) {
+            return true;
+        }
+
+        PendingRequests<T> pending = requests;
+        return pending != null && pending.complete(message);
+    }
+
+    /**
+     * Sends an already encoded payload as a text or binary frame, depending on the codec of this session.
+     * The ownership of the payload is transferred to this method.
+     *
+     * @param payload The encoded message.
+     * @return {@code true} if the payload was written, {@code false} if the channel is no longer active.
+     */
+    boolean sendPayload(ByteBuf payload) {
+        return writePayload(payload, true);
+    }
+
+    /**
+     * Writes an already encoded payload without flushing, so that several frames can be flushed at once.
+     * The ownership of the payload is transferred to this method.
+     *
+     * @param payload The encoded message.
+     * @return {@code true} if the payload was written, {@code false} if the channel is no longer active.
+     */
+    boolean writePayload(ByteBuf payload) {
+        return writePayload(payload, false);
+    }
+
+    /**
+     * Writes an encoded payload, and flushes it in the same event loop task when called outside of the event loop.
+     */
+    private boolean writePayload(ByteBuf payload, boolean flush) {
+        if (!context.channel().isActive()) {
+            payload.release();
+            return false;
+        }
+
+        ReliableDelivery<T> delivery = reliableDelivery;
+        ByteBuf content = payload;
+
+        if (delivery != null) {
+            if (!context.executor().inEventLoop()) {
+                // Sequence numbers must be assigned in the order in which the frames are written to the channel
+                context.executor().execute(() -> writePayload(payload, flush));
+                return true;
+            }
+            content = delivery.sequence(payload, context.alloc());
+        }
+
+        WebSocketFrame frame = codec.isBinary() ? new BinaryWebSocketFrame(content) : new TextWebSocketFrame(content);
+        if (flush) {
+            context.writeAndFlush(frame);
+        } else {
+            context.write(frame);
+        }
+        return true;
+    }
+
+    /**
+     * Flushes all frames written to this session.
+     */
+    void flush() {
+        context.flush();
+    }
+
+    /**
+     * Checks if frames can be written to this session without queueing them in the outbound buffer.
+     *
+     * @return {@code true} if the channel is writable.
+     */
+    boolean isWritable() {
+        return context.channel().isWritable();
+    }
+
+    /**
+     * Checks if conflated messages have to be buffered instead of written, either because the channel is not
+     * writable or because older conflated messages are still pending and must not be overtaken.
+     *
+     * @return {@code true} if conflated messages should be passed to {@link #conflate}.
+     */
+    boolean isConflating() {
+        if (!isWritable()) {
+            return true;
+        }
+        ConflationBuffer buffer = conflationBuffer;
+        return buffer != null && buffer.hasPending();
+    }
+
+    /**
+     * Stores a conflated payload until the session becomes writable, replacing the pending payload with the same key.
+     * The ownership of the payload is transferred to this method.
+     *
+     * @param key        The conflation key.
+     * @param payload    The encoded message.
+     * @param statistics The statistics of the topic the message was published to.
+     */
+    void conflate(Object key, ByteBuf payload, TopicStatistics statistics) {
+        ConflationBuffer buffer = conflationBuffer;
+
+        if (buffer == null) {
+            synchronized (this) {
+                buffer = conflationBuffer;
+                if (buffer == null) {
+                    buffer = conflationBuffer = new ConflationBuffer();
+                }
+            }
+        }
+        buffer.offer(key, payload, statistics);
+
+        // The channel may have become writable in the meantime, without anyone left to drain the buffer
+        if (isWritable()) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Drains the conflated payloads on the event loop of this session, submitting at most one drain task at a time
+     * when called from another thread.
+     */
+    private void scheduleDrain() {
+        if (context.executor().inEventLoop()) {
+            drainConflated();
+        } else if (drainScheduled.compareAndSet(false, true)) {
+            context.executor().execute(this::drainConflated);
+        }
+    }
+
+    /**
+     * Writes and flushes all pending conflated payloads. Must be called from the event loop of this session.
+     */
+    void drainConflated() {
+        ConflationBuffer buffer = conflationBuffer;
+
+        if (buffer == null) {
+            return;
+        }
+
+        // Cleared before taking the payloads, so that a payload offered after the last take schedules another drain
+        drainScheduled.set(false);
+
+        Collection<ConflationBuffer.Entry> entries = buffer.take();
+
+        // Payloads offered while the previous ones were written are taken again, unless the channel became unwritable
+        while (!entries.isEmpty()) {
+            for (ConflationBuffer.Entry entry : entries) {
+                int bytes = entry.payload.readableBytes();
+
+                if (writePayload(entry.payload)) {
+                    entry.statistics.recordDelivery(bytes);
+                } else {
+                    entry.statistics.recordDrop();
+                }
+            }
+            flush();
+
+            entries = isWritable() ? buffer.take() : Collections.<ConflationBuffer.Entry>emptyList();
+        }
+    }
+
+    /**
+     * Releases all resources held by this session after its channel is closed.
+     */
+    void release() {
+        ReliableDelivery<T> delivery = reliableDelivery;
+
+        if (delivery != null) {
+            delivery.release();
+        }
+
+        PendingRequests<T> pending = requests;
+
+        if (pending != null) {
+            pending.close();
+        }
+
+        ConflationBuffer buffer = conflationBuffer;
+
+        if (buffer != null) {
+            buffer.release();
+        }
     }
 }
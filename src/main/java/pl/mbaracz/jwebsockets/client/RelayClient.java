@@ -0,0 +1,283 @@
+package pl.mbaracz.jwebsockets.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.mbaracz.jwebsockets.WebSocketClient;
+import pl.mbaracz.jwebsockets.cluster.ClusterBus;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side of the relay protocol, connecting an edge server to an upstream jwebsockets server accepting relays.
+ * <p>
+ * All topics are multiplexed over a single WebSocket connection. When the first local session subscribes to a topic
+ * or a topic pattern, the edge subscribes to it upstream, and when the last one unsubscribes the upstream interest is
+ * dropped. Messages published upstream arrive already encoded with the default codec, which both servers must share,
+ * and are delivered to the local subscribers without decoding or copying. The connection is reestablished whenever it
+ * is lost, and the whole interest of the edge is sent again.
+ * <p>
+ * The relay only flows downstream: messages published on the edge reach its local subscribers only. The connections
+ * are opened by a {@link WebSocketClient} with a frame handler of their own, since relayed frames are not messages of
+ * a session.
+ */
+public class RelayClient implements ClusterBus {
+
+    /**
+     * The WebSocket subprotocol negotiated by relay connections.
+     */
+    public static final String SUBPROTOCOL = "jwebsockets-relay";
+
+    private static final Logger logger = LoggerFactory.getLogger(RelayClient.class);
+
+    private static final byte SUBSCRIBE = 1;
+    private static final byte UNSUBSCRIBE = 2;
+    private static final byte PUBLISH = 3;
+
+    private static final int MAX_HANDSHAKE_RESPONSE_SIZE = 8192;
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private final URI upstream;
+    private final HttpHeaders headers = new DefaultHttpHeaders();
+    private final Set<String> interest = new HashSet<>();
+    private volatile EventLoopGroup group;
+    private volatile WebSocketClient<Object, Object> client;
+    private Channel channel;
+    private volatile Receiver receiver;
+    private volatile boolean running;
+
+    /**
+     * Constructs a new relay client of an upstream server.
+     *
+     * @param upstream The WebSocket URI of the upstream server, with the ws or wss scheme.
+     * @throws IllegalArgumentException If the URI does not use the ws or wss scheme.
+     */
+    public RelayClient(URI upstream) throws IllegalArgumentException {
+        if (!"ws".equalsIgnoreCase(upstream.getScheme()) && !"wss".equalsIgnoreCase(upstream.getScheme())) {
+            throw new IllegalArgumentException("Upstream URI must use the ws or wss scheme!");
+        }
+        this.upstream = upstream;
+    }
+
+    /**
+     * Adds a header to the upgrade requests sent upstream, for example to authenticate the edge.
+     *
+     * @param name  The name of the header.
+     * @param value The value of the header.
+     * @return The client instance for method chaining.
+     */
+    public synchronized RelayClient addHeader(String name, String value) {
+        headers.add(name, value);
+        if (client != null) {
+            client.addHeader(name, value);
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized void start(Receiver receiver) throws IOException, IllegalStateException {
+        if (group != null) {
+            throw new IllegalStateException("Relay client is already started!");
+        }
+        SslContext sslContext = "wss".equalsIgnoreCase(upstream.getScheme()) ? SslContextBuilder.forClient().build() : null;
+
+        this.receiver = receiver;
+        this.group = new NioEventLoopGroup(1, new DefaultThreadFactory("jwebsockets-relay", true));
+        this.client = new WebSocketClient<>(group).configure(configurer -> configurer
+                .setSslContext(sslContext)
+                .setMaxHandshakeResponseSize(MAX_HANDSHAKE_RESPONSE_SIZE));
+        for (Map.Entry<String, String> header : headers) {
+            client.addHeader(header.getKey(), header.getValue());
+        }
+        running = true;
+        connect();
+    }
+
+    /**
+     * Checks if the relay connection to the upstream server is established.
+     *
+     * @return true if the upstream server receives the interest of this edge.
+     */
+    public synchronized boolean isConnected() {
+        return channel != null;
+    }
+
+    @Override
+    public synchronized void addInterest(String topic) {
+        if (interest.add(topic) && channel != null) {
+            channel.writeAndFlush(interestFrame(SUBSCRIBE, topic));
+        }
+    }
+
+    @Override
+    public synchronized void removeInterest(String topic) {
+        if (interest.remove(topic) && channel != null) {
+            channel.writeAndFlush(interestFrame(UNSUBSCRIBE, topic));
+        }
+    }
+
+    /**
+     * Messages published on the edge are never sent upstream.
+     *
+     * @param topic the concrete topic.
+     * @return always false.
+     */
+    @Override
+    public boolean hasInterest(String topic) {
+        return false;
+    }
+
+    @Override
+    public void publish(String topic, ByteBuf payload) {
+        // Never called, the upstream server has no interest in the topics of the edge
+    }
+
+    @Override
+    public void close() {
+        EventLoopGroup current;
+        Channel connected;
+
+        synchronized (this) {
+            if (group == null) {
+                return;
+            }
+            running = false;
+            current = group;
+            connected = channel;
+            group = null;
+            client = null;
+            channel = null;
+        }
+        if (connected != null) {
+            connected.close();
+        }
+        current.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    private void connect() {
+        WebSocketClient<Object, Object> current = client;
+
+        if (!running || current == null) {
+            return;
+        }
+        current.connect(upstream, SUBPROTOCOL, new RelayHandler()).addListener((ChannelFuture future) -> {
+            if (!future.isSuccess()) {
+                logger.debug("Failed to connect to upstream server " + upstream, future.cause());
+                reconnect();
+            }
+        });
+    }
+
+    private void reconnect() {
+        EventLoopGroup current = group;
+
+        if (running && current != null && !current.isShuttingDown()) {
+            current.schedule(this::connect, RECONNECT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Makes an upgraded connection the relay connection and subscribes to the whole interest of this edge,
+     * atomically with respect to interest changes, so that the upstream server misses none of them.
+     */
+    private synchronized void register(Channel connected) {
+        if (!running) {
+            connected.close();
+            return;
+        }
+        channel = connected;
+
+        for (String topic : interest) {
+            connected.write(interestFrame(SUBSCRIBE, topic));
+        }
+        connected.flush();
+        logger.info("Relaying from upstream server " + upstream);
+    }
+
+    private synchronized void unregister(Channel disconnected) {
+        if (channel == disconnected) {
+            channel = null;
+        }
+    }
+
+    private static BinaryWebSocketFrame interestFrame(byte type, String topic) {
+        byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+        return new BinaryWebSocketFrame(Unpooled.buffer(1 + name.length).writeByte(type).writeBytes(name));
+    }
+
+    /**
+     * Handles the messages relayed by the upstream server.
+     */
+    private class RelayHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext context, Object event) {
+            if (event == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+                register(context.channel());
+            }
+            context.fireUserEventTriggered(event);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext context, WebSocketFrame frame) {
+            if (frame instanceof CloseWebSocketFrame) {
+                context.close();
+                return;
+            }
+            if (!(frame instanceof BinaryWebSocketFrame)) {
+                return;
+            }
+
+            ByteBuf content = frame.content();
+            byte type = content.readByte();
+
+            if (type != PUBLISH) {
+                logger.warn("Unknown relay frame type " + type + " from upstream server " + upstream);
+                return;
+            }
+
+            int length = content.readInt();
+            String topic = content.readCharSequence(length, StandardCharsets.UTF_8).toString();
+            try {
+                receiver.receive(topic, content);
+            } catch (RuntimeException exception) {
+                logger.error("Failed to publish a message of topic '" + topic + "' relayed from upstream", exception);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext context) {
+            unregister(context.channel());
+            reconnect();
+            context.fireChannelInactive();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext context, Throwable cause) {
+            logger.warn("Closing the relay connection to upstream server " + upstream, cause);
+            context.close();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package pl.mbaracz.jwebsockets.cluster;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of topics, answering whether a topic may be in the set with a configurable false positive rate and
+ * no false negatives. The positions of a topic are derived from a single 64-bit hash by double hashing, so a lookup
+ * takes a fixed number of bit tests regardless of the number of topics.
+ * <p>
+ * Bits can be set and cleared individually, so that the filter follows the non-zero counters of a remote
+ * {@link CountingBloomFilter}. Lookups are lock-free and may run concurrently with updates.
+ */
+public class BloomFilter {
+
+    private final int size;
+    private final int hashes;
+    private final AtomicLongArray words;
+
+    /**
+     * Constructs an empty filter.
+     *
+     * @param size   The number of bits.
+     * @param hashes The number of positions of every topic.
+     * @throws IllegalArgumentException If the size or the number of hashes is not positive.
+     */
+    public BloomFilter(int size, int hashes) throws IllegalArgumentException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Bloom filter size must be positive!");
+        }
+        if (hashes <= 0) {
+            throw new IllegalArgumentException("Bloom filter hash count must be positive!");
+        }
+        this.size = size;
+        this.hashes = hashes;
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    /**
+     * Returns the optimal number of bits of a filter holding the given number of topics.
+     *
+     * @param expectedTopics    The expected number of topics.
+     * @param falsePositiveRate The acceptable false positive rate, between 0 and 1.
+     * @return The number of bits.
+     */
+    public static int optimalSize(int expectedTopics, double falsePositiveRate) {
+        double bits = -expectedTopics * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        return (int) Math.max(64, Math.min(Integer.MAX_VALUE, Math.ceil(bits)));
+    }
+
+    /**
+     * Returns the optimal number of positions of every topic for a filter size and a number of topics.
+     *
+     * @param size           The number of bits.
+     * @param expectedTopics The expected number of topics.
+     * @return The number of hashes.
+     */
+    public static int optimalHashes(int size, int expectedTopics) {
+        return Math.max(1, (int) Math.round((double) size / expectedTopics * Math.log(2)));
+    }
+
+    /**
+     * Computes the 64-bit hash of a topic, a FNV-1a hash of its characters with a final avalanche, without copying
+     * the topic. The hash must be the same on every node, so it does not depend on {@link String#hashCode()}.
+     *
+     * @param topic The topic.
+     * @return The hash.
+     */
+    static long hash(String topic) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < topic.length(); i++) {
+            hash ^= topic.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Returns the i-th position of a topic with the given hash.
+     */
+    static int position(long hash, int i, int size) {
+        long combined = (int) hash + (long) i * (int) (hash >>> 32);
+        return (int) Math.floorMod(combined, (long) size);
+    }
+
+    /**
+     * Checks if a topic may be in the set.
+     *
+     * @param topic The topic.
+     * @return false if the topic is certainly not in the set.
+     */
+    public boolean mightContain(String topic) {
+        long hash = hash(topic);
+
+        for (int i = 0; i < hashes; i++) {
+            if (!get(position(hash, i, size))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets a bit.
+     *
+     * @param position The position of the bit.
+     */
+    public void set(int position) {
+        long mask = 1L << position;
+        int index = position >>> 6;
+        long current;
+
+        do {
+            current = words.get(index);
+        } while ((current & mask) == 0 && !words.compareAndSet(index, current, current | mask));
+    }
+
+    /**
+     * Clears a bit.
+     *
+     * @param position The position of the bit.
+     */
+    public void clear(int position) {
+        long mask = 1L << position;
+        int index = position >>> 6;
+        long current;
+
+        do {
+            current = words.get(index);
+        } while ((current & mask) != 0 && !words.compareAndSet(index, current, current & ~mask));
+    }
+
+    /**
+     * Checks if a bit is set.
+     *
+     * @param position The position of the bit.
+     * @return true if the bit is set.
+     */
+    public boolean get(int position) {
+        return (words.get(position >>> 6) & (1L << position)) != 0;
+    }
+
+    /**
+     * Returns the number of bits.
+     *
+     * @return The size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of positions of every topic.
+     *
+     * @return The number of hashes.
+     */
+    public int hashes() {
+        return hashes;
+    }
+
+    /**
+     * Returns the number of 64-bit words holding the bits.
+     *
+     * @return The number of words.
+     */
+    public int wordCount() {
+        return words.length();
+    }
+
+    /**
+     * Returns a word of the bits, the bit at position {@code p} being bit {@code p % 64} of word {@code p / 64}.
+     *
+     * @param index The index of the word.
+     * @return The word.
+     */
+    public long word(int index) {
+        return words.get(index);
+    }
+
+    /**
+     * Replaces a word of the bits.
+     *
+     * @param index The index of the word.
+     * @param word  The word.
+     */
+    public void setWord(int index, long word) {
+        words.set(index, word);
+    }
+
+    /**
+     * Estimates the false positive rate from the fraction of set bits.
+     *
+     * @return The probability that a topic which is not in the set is reported as present.
+     */
+    public double getFalsePositiveRate() {
+        long set = 0;
+
+        for (int i = 0; i < words.length(); i++) {
+            set += Long.bitCount(words.get(i));
+        }
+        return Math.pow((double) set / size, hashes);
+    }
+
+    /**
+     * Returns the memory used by the bits.
+     *
+     * @return The memory usage in bytes.
+     */
+    public long getMemoryUsage() {
+        return (long) words.length() * Long.BYTES;
+    }
+}
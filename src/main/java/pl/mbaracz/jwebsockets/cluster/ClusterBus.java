@@ -0,0 +1,83 @@
+package pl.mbaracz.jwebsockets.cluster;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Bus connecting the nodes of a cluster, so that messages published on one node reach the subscribers on the others.
+ * <p>
+ * Every node announces its interest, the topics and topic patterns having local subscribers, and learns the
+ * interest of its peers. A published message is forwarded only to the peers interested in its topic, already
+ * encoded with the default codec, which every node of the cluster must share. Forwarded messages are published
+ * to the local subscribers of the receiving node and are not forwarded any further, so every node must be connected
+ * to every other node.
+ * <p>
+ * Interest changes and publishes are reported from any thread, and must not block. A topic may be announced again
+ * while it is announced, for instance when the node joins the cluster while the topic gets its first subscriber, so
+ * announcing a topic twice must change nothing, and neither must withdrawing a topic which is not announced.
+ */
+public interface ClusterBus extends Closeable {
+
+    /**
+     * Connects this node to the cluster.
+     *
+     * @param receiver the receiver of the messages forwarded by the peers.
+     * @throws IOException if the bus cannot be started.
+     */
+    void start(Receiver receiver) throws IOException;
+
+    /**
+     * Announces that a topic or a topic pattern got its first local subscriber.
+     *
+     * @param topic the topic or the topic pattern.
+     */
+    void addInterest(String topic);
+
+    /**
+     * Announces that a topic or a topic pattern lost its last local subscriber.
+     *
+     * @param topic the topic or the topic pattern.
+     */
+    void removeInterest(String topic);
+
+    /**
+     * Checks if any peer is interested in a topic, directly or through a topic pattern.
+     *
+     * @param topic the concrete topic.
+     * @return true if a message published to the topic would be forwarded.
+     */
+    boolean hasInterest(String topic);
+
+    /**
+     * Forwards a message to all peers interested in its topic.
+     *
+     * @param topic   the concrete topic.
+     * @param payload the message encoded with the default codec. It is only valid during the call, the bus retains
+     *                it if it is written asynchronously.
+     */
+    void publish(String topic, ByteBuf payload);
+
+    /**
+     * Disconnects this node from the cluster.
+     */
+    @Override
+    void close();
+
+    /**
+     * Receiver of the messages forwarded by the peers.
+     */
+    @FunctionalInterface
+    interface Receiver {
+
+        /**
+         * Receives a message published on another node.
+         *
+         * @param topic   the concrete topic.
+         * @param payload the message encoded with the default codec. It is only valid during the call, the receiver
+         *                retains it to keep it longer.
+         */
+        void receive(String topic, ByteBuf payload);
+    }
+}
@@ -0,0 +1,131 @@
+package pl.mbaracz.jwebsockets.cluster;
+
+import java.util.Arrays;
+
+/**
+ * Counting Bloom filter of topics, supporting removals. Every position holds an 8-bit counter of the topics mapped to
+ * it, and the positions with non-zero counters form a plain {@link BloomFilter}. Adding and removing a topic report
+ * the positions whose bit changed, so that remote copies of the plain filter can be kept up to date with small deltas.
+ * <p>
+ * A counter reaching 255 saturates and is never decremented again, which keeps the filter free of false negatives at
+ * the cost of a stale bit. The filter is not thread-safe.
+ */
+public class CountingBloomFilter {
+
+    private static final int MAX_COUNT = 0xff;
+    private static final int[] NO_CHANGES = new int[0];
+
+    private final byte[] counters;
+    private final BloomFilter filter;
+
+    /**
+     * Constructs an empty filter.
+     *
+     * @param size   The number of counters.
+     * @param hashes The number of positions of every topic.
+     * @throws IllegalArgumentException If the size or the number of hashes is not positive.
+     */
+    public CountingBloomFilter(int size, int hashes) throws IllegalArgumentException {
+        this.filter = new BloomFilter(size, hashes);
+        this.counters = new byte[size];
+    }
+
+    /**
+     * Adds a topic.
+     *
+     * @param topic The topic.
+     * @return The positions whose counter became non-zero.
+     */
+    public int[] add(String topic) {
+        long hash = BloomFilter.hash(topic);
+        int[] changed = null;
+        int count = 0;
+
+        for (int i = 0; i < filter.hashes(); i++) {
+            int position = BloomFilter.position(hash, i, filter.size());
+            int counter = counters[position] & 0xff;
+
+            if (counter == MAX_COUNT) {
+                continue;
+            }
+            counters[position] = (byte) (counter + 1);
+
+            if (counter == 0) {
+                filter.set(position);
+                if (changed == null) {
+                    changed = new int[filter.hashes()];
+                }
+                changed[count++] = position;
+            }
+        }
+        return changed == null ? NO_CHANGES : Arrays.copyOf(changed, count);
+    }
+
+    /**
+     * Removes a topic, which must have been added before.
+     *
+     * @param topic The topic.
+     * @return The positions whose counter became zero.
+     */
+    public int[] remove(String topic) {
+        long hash = BloomFilter.hash(topic);
+        int[] changed = null;
+        int count = 0;
+
+        for (int i = 0; i < filter.hashes(); i++) {
+            int position = BloomFilter.position(hash, i, filter.size());
+            int counter = counters[position] & 0xff;
+
+            if (counter == MAX_COUNT || counter == 0) {
+                continue;
+            }
+            counters[position] = (byte) (counter - 1);
+
+            if (counter == 1) {
+                filter.clear(position);
+                if (changed == null) {
+                    changed = new int[filter.hashes()];
+                }
+                changed[count++] = position;
+            }
+        }
+        return changed == null ? NO_CHANGES : Arrays.copyOf(changed, count);
+    }
+
+    /**
+     * Checks if a topic may have been added.
+     *
+     * @param topic The topic.
+     * @return false if the topic is certainly not in the filter.
+     */
+    public boolean mightContain(String topic) {
+        return filter.mightContain(topic);
+    }
+
+    /**
+     * Returns the plain filter of the positions with non-zero counters.
+     *
+     * @return The plain filter, updated by this filter.
+     */
+    public BloomFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Estimates the false positive rate from the fraction of non-zero counters.
+     *
+     * @return The probability that a topic which was not added is reported as present.
+     */
+    public double getFalsePositiveRate() {
+        return filter.getFalsePositiveRate();
+    }
+
+    /**
+     * Returns the memory used by the counters and the plain filter.
+     *
+     * @return The memory usage in bytes.
+     */
+    public long getMemoryUsage() {
+        return counters.length + filter.getMemoryUsage();
+    }
+}
@@ -0,0 +1,599 @@
+package pl.mbaracz.jwebsockets.cluster;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.mbaracz.jwebsockets.topic.TopicTrie;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cluster bus connecting the nodes over TCP. Every node listens on its bind address and connects to the members
+ * added to it, reconnecting whenever a connection is lost. Each pair of nodes must be connected once, so a node
+ * should only list the members started before it, or the members it is responsible for connecting to.
+ * <p>
+ * Nodes exchange length-prefixed frames over a single connection per pair: the whole interest of a node once
+ * connected, then interest changes and published messages. Published payloads are written without copying, and
+ * writes to a peer are flushed together when many messages are published at once. Interest changes are queued in
+ * the order they are made and written to the peers by the event loop of the bus, so announcing them never waits for
+ * the network. Announcing a topic twice, or withdrawing a topic which is not announced, changes nothing.
+ * <p>
+ * With {@linkplain #setInterestFilter(int, double) an interest filter}, a node summarizes its topics in a
+ * {@link CountingBloomFilter} instead of listing them: peers receive the filter once connected and then only the
+ * positions whose bit changed, and check a topic against it in a fixed number of bit tests. Topic patterns are still
+ * sent exactly. A false positive only forwards a message to a node which drops it for lack of subscribers.
+ */
+public class TcpClusterBus implements ClusterBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(TcpClusterBus.class);
+
+    private static final byte ADD_INTEREST = 1;
+    private static final byte REMOVE_INTEREST = 2;
+    private static final byte PUBLISH = 3;
+    private static final byte FILTER_SNAPSHOT = 4;
+    private static final byte FILTER_SET = 5;
+    private static final byte FILTER_CLEAR = 6;
+
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+    private static final int EXPLICIT_FLUSH_AFTER_FLUSHES = 256;
+
+    private final InetSocketAddress bindAddress;
+    private final List<InetSocketAddress> members = new CopyOnWriteArrayList<>();
+    private final List<Peer> peers = new CopyOnWriteArrayList<>();
+    private final Set<String> interest = new HashSet<>();
+    /**
+     * Topics added to the interest filter, so that a topic announced twice is counted once.
+     */
+    private final Set<String> filtered = new HashSet<>();
+    private final Queue<ByteBuf> changes = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean sendingChanges = new AtomicBoolean();
+    private CountingBloomFilter filter;
+    private volatile EventLoopGroup group;
+    private Channel serverChannel;
+    private volatile Receiver receiver;
+    private volatile boolean running;
+
+    /**
+     * Constructs a new bus listening on an address.
+     *
+     * @param bindAddress The address accepting the connections of the peers, port 0 picks an ephemeral port.
+     */
+    public TcpClusterBus(InetSocketAddress bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * Adds a member this node connects to, immediately if the bus is already started.
+     *
+     * @param address The address the member listens on.
+     * @return The bus instance for method chaining.
+     */
+    public TcpClusterBus addMember(InetSocketAddress address) {
+        members.add(address);
+
+        if (running) {
+            connect(address);
+        }
+        return this;
+    }
+
+    /**
+     * Summarizes the topics of this node in a counting Bloom filter sized for the expected number of topics,
+     * instead of sending every topic to the peers. Must be set before the bus is started.
+     *
+     * @param expectedTopics    The expected number of distinct topics with local subscribers.
+     * @param falsePositiveRate The false positive rate at the expected number of topics, between 0 and 1.
+     * @return The bus instance for method chaining.
+     * @throws IllegalArgumentException If the expected number of topics or the false positive rate is out of range.
+     * @throws IllegalStateException    If the bus is already started.
+     */
+    public synchronized TcpClusterBus setInterestFilter(int expectedTopics, double falsePositiveRate)
+            throws IllegalArgumentException, IllegalStateException {
+        if (expectedTopics <= 0) {
+            throw new IllegalArgumentException("Expected topic count must be positive!");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1!");
+        }
+        if (group != null) {
+            throw new IllegalStateException("Interest filter must be set before the bus is started!");
+        }
+
+        int size = BloomFilter.optimalSize(expectedTopics, falsePositiveRate);
+        filter = new CountingBloomFilter(size, BloomFilter.optimalHashes(size, expectedTopics));
+
+        // Topics announced so far move from the exact interest into the filter
+        interest.removeIf(topic -> {
+            if (TopicTrie.isPattern(topic)) {
+                return false;
+            }
+            filter.add(topic);
+            filtered.add(topic);
+            return true;
+        });
+        return this;
+    }
+
+    @Override
+    public synchronized void start(Receiver receiver) throws IOException, IllegalStateException {
+        if (group != null) {
+            throw new IllegalStateException("Cluster bus is already started!");
+        }
+        this.receiver = receiver;
+        this.group = new NioEventLoopGroup(1, new DefaultThreadFactory("jwebsockets-cluster", true));
+
+        ChannelFuture bind = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new PeerInitializer(null))
+                .bind(bindAddress)
+                .awaitUninterruptibly();
+
+        if (!bind.isSuccess()) {
+            group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+            group = null;
+            throw new IOException("Failed to bind the cluster bus to " + bindAddress, bind.cause());
+        }
+        serverChannel = bind.channel();
+        running = true;
+        logger.info("Cluster bus listening at " + serverChannel.localAddress());
+
+        for (InetSocketAddress member : members) {
+            connect(member);
+        }
+    }
+
+    /**
+     * Returns the address this node listens on, with the actual port if an ephemeral one was requested.
+     *
+     * @return The local address.
+     * @throws IllegalStateException If the bus is not started.
+     */
+    public synchronized InetSocketAddress getLocalAddress() throws IllegalStateException {
+        if (serverChannel == null) {
+            throw new IllegalStateException("Cluster bus is not started!");
+        }
+        return (InetSocketAddress) serverChannel.localAddress();
+    }
+
+    /**
+     * Returns the number of peers currently connected.
+     *
+     * @return The number of peers.
+     */
+    public int getPeerCount() {
+        return peers.size();
+    }
+
+    /**
+     * Returns the estimated false positive rate of the interest filter of this node, as seen by its peers.
+     *
+     * @return The probability that a topic without local subscribers is forwarded to this node, or 0 without a filter.
+     */
+    public synchronized double getInterestFilterFalsePositiveRate() {
+        return filter != null ? filter.getFalsePositiveRate() : 0;
+    }
+
+    /**
+     * Returns the highest estimated false positive rate of the interest filters of the peers.
+     *
+     * @return The probability that a message is forwarded to a peer without subscribers of its topic, or 0 if no
+     * peer sent a filter.
+     */
+    public double getPeerFilterFalsePositiveRate() {
+        double rate = 0;
+
+        for (Peer peer : peers) {
+            BloomFilter peerFilter = peer.filter;
+            if (peerFilter != null) {
+                rate = Math.max(rate, peerFilter.getFalsePositiveRate());
+            }
+        }
+        return rate;
+    }
+
+    /**
+     * Returns the memory used by the interest filter of this node and by the filters received from the peers.
+     *
+     * @return The memory usage in bytes.
+     */
+    public long getInterestFilterMemoryUsage() {
+        long usage;
+
+        synchronized (this) {
+            usage = filter != null ? filter.getMemoryUsage() : 0;
+        }
+        for (Peer peer : peers) {
+            BloomFilter peerFilter = peer.filter;
+            if (peerFilter != null) {
+                usage += peerFilter.getMemoryUsage();
+            }
+        }
+        return usage;
+    }
+
+    @Override
+    public void addInterest(String topic) {
+        synchronized (this) {
+            if (filter != null && !TopicTrie.isPattern(topic)) {
+                if (filtered.add(topic)) {
+                    queuePositions(FILTER_SET, filter.add(topic));
+                }
+            } else if (interest.add(topic)) {
+                queueChange(interestFrame(ADD_INTEREST, topic));
+            }
+        }
+        scheduleChanges();
+    }
+
+    @Override
+    public void removeInterest(String topic) {
+        synchronized (this) {
+            if (filter != null && !TopicTrie.isPattern(topic)) {
+                if (filtered.remove(topic)) {
+                    queuePositions(FILTER_CLEAR, filter.remove(topic));
+                }
+            } else if (interest.remove(topic)) {
+                queueChange(interestFrame(REMOVE_INTEREST, topic));
+            }
+        }
+        scheduleChanges();
+    }
+
+    @Override
+    public boolean hasInterest(String topic) {
+        for (Peer peer : peers) {
+            if (peer.isInterested(topic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void publish(String topic, ByteBuf payload) {
+        ByteBuf header = null;
+
+        try {
+            for (Peer peer : peers) {
+                if (!peer.isInterested(topic)) {
+                    continue;
+                }
+                if (header == null) {
+                    byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+                    header = Unpooled.buffer(5 + name.length).writeByte(PUBLISH).writeInt(name.length).writeBytes(name);
+                }
+                peer.channel.writeAndFlush(Unpooled.wrappedBuffer(header.retainedDuplicate(), payload.retainedDuplicate()));
+            }
+        } finally {
+            if (header != null) {
+                header.release();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        EventLoopGroup current;
+
+        synchronized (this) {
+            if (group == null) {
+                return;
+            }
+            running = false;
+            current = group;
+            group = null;
+            serverChannel.close();
+            serverChannel = null;
+        }
+        for (Peer peer : peers) {
+            peer.channel.close();
+        }
+        current.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+
+        ByteBuf change;
+        while ((change = changes.poll()) != null) {
+            change.release();
+        }
+    }
+
+    private void connect(InetSocketAddress member) {
+        EventLoopGroup current = group;
+
+        if (!running || current == null) {
+            return;
+        }
+
+        new Bootstrap()
+                .group(current)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new PeerInitializer(member))
+                .connect(member)
+                .addListener((ChannelFuture future) -> {
+                    if (!future.isSuccess()) {
+                        logger.debug("Failed to connect to cluster member " + member, future.cause());
+                        reconnect(member);
+                    }
+                });
+    }
+
+    private void reconnect(InetSocketAddress member) {
+        EventLoopGroup current = group;
+
+        if (running && current != null && !current.isShuttingDown()) {
+            current.schedule(() -> connect(member), RECONNECT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Registers a connected peer and sends it the whole interest of this node. Must be called from the event loop of
+     * the bus, before the interest changes queued since the snapshot are written, so that the peer misses none of
+     * them. Changes queued before the snapshot are written to the peer again, which leaves its view unchanged.
+     */
+    private void register(Peer peer) {
+        List<ByteBuf> snapshot = new ArrayList<>();
+
+        synchronized (this) {
+            peers.add(peer);
+
+            if (filter != null) {
+                BloomFilter bits = filter.getFilter();
+                ByteBuf frame = Unpooled.buffer(9 + bits.wordCount() * Long.BYTES)
+                        .writeByte(FILTER_SNAPSHOT).writeInt(bits.size()).writeInt(bits.hashes());
+                for (int i = 0; i < bits.wordCount(); i++) {
+                    frame.writeLong(bits.word(i));
+                }
+                snapshot.add(frame);
+            }
+            for (String topic : interest) {
+                snapshot.add(interestFrame(ADD_INTEREST, topic));
+            }
+        }
+
+        for (ByteBuf frame : snapshot) {
+            peer.channel.write(frame);
+        }
+        peer.channel.flush();
+    }
+
+    /**
+     * Queues the positions of the interest filter whose bit changed for the peers. Must be called while holding the
+     * lock of the bus.
+     */
+    private void queuePositions(byte type, int[] positions) {
+        if (positions.length == 0) {
+            return;
+        }
+
+        ByteBuf frame = Unpooled.buffer(1 + positions.length * Integer.BYTES).writeByte(type);
+        for (int position : positions) {
+            frame.writeInt(position);
+        }
+        queueChange(frame);
+    }
+
+    /**
+     * Queues an interest change for the peers, or drops it if no peer is connected, as a peer connecting later
+     * receives the whole interest. Must be called while holding the lock of the bus, so that changes are queued in
+     * the order they are made.
+     */
+    private void queueChange(ByteBuf frame) {
+        if (peers.isEmpty()) {
+            frame.release();
+        } else {
+            changes.offer(frame);
+        }
+    }
+
+    /**
+     * Submits the writing of the queued interest changes to the event loop of the bus, unless it is already submitted.
+     */
+    private void scheduleChanges() {
+        EventLoopGroup current = group;
+
+        if (current == null || changes.isEmpty() || !sendingChanges.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            current.execute(this::sendChanges);
+        } catch (RejectedExecutionException ignored) {
+            // The bus is closing, the queued changes are released by close
+            sendingChanges.set(false);
+        }
+    }
+
+    /**
+     * Writes the queued interest changes to all peers in order, flushing every peer once. Runs on the event loop of
+     * the bus, which is the event loop of every peer.
+     */
+    private void sendChanges() {
+        // Cleared first, so that a change queued while sending submits the task again rather than being left
+        sendingChanges.set(false);
+
+        ByteBuf frame;
+        while ((frame = changes.poll()) != null) {
+            for (Peer peer : peers) {
+                peer.channel.write(frame.retainedDuplicate());
+            }
+            frame.release();
+        }
+        for (Peer peer : peers) {
+            peer.channel.flush();
+        }
+    }
+
+    private static ByteBuf interestFrame(byte type, String topic) {
+        byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+        return Unpooled.buffer(1 + name.length).writeByte(type).writeBytes(name);
+    }
+
+    /**
+     * Sets up the pipeline of a connection to a peer.
+     */
+    private class PeerInitializer extends ChannelInitializer<Channel> {
+        private final InetSocketAddress member;
+
+        /**
+         * @param member the member this node connected to, or null for connections accepted from peers.
+         */
+        private PeerInitializer(InetSocketAddress member) {
+            this.member = member;
+        }
+
+        @Override
+        protected void initChannel(Channel channel) {
+            channel.pipeline()
+                    .addLast(new FlushConsolidationHandler(EXPLICIT_FLUSH_AFTER_FLUSHES, true))
+                    .addLast(new LengthFieldBasedFrameDecoder(MAX_FRAME_SIZE, 0, 4, 0, 4))
+                    .addLast(new LengthFieldPrepender(4))
+                    .addLast(new PeerHandler(member));
+        }
+    }
+
+    /**
+     * Handles the frames received from a peer.
+     */
+    private class PeerHandler extends ChannelInboundHandlerAdapter {
+        private final InetSocketAddress member;
+        private Peer peer;
+
+        private PeerHandler(InetSocketAddress member) {
+            this.member = member;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext context) {
+            peer = new Peer(context.channel());
+            register(peer);
+            context.fireChannelActive();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext context, Object message) {
+            ByteBuf frame = (ByteBuf) message;
+
+            try {
+                byte type = frame.readByte();
+
+                if (type == PUBLISH) {
+                    int length = frame.readInt();
+                    String topic = frame.readCharSequence(length, StandardCharsets.UTF_8).toString();
+                    try {
+                        receiver.receive(topic, frame);
+                    } catch (RuntimeException exception) {
+                        logger.error("Failed to publish a message of topic '" + topic + "' received from the cluster", exception);
+                    }
+                } else if (type == ADD_INTEREST) {
+                    peer.addInterest(frame.toString(StandardCharsets.UTF_8));
+                } else if (type == REMOVE_INTEREST) {
+                    peer.removeInterest(frame.toString(StandardCharsets.UTF_8));
+                } else if (type == FILTER_SNAPSHOT) {
+                    BloomFilter snapshot = new BloomFilter(frame.readInt(), frame.readInt());
+                    for (int i = 0; i < snapshot.wordCount(); i++) {
+                        snapshot.setWord(i, frame.readLong());
+                    }
+                    peer.filter = snapshot;
+                } else if ((type == FILTER_SET || type == FILTER_CLEAR) && peer.filter != null) {
+                    while (frame.isReadable()) {
+                        if (type == FILTER_SET) {
+                            peer.filter.set(frame.readInt());
+                        } else {
+                            peer.filter.clear(frame.readInt());
+                        }
+                    }
+                } else {
+                    logger.warn("Unknown cluster frame type " + type + " from " + context.channel().remoteAddress()
+                            + ": " + ByteBufUtil.hexDump(frame));
+                }
+            } finally {
+                frame.release();
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext context) {
+            peers.remove(peer);
+
+            if (member != null) {
+                reconnect(member);
+            }
+            context.fireChannelInactive();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext context, Throwable cause) {
+            logger.warn("Closing the connection to cluster peer " + context.channel().remoteAddress(), cause);
+            context.close();
+        }
+    }
+
+    /**
+     * A connected peer with the topics and topic patterns it is interested in, and its interest filter if it sent one.
+     */
+    private static final class Peer {
+        private final Channel channel;
+        private final Set<String> topics = ConcurrentHashMap.newKeySet();
+        private final TopicTrie<String> patterns = new TopicTrie<>();
+        private volatile BloomFilter filter;
+
+        private Peer(Channel channel) {
+            this.channel = channel;
+        }
+
+        private void addInterest(String topic) {
+            if (TopicTrie.isPattern(topic)) {
+                patterns.computeIfAbsent(topic, pattern -> pattern);
+            } else {
+                topics.add(topic);
+            }
+        }
+
+        private void removeInterest(String topic) {
+            if (TopicTrie.isPattern(topic)) {
+                patterns.remove(topic);
+            } else {
+                topics.remove(topic);
+            }
+        }
+
+        private boolean isInterested(String topic) {
+            BloomFilter current = filter;
+            return topics.contains(topic) || (current != null && current.mightContain(topic))
+                    || (!patterns.isEmpty() && !patterns.match(topic).isEmpty());
+        }
+    }
+}
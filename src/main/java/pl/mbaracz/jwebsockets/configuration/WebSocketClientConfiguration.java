@@ -0,0 +1,208 @@
+package pl.mbaracz.jwebsockets.configuration;
+
+import io.netty.handler.ssl.SslContext;
+import pl.mbaracz.jwebsockets.message.Correlation;
+import pl.mbaracz.jwebsockets.message.MessageCodec;
+import pl.mbaracz.jwebsockets.message.MessageDecoder;
+import pl.mbaracz.jwebsockets.message.MessageEncoder;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class WebSocketClientConfiguration<T> {
+
+    /**
+     * SSL context used for connections to wss URIs, built for the client side.
+     */
+    private SslContext sslContext;
+
+    /**
+     * Maximum size of the handshake responses of the servers.
+     */
+    private int maxHandshakeResponseSize = 65536;
+
+    /**
+     * Message encoder.
+     */
+    private MessageEncoder<T> messageEncoder;
+
+    /**
+     * Message decoder.
+     */
+    private MessageDecoder<T> messageDecoder;
+
+    /**
+     * Codec made of the message encoder and decoder, created once they are set.
+     */
+    private MessageCodec<T> defaultCodec;
+
+    /**
+     * Codecs of the subprotocols requested from the servers, in the order of preference.
+     */
+    private final Map<String, MessageCodec<T>> subprotocols = new LinkedHashMap<>();
+
+    /**
+     * Correlation of requests with responses, or null if requests are not supported.
+     */
+    private Correlation<T> correlation;
+
+    /**
+     * Default timeout of requests in milliseconds.
+     */
+    private long requestTimeoutMillis = 30_000;
+
+    /**
+     * Sets the SSL context used for connections to wss URIs.
+     *
+     * @param sslContext The client SSL context.
+     * @return The current WebSocketClientConfiguration instance.
+     */
+    public WebSocketClientConfiguration<T> setSslContext(SslContext sslContext) {
+        this.sslContext = sslContext;
+        return this;
+    }
+
+    /**
+     * Sets the maximum size of the handshake responses of the servers. Larger responses fail the connection.
+     *
+     * @param maxHandshakeResponseSize The maximum size in bytes.
+     * @return The current WebSocketClientConfiguration instance.
+     */
+    public WebSocketClientConfiguration<T> setMaxHandshakeResponseSize(int maxHandshakeResponseSize) {
+        this.maxHandshakeResponseSize = maxHandshakeResponseSize;
+        return this;
+    }
+
+    /**
+     * Sets the message encoder. Messages are sent in binary frames if the encoder is binary, in text frames otherwise.
+     *
+     * @param encoder The message encoder.
+     * @return The current WebSocketClientConfiguration instance.
+     */
+    public WebSocketClientConfiguration<T> setMessageEncoder(MessageEncoder<T> encoder) {
+        this.messageEncoder = encoder;
+        this.defaultCodec = null;
+        return this;
+    }
+
+    /**
+     * Sets the message decoder.
+     *
+     * @param decoder The message decoder.
+     * @return The current WebSocketClientConfiguration instance.
+     */
+    public WebSocketClientConfiguration<T> setMessageDecoder(MessageDecoder<T> decoder) {
+        this.messageDecoder = decoder;
+        this.defaultCodec = null;
+        return this;
+    }
+
+    /**
+     * Adds a subprotocol to request with the {@code Sec-WebSocket-Protocol} header, together with the codec used for
+     * the connections on which the server selected it. Subprotocols are requested in the order they are added, and
+     * connections without a subprotocol use the message encoder and decoder of this configuration.
+     *
+     * @param subprotocol The name of the subprotocol.
+     * @param encoder     The encoder of messages sent over the subprotocol.
+     * @param decoder     The decoder of messages received over the subprotocol.
+     * @param binary      True to send messages in binary frames, false for text frames.
+     * @return The current WebSocketClientConfiguration instance.
+     */
+    public WebSocketClientConfiguration<T> addSubprotocol(String subprotocol, MessageEncoder<T> encoder,
+                                                          MessageDecoder<T> decoder, boolean binary) {
+        this.subprotocols.put(subprotocol, new MessageCodec<>(encoder, decoder, binary));
+        return this;
+    }
+
+    /**
+     * Adds a subprotocol whose messages are sent in binary frames if its encoder is binary, in text frames otherwise.
+     *
+     * @param subprotocol The name of the subprotocol.
+     * @param encoder     The encoder of messages sent over the subprotocol.
+     * @param decoder     The decoder of messages received over the subprotocol.
+     * @return The current WebSocketClientConfiguration instance.
+     * @see #addSubprotocol(String, MessageEncoder, MessageDecoder, boolean)
+     */
+    public WebSocketClientConfiguration<T> addSubprotocol(String subprotocol, MessageEncoder<T> encoder,
+                                                          MessageDecoder<T> decoder) {
+        return addSubprotocol(subprotocol, encoder, decoder, encoder.isBinary());
+    }
+
+    /**
+     * Sets the correlation of the requests sent with {@code WebSocketSession.request} with the responses of the
+     * servers. Responses complete their request instead of being passed to the message handler.
+     *
+     * @param correlation The correlation strategy.
+     * @return The current WebSocketClientConfiguration instance.
+     */
+    public WebSocketClientConfiguration<T> setCorrelation(Correlation<T> correlation) {
+        this.correlation = correlation;
+        return this;
+    }
+
+    /**
+     * Sets the timeout of requests sent without an explicit timeout.
+     *
+     * @param timeout The timeout.
+     * @param unit    The unit of the timeout.
+     * @return The current WebSocketClientConfiguration instance.
+     * @throws IllegalArgumentException If the timeout is not positive.
+     */
+    public WebSocketClientConfiguration<T> setRequestTimeout(long timeout, TimeUnit unit) throws IllegalArgumentException {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Request timeout must be positive!");
+        }
+        this.requestTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    public SslContext getSslContext() {
+        return sslContext;
+    }
+
+    public int getMaxHandshakeResponseSize() {
+        return maxHandshakeResponseSize;
+    }
+
+    /**
+     * Returns the codec made of the message encoder and decoder, shared by all sessions without a subprotocol.
+     *
+     * @return The default codec.
+     */
+    public MessageCodec<T> getDefaultCodec() {
+        MessageCodec<T> codec = defaultCodec;
+
+        if (codec == null) {
+            boolean binary = messageEncoder != null && messageEncoder.isBinary();
+            codec = defaultCodec = new MessageCodec<>(messageEncoder, messageDecoder, binary);
+        }
+        return codec;
+    }
+
+    /**
+     * Returns the codecs of the requested subprotocols, by their names.
+     *
+     * @return An unmodifiable map of subprotocol codecs, in the order of preference.
+     */
+    public Map<String, MessageCodec<T>> getSubprotocols() {
+        return Collections.unmodifiableMap(subprotocols);
+    }
+
+    public Correlation<T> getCorrelation() {
+        return correlation;
+    }
+
+    public long getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    public MessageEncoder<T> getMessageEncoder() {
+        return messageEncoder;
+    }
+
+    public MessageDecoder<T> getMessageDecoder() {
+        return messageDecoder;
+    }
+}
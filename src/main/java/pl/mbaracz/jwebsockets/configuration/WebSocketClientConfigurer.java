@@ -0,0 +1,17 @@
+package pl.mbaracz.jwebsockets.configuration;
+
+/**
+ * Interface for configuring WebSocket client settings.
+ *
+ * @param <T> the type of messages that will be handled by the WebSocket client.
+ */
+public interface WebSocketClientConfigurer<T> {
+
+    /**
+     * Configures the WebSocket client settings.
+     *
+     * @param configurer the WebSocket client configuration to be customized.
+     */
+    void configure(WebSocketClientConfiguration<T> configurer);
+
+}
@@ -1,11 +1,21 @@
 package pl.mbaracz.jwebsockets.configuration;
 
 import io.netty.handler.ssl.SslContext;
+import pl.mbaracz.jwebsockets.message.Acknowledgement;
+import pl.mbaracz.jwebsockets.message.Correlation;
+import pl.mbaracz.jwebsockets.message.MessageCodec;
 import pl.mbaracz.jwebsockets.message.MessageDecoder;
 import pl.mbaracz.jwebsockets.message.MessageEncoder;
+import pl.mbaracz.jwebsockets.message.SequenceHeader;
+import pl.mbaracz.jwebsockets.topic.TopicLog;
 
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 public class WebSocketServerConfiguration<T> {
@@ -47,6 +57,26 @@ public class WebSocketServerConfiguration<T> {
      */
     private Pattern allowedOriginPattern;
 
+    /**
+     * Maximum total size of retained topic messages in bytes.
+     */
+    private long retainedMessagesMemoryLimit = 64 * 1024 * 1024;
+
+    /**
+     * Maximum size of the aggregated HTTP upgrade request content in bytes.
+     */
+    private int maxHttpContentLength = 65536;
+
+    /**
+     * Flag indicating whether upgrade requests are parsed by the lightweight handshake decoder.
+     */
+    private boolean lightweightHandshake;
+
+    /**
+     * Maximum size of the request line and headers accepted by the lightweight handshake decoder in bytes.
+     */
+    private int maxHandshakeHeaderSize = 8192;
+
     /**
      * Message encoder for encoding messages of type T.
      */
@@ -57,6 +87,91 @@ public class WebSocketServerConfiguration<T> {
      */
     private MessageDecoder<T> messageDecoder;
 
+    /**
+     * Codec made of the message encoder and decoder, used by sessions which did not negotiate a subprotocol.
+     */
+    private MessageCodec<T> defaultCodec;
+
+    /**
+     * Codecs of the supported subprotocols, in the order of preference.
+     */
+    private final Map<String, MessageCodec<T>> subprotocols = new LinkedHashMap<>();
+
+    /**
+     * Correlation of the requests sent to clients with their responses, or null if requests are not supported.
+     */
+    private Correlation<T> correlation;
+
+    /**
+     * Default timeout of requests in milliseconds.
+     */
+    private long requestTimeoutMillis = 30_000;
+
+    /**
+     * Recognizer of the acknowledgements of clients in reliable delivery mode, or null if the mode is disabled.
+     */
+    private Acknowledgement<T> acknowledgement;
+
+    /**
+     * Writer of the sequence numbers of messages in reliable delivery mode.
+     */
+    private SequenceHeader sequenceHeader = SequenceHeader.DECIMAL;
+
+    /**
+     * Maximum number of unacknowledged messages retained per session in reliable delivery mode.
+     */
+    private int resendBufferCapacity;
+
+    /**
+     * Time in milliseconds for which the state of a closed session is kept for resumption, or 0 if disabled.
+     */
+    private long resumptionGracePeriodMillis;
+
+    /**
+     * Number of the last messages of every topic kept for replay to resumed sessions.
+     */
+    private int replayBufferCapacity;
+
+    /**
+     * Directory of the logs of persisted topics, or null if topics cannot be persisted.
+     */
+    private Path topicLogDirectory;
+
+    /**
+     * Size of a segment file of a topic log in bytes.
+     */
+    private int topicLogSegmentSize = 64 * 1024 * 1024;
+
+    /**
+     * Maximum total size of the segments of a topic log in bytes.
+     */
+    private long topicLogRetentionBytes = Long.MAX_VALUE;
+
+    /**
+     * Maximum age of the records of a topic log in milliseconds.
+     */
+    private long topicLogRetentionMillis = Long.MAX_VALUE;
+
+    /**
+     * Interval in milliseconds between writes of the topic logs to the disk.
+     */
+    private long topicLogFlushIntervalMillis = 1000;
+
+    /**
+     * Maximum number of messages kept in the offline mailbox of a user.
+     */
+    private int mailboxCapacity = 1000;
+
+    /**
+     * Maximum total size in bytes of the offline messages kept in memory, above which they are spilled to a file.
+     */
+    private long mailboxMemoryLimit = 16 * 1024 * 1024;
+
+    /**
+     * File to which offline messages are spilled, or null to use a temporary file.
+     */
+    private Path mailboxSpillFile;
+
     public WebSocketServerConfiguration<T> setSslContext(SslContext sslContext) {
         this.sslContext = sslContext;
         return this;
@@ -125,6 +240,7 @@ public class WebSocketServerConfiguration<T> {
      */
     public WebSocketServerConfiguration<T> setMessageEncoder(MessageEncoder<T> encoder) {
         this.messageEncoder = encoder;
+        this.defaultCodec = null;
         return this;
     }
 
@@ -136,6 +252,7 @@ public class WebSocketServerConfiguration<T> {
      */
     public WebSocketServerConfiguration<T> setMessageDecoder(MessageDecoder<T> decoder) {
         this.messageDecoder = decoder;
+        this.defaultCodec = null;
         return this;
     }
 
@@ -151,13 +268,296 @@ public class WebSocketServerConfiguration<T> {
     }
 
     /**
-     * Sets whether to respond with binary frames.
+     * Sets whether to respond with binary frames. Binary message encoders always respond with binary frames.
      *
      * @param respondWithBinaryFrame True to respond with binary frames, false otherwise.
      * @return The current WebSocketServerConfiguration instance.
      */
     public WebSocketServerConfiguration<T> setRespondWithBinaryFrame(boolean respondWithBinaryFrame) {
         this.respondWithBinaryFrame = respondWithBinaryFrame;
+        this.defaultCodec = null;
+        return this;
+    }
+
+    /**
+     * Sets the maximum total size of retained topic messages. Once exceeded, the oldest messages of the least
+     * recently used topics are evicted.
+     *
+     * @param retainedMessagesMemoryLimit The memory limit in bytes.
+     * @return The current WebSocketServerConfiguration instance.
+     */
+    public WebSocketServerConfiguration<T> setRetainedMessagesMemoryLimit(long retainedMessagesMemoryLimit) {
+        this.retainedMessagesMemoryLimit = retainedMessagesMemoryLimit;
+        return this;
+    }
+
+    /**
+     * Sets the maximum size of the content of HTTP upgrade requests. Upgrade requests have no body, so the limit only
+     * bounds the buffer used to aggregate malformed requests before they are rejected.
+     *
+     * @param maxHttpContentLength The maximum content length in bytes.
+     * @return The current WebSocketServerConfiguration instance.
+     */
+    public WebSocketServerConfiguration<T> setMaxHttpContentLength(int maxHttpContentLength) {
+        this.maxHttpContentLength = maxHttpContentLength;
+        return this;
+    }
+
+    /**
+     * Enables the lightweight handshake, which parses only the request line and the headers needed for the upgrade
+     * instead of decoding and aggregating full HTTP requests. Requests with a body are rejected. Only the version 13
+     * of the WebSocket protocol is supported, which is the version used by all current clients.
+     *
+     * @param lightweightHandshake True to enable the lightweight handshake, false otherwise.
+     * @return The current WebSocketServerConfiguration instance.
+     */
+    public WebSocketServerConfiguration<T> setLightweightHandshake(boolean lightweightHandshake) {
+        this.lightweightHandshake = lightweightHandshake;
+        return this;
+    }
+
+    /**
+     * Sets the maximum size of the request line and headers accepted by the lightweight handshake.
+     * Larger requests are rejected with the status 431 before they are fully received.
+     *
+     * @param maxHandshakeHeaderSize The maximum size in bytes.
+     * @return The current WebSocketServerConfiguration instance.
+     */
+    public WebSocketServerConfiguration<T> setMaxHandshakeHeaderSize(int maxHandshakeHeaderSize) {
+        this.maxHandshakeHeaderSize = maxHandshakeHeaderSize;
+        return this;
+    }
+
+    /**
+     * Adds a subprotocol which clients can request with the {@code Sec-WebSocket-Protocol} header, together with
+     * the codec used for the sessions which negotiated it. Sessions which did not request any of the supported
+     * subprotocols use the message encoder and decoder of this configuration.
+     *
+     * @param subprotocol The name of the subprotocol.
+     * @param encoder     The encoder of messages sent to sessions using the subprotocol.
+     * @param decoder     The decoder of messages received from sessions using the subprotocol.
+     * @param binary      True to send messages in binary frames and accept binary frames, false for text frames.
+     * @return The current WebSocketServerConfiguration instance.
+     */
+    public WebSocketServerConfiguration<T> addSubprotocol(String subprotocol, MessageEncoder<T> encoder,
+                                                          MessageDecoder<T> decoder, boolean binary) {
+        this.subprotocols.put(subprotocol, new MessageCodec<>(encoder, decoder, binary));
+        return this;
+    }
+
+    /**
+     * Adds a subprotocol whose messages are sent in binary frames if its encoder is binary, in text frames otherwise.
+     *
+     * @param subprotocol The name of the subprotocol.
+     * @param encoder     The encoder of messages sent to sessions using the subprotocol.
+     * @param decoder     The decoder of messages received from sessions using the subprotocol.
+     * @return The current WebSocketServerConfiguration instance.
+     * @see #addSubprotocol(String, MessageEncoder, MessageDecoder, boolean)
+     */
+    public WebSocketServerConfiguration<T> addSubprotocol(String subprotocol, MessageEncoder<T> encoder,
+                                                          MessageDecoder<T> decoder) {
+        return addSubprotocol(subprotocol, encoder, decoder, encoder.isBinary());
+    }
+
+    /**
+     * Sets the correlation of the requests sent with {@code WebSocketSession.request} with the responses of the
+     * clients. Responses complete their request instead of being passed to the message handler.
+     *
+     * @param correlation The correlation strategy.
+     * @return The current WebSocketServerConfiguration instance.
+     */
+    public WebSocketServerConfiguration<T> setCorrelation(Correlation<T> correlation) {
+        this.correlation = correlation;
+        return this;
+    }
+
+    /**
+     * Sets the timeout of requests sent without an explicit timeout.
+     *
+     * @param timeout The timeout.
+     * @param unit    The unit of the timeout.
+     * @return The current WebSocketServerConfiguration instance.
+     * @throws IllegalArgumentException If the timeout is not positive.
+     */
+    public WebSocketServerConfiguration<T> setRequestTimeout(long timeout, TimeUnit unit) throws IllegalArgumentException {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Request timeout must be positive!");
+        }
+        this.requestTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Enables reliable delivery with the decimal sequence header: every message sent to a session is prefixed with a
+     * per-session sequence number, and retained until the client acknowledges it.
+     *
+     * @param acknowledgement Recognizer of the acknowledgements sent by clients.
+     * @param capacity        The maximum number of unacknowledged messages per session, the oldest are evicted first.
+     * @return The current WebSocketServerConfiguration instance.
+     * @throws IllegalArgumentException If the capacity is not positive.
+     * @see SequenceHeader#DECIMAL
+     */
+    public WebSocketServerConfiguration<T> setReliableDelivery(Acknowledgement<T> acknowledgement, int capacity)
+            throws IllegalArgumentException {
+        return setReliableDelivery(acknowledgement, SequenceHeader.DECIMAL, capacity);
+    }
+
+    /**
+     * Enables reliable delivery: every message sent to a session is prefixed with a per-session sequence number, and
+     * retained until the client acknowledges it.
+     *
+     * @param acknowledgement Recognizer of the acknowledgements sent by clients.
+     * @param header          Writer of the sequence number in front of every message.
+     * @param capacity        The maximum number of unacknowledged messages per session, the oldest are evicted first.
+     * @return The current WebSocketServerConfiguration instance.
+     * @throws IllegalArgumentException If the capacity is not positive.
+     */
+    public WebSocketServerConfiguration<T> setReliableDelivery(Acknowledgement<T> acknowledgement, SequenceHeader header,
+                                                               int capacity) throws IllegalArgumentException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Resend buffer capacity must be positive!");
+        }
+        this.acknowledgement = acknowledgement;
+        this.sequenceHeader = header;
+        this.resendBufferCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Enables session resumption: when the channel of an open session is closed, its subscriptions, data and the
+     * sequence number of the last message delivered to it are parked for a grace period under the resume token of
+     * the session. A client reconnecting with the token in the {@code resume} query parameter of the upgrade request
+     * takes them over and receives the messages of its topics published in the meantime.
+     * <p>
+     * The last published messages of every topic are kept in a replay buffer, and publishing is serialized while
+     * resumption is enabled. It must be enabled before the first subscription.
+     *
+     * @param gracePeriod    The time for which a closed session can be resumed.
+     * @param unit           The unit of the grace period.
+     * @param replayCapacity The number of the last messages of every topic kept for replay.
+     * @return The current WebSocketServerConfiguration instance.
+     * @throws IllegalArgumentException If the grace period or the capacity is not positive.
+     * @see pl.mbaracz.jwebsockets.WebSocketSession#getResumeToken()
+     */
+    public WebSocketServerConfiguration<T> setSessionResumption(long gracePeriod, TimeUnit unit, int replayCapacity)
+            throws IllegalArgumentException {
+        if (gracePeriod <= 0) {
+            throw new IllegalArgumentException("Resumption grace period must be positive!");
+        }
+        if (replayCapacity <= 0) {
+            throw new IllegalArgumentException("Replay buffer capacity must be positive!");
+        }
+        this.resumptionGracePeriodMillis = unit.toMillis(gracePeriod);
+        this.replayBufferCapacity = replayCapacity;
+        return this;
+    }
+
+    /**
+     * Sets the directory in which the logs of persisted topics are stored, one subdirectory per topic.
+     *
+     * @param topicLogDirectory The directory of the topic logs.
+     * @return The current WebSocketServerConfiguration instance.
+     * @see pl.mbaracz.jwebsockets.WebSocketServer#persistTopic(String)
+     */
+    public WebSocketServerConfiguration<T> setTopicLogDirectory(Path topicLogDirectory) {
+        this.topicLogDirectory = topicLogDirectory;
+        return this;
+    }
+
+    /**
+     * Sets the size of the memory-mapped segment files of topic logs, which bounds the size of a single message.
+     *
+     * @param segmentSize The size of a segment in bytes.
+     * @return The current WebSocketServerConfiguration instance.
+     * @throws IllegalArgumentException If the size cannot hold a record.
+     */
+    public WebSocketServerConfiguration<T> setTopicLogSegmentSize(int segmentSize) throws IllegalArgumentException {
+        if (segmentSize <= TopicLog.HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size must be greater than " + TopicLog.HEADER_SIZE + " bytes!");
+        }
+        this.topicLogSegmentSize = segmentSize;
+        return this;
+    }
+
+    /**
+     * Sets the retention of topic logs. Whole segments are deleted, oldest first, once a log exceeds the maximum
+     * size or once their newest message is older than the maximum age.
+     *
+     * @param maxBytes The maximum size of a topic log in bytes.
+     * @param maxAge   The maximum age of the messages.
+     * @param unit     The unit of the maximum age.
+     * @return The current WebSocketServerConfiguration instance.
+     * @throws IllegalArgumentException If the size or the age is not positive.
+     */
+    public WebSocketServerConfiguration<T> setTopicLogRetention(long maxBytes, long maxAge, TimeUnit unit)
+            throws IllegalArgumentException {
+        if (maxBytes <= 0 || maxAge <= 0) {
+            throw new IllegalArgumentException("Topic log retention must be positive!");
+        }
+        this.topicLogRetentionBytes = maxBytes;
+        this.topicLogRetentionMillis = unit.toMillis(maxAge);
+        return this;
+    }
+
+    /**
+     * Sets the interval of the group commit of topic logs. Published messages are written to the mapped segments
+     * immediately, and written to the disk together at this interval, so a crash of the machine may lose the messages
+     * of the last interval while a crash of the process does not.
+     *
+     * @param interval The interval between writes to the disk.
+     * @param unit     The unit of the interval.
+     * @return The current WebSocketServerConfiguration instance.
+     * @throws IllegalArgumentException If the interval is not positive.
+     */
+    public WebSocketServerConfiguration<T> setTopicLogFlushInterval(long interval, TimeUnit unit) throws IllegalArgumentException {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Topic log flush interval must be positive!");
+        }
+        this.topicLogFlushIntervalMillis = unit.toMillis(interval);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of messages kept in the offline mailbox of a single user, the oldest are dropped first.
+     *
+     * @param capacity The number of messages.
+     * @return The current WebSocketServerConfiguration instance.
+     * @throws IllegalArgumentException If the capacity is not positive.
+     * @see pl.mbaracz.jwebsockets.WebSocketServer#enableOfflineMailbox(java.util.function.Function)
+     */
+    public WebSocketServerConfiguration<T> setMailboxCapacity(int capacity) throws IllegalArgumentException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Mailbox capacity must be positive!");
+        }
+        this.mailboxCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Sets the total size of the offline messages of all users kept in memory. Messages stored above this limit are
+     * spilled to the mailbox spill file.
+     *
+     * @param memoryLimit The memory limit in bytes, 0 to spill every message.
+     * @return The current WebSocketServerConfiguration instance.
+     * @throws IllegalArgumentException If the limit is negative.
+     */
+    public WebSocketServerConfiguration<T> setMailboxMemoryLimit(long memoryLimit) throws IllegalArgumentException {
+        if (memoryLimit < 0) {
+            throw new IllegalArgumentException("Mailbox memory limit cannot be negative!");
+        }
+        this.mailboxMemoryLimit = memoryLimit;
+        return this;
+    }
+
+    /**
+     * Sets the file to which offline messages are spilled. The file only extends the memory of the mailboxes, it is
+     * truncated when the server starts using it and deleted when the server stops.
+     *
+     * @param spillFile The spill file, or null to use a temporary file.
+     * @return The current WebSocketServerConfiguration instance.
+     */
+    public WebSocketServerConfiguration<T> setMailboxSpillFile(Path spillFile) {
+        this.mailboxSpillFile = spillFile;
         return this;
     }
 
@@ -193,6 +593,114 @@ public class WebSocketServerConfiguration<T> {
         return allowedOriginPattern;
     }
 
+    public long getRetainedMessagesMemoryLimit() {
+        return retainedMessagesMemoryLimit;
+    }
+
+    public int getMaxHttpContentLength() {
+        return maxHttpContentLength;
+    }
+
+    public boolean isLightweightHandshake() {
+        return lightweightHandshake;
+    }
+
+    public int getMaxHandshakeHeaderSize() {
+        return maxHandshakeHeaderSize;
+    }
+
+    /**
+     * Returns the codec made of the message encoder and decoder, shared by all sessions without a subprotocol.
+     *
+     * @return The default codec.
+     */
+    public MessageCodec<T> getDefaultCodec() {
+        MessageCodec<T> codec = defaultCodec;
+
+        if (codec == null) {
+            boolean binary = respondWithBinaryFrame || (messageEncoder != null && messageEncoder.isBinary());
+            codec = defaultCodec = new MessageCodec<>(messageEncoder, messageDecoder, binary);
+        }
+        return codec;
+    }
+
+    /**
+     * Returns the codecs of the supported subprotocols, by their names.
+     *
+     * @return An unmodifiable map of subprotocol codecs, in the order of preference.
+     */
+    public Map<String, MessageCodec<T>> getSubprotocols() {
+        return Collections.unmodifiableMap(subprotocols);
+    }
+
+    public Correlation<T> getCorrelation() {
+        return correlation;
+    }
+
+    public long getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    public boolean isReliableDelivery() {
+        return acknowledgement != null;
+    }
+
+    public Acknowledgement<T> getAcknowledgement() {
+        return acknowledgement;
+    }
+
+    public SequenceHeader getSequenceHeader() {
+        return sequenceHeader;
+    }
+
+    public int getResendBufferCapacity() {
+        return resendBufferCapacity;
+    }
+
+    public boolean isSessionResumption() {
+        return resumptionGracePeriodMillis > 0;
+    }
+
+    public long getResumptionGracePeriodMillis() {
+        return resumptionGracePeriodMillis;
+    }
+
+    public int getReplayBufferCapacity() {
+        return replayBufferCapacity;
+    }
+
+    public Path getTopicLogDirectory() {
+        return topicLogDirectory;
+    }
+
+    public int getTopicLogSegmentSize() {
+        return topicLogSegmentSize;
+    }
+
+    public long getTopicLogRetentionBytes() {
+        return topicLogRetentionBytes;
+    }
+
+    public long getTopicLogRetentionMillis() {
+        return topicLogRetentionMillis;
+    }
+
+    public long getTopicLogFlushIntervalMillis() {
+        return topicLogFlushIntervalMillis;
+    }
+
+    public int getMailboxCapacity() {
+        return mailboxCapacity;
+    }
+
+    public long getMailboxMemoryLimit() {
+        return mailboxMemoryLimit;
+    }
+
+    public Path getMailboxSpillFile() {
+        return mailboxSpillFile;
+    }
+
     public MessageEncoder<T> getMessageEncoder() {
         return messageEncoder;
     }
@@ -0,0 +1,22 @@
+package pl.mbaracz.jwebsockets.handler;
+
+import pl.mbaracz.jwebsockets.WebSocketSession;
+
+/**
+ * Interface for handling incoming WebSocket messages of a single type, dispatched by a message router.
+ *
+ * @param <M> the type of the routed message.
+ * @param <T> the type of the WebSocket message.
+ * @param <D> the type of additional data associated with the WebSocket session.
+ */
+public interface RoutedMessageHandler<M, T, D> {
+
+    /**
+     * Handles an incoming WebSocket message.
+     *
+     * @param session the WebSocket session from which the message was received.
+     * @param message the decoded message.
+     */
+    void handleMessage(WebSocketSession<T, D> session, M message);
+
+}
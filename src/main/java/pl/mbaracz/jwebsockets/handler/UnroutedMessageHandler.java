@@ -0,0 +1,24 @@
+package pl.mbaracz.jwebsockets.handler;
+
+import io.netty.buffer.ByteBuf;
+import pl.mbaracz.jwebsockets.WebSocketSession;
+
+/**
+ * Interface for handling incoming WebSocket messages which did not match any route of a message router.
+ * The message is not decoded, so that it can be forwarded or dropped cheaply.
+ *
+ * @param <T> the type of the WebSocket message.
+ * @param <D> the type of additional data associated with the WebSocket session.
+ */
+public interface UnroutedMessageHandler<T, D> {
+
+    /**
+     * Handles an incoming WebSocket message without a route.
+     *
+     * @param session       the WebSocket session from which the message was received.
+     * @param discriminator the discriminator of the message, or null if it has none.
+     * @param payload       the encoded message, only valid during the call unless retained.
+     */
+    void handleUnrouted(WebSocketSession<T, D> session, Object discriminator, ByteBuf payload);
+
+}
@@ -0,0 +1,143 @@
+package pl.mbaracz.jwebsockets.index;
+
+import io.netty.util.collection.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Concurrent map from primitive long keys to values, split into segments of open-addressing maps guarded by their
+ * own locks. Keys are stored in plain {@code long[]} arrays, without boxing nor per-entry node objects, which keeps
+ * the footprint of maps with millions of entries small.
+ *
+ * @param <V> the type of values.
+ */
+public class ConcurrentLongObjectMap<V> {
+
+    private static final int DEFAULT_SEGMENTS = 64;
+
+    private final LongObjectHashMap<V>[] segments;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Constructs a new map with the default number of segments.
+     */
+    public ConcurrentLongObjectMap() {
+        this(DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Constructs a new map.
+     *
+     * @param segments The number of segments, rounded up to a power of two.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongObjectMap(int segments) {
+        int count = 1;
+        while (count < segments) {
+            count <<= 1;
+        }
+        this.segments = (LongObjectHashMap<V>[]) new LongObjectHashMap<?>[count];
+
+        for (int i = 0; i < count; i++) {
+            this.segments[i] = new LongObjectHashMap<>();
+        }
+    }
+
+    /**
+     * Associates a value with a key.
+     *
+     * @param key   The key.
+     * @param value The value, cannot be null.
+     * @return The previous value, or null if there was none.
+     */
+    public V put(long key, V value) {
+        LongObjectHashMap<V> segment = segment(key);
+        V previous;
+
+        synchronized (segment) {
+            previous = segment.put(key, value);
+        }
+        if (previous == null) {
+            size.incrementAndGet();
+        }
+        return previous;
+    }
+
+    /**
+     * Returns the value associated with a key.
+     *
+     * @param key The key.
+     * @return The value, or null if there is none.
+     */
+    public V get(long key) {
+        LongObjectHashMap<V> segment = segment(key);
+
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * Removes the value associated with a key.
+     *
+     * @param key The key.
+     * @return The removed value, or null if there was none.
+     */
+    public V remove(long key) {
+        LongObjectHashMap<V> segment = segment(key);
+        V previous;
+
+        synchronized (segment) {
+            previous = segment.remove(key);
+        }
+        if (previous != null) {
+            size.decrementAndGet();
+        }
+        return previous;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    /**
+     * Performs an action for every value. Every segment is copied before the action is called, so the action may
+     * modify the map. Values added or removed concurrently may or may not be visited.
+     *
+     * @param action The action to perform.
+     */
+    public void forEach(Consumer<? super V> action) {
+        List<V> values = new ArrayList<>();
+
+        for (LongObjectHashMap<V> segment : segments) {
+            synchronized (segment) {
+                values.addAll(segment.values());
+            }
+            values.forEach(action);
+            values.clear();
+        }
+    }
+
+    /**
+     * Returns a snapshot of all values.
+     *
+     * @return The list of values.
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<>(size());
+        forEach(values::add);
+        return values;
+    }
+
+    private LongObjectHashMap<V> segment(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return segments[(int) (hash >>> 32) & (segments.length - 1)];
+    }
+}
@@ -0,0 +1,81 @@
+package pl.mbaracz.jwebsockets.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Session index over arbitrary keys, such as user names, backed by a concurrent multimap.
+ *
+ * @param <D> the type of data the keys are extracted from.
+ * @param <V> the type of indexed values.
+ */
+public class KeySessionIndex<D, V> extends SessionIndex<D, V> {
+
+    private final Map<Object, Set<V>> values = new ConcurrentHashMap<>();
+    private final Map<V, Object> keys = new ConcurrentHashMap<>();
+    private final Function<? super D, ?> keyExtractor;
+
+    /**
+     * Constructs a new index.
+     *
+     * @param name         The unique name of the index.
+     * @param keyExtractor Function extracting the key from the data, may return null.
+     */
+    public KeySessionIndex(String name, Function<? super D, ?> keyExtractor) {
+        super(name);
+        this.keyExtractor = keyExtractor;
+    }
+
+    @Override
+    public void add(V value, D data) {
+        Object key = extractKey(data);
+
+        if (key == null) {
+            remove(value);
+            return;
+        }
+
+        Object previous = keys.put(value, key);
+        if (previous != null && !previous.equals(key)) {
+            remove(previous, value);
+        }
+        values.compute(key, (k, set) -> {
+            Set<V> result = set != null ? set : ConcurrentHashMap.newKeySet();
+            result.add(value);
+            return result;
+        });
+    }
+
+    @Override
+    public void remove(V value) {
+        Object key = keys.remove(value);
+
+        if (key != null) {
+            remove(key, value);
+        }
+    }
+
+    @Override
+    public List<V> get(Object key) {
+        Set<V> set = key != null ? values.get(key) : null;
+        return set != null ? new ArrayList<>(set) : Collections.emptyList();
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    private void remove(Object key, V value) {
+        values.computeIfPresent(key, (k, set) -> set.remove(value) && set.isEmpty() ? null : set);
+    }
+
+    private Object extractKey(D data) {
+        return data != null ? keyExtractor.apply(data) : null;
+    }
+}
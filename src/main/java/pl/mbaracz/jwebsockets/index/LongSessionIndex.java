@@ -0,0 +1,159 @@
+package pl.mbaracz.jwebsockets.index;
+
+import io.netty.util.collection.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Session index over primitive long keys, such as numeric user ids. Values are looked up in open-addressing maps,
+ * split into lock stripes so that updates from different event loops rarely contend.
+ * The common case of a single value per key is stored without allocating a collection. The key every value is indexed
+ * under is kept by value, so that it can be removed after its data changed.
+ *
+ * @param <D> the type of data the keys are extracted from.
+ * @param <V> the type of indexed values.
+ */
+public class LongSessionIndex<D, V> extends SessionIndex<D, V> {
+
+    private static final int STRIPES = 16;
+
+    private final LongObjectHashMap<Object>[] stripes;
+    private final Map<V, Long> keys = new ConcurrentHashMap<>();
+    private final ToLongFunction<? super D> keyExtractor;
+
+    /**
+     * Constructs a new index.
+     *
+     * @param name         The unique name of the index.
+     * @param keyExtractor Function extracting the key from the data.
+     */
+    @SuppressWarnings("unchecked")
+    public LongSessionIndex(String name, ToLongFunction<? super D> keyExtractor) {
+        super(name);
+        this.keyExtractor = keyExtractor;
+        this.stripes = (LongObjectHashMap<Object>[]) new LongObjectHashMap<?>[STRIPES];
+
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new LongObjectHashMap<>();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void add(V value, D data) {
+        if (data == null) {
+            remove(value);
+            return;
+        }
+
+        long key = keyExtractor.applyAsLong(data);
+        Long previous = keys.put(value, key);
+        if (previous != null && previous != key) {
+            remove(previous, value);
+        }
+        LongObjectHashMap<Object> stripe = stripe(key);
+
+        synchronized (stripe) {
+            Object current = stripe.get(key);
+
+            if (current == null) {
+                stripe.put(key, value);
+            } else if (current instanceof Values) {
+                ((Values<V>) current).addIfAbsent(value);
+            } else if (!current.equals(value)) {
+                Values<V> values = new Values<>();
+                values.add((V) current);
+                values.add(value);
+                stripe.put(key, values);
+            }
+        }
+    }
+
+    @Override
+    public void remove(V value) {
+        Long key = keys.remove(value);
+
+        if (key != null) {
+            remove(key, value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void remove(long key, V value) {
+        LongObjectHashMap<Object> stripe = stripe(key);
+
+        synchronized (stripe) {
+            Object current = stripe.get(key);
+
+            if (current instanceof Values) {
+                Values<V> values = (Values<V>) current;
+                values.remove(value);
+
+                if (values.size() == 1) {
+                    stripe.put(key, values.get(0));
+                }
+            } else if (current != null && current.equals(value)) {
+                stripe.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public List<V> get(Object key) {
+        return key instanceof Number ? get(((Number) key).longValue()) : Collections.emptyList();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<V> get(long key) {
+        LongObjectHashMap<Object> stripe = stripe(key);
+
+        synchronized (stripe) {
+            Object current = stripe.get(key);
+
+            if (current == null) {
+                return Collections.emptyList();
+            }
+            if (current instanceof Values) {
+                return new ArrayList<>((Values<V>) current);
+            }
+            return Collections.singletonList((V) current);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+
+        for (LongObjectHashMap<Object> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private LongObjectHashMap<Object> stripe(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (hash >>> 60) & (STRIPES - 1)];
+    }
+
+    /**
+     * Values sharing a single key, distinguished from a single value by its type.
+     */
+    private static class Values<V> extends ArrayList<V> {
+
+        private static final long serialVersionUID = 1L;
+
+        void addIfAbsent(V value) {
+            if (!contains(value)) {
+                add(value);
+            }
+        }
+    }
+}
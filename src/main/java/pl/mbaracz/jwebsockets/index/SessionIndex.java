@@ -0,0 +1,70 @@
+package pl.mbaracz.jwebsockets.index;
+
+import java.util.List;
+
+/**
+ * Secondary index of sessions over a key extracted from the data associated with them.
+ * Every value is indexed under at most one key, extracted from the data when the value is added. The key is kept for
+ * the value, so that it is moved and removed from that key even if its data was mutated in place in the meantime.
+ * Values whose data or extracted key is null are not indexed.
+ *
+ * @param <D> the type of data the keys are extracted from.
+ * @param <V> the type of indexed values.
+ */
+public abstract class SessionIndex<D, V> {
+
+    private final String name;
+
+    /**
+     * Constructs a new index.
+     *
+     * @param name The unique name of the index.
+     */
+    protected SessionIndex(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Indexes a value under the key extracted from its data, moving it from the key it was indexed under before.
+     *
+     * @param value The value to index.
+     * @param data  The data of the value, may be null.
+     */
+    public abstract void add(V value, D data);
+
+    /**
+     * Removes a value from the key it was indexed under.
+     *
+     * @param value The value to remove.
+     */
+    public abstract void remove(V value);
+
+    /**
+     * Returns a snapshot of the values indexed under a key.
+     *
+     * @param key The key to look up.
+     * @return The indexed values, never null.
+     */
+    public abstract List<V> get(Object key);
+
+    /**
+     * Returns a snapshot of the values indexed under a primitive key.
+     *
+     * @param key The key to look up.
+     * @return The indexed values, never null.
+     */
+    public List<V> get(long key) {
+        return get(Long.valueOf(key));
+    }
+
+    /**
+     * Returns the number of distinct keys in the index.
+     *
+     * @return The number of keys.
+     */
+    public abstract int size();
+}
@@ -0,0 +1,26 @@
+package pl.mbaracz.jwebsockets.message;
+
+/**
+ * Strategy recognizing the acknowledgements sent by clients in reliable delivery mode. Acknowledgements are
+ * cumulative: acknowledging a sequence number acknowledges all messages up to and including it.
+ *
+ * @param <T> the type of the WebSocket messages.
+ */
+@FunctionalInterface
+public interface Acknowledgement<T> {
+
+    /**
+     * The value returned by {@link #getAcknowledgedSequence} for messages which are not acknowledgements.
+     */
+    long NONE = -1;
+
+    /**
+     * Returns the sequence number acknowledged by a received message.
+     *
+     * @param message the received message.
+     * @return the highest sequence number received by the client, or {@link #NONE} if the message is not an
+     * acknowledgement.
+     */
+    long getAcknowledgedSequence(T message);
+
+}
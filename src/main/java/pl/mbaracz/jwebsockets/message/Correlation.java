@@ -0,0 +1,33 @@
+package pl.mbaracz.jwebsockets.message;
+
+/**
+ * Strategy correlating the requests sent by the server with the responses of the clients, by a numeric id carried
+ * in the messages.
+ *
+ * @param <T> the type of the WebSocket messages.
+ */
+public interface Correlation<T> {
+
+    /**
+     * The value returned by {@link #getCorrelationId} for messages which are not responses.
+     */
+    long UNCORRELATED = 0;
+
+    /**
+     * Sets the correlation id of a request about to be sent.
+     *
+     * @param request the request.
+     * @param id      the correlation id, positive and unique among the pending requests of the session.
+     * @return the request to send, either the given instance or a copy of it carrying the id.
+     */
+    T setCorrelationId(T request, long id);
+
+    /**
+     * Returns the correlation id of a received message if it is a response to a request of the server.
+     *
+     * @param message the received message.
+     * @return the correlation id, or {@link #UNCORRELATED} if the message is not a response.
+     */
+    long getCorrelationId(T message);
+
+}
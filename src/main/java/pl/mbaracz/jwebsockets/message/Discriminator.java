@@ -0,0 +1,45 @@
+package pl.mbaracz.jwebsockets.message;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Extracts the type of an encoded message without decoding it, so that a message router only decodes the messages
+ * it has a route for.
+ */
+@FunctionalInterface
+public interface Discriminator {
+
+    /**
+     * Extracts the discriminator of an encoded message. The indexes of the payload must not be modified.
+     *
+     * @param payload the encoded message.
+     * @return the discriminator, or null if the message has none.
+     */
+    Object extract(ByteBuf payload);
+
+    /**
+     * Returns a discriminator reading a top-level field of JSON objects, as text. The object is scanned up to the field
+     * only, skipping the values of the preceding fields, so the field is cheapest to find when it comes first.
+     *
+     * @param field the name of the field.
+     * @return the JSON discriminator.
+     */
+    static Discriminator jsonField(String field) {
+        return new JsonFieldDiscriminator(field);
+    }
+
+    /**
+     * Returns a discriminator reading an unsigned type byte of binary messages, as an Integer.
+     *
+     * @param offset the offset of the type byte in the message.
+     * @return the type byte discriminator.
+     */
+    static Discriminator typeByte(int offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative!");
+        }
+        return payload -> payload.readableBytes() > offset
+                ? Integer.valueOf(payload.getUnsignedByte(payload.readerIndex() + offset))
+                : null;
+    }
+}
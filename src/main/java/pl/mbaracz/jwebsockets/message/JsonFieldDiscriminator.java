@@ -0,0 +1,54 @@
+package pl.mbaracz.jwebsockets.message;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Discriminator scanning a JSON object with a streaming parser until a top-level field is found.
+ */
+class JsonFieldDiscriminator implements Discriminator {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final String field;
+
+    JsonFieldDiscriminator(String field) {
+        this.field = field;
+    }
+
+    @Override
+    public Object extract(ByteBuf payload) {
+        try (JsonParser parser = createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            String name;
+            while ((name = parser.nextFieldName()) != null) {
+                JsonToken token = parser.nextToken();
+
+                if (field.equals(name)) {
+                    return token.isScalarValue() && token != JsonToken.VALUE_NULL ? parser.getText() : null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } catch (IOException exception) {
+            // Malformed messages have no discriminator, they are passed to the unrouted message handler
+            return null;
+        }
+    }
+
+    private static JsonParser createParser(ByteBuf payload) throws IOException {
+        if (payload.hasArray()) {
+            return FACTORY.createParser(payload.array(), payload.arrayOffset() + payload.readerIndex(), payload.readableBytes());
+        }
+        return FACTORY.createParser((InputStream) new ByteBufInputStream(payload.duplicate()));
+    }
+}
@@ -0,0 +1,43 @@
+package pl.mbaracz.jwebsockets.message;
+
+/**
+ * Pair of a message encoder and decoder, together with the type of frames the encoded messages are sent in.
+ *
+ * @param <T> the type of the WebSocket messages.
+ */
+public class MessageCodec<T> {
+
+    private final MessageEncoder<T> encoder;
+    private final MessageDecoder<T> decoder;
+    private final boolean binary;
+
+    /**
+     * Constructs a new codec.
+     *
+     * @param encoder the encoder of outgoing messages.
+     * @param decoder the decoder of incoming messages.
+     * @param binary  true to send encoded messages in binary frames, false to send them in text frames.
+     */
+    public MessageCodec(MessageEncoder<T> encoder, MessageDecoder<T> decoder, boolean binary) {
+        this.encoder = encoder;
+        this.decoder = decoder;
+        this.binary = binary;
+    }
+
+    public MessageEncoder<T> getEncoder() {
+        return encoder;
+    }
+
+    public MessageDecoder<T> getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * Checks if encoded messages are sent in binary frames.
+     *
+     * @return true for binary frames, false for text frames.
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+}
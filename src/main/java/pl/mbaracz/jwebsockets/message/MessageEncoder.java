@@ -15,4 +15,13 @@ public interface MessageEncoder<T> {
      */
     byte[] encode(T message);
 
+    /**
+     * Checks if the encoded messages are binary data which has to be sent in binary frames.
+     *
+     * @return true for binary encodings, false for UTF-8 text encodings.
+     */
+    default boolean isBinary() {
+        return false;
+    }
+
 }
\ No newline at end of file
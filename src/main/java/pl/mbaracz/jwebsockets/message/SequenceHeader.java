@@ -0,0 +1,44 @@
+package pl.mbaracz.jwebsockets.message;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Writes the sequence number of a message in reliable delivery mode in front of its encoded payload. The payload is
+ * shared by all sessions a message is published to, so the per-session sequence number is carried by a header.
+ */
+@FunctionalInterface
+public interface SequenceHeader {
+
+    /**
+     * Header made of the sequence number in ASCII digits followed by a colon, e.g. {@code 42:{"text":"hello"}}.
+     * It keeps text frames valid UTF-8 and is read by splitting the frame at its first colon.
+     */
+    SequenceHeader DECIMAL = (sequence, out) -> {
+        if (sequence < 0) {
+            throw new IllegalArgumentException("Sequence number must not be negative!");
+        }
+
+        long divisor = 1;
+        while (divisor <= sequence / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.writeByte((int) ('0' + sequence / divisor % 10));
+        }
+        out.writeByte(':');
+    };
+
+    /**
+     * Header made of the sequence number as 8 bytes in big-endian order, for binary frames.
+     */
+    SequenceHeader BINARY = (sequence, out) -> out.writeLong(sequence);
+
+    /**
+     * Writes the header of a message.
+     *
+     * @param sequence the sequence number of the message.
+     * @param out      the buffer to write the header to.
+     */
+    void write(long sequence, ByteBuf out);
+
+}
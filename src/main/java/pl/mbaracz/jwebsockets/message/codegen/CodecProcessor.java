@@ -0,0 +1,490 @@
+package pl.mbaracz.jwebsockets.message.codegen;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Annotation processor generating streaming codecs for classes annotated with {@link GenerateCodec}.
+ * <p>
+ * The processor is registered as a service, so it runs whenever this library is on the compile classpath.
+ */
+@SupportedAnnotationTypes("pl.mbaracz.jwebsockets.message.codegen.GenerateCodec")
+public class CodecProcessor extends AbstractProcessor {
+
+    private static final String SUPPORT = "pl.mbaracz.jwebsockets.message.codegen.GeneratedCodecSupport";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment environment) {
+        for (Element element : environment.getElementsAnnotatedWith(GenerateCodec.class)) {
+            try {
+                generate(element);
+            } catch (InvalidMessageException exception) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, exception.getMessage(), exception.element);
+            } catch (IOException exception) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Failed to write codec: " + exception.getMessage(), element);
+            }
+        }
+        return true;
+    }
+
+    private void generate(Element element) throws IOException {
+        if (element.getKind() != ElementKind.CLASS) {
+            throw new InvalidMessageException(element, "@GenerateCodec can only be applied to classes!");
+        }
+
+        TypeElement type = (TypeElement) element;
+        Set<Modifier> modifiers = type.getModifiers();
+
+        if (modifiers.contains(Modifier.ABSTRACT) || modifiers.contains(Modifier.PRIVATE)) {
+            throw new InvalidMessageException(type, "Message class must not be abstract or private!");
+        }
+        if (type.getNestingKind().isNested() && !modifiers.contains(Modifier.STATIC)) {
+            throw new InvalidMessageException(type, "Nested message class must be static!");
+        }
+        if (!hasDefaultConstructor(type)) {
+            throw new InvalidMessageException(type, "Message class needs a non-private constructor without parameters!");
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String codecName = codecName(type);
+        String messageName = type.getQualifiedName().toString();
+        boolean binary = type.getAnnotation(GenerateCodec.class).binary();
+        List<Property> properties = properties(type, packageName);
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("import com.fasterxml.jackson.core.JsonGenerator;\n")
+                .append("import com.fasterxml.jackson.core.JsonParser;\n")
+                .append("import com.fasterxml.jackson.core.JsonToken;\n")
+                .append("import pl.mbaracz.jwebsockets.message.MessageDecoder;\n")
+                .append("import pl.mbaracz.jwebsockets.message.MessageEncoder;\n")
+                .append("import pl.mbaracz.jwebsockets.message.codegen.StreamingMessageDecoder;\n")
+                .append("import pl.mbaracz.jwebsockets.message.codegen.StreamingMessageEncoder;\n\n")
+                .append("import java.io.IOException;\n\n")
+                .append("/**\n * Codecs of {@link ").append(messageName).append("}, generated by ")
+                .append(CodecProcessor.class.getSimpleName()).append(".\n */\n")
+                .append("public final class ").append(codecName).append(" {\n\n");
+
+        appendCodecs(source, codecName, messageName, "JSON", SUPPORT + ".JSON_FACTORY", false, "Json");
+        if (binary) {
+            appendCodecs(source, codecName, messageName, "BINARY",
+                    "pl.mbaracz.jwebsockets.message.codegen.CompactBinaryFactory.INSTANCE", true, "Binary");
+        }
+
+        source.append("    private ").append(codecName).append("() {\n    }\n");
+
+        appendJsonWriter(source, messageName, properties);
+        appendJsonReader(source, messageName, properties);
+        if (binary) {
+            appendBinaryWriter(source, messageName, properties);
+            appendBinaryReader(source, messageName, properties);
+        }
+        source.append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+
+        try (Writer writer = file.openWriter()) {
+            writer.write(source.toString());
+        }
+    }
+
+    private static void appendCodecs(StringBuilder source, String codecName, String messageName, String prefix,
+                                     String factory, boolean binary, String suffix) {
+        source.append("    public static final MessageEncoder<").append(messageName).append("> ").append(prefix)
+                .append("_ENCODER =\n            new StreamingMessageEncoder<>(").append(factory).append(", ")
+                .append(binary).append(", ").append(codecName).append("::write").append(suffix).append(");\n\n")
+                .append("    public static final MessageDecoder<").append(messageName).append("> ").append(prefix)
+                .append("_DECODER =\n            new StreamingMessageDecoder<>(").append(factory).append(", ")
+                .append(codecName).append("::read").append(suffix).append(");\n\n");
+    }
+
+    private void appendJsonWriter(StringBuilder source, String messageName, List<Property> properties) {
+        source.append("\n    public static void writeJson(JsonGenerator generator, ").append(messageName)
+                .append(" message) throws IOException {\n")
+                .append("        generator.writeStartObject();\n");
+
+        for (Property property : properties) {
+            source.append("        generator.writeFieldName(\"").append(property.name).append("\");\n")
+                    .append("        ").append(write(property.type, "generator", property.getter, false, 1, property.element))
+                    .append('\n');
+        }
+        source.append("        generator.writeEndObject();\n    }\n");
+    }
+
+    private void appendJsonReader(StringBuilder source, String messageName, List<Property> properties) {
+        source.append("\n    public static ").append(messageName).append(" readJson(JsonParser parser) throws IOException {\n")
+                .append("        ").append(SUPPORT).append(".expect(parser, JsonToken.START_OBJECT);\n\n")
+                .append("        ").append(messageName).append(" message = new ").append(messageName).append("();\n")
+                .append("        String field;\n\n")
+                .append("        while ((field = parser.nextFieldName()) != null) {\n")
+                .append("            parser.nextToken();\n\n")
+                .append("            switch (field) {\n");
+
+        for (Property property : properties) {
+            source.append("                case \"").append(property.name).append("\":\n")
+                    .append("                    ")
+                    .append(property.assign(read(property.type, "parser", false, 1, property.element))).append('\n')
+                    .append("                    break;\n");
+        }
+        source.append("                default:\n")
+                .append("                    parser.skipChildren();\n")
+                .append("            }\n")
+                .append("        }\n")
+                .append("        return message;\n    }\n");
+    }
+
+    private void appendBinaryWriter(StringBuilder source, String messageName, List<Property> properties) {
+        source.append("\n    public static void writeBinary(JsonGenerator generator, ").append(messageName)
+                .append(" message) throws IOException {\n")
+                .append("        generator.writeStartArray(message, ").append(properties.size()).append(");\n");
+
+        for (Property property : properties) {
+            source.append("        ").append(write(property.type, "generator", property.getter, true, 1, property.element))
+                    .append('\n');
+        }
+        source.append("        generator.writeEndArray();\n    }\n");
+    }
+
+    private void appendBinaryReader(StringBuilder source, String messageName, List<Property> properties) {
+        source.append("\n    public static ").append(messageName).append(" readBinary(JsonParser parser) throws IOException {\n")
+                .append("        ").append(SUPPORT).append(".expect(parser, JsonToken.START_ARRAY);\n\n")
+                .append("        ").append(messageName).append(" message = new ").append(messageName).append("();\n\n");
+
+        // Values missing at the end were written by an older version of the class and keep their default
+        for (Property property : properties) {
+            source.append("        if (parser.nextToken() == JsonToken.END_ARRAY) {\n")
+                    .append("            return message;\n")
+                    .append("        }\n")
+                    .append("        ").append(property.assign(read(property.type, "parser", true, 1, property.element)))
+                    .append("\n\n");
+        }
+        source.append("        ").append(SUPPORT).append(".skipToEndArray(parser);\n")
+                .append("        return message;\n    }\n");
+    }
+
+    /**
+     * Returns a statement writing a value of a type.
+     */
+    private String write(TypeMirror type, String generator, String value, boolean binary, int depth, Element field) {
+        if (type.getKind().isPrimitive()) {
+            return writePrimitive(type.getKind(), generator, value);
+        }
+
+        String nullCheck = "if (" + value + " == null) { " + generator + ".writeNull(); } else { ";
+        PrimitiveType unboxed = unbox(type);
+
+        if (unboxed != null) {
+            String primitive = unboxed.getKind().name().toLowerCase(Locale.ROOT);
+            return nullCheck + writePrimitive(unboxed.getKind(), generator, value + "." + primitive + "Value()") + " }";
+        }
+        if (isString(type)) {
+            return generator + ".writeString(" + value + ");";
+        }
+
+        TypeElement element = declaredElement(type);
+
+        if (element != null && element.getKind() == ElementKind.ENUM) {
+            return nullCheck + generator + ".writeString(" + value + ".name()); }";
+        }
+        if (element != null && element.getAnnotation(GenerateCodec.class) != null) {
+            checkBinary(element, binary, field);
+            return nullCheck + codecReference(element) + ".write" + (binary ? "Binary" : "Json") + "("
+                    + generator + ", " + value + "); }";
+        }
+
+        TypeMirror elementType = listElementType(type, field);
+
+        if (elementType != null) {
+            String elementGenerator = "generator" + depth;
+            String elementValue = "element" + depth;
+            return SUPPORT + ".writeList(" + generator + ", " + value + ", (" + elementGenerator + ", " + elementValue
+                    + ") -> { " + write(elementType, elementGenerator, elementValue, binary, depth + 1, field) + " });";
+        }
+        throw unsupported(type, field);
+    }
+
+    private static String writePrimitive(TypeKind kind, String generator, String value) {
+        switch (kind) {
+            case BOOLEAN:
+                return generator + ".writeBoolean(" + value + ");";
+            case CHAR:
+                return generator + ".writeString(String.valueOf(" + value + "));";
+            case BYTE:
+                return generator + ".writeNumber((int) " + value + ");";
+            default:
+                return generator + ".writeNumber(" + value + ");";
+        }
+    }
+
+    /**
+     * Returns an expression reading a value of a type at the current token.
+     */
+    private String read(TypeMirror type, String parser, boolean binary, int depth, Element field) {
+        if (type.getKind().isPrimitive()) {
+            return readPrimitive(type.getKind(), parser);
+        }
+
+        String nullCheck = parser + ".currentToken() == JsonToken.VALUE_NULL ? null : ";
+        PrimitiveType unboxed = unbox(type);
+
+        if (unboxed != null) {
+            return nullCheck + declaredElement(type).getQualifiedName() + ".valueOf("
+                    + readPrimitive(unboxed.getKind(), parser) + ")";
+        }
+        if (isString(type)) {
+            return parser + ".getValueAsString()";
+        }
+
+        TypeElement element = declaredElement(type);
+
+        if (element != null && element.getKind() == ElementKind.ENUM) {
+            return nullCheck + element.getQualifiedName() + ".valueOf(" + parser + ".getText())";
+        }
+        if (element != null && element.getAnnotation(GenerateCodec.class) != null) {
+            checkBinary(element, binary, field);
+            return nullCheck + codecReference(element) + ".read" + (binary ? "Binary" : "Json") + "(" + parser + ")";
+        }
+
+        TypeMirror elementType = listElementType(type, field);
+
+        if (elementType != null) {
+            String elementParser = "parser" + depth;
+            return SUPPORT + ".readList(" + parser + ", " + elementParser + " -> "
+                    + read(elementType, elementParser, binary, depth + 1, field) + ")";
+        }
+        throw unsupported(type, field);
+    }
+
+    private static String readPrimitive(TypeKind kind, String parser) {
+        switch (kind) {
+            case BOOLEAN:
+                return parser + ".getBooleanValue()";
+            case CHAR:
+                return parser + ".getText().charAt(0)";
+            case BYTE:
+                return parser + ".getByteValue()";
+            case SHORT:
+                return parser + ".getShortValue()";
+            case INT:
+                return parser + ".getIntValue()";
+            case LONG:
+                return parser + ".getLongValue()";
+            case FLOAT:
+                return parser + ".getFloatValue()";
+            default:
+                return parser + ".getDoubleValue()";
+        }
+    }
+
+    private List<Property> properties(TypeElement type, String packageName) {
+        Deque<TypeElement> hierarchy = new ArrayDeque<>();
+
+        for (TypeElement current = type; current != null; current = superclass(current)) {
+            hierarchy.addFirst(current);
+        }
+
+        List<Property> properties = new ArrayList<>();
+
+        for (TypeElement current : hierarchy) {
+            boolean samePackage = processingEnv.getElementUtils().getPackageOf(current).getQualifiedName()
+                    .contentEquals(packageName);
+
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+
+                String name = field.getSimpleName().toString();
+                boolean accessible = modifiers.contains(Modifier.PUBLIC)
+                        || (samePackage && !modifiers.contains(Modifier.PRIVATE));
+
+                if (accessible) {
+                    if (modifiers.contains(Modifier.FINAL)) {
+                        throw new InvalidMessageException(field, "Field '" + name + "' must not be final!");
+                    }
+                    properties.add(new Property(name, field.asType(), field, "message." + name, "message." + name + " = %s;"));
+                    continue;
+                }
+
+                String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+                ExecutableElement getter = method(type, "get" + capitalized, 0);
+
+                if (getter == null && field.asType().getKind() == TypeKind.BOOLEAN) {
+                    getter = method(type, "is" + capitalized, 0);
+                }
+
+                ExecutableElement setter = method(type, "set" + capitalized, 1);
+
+                if (getter == null || setter == null) {
+                    throw new InvalidMessageException(field, "Field '" + name + "' is not accessible and has no getter and setter!");
+                }
+                properties.add(new Property(name, field.asType(), field, "message." + getter.getSimpleName() + "()",
+                        "message." + setter.getSimpleName() + "(%s);"));
+            }
+        }
+        return properties;
+    }
+
+    private ExecutableElement method(TypeElement type, String name, int parameters) {
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if (method.getSimpleName().contentEquals(name) && method.getParameters().size() == parameters
+                    && !method.getModifiers().contains(Modifier.PRIVATE)
+                    && !method.getModifiers().contains(Modifier.STATIC)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasDefaultConstructor(TypeElement type) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private TypeElement superclass(TypeElement type) {
+        TypeElement superclass = declaredElement(type.getSuperclass());
+
+        if (superclass == null || superclass.getQualifiedName().contentEquals("java.lang.Object")) {
+            return null;
+        }
+        return superclass;
+    }
+
+    private PrimitiveType unbox(TypeMirror type) {
+        try {
+            return processingEnv.getTypeUtils().unboxedType(type);
+        } catch (IllegalArgumentException exception) {
+            return null;
+        }
+    }
+
+    private static boolean isString(TypeMirror type) {
+        TypeElement element = declaredElement(type);
+        return element != null && element.getQualifiedName().contentEquals("java.lang.String");
+    }
+
+    private static TypeElement declaredElement(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        return (TypeElement) ((DeclaredType) type).asElement();
+    }
+
+    private TypeMirror listElementType(TypeMirror type, Element field) {
+        TypeElement element = declaredElement(type);
+
+        if (element == null || !element.getQualifiedName().contentEquals("java.util.List")) {
+            return null;
+        }
+
+        List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+
+        if (arguments.size() != 1 || arguments.get(0).getKind() != TypeKind.DECLARED) {
+            throw unsupported(type, field);
+        }
+        return arguments.get(0);
+    }
+
+    private static void checkBinary(TypeElement element, boolean binary, Element field) {
+        if (binary && !element.getAnnotation(GenerateCodec.class).binary()) {
+            throw new InvalidMessageException(field, "Type " + element.getQualifiedName()
+                    + " must be annotated with @GenerateCodec(binary = true) to be used in a binary codec!");
+        }
+    }
+
+    private String codecReference(TypeElement element) {
+        String packageName = processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().toString();
+        return packageName.isEmpty() ? codecName(element) : packageName + "." + codecName(element);
+    }
+
+    private static String codecName(TypeElement type) {
+        StringBuilder name = new StringBuilder(type.getSimpleName());
+
+        for (Element enclosing = type.getEnclosingElement(); enclosing instanceof TypeElement;
+             enclosing = enclosing.getEnclosingElement()) {
+            name.insert(0, enclosing.getSimpleName() + "_");
+        }
+        return name.append("Codec").toString();
+    }
+
+    private static InvalidMessageException unsupported(TypeMirror type, Element field) {
+        return new InvalidMessageException(field, "Unsupported type " + type + " of field '" + field.getSimpleName() + "'!");
+    }
+
+    /**
+     * Serialized field of a message class, with the expressions reading and assigning it.
+     */
+    private static class Property {
+
+        private final String name;
+        private final TypeMirror type;
+        private final Element element;
+        private final String getter;
+        private final String setter;
+
+        Property(String name, TypeMirror type, Element element, String getter, String setter) {
+            this.name = name;
+            this.type = type;
+            this.element = element;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        String assign(String value) {
+            return String.format(setter, value);
+        }
+    }
+
+    /**
+     * Reports a message class or field the codec cannot be generated for.
+     */
+    private static class InvalidMessageException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Element element;
+
+        InvalidMessageException(Element element, String message) {
+            super(message);
+            this.element = element;
+        }
+    }
+}
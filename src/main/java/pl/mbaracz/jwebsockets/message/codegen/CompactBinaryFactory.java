@@ -0,0 +1,21 @@
+package pl.mbaracz.jwebsockets.message.codegen;
+
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileParser;
+
+/**
+ * Holder of the Smile factory shared by all generated binary codecs, kept apart from {@link GeneratedCodecSupport}
+ * so that the optional Smile dependency is only loaded by classes generated with {@link GenerateCodec#binary()}.
+ * The four bytes long Smile header is omitted, since both sides of the connection know the layout.
+ */
+public final class CompactBinaryFactory {
+
+    public static final SmileFactory INSTANCE = SmileFactory.builder()
+            .disable(SmileGenerator.Feature.WRITE_HEADER)
+            .disable(SmileParser.Feature.REQUIRE_HEADER)
+            .build();
+
+    private CompactBinaryFactory() {
+    }
+}
@@ -0,0 +1,34 @@
+package pl.mbaracz.jwebsockets.message.codegen;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a message class for which {@link CodecProcessor} generates a {@code <Name>Codec} class in the same package.
+ * The generated class exposes {@code JSON_ENCODER} and {@code JSON_DECODER}, and with {@link #binary()} also
+ * {@code BINARY_ENCODER} and {@code BINARY_DECODER}, reading and writing the message with the Jackson streaming API
+ * instead of databind reflection.
+ * <p>
+ * All non-static, non-transient fields are serialized by their name. Fields must either be accessible from the
+ * package of the class, or have a getter and a setter. Supported field types are primitives and their wrappers,
+ * strings, enums, other classes annotated with {@code @GenerateCodec} and lists of supported types.
+ * The class needs a non-private constructor without parameters. Nested classes get codecs named after all their
+ * enclosing classes, e.g. {@code Outer_InnerCodec}.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface GenerateCodec {
+
+    /**
+     * Whether to also generate a binary codec. The binary layout writes the fields in declaration order as a Smile
+     * array without field names, which requires {@code jackson-dataformat-smile} at runtime. Fields can be appended
+     * to a class without breaking older decoders, which skip unknown trailing values.
+     *
+     * @return true to generate the binary codec.
+     */
+    boolean binary() default false;
+}
@@ -0,0 +1,101 @@
+package pl.mbaracz.jwebsockets.message.codegen;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers called by the codecs generated for {@link GenerateCodec} classes.
+ */
+public final class GeneratedCodecSupport {
+
+    /**
+     * Factory shared by all generated JSON codecs.
+     */
+    public static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private GeneratedCodecSupport() {
+    }
+
+    /**
+     * Checks that the current token of a parser is the expected one.
+     *
+     * @param parser   the parser.
+     * @param expected the expected token.
+     * @throws JsonParseException if the current token is different.
+     */
+    public static void expect(JsonParser parser, JsonToken expected) throws IOException {
+        if (parser.currentToken() != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + parser.currentToken() + "!");
+        }
+    }
+
+    /**
+     * Skips the remaining values of the current array, up to and including its end.
+     *
+     * @param parser the parser positioned inside of the array.
+     */
+    public static void skipToEndArray(JsonParser parser) throws IOException {
+        JsonToken token;
+
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) {
+                throw new JsonParseException(parser, "Unexpected end of input!");
+            }
+            parser.skipChildren();
+        }
+    }
+
+    /**
+     * Writes a list as an array, or null.
+     *
+     * @param generator the generator.
+     * @param list      the list to write, may be null.
+     * @param writer    the writer of the elements.
+     * @param <E>       the type of the elements.
+     */
+    public static <E> void writeList(JsonGenerator generator, List<E> list,
+                                     StreamingMessageEncoder.Writer<E> writer) throws IOException {
+        if (list == null) {
+            generator.writeNull();
+            return;
+        }
+        generator.writeStartArray(list, list.size());
+        for (E element : list) {
+            writer.write(generator, element);
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Reads an array starting at the current token as a list, or null.
+     *
+     * @param parser the parser.
+     * @param reader the reader of the elements.
+     * @param <E>    the type of the elements.
+     * @return the list, or null.
+     */
+    public static <E> List<E> readList(JsonParser parser, StreamingMessageDecoder.Reader<E> reader) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expect(parser, JsonToken.START_ARRAY);
+
+        List<E> list = new ArrayList<>();
+        JsonToken token;
+
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) {
+                throw new JsonParseException(parser, "Unexpected end of input!");
+            }
+            list.add(reader.read(parser));
+        }
+        return list;
+    }
+}
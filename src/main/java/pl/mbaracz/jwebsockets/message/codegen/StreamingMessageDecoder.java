@@ -0,0 +1,51 @@
+package pl.mbaracz.jwebsockets.message.codegen;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import pl.mbaracz.jwebsockets.message.MessageDecoder;
+
+import java.io.IOException;
+
+/**
+ * Decoder reading messages with a Jackson streaming parser, used by the codecs generated for
+ * {@link GenerateCodec} classes.
+ *
+ * @param <T> the type of the decoded WebSocket message.
+ */
+public class StreamingMessageDecoder<T> implements MessageDecoder<T> {
+
+    /**
+     * Reads a value starting at the current token of a parser.
+     *
+     * @param <T> the type of the read value.
+     */
+    @FunctionalInterface
+    public interface Reader<T> {
+
+        T read(JsonParser parser) throws IOException;
+    }
+
+    private final JsonFactory factory;
+    private final Reader<T> reader;
+
+    /**
+     * Constructs a new decoder.
+     *
+     * @param factory the factory of the parsers.
+     * @param reader  the reader of the messages.
+     */
+    public StreamingMessageDecoder(JsonFactory factory, Reader<T> reader) {
+        this.factory = factory;
+        this.reader = reader;
+    }
+
+    @Override
+    public T decode(byte[] data) {
+        try (JsonParser parser = factory.createParser(data)) {
+            parser.nextToken();
+            return reader.read(parser);
+        } catch (IOException exception) {
+            throw new RuntimeException("Failed to decode message from " + factory.getFormatName(), exception);
+        }
+    }
+}
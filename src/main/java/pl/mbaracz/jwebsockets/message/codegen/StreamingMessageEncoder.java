@@ -0,0 +1,62 @@
+package pl.mbaracz.jwebsockets.message.codegen;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import pl.mbaracz.jwebsockets.message.MessageEncoder;
+
+import java.io.IOException;
+
+/**
+ * Encoder writing messages with a Jackson streaming generator, used by the codecs generated for
+ * {@link GenerateCodec} classes.
+ *
+ * @param <T> the type of the WebSocket message to be encoded.
+ */
+public class StreamingMessageEncoder<T> implements MessageEncoder<T> {
+
+    /**
+     * Writes a value to a generator.
+     *
+     * @param <T> the type of the written value.
+     */
+    @FunctionalInterface
+    public interface Writer<T> {
+
+        void write(JsonGenerator generator, T value) throws IOException;
+    }
+
+    private final JsonFactory factory;
+    private final boolean binary;
+    private final Writer<T> writer;
+
+    /**
+     * Constructs a new encoder.
+     *
+     * @param factory the factory of the generators.
+     * @param binary  true if the factory produces a binary format.
+     * @param writer  the writer of the messages.
+     */
+    public StreamingMessageEncoder(JsonFactory factory, boolean binary, Writer<T> writer) {
+        this.factory = factory;
+        this.binary = binary;
+        this.writer = writer;
+    }
+
+    @Override
+    public byte[] encode(T message) {
+        ByteArrayBuilder output = new ByteArrayBuilder(128);
+
+        try (JsonGenerator generator = factory.createGenerator(output)) {
+            writer.write(generator, message);
+        } catch (IOException exception) {
+            throw new RuntimeException("Failed to encode message to " + factory.getFormatName(), exception);
+        }
+        return output.toByteArray();
+    }
+
+    @Override
+    public boolean isBinary() {
+        return binary;
+    }
+}
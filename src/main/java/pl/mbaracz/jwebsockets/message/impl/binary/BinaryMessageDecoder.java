@@ -0,0 +1,39 @@
+package pl.mbaracz.jwebsockets.message.impl.binary;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import pl.mbaracz.jwebsockets.message.MessageDecoder;
+
+import java.io.IOException;
+
+/**
+ * Base of the decoders deserializing messages with a binary Jackson data format.
+ *
+ * @param <T> the type of the decoded WebSocket message.
+ */
+abstract class BinaryMessageDecoder<T> implements MessageDecoder<T> {
+
+    private final ObjectReader reader;
+    private final String format;
+
+    /**
+     * Constructs a new decoder.
+     *
+     * @param mapper the object mapper of the binary data format.
+     * @param clazz  the class of the decoded messages.
+     * @param format the name of the data format, used in error messages.
+     */
+    BinaryMessageDecoder(ObjectMapper mapper, Class<T> clazz, String format) {
+        this.reader = mapper.readerFor(clazz);
+        this.format = format;
+    }
+
+    @Override
+    public T decode(byte[] data) {
+        try {
+            return reader.readValue(data);
+        } catch (IOException exception) {
+            throw new RuntimeException("Failed to decode message from " + format, exception);
+        }
+    }
+}
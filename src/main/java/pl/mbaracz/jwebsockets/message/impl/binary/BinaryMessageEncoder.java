@@ -0,0 +1,42 @@
+package pl.mbaracz.jwebsockets.message.impl.binary;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import pl.mbaracz.jwebsockets.message.MessageEncoder;
+
+/**
+ * Base of the encoders serializing messages with a binary Jackson data format. Messages are sent in binary frames.
+ *
+ * @param <T> the type of the WebSocket message to be encoded.
+ */
+abstract class BinaryMessageEncoder<T> implements MessageEncoder<T> {
+
+    private final ObjectWriter writer;
+    private final String format;
+
+    /**
+     * Constructs a new encoder.
+     *
+     * @param mapper the object mapper of the binary data format.
+     * @param format the name of the data format, used in error messages.
+     */
+    BinaryMessageEncoder(ObjectMapper mapper, String format) {
+        this.writer = mapper.writer();
+        this.format = format;
+    }
+
+    @Override
+    public byte[] encode(T message) {
+        try {
+            return writer.writeValueAsBytes(message);
+        } catch (JsonProcessingException exception) {
+            throw new RuntimeException("Failed to encode message to " + format, exception);
+        }
+    }
+
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+}
@@ -0,0 +1,15 @@
+package pl.mbaracz.jwebsockets.message.impl.binary;
+
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+
+/**
+ * Decodes messages from CBOR (RFC 8949).
+ *
+ * @param <T> the type of the decoded WebSocket message.
+ */
+public class CborMessageDecoder<T> extends BinaryMessageDecoder<T> {
+
+    public CborMessageDecoder(Class<T> clazz) {
+        super(new CBORMapper(), clazz, "CBOR");
+    }
+}
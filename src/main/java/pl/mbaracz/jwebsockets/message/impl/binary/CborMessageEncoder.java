@@ -0,0 +1,15 @@
+package pl.mbaracz.jwebsockets.message.impl.binary;
+
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+
+/**
+ * Encodes messages to CBOR (RFC 8949), sent in binary frames.
+ *
+ * @param <T> the type of the WebSocket message to be encoded.
+ */
+public class CborMessageEncoder<T> extends BinaryMessageEncoder<T> {
+
+    public CborMessageEncoder() {
+        super(new CBORMapper(), "CBOR");
+    }
+}
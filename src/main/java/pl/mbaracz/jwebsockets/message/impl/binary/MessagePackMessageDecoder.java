@@ -0,0 +1,16 @@
+package pl.mbaracz.jwebsockets.message.impl.binary;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+/**
+ * Decodes messages from MessagePack.
+ *
+ * @param <T> the type of the decoded WebSocket message.
+ */
+public class MessagePackMessageDecoder<T> extends BinaryMessageDecoder<T> {
+
+    public MessagePackMessageDecoder(Class<T> clazz) {
+        super(new ObjectMapper(new MessagePackFactory()), clazz, "MessagePack");
+    }
+}
@@ -0,0 +1,16 @@
+package pl.mbaracz.jwebsockets.message.impl.binary;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+/**
+ * Encodes messages to MessagePack, sent in binary frames.
+ *
+ * @param <T> the type of the WebSocket message to be encoded.
+ */
+public class MessagePackMessageEncoder<T> extends BinaryMessageEncoder<T> {
+
+    public MessagePackMessageEncoder() {
+        super(new ObjectMapper(new MessagePackFactory()), "MessagePack");
+    }
+}
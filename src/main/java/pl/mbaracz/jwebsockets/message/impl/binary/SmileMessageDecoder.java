@@ -0,0 +1,15 @@
+package pl.mbaracz.jwebsockets.message.impl.binary;
+
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+
+/**
+ * Decodes messages from Smile, the binary JSON format of Jackson.
+ *
+ * @param <T> the type of the decoded WebSocket message.
+ */
+public class SmileMessageDecoder<T> extends BinaryMessageDecoder<T> {
+
+    public SmileMessageDecoder(Class<T> clazz) {
+        super(new SmileMapper(), clazz, "Smile");
+    }
+}
@@ -0,0 +1,15 @@
+package pl.mbaracz.jwebsockets.message.impl.binary;
+
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+
+/**
+ * Encodes messages to Smile, the binary JSON format of Jackson, sent in binary frames.
+ *
+ * @param <T> the type of the WebSocket message to be encoded.
+ */
+public class SmileMessageEncoder<T> extends BinaryMessageEncoder<T> {
+
+    public SmileMessageEncoder() {
+        super(new SmileMapper(), "Smile");
+    }
+}
@@ -0,0 +1,167 @@
+package pl.mbaracz.jwebsockets.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trie of URL path patterns, such as {@code /chat} or {@code /rooms/{room}/events}. Segments are separated with a
+ * slash and a segment enclosed in braces matches any single segment, capturing it as a path parameter.
+ * Literal segments take precedence over parameters. Patterns are split into segments once, when they are added.
+ * All patterns must be added before the trie is used for matching, lookups are not synchronized with additions.
+ *
+ * @param <V> the type of values associated with patterns.
+ */
+public class PathTrie<V> {
+
+    private final Node<V> root = new Node<>();
+
+    /**
+     * Adds a pattern.
+     *
+     * @param pattern The path pattern, starting with a slash.
+     * @param value   The value associated with the pattern.
+     * @throws IllegalArgumentException If the pattern is invalid or already defined.
+     */
+    public void add(String pattern, V value) throws IllegalArgumentException {
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Path '" + pattern + "' must start with a slash!");
+        }
+
+        Node<V> node = root;
+        for (String segment : split(pattern)) {
+            if (segment.startsWith("{") && segment.endsWith("}") && segment.length() > 2) {
+                String name = segment.substring(1, segment.length() - 1);
+
+                if (node.parameter == null) {
+                    node.parameter = new Node<>();
+                    node.parameterName = name;
+                } else if (!node.parameterName.equals(name)) {
+                    throw new IllegalArgumentException("Path '" + pattern + "' conflicts with parameter '" + node.parameterName + "'!");
+                }
+                node = node.parameter;
+            } else if (segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0) {
+                throw new IllegalArgumentException("Path '" + pattern + "' contains a partial parameter segment!");
+            } else {
+                node = node.children.computeIfAbsent(segment, key -> new Node<>());
+            }
+        }
+
+        if (node.value != null) {
+            throw new IllegalArgumentException("Path '" + pattern + "' is already defined!");
+        }
+        node.value = value;
+    }
+
+    /**
+     * Finds the pattern matching a path, without its query string.
+     *
+     * @param path The decoded request path.
+     * @return The match, or null if no pattern matches the path.
+     */
+    public Match<V> match(String path) {
+        List<String> segments = split(path);
+        List<String> values = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+
+        Node<V> node = match(root, segments, 0, names, values);
+
+        if (node == null) {
+            return null;
+        }
+
+        Map<String, String> parameters = Collections.emptyMap();
+        if (!names.isEmpty()) {
+            parameters = new LinkedHashMap<>();
+            for (int i = 0; i < names.size(); i++) {
+                parameters.put(names.get(i), values.get(i));
+            }
+        }
+        return new Match<>(node.value, parameters);
+    }
+
+    private static <V> Node<V> match(Node<V> node, List<String> segments, int index, List<String> names, List<String> values) {
+        if (index == segments.size()) {
+            return node.value != null ? node : null;
+        }
+
+        String segment = segments.get(index);
+        Node<V> child = node.children.get(segment);
+
+        if (child != null) {
+            Node<V> result = match(child, segments, index + 1, names, values);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        if (node.parameter != null) {
+            names.add(node.parameterName);
+            values.add(segment);
+
+            Node<V> result = match(node.parameter, segments, index + 1, names, values);
+            if (result != null) {
+                return result;
+            }
+            names.remove(names.size() - 1);
+            values.remove(values.size() - 1);
+        }
+        return null;
+    }
+
+    private static List<String> split(String path) {
+        List<String> segments = new ArrayList<>();
+        int start = 1;
+
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (end > start) {
+                segments.add(path.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return segments;
+    }
+
+    /**
+     * Result of matching a path, holding the value of the pattern and the captured parameters.
+     *
+     * @param <V> the type of values associated with patterns.
+     */
+    public static class Match<V> {
+
+        private final V value;
+        private final Map<String, String> parameters;
+
+        private Match(V value, Map<String, String> parameters) {
+            this.value = value;
+            this.parameters = parameters;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        /**
+         * Returns the values of the path parameters, by their names.
+         *
+         * @return The path parameters, never null.
+         */
+        public Map<String, String> getParameters() {
+            return parameters;
+        }
+    }
+
+    private static class Node<V> {
+        private final Map<String, Node<V>> children = new HashMap<>();
+        private Node<V> parameter;
+        private String parameterName;
+        private V value;
+    }
+}
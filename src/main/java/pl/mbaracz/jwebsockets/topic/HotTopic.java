@@ -0,0 +1,51 @@
+package pl.mbaracz.jwebsockets.topic;
+
+/**
+ * Entry of the hot topic ranking, as estimated by {@link HotTopicSketch}.
+ */
+public class HotTopic {
+
+    private final String topic;
+    private final long count;
+    private final long error;
+
+    /**
+     * Constructs a new hot topic entry.
+     *
+     * @param topic The name of the topic.
+     * @param count The estimated weight of the topic.
+     * @param error The maximum overestimation of the weight.
+     */
+    public HotTopic(String topic, long count, long error) {
+        this.topic = topic;
+        this.count = count;
+        this.error = error;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * Returns the estimated weight, which is never lower than the real one.
+     *
+     * @return The estimated weight.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the maximum overestimation of the weight, the real weight is at least {@code count - error}.
+     *
+     * @return The estimation error.
+     */
+    public long getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return topic + "=" + count + " (±" + error + ")";
+    }
+}
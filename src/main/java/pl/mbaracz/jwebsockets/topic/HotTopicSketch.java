@@ -0,0 +1,167 @@
+package pl.mbaracz.jwebsockets.topic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Space-saving sketch tracking the heaviest topics using a fixed number of counters.
+ * Updates through {@link #tryOffer} never block, if the sketch is busy the caller is expected to retry the weight later.
+ */
+public class HotTopicSketch {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final Counter[] heap;
+    private int size;
+
+    /**
+     * Constructs a new sketch.
+     *
+     * @param capacity The number of monitored topics.
+     */
+    public HotTopicSketch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive!");
+        }
+        this.heap = new Counter[capacity];
+    }
+
+    /**
+     * Tries to add weight to the given topic.
+     *
+     * @param topic  The name of the topic.
+     * @param weight The weight to add.
+     * @return {@code true} if the weight was recorded, {@code false} if the sketch is currently in use by another thread.
+     */
+    public boolean tryOffer(String topic, long weight) {
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            add(topic, weight);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds weight to the given topic, waiting for the sketch if it is in use by another thread.
+     *
+     * @param topic  The name of the topic.
+     * @param weight The weight to add.
+     */
+    public void offer(String topic, long weight) {
+        lock.lock();
+        try {
+            add(topic, weight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the heaviest topics ordered by the estimated weight descending.
+     *
+     * @param limit The maximum number of returned topics.
+     * @return The list of the heaviest topics.
+     */
+    public List<HotTopic> top(int limit) {
+        List<HotTopic> result = new ArrayList<>();
+
+        lock.lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                result.add(new HotTopic(heap[i].topic, heap[i].count, heap[i].error));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        result.sort((first, second) -> Long.compare(second.getCount(), first.getCount()));
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    private void add(String topic, long weight) {
+        Counter counter = counters.get(topic);
+
+        if (counter != null) {
+            counter.count += weight;
+            siftDown(counter.index);
+            return;
+        }
+
+        if (size < heap.length) {
+            counter = new Counter(topic, weight, 0);
+            counter.index = size;
+            heap[size++] = counter;
+            counters.put(topic, counter);
+            siftUp(counter.index);
+            return;
+        }
+
+        // Replace the lightest topic, inheriting its count as the estimation error
+        Counter min = heap[0];
+        counters.remove(min.topic);
+        min.error = min.count;
+        min.count += weight;
+        min.topic = topic;
+        counters.put(topic, min);
+        siftDown(0);
+    }
+
+    private void siftUp(int index) {
+        Counter counter = heap[index];
+
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].count <= counter.count) {
+                break;
+            }
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(counter, index);
+    }
+
+    private void siftDown(int index) {
+        Counter counter = heap[index];
+
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (counter.count <= heap[child].count) {
+                break;
+            }
+            place(heap[child], index);
+            index = child;
+        }
+        place(counter, index);
+    }
+
+    private void place(Counter counter, int index) {
+        heap[index] = counter;
+        counter.index = index;
+    }
+
+    private static class Counter {
+        private String topic;
+        private long count;
+        private long error;
+        private int index;
+
+        private Counter(String topic, long count, long error) {
+            this.topic = topic;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package pl.mbaracz.jwebsockets.topic;
+
+import io.netty.util.ReferenceCounted;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Cache of the last encoded messages of retained topics, delivered to new subscribers as a snapshot.
+ * Messages are stored as reference-counted objects shared with all subscribers. When the total size of the cached
+ * messages exceeds the memory limit, the oldest messages of the least recently used topics are evicted.
+ *
+ * @param <M> the type of cached messages.
+ */
+public class RetainedMessageCache<M extends ReferenceCounted> {
+
+    private final Map<String, Integer> capacities = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, ArrayDeque<M>> messages = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongSupplier memoryLimit;
+    private final ToIntFunction<? super M> sizer;
+    private long memoryUsage;
+
+    /**
+     * Constructs a new cache.
+     *
+     * @param memoryLimit Supplier of the maximum total size of the cached messages in bytes.
+     * @param sizer       Function returning the size of a message in bytes, which must not change while it is cached.
+     */
+    public RetainedMessageCache(LongSupplier memoryLimit, ToIntFunction<? super M> sizer) {
+        this.memoryLimit = memoryLimit;
+        this.sizer = sizer;
+    }
+
+    /**
+     * Enables retention of the last messages of a topic.
+     *
+     * @param topic    The concrete topic.
+     * @param capacity The number of retained messages.
+     * @throws IllegalArgumentException If the capacity is not positive.
+     */
+    public synchronized void setCapacity(String topic, int capacity) throws IllegalArgumentException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Number of retained messages must be positive!");
+        }
+        capacities.put(topic, capacity);
+
+        ArrayDeque<M> queue = messages.get(topic);
+        while (queue != null && queue.size() > capacity) {
+            memoryUsage -= release(queue.removeFirst());
+        }
+    }
+
+    /**
+     * Disables retention of a topic, releasing its messages.
+     *
+     * @param topic The concrete topic.
+     */
+    public synchronized void remove(String topic) {
+        capacities.remove(topic);
+
+        ArrayDeque<M> queue = messages.remove(topic);
+        while (queue != null && !queue.isEmpty()) {
+            memoryUsage -= release(queue.removeFirst());
+        }
+    }
+
+    /**
+     * Checks without locking if messages of a topic are retained.
+     *
+     * @param topic The concrete topic.
+     * @return true if the topic is retained.
+     */
+    public boolean isRetained(String topic) {
+        return !capacities.isEmpty() && capacities.containsKey(topic);
+    }
+
+    /**
+     * Adds a message to a retained topic, evicting older messages if needed. The cache retains its own reference to
+     * the message, the caller keeps ownership of its reference.
+     *
+     * @param topic   The concrete topic.
+     * @param message The encoded message.
+     */
+    public synchronized void add(String topic, M message) {
+        Integer capacity = capacities.get(topic);
+
+        if (capacity == null) {
+            return;
+        }
+
+        ArrayDeque<M> queue = messages.computeIfAbsent(topic, key -> new ArrayDeque<>());
+        message.retain();
+        queue.addLast(message);
+        memoryUsage += sizer.applyAsInt(message);
+
+        while (queue.size() > capacity) {
+            memoryUsage -= release(queue.removeFirst());
+        }
+        evict();
+    }
+
+    /**
+     * Returns the retained messages of a topic, from the oldest to the newest.
+     * The ownership of the returned references is transferred to the caller.
+     *
+     * @param topic The concrete topic.
+     * @return The retained messages, never null.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<M> snapshot(String topic) {
+        ArrayDeque<M> queue = messages.get(topic);
+
+        if (queue == null) {
+            return Collections.emptyList();
+        }
+
+        List<M> result = new ArrayList<>(queue.size());
+        for (M message : queue) {
+            result.add((M) message.retain());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the names of all topics which currently have retained messages.
+     *
+     * @return The list of topics.
+     */
+    public synchronized List<String> getTopics() {
+        return new ArrayList<>(messages.keySet());
+    }
+
+    /**
+     * Returns the total size of the cached messages.
+     *
+     * @return The memory usage in bytes.
+     */
+    public synchronized long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * Evicts the oldest messages of the least recently used topics until the memory limit is respected.
+     */
+    private void evict() {
+        long limit = memoryLimit.getAsLong();
+        Iterator<ArrayDeque<M>> iterator = messages.values().iterator();
+
+        while (memoryUsage > limit && iterator.hasNext()) {
+            ArrayDeque<M> queue = iterator.next();
+
+            while (memoryUsage > limit && !queue.isEmpty()) {
+                memoryUsage -= release(queue.removeFirst());
+            }
+            if (queue.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private int release(M message) {
+        int bytes = sizer.applyAsInt(message);
+        message.release();
+        return bytes;
+    }
+}
@@ -0,0 +1,526 @@
+package pl.mbaracz.jwebsockets.topic;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent append-only log of the encoded messages of a topic, stored in memory-mapped segment files of a fixed size.
+ * Every record holds the payload with its sequence number, starting at 1, its timestamp and a checksum of the length,
+ * the sequence number, the timestamp and the payload:
+ * <pre>
+ * | length + 1 (4) | crc32 (4) | sequence (8) | timestamp (8) | payload (length) |
+ * </pre>
+ * The length is stored incremented by one, so that a zero marks the end of a segment even after an empty payload.
+ * Appending copies the payload into the mapped segment without a system call, so the record reaches the page cache
+ * immediately and survives a crash of the process. It is written to the disk by {@link #flush()}, which is meant to be
+ * called periodically to commit many records at once. On open, the records are recovered up to the first one which is
+ * incomplete or does not match its checksum.
+ * <p>
+ * Segment files are numbered in the order of their creation. The next segment is created and mapped in advance by
+ * the maintenance executor, so that rolling over to it does not wait for the file system.
+ * <p>
+ * Whole segments are deleted once the log exceeds its retention size, or once their newest record is older than the
+ * retention age. The files are deleted by {@link #flush()} and the maintenance executor, never while appending. The
+ * active segment is never deleted. Segments are unmapped by the garbage collector, so that payloads handed to readers
+ * stay valid after their segment is deleted.
+ */
+public class TopicLog implements Closeable {
+
+    /**
+     * Size of the header preceding the payload of every record.
+     */
+    public static final int HEADER_SIZE = 24;
+
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long retentionBytes;
+    private final long retentionMillis;
+    private final Executor maintenance;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final CRC32 checksum = new CRC32();
+    private Segment spare;
+    private long nextNumber = 1;
+    private long lastSequence;
+    private long size;
+    private boolean closed;
+
+    /**
+     * Opens the log stored in a directory, recovering the records of its existing segments. The next segment is
+     * prepared and the segments outside of the retention are deleted by the appending thread.
+     *
+     * @param directory       The directory of the log, created if it does not exist.
+     * @param segmentSize     The size of a segment file in bytes.
+     * @param retentionBytes  The maximum total size of the segments.
+     * @param retentionMillis The maximum age of the records of a segment in milliseconds.
+     * @throws IOException              If the segments cannot be read or created.
+     * @throws IllegalArgumentException If the segment size cannot hold a record.
+     */
+    public TopicLog(Path directory, int segmentSize, long retentionBytes, long retentionMillis)
+            throws IOException, IllegalArgumentException {
+        this(directory, segmentSize, retentionBytes, retentionMillis, Runnable::run);
+    }
+
+    /**
+     * Opens the log stored in a directory, recovering the records of its existing segments.
+     *
+     * @param directory       The directory of the log, created if it does not exist.
+     * @param segmentSize     The size of a segment file in bytes.
+     * @param retentionBytes  The maximum total size of the segments.
+     * @param retentionMillis The maximum age of the records of a segment in milliseconds.
+     * @param maintenance     The executor preparing the next segment and deleting the segments outside of the
+     *                        retention.
+     * @throws IOException              If the segments cannot be read or created.
+     * @throws IllegalArgumentException If the segment size cannot hold a record.
+     */
+    public TopicLog(Path directory, int segmentSize, long retentionBytes, long retentionMillis, Executor maintenance)
+            throws IOException, IllegalArgumentException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size must be greater than " + HEADER_SIZE + " bytes!");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retentionMillis;
+        this.maintenance = maintenance;
+
+        Files.createDirectories(directory);
+        for (long number : listSegments(directory)) {
+            Segment segment = Segment.open(directory, number, segmentSize);
+            nextNumber = number + 1;
+
+            if (segment.position > 0 && segment.baseSequence > lastSequence) {
+                segments.addLast(segment);
+                lastSequence = segment.lastSequence;
+                size += segment.position;
+            } else {
+                // An unused prepared segment, or one older than the segments kept
+                Files.deleteIfExists(segment.path);
+            }
+        }
+
+        if (segments.isEmpty()) {
+            Segment segment = Segment.open(directory, nextNumber++, segmentSize);
+            segment.activate(lastSequence + 1);
+            segments.addLast(segment);
+        } else {
+            segments.peekLast().clearTail();
+        }
+        scheduleMaintenance();
+    }
+
+    /**
+     * Appends an encoded message to the log, rolling over to a new segment if the active one is full.
+     *
+     * @param payload   The encoded message, its reader index is not modified.
+     * @param timestamp The time of publishing in milliseconds since the epoch.
+     * @return The sequence number of the record.
+     * @throws IllegalArgumentException If the message does not fit into a segment.
+     * @throws IllegalStateException    If the log is closed.
+     * @throws UncheckedIOException     If a new segment cannot be created.
+     */
+    public synchronized long append(ByteBuf payload, long timestamp)
+            throws IllegalArgumentException, IllegalStateException, UncheckedIOException {
+        if (closed) {
+            throw new IllegalStateException("Topic log is closed!");
+        }
+
+        int length = payload.readableBytes();
+
+        if (HEADER_SIZE + length > segmentSize) {
+            throw new IllegalArgumentException("Message of " + length + " bytes does not fit into a log segment!");
+        }
+
+        Segment active = segments.peekLast();
+        if (active.buffer.capacity() - active.position < HEADER_SIZE + length) {
+            active = roll();
+        }
+
+        long sequence = lastSequence + 1;
+        int position = active.position;
+        ByteBuffer target = active.buffer.duplicate();
+        ((Buffer) target).position(position + HEADER_SIZE).limit(position + HEADER_SIZE + length);
+        payload.getBytes(payload.readerIndex(), target);
+
+        active.buffer.putLong(position + 8, sequence);
+        active.buffer.putLong(position + 16, timestamp);
+        active.buffer.putInt(position + 4, checksum(checksum, target, position, length));
+        // The length is written last, a zero in its place marks the end of the segment
+        active.buffer.putInt(position, length + 1);
+
+        active.position += HEADER_SIZE + length;
+        active.lastSequence = sequence;
+        active.lastTimestamp = timestamp;
+        active.dirty = true;
+        lastSequence = sequence;
+        size += HEADER_SIZE + length;
+        return sequence;
+    }
+
+    /**
+     * Reads the records within a range of sequence numbers, from the oldest to the newest. Records appended while
+     * reading are not read. Payloads are passed without copying, as read-only views of the mapped segments.
+     *
+     * @param fromSequence The first sequence number to read, older records which were deleted are skipped.
+     * @param toSequence   The last sequence number to read.
+     * @param reader       The reader of the records.
+     */
+    public void read(long fromSequence, long toSequence, Reader reader) {
+        List<Segment> snapshot;
+        List<Integer> limits = new ArrayList<>();
+
+        synchronized (this) {
+            snapshot = new ArrayList<>(segments);
+            for (Segment segment : snapshot) {
+                limits.add(segment.position);
+            }
+        }
+
+        for (int i = 0; i < snapshot.size(); i++) {
+            Segment segment = snapshot.get(i);
+
+            if (i + 1 < snapshot.size() && snapshot.get(i + 1).baseSequence <= fromSequence) {
+                continue;
+            }
+
+            ByteBuffer buffer = segment.buffer.duplicate();
+            int position = 0;
+            int limit = limits.get(i);
+
+            while (position < limit) {
+                int length = buffer.getInt(position) - 1;
+                long sequence = buffer.getLong(position + 8);
+
+                if (sequence > toSequence) {
+                    return;
+                }
+                if (sequence >= fromSequence) {
+                    ((Buffer) buffer).limit(position + HEADER_SIZE + length).position(position + HEADER_SIZE);
+                    reader.read(sequence, buffer.getLong(position + 16), Unpooled.wrappedBuffer(buffer.slice()).asReadOnly());
+                    ((Buffer) buffer).clear();
+                }
+                position += HEADER_SIZE + length;
+            }
+        }
+    }
+
+    /**
+     * Writes the records appended since the last call to the disk, and deletes the segments outside of the retention.
+     * The disk writes happen without blocking appends.
+     */
+    public void flush() {
+        List<Segment> dirty = new ArrayList<>();
+        List<Segment> expired;
+
+        synchronized (this) {
+            for (Segment segment : segments) {
+                if (segment.dirty) {
+                    segment.dirty = false;
+                    dirty.add(segment);
+                }
+            }
+            expired = applyRetention(System.currentTimeMillis());
+        }
+
+        for (Segment segment : dirty) {
+            segment.buffer.force();
+        }
+        delete(expired);
+    }
+
+    /**
+     * Returns the sequence number of the oldest record kept in the log.
+     *
+     * @return The sequence number, greater than {@link #getLastSequence()} if the log is empty.
+     */
+    public synchronized long getFirstSequence() {
+        return segments.peekFirst().baseSequence;
+    }
+
+    /**
+     * Returns the sequence number of the newest record.
+     *
+     * @return The sequence number, or 0 if no record was ever appended.
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Returns the total size of the records kept in the log.
+     *
+     * @return The size in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Writes all records to the disk and closes the log. Records already passed to readers stay valid.
+     */
+    @Override
+    public void close() {
+        Segment unused;
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            unused = spare;
+            spare = null;
+        }
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        if (unused != null) {
+            delete(Collections.singletonList(unused));
+        }
+    }
+
+    /**
+     * Rolls over to the prepared segment, or to a new one if it is not prepared yet, and schedules the preparation of
+     * the next one. Must be called while holding the lock of the log.
+     */
+    private Segment roll() {
+        Segment segment = spare;
+        spare = null;
+
+        if (segment == null) {
+            try {
+                segment = Segment.open(directory, nextNumber++, segmentSize);
+            } catch (IOException exception) {
+                throw new UncheckedIOException("Failed to create log segment in " + directory, exception);
+            }
+        }
+        segment.activate(lastSequence + 1);
+        segments.addLast(segment);
+        scheduleMaintenance();
+        return segment;
+    }
+
+    private void scheduleMaintenance() {
+        try {
+            maintenance.execute(this::maintain);
+        } catch (RejectedExecutionException ignored) {
+            // The executor is shut down with the log, rolling over creates the next segment itself
+        }
+    }
+
+    /**
+     * Deletes the segments outside of the retention, and prepares the next segment if it is not prepared yet.
+     */
+    private void maintain() {
+        List<Segment> expired;
+        long number;
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            expired = applyRetention(System.currentTimeMillis());
+            number = spare == null ? nextNumber++ : 0;
+        }
+        delete(expired);
+
+        if (number == 0) {
+            return;
+        }
+        try {
+            Segment segment = Segment.open(directory, number, segmentSize);
+
+            synchronized (this) {
+                // Segments are recovered in the order of their numbers, so a newer one may have been created meanwhile
+                if (!closed && spare == null && segments.peekLast().number < number) {
+                    spare = segment;
+                    return;
+                }
+            }
+            delete(Collections.singletonList(segment));
+        } catch (IOException ignored) {
+            // Rolling over creates the next segment itself
+        }
+    }
+
+    /**
+     * Removes the segments outside of the retention from the log, leaving their files to be deleted outside of the
+     * lock. Must be called while holding the lock of the log.
+     *
+     * @return The removed segments.
+     */
+    private List<Segment> applyRetention(long now) {
+        List<Segment> expired = new ArrayList<>();
+
+        while (segments.size() > 1) {
+            Segment oldest = segments.peekFirst();
+
+            if (size <= retentionBytes && now - oldest.lastTimestamp <= retentionMillis) {
+                break;
+            }
+            segments.removeFirst();
+            size -= oldest.position;
+            expired.add(oldest);
+        }
+        return expired;
+    }
+
+    private static void delete(List<Segment> segments) {
+        for (Segment segment : segments) {
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException ignored) {
+                // The segment is no longer read, the file is left to be removed manually
+            }
+        }
+    }
+
+    /**
+     * Computes the checksum of a record over its length, sequence number, timestamp and payload, which must already
+     * be written to the buffer.
+     *
+     * @param checksum The checksum to compute with.
+     * @param buffer   A view of the segment, its position and limit are modified.
+     * @param position The position of the record.
+     * @param length   The length of the payload.
+     * @return The checksum.
+     */
+    private static int checksum(CRC32 checksum, ByteBuffer buffer, int position, int length) {
+        checksum.reset();
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            checksum.update((length + 1) >>> shift);
+        }
+        ((Buffer) buffer).limit(position + HEADER_SIZE + length).position(position + 8);
+        checksum.update(buffer);
+        return (int) checksum.getValue();
+    }
+
+    private static List<Long> listSegments(Path directory) throws IOException {
+        List<Long> result = new ArrayList<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    result.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                } catch (NumberFormatException ignored) {
+                    // Not a segment of this log
+                }
+            }
+        }
+        result.sort(Long::compare);
+        return result;
+    }
+
+    /**
+     * Reader of the records of a log.
+     */
+    @FunctionalInterface
+    public interface Reader {
+
+        /**
+         * Reads a record.
+         *
+         * @param sequence  The sequence number of the record.
+         * @param timestamp The time of publishing in milliseconds since the epoch.
+         * @param payload   The encoded message, a read-only view of the segment which the reader may retain.
+         */
+        void read(long sequence, long timestamp, ByteBuf payload);
+    }
+
+    /**
+     * A memory-mapped segment file, numbered in the order of creation.
+     */
+    private static final class Segment {
+        private final Path path;
+        private final long number;
+        private final MappedByteBuffer buffer;
+        private long baseSequence;
+        private int position;
+        private long lastSequence;
+        private long lastTimestamp;
+        private boolean dirty;
+
+        private Segment(Path path, long number, MappedByteBuffer buffer) {
+            this.path = path;
+            this.number = number;
+            this.buffer = buffer;
+        }
+
+        private static Segment open(Path directory, long number, int segmentSize) throws IOException {
+            Path path = directory.resolve(String.format("%020d%s", number, SUFFIX));
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                long size = Math.max(channel.size(), segmentSize);
+                Segment segment = new Segment(path, number, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+                segment.recover();
+                return segment;
+            }
+        }
+
+        /**
+         * Makes an empty segment the active one, so that its first record gets the given sequence number.
+         */
+        private void activate(long baseSequence) {
+            this.baseSequence = baseSequence;
+            this.lastSequence = baseSequence - 1;
+        }
+
+        /**
+         * Finds the end of the valid records, taking the base sequence number from the first one.
+         */
+        private void recover() {
+            CRC32 checksum = new CRC32();
+            ByteBuffer view = buffer.duplicate();
+
+            while (position + HEADER_SIZE <= buffer.capacity()) {
+                int length = buffer.getInt(position) - 1;
+                long sequence = buffer.getLong(position + 8);
+
+                if (length < 0 || position + HEADER_SIZE + length > buffer.capacity()
+                        || (position > 0 && sequence != lastSequence + 1)) {
+                    return;
+                }
+                if (checksum(checksum, view, position, length) != buffer.getInt(position + 4)) {
+                    return;
+                }
+                if (position == 0) {
+                    baseSequence = sequence;
+                }
+                lastSequence = sequence;
+                lastTimestamp = buffer.getLong(position + 16);
+                position += HEADER_SIZE + length;
+            }
+        }
+
+        /**
+         * Zeroes the remains of a torn record after the recovered records, so that they cannot be mistaken for a record.
+         */
+        private void clearTail() {
+            int end = Math.min(position + HEADER_SIZE, buffer.capacity());
+            for (int i = position; i < end; i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+}
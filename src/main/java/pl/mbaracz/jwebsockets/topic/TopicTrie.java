@@ -0,0 +1,297 @@
+package pl.mbaracz.jwebsockets.topic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Trie of hierarchical topic patterns, such as {@code prices.*.usd} or {@code prices.>}.
+ * Topic levels are separated with a dot, {@code *} matches exactly one level and {@code >} matches one or more
+ * trailing levels. Lookups are lock-free and the results are cached per topic until the set of patterns changes.
+ *
+ * @param <V> the type of values associated with patterns.
+ */
+public class TopicTrie<V> {
+
+    public static final char SEPARATOR = '.';
+    public static final String SINGLE_LEVEL_WILDCARD = "*";
+    public static final String MULTI_LEVEL_WILDCARD = ">";
+
+    /**
+     * Maximum number of cached matches, the cache is cleared once exceeded.
+     */
+    private static final int MATCH_CACHE_SIZE = 10_000;
+
+    private final Node<V> root = new Node<>();
+    private final Map<String, CachedMatch<V>> matchCache = new ConcurrentHashMap<>();
+    private volatile long version;
+    private volatile int size;
+
+    /**
+     * Checks if a topic contains wildcard levels.
+     *
+     * @param topic The topic to check.
+     * @return true if the topic is a pattern, false otherwise.
+     */
+    public static boolean isPattern(String topic) {
+        int length = topic.length();
+
+        for (int i = 0; i < length; i++) {
+            char character = topic.charAt(i);
+
+            if (character != '*' && character != '>') {
+                continue;
+            }
+            if ((i == 0 || topic.charAt(i - 1) == SEPARATOR) && (i == length - 1 || topic.charAt(i + 1) == SEPARATOR)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a concrete topic matches a pattern, without using the trie.
+     *
+     * @param pattern The topic pattern.
+     * @param topic   The concrete topic.
+     * @return true if the topic matches the pattern, false otherwise.
+     */
+    public static boolean matches(String pattern, String topic) {
+        String[] patternLevels = split(pattern);
+        String[] topicLevels = split(topic);
+
+        for (int i = 0; i < patternLevels.length; i++) {
+            String level = patternLevels[i];
+
+            if (level.equals(MULTI_LEVEL_WILDCARD)) {
+                return topicLevels.length > i;
+            }
+            if (i >= topicLevels.length || (!level.equals(SINGLE_LEVEL_WILDCARD) && !level.equals(topicLevels[i]))) {
+                return false;
+            }
+        }
+        return patternLevels.length == topicLevels.length;
+    }
+
+    /**
+     * Returns the value of a pattern, creating it with the factory if the pattern is not present.
+     *
+     * @param pattern The topic pattern.
+     * @param factory The factory creating a value for the pattern.
+     * @return The existing or created value.
+     * @throws IllegalArgumentException If the pattern is malformed.
+     */
+    public synchronized V computeIfAbsent(String pattern, Function<String, V> factory) throws IllegalArgumentException {
+        String[] levels = validate(pattern);
+        Node<V> node = root;
+
+        for (String level : levels) {
+            node = node.children.computeIfAbsent(level, key -> new Node<>());
+        }
+
+        if (node.value == null) {
+            node.value = factory.apply(pattern);
+            size++;
+            version++;
+        }
+        return node.value;
+    }
+
+    /**
+     * Returns the value of a pattern.
+     *
+     * @param pattern The topic pattern.
+     * @return The value, or null if the pattern is not present.
+     */
+    public V get(String pattern) {
+        Node<V> node = root;
+
+        for (String level : split(pattern)) {
+            node = node.children.get(level);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    /**
+     * Removes a pattern, pruning nodes which are no longer needed.
+     *
+     * @param pattern The topic pattern.
+     * @return The removed value, or null if the pattern was not present.
+     */
+    public synchronized V remove(String pattern) {
+        String[] levels = split(pattern);
+        List<Node<V>> path = new ArrayList<>(levels.length + 1);
+        Node<V> node = root;
+        path.add(node);
+
+        for (String level : levels) {
+            node = node.children.get(level);
+            if (node == null) {
+                return null;
+            }
+            path.add(node);
+        }
+
+        V value = node.value;
+        if (value == null) {
+            return null;
+        }
+
+        node.value = null;
+        size--;
+        version++;
+
+        for (int i = levels.length; i > 0; i--) {
+            Node<V> current = path.get(i);
+            if (current.value != null || !current.children.isEmpty()) {
+                break;
+            }
+            path.get(i - 1).children.remove(levels[i - 1]);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the values of all patterns matching a concrete topic.
+     *
+     * @param topic The concrete topic.
+     * @return The matching values, never null.
+     */
+    public List<V> match(String topic) {
+        if (size == 0) {
+            return Collections.emptyList();
+        }
+
+        long currentVersion = version;
+        CachedMatch<V> cached = matchCache.get(topic);
+
+        if (cached != null && cached.version == currentVersion) {
+            return cached.values;
+        }
+
+        List<V> values = new ArrayList<>();
+        match(root, split(topic), 0, values);
+
+        if (matchCache.size() >= MATCH_CACHE_SIZE) {
+            matchCache.clear();
+        }
+        matchCache.put(topic, new CachedMatch<>(currentVersion, values));
+        return values;
+    }
+
+    /**
+     * Returns the values of all patterns in the trie.
+     *
+     * @return The list of values.
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<>();
+        collect(root, values);
+        return values;
+    }
+
+    /**
+     * Checks if the trie contains no patterns.
+     *
+     * @return true if there are no patterns, false otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of patterns in the trie.
+     *
+     * @return The number of patterns.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void collect(Node<V> node, List<V> values) {
+        if (node.value != null) {
+            values.add(node.value);
+        }
+        for (Node<V> child : node.children.values()) {
+            collect(child, values);
+        }
+    }
+
+    private void match(Node<V> node, String[] levels, int index, List<V> values) {
+        if (index == levels.length) {
+            if (node.value != null) {
+                values.add(node.value);
+            }
+            return;
+        }
+
+        Node<V> exact = node.children.get(levels[index]);
+        if (exact != null) {
+            match(exact, levels, index + 1, values);
+        }
+
+        Node<V> singleLevel = node.children.get(SINGLE_LEVEL_WILDCARD);
+        if (singleLevel != null) {
+            match(singleLevel, levels, index + 1, values);
+        }
+
+        Node<V> multiLevel = node.children.get(MULTI_LEVEL_WILDCARD);
+        if (multiLevel != null && multiLevel.value != null) {
+            values.add(multiLevel.value);
+        }
+    }
+
+    private static String[] validate(String pattern) {
+        String[] levels = split(pattern);
+
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+
+            if (level.isEmpty()) {
+                throw new IllegalArgumentException("Topic '" + pattern + "' contains an empty level!");
+            }
+            if (level.equals(MULTI_LEVEL_WILDCARD) && i != levels.length - 1) {
+                throw new IllegalArgumentException("Wildcard '>' must be the last level of topic '" + pattern + "'!");
+            }
+            if (level.length() > 1 && (level.contains(SINGLE_LEVEL_WILDCARD) || level.contains(MULTI_LEVEL_WILDCARD))) {
+                throw new IllegalArgumentException("Wildcard must occupy the whole level of topic '" + pattern + "'!");
+            }
+        }
+        return levels;
+    }
+
+    private static String[] split(String topic) {
+        List<String> levels = new ArrayList<>();
+        int start = 0;
+
+        for (int i = 0; i < topic.length(); i++) {
+            if (topic.charAt(i) == SEPARATOR) {
+                levels.add(topic.substring(start, i));
+                start = i + 1;
+            }
+        }
+        levels.add(topic.substring(start));
+        return levels.toArray(new String[0]);
+    }
+
+    private static class Node<V> {
+        private final Map<String, Node<V>> children = new ConcurrentHashMap<>();
+        private volatile V value;
+    }
+
+    private static class CachedMatch<V> {
+        private final long version;
+        private final List<V> values;
+
+        private CachedMatch(long version, List<V> values) {
+            this.version = version;
+            this.values = Collections.unmodifiableList(values);
+        }
+    }
+}
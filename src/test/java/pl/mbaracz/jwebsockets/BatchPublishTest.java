@@ -0,0 +1,72 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchPublishTest {
+
+    private static WebSocketServer<String, Object> createServer() {
+        return new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                );
+    }
+
+    @Test
+    public void When_MessagesArePublishedInBatch_Then_SubscriberShouldReceiveThemInOrder() {
+        WebSocketServer<String, Object> server = createServer();
+
+        // Construct channel and perform handshake
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        server.subscribe(session, "ticks.eur");
+        server.subscribe(session, "ticks.*");
+
+        // Publish to subscribed and not subscribed topics
+        Map<String, List<String>> messages = new LinkedHashMap<>();
+        messages.put("ticks.eur", Arrays.asList("1", "2", "3"));
+        messages.put("trades.eur", Collections.singletonList("ignored"));
+        messages.put("ticks.usd", Collections.singletonList("4"));
+        server.publishAll(messages);
+
+        // Assert every message is delivered once and in order
+        for (String expected : Arrays.asList("1", "2", "3", "4")) {
+            TextWebSocketFrame frame = channel.readOutbound();
+            assertNotNull(frame, "Frame " + expected + " should be delivered");
+            assertEquals(expected, frame.text());
+        }
+        assertNull(channel.readOutbound(), "No more frames should be delivered");
+
+        assertEquals(3, server.getTopicStatistics("ticks.eur").getDeliveredMessages());
+        assertEquals(1, server.getTopicStatistics("ticks.*").getDeliveredMessages());
+    }
+
+    @Test
+    public void When_BatchIsPublishedToSingleTopic_Then_AllMessagesShouldBeDelivered() {
+        WebSocketServer<String, Object> server = createServer();
+
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+        server.subscribe(server.getSessionByChannel(channel), "ticks");
+
+        server.publishBatch("ticks", Arrays.asList("a", "b"));
+
+        assertEquals("a", ((TextWebSocketFrame) channel.readOutbound()).text());
+        assertEquals("b", ((TextWebSocketFrame) channel.readOutbound()).text());
+        assertThrows(IllegalArgumentException.class, () -> server.publishBatch("ticks.>", Arrays.asList("a", "b")));
+    }
+}
@@ -0,0 +1,172 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.cluster.TcpClusterBus;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterTest {
+
+    private final List<WebSocketServer<String, Object>> servers = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        servers.forEach(WebSocketServer::closeResources);
+    }
+
+    /**
+     * Starts a node listening on an ephemeral loopback port and connecting to the given buses.
+     */
+    private TcpClusterBus startNode(TcpClusterBus... members) {
+        return join(new TcpClusterBus(new InetSocketAddress("127.0.0.1", 0)), members);
+    }
+
+    /**
+     * Starts a node with the given bus, connecting to the given buses.
+     */
+    private TcpClusterBus join(TcpClusterBus bus, TcpClusterBus... members) {
+        for (TcpClusterBus member : members) {
+            bus.addMember(member.getLocalAddress());
+        }
+
+        WebSocketServer<String, Object> server = new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE))
+                .joinCluster(bus);
+        servers.add(server);
+        return bus;
+    }
+
+    private WebSocketServer<String, Object> server(int node) {
+        return servers.get(node);
+    }
+
+    private static EmbeddedChannel subscribe(WebSocketServer<String, Object> server, String topic) {
+        EmbeddedChannel channel = new EmbeddedChannel(DefaultChannelId.newInstance(), new Util.FrameCounter(),
+                new WebSocketServerHandler<>(server));
+        channel.writeInbound(Util.createHttpRequest("/"));
+        channel.readOutbound();
+        server.subscribe(server.getSessionByChannel(channel), topic);
+        return channel;
+    }
+
+    /**
+     * Waits until the next frame is flushed to a subscriber, possibly by the cluster bus thread, and reads it.
+     */
+    private static String readText(EmbeddedChannel channel) throws InterruptedException {
+        channel.pipeline().get(Util.FrameCounter.class).await(1);
+        TextWebSocketFrame frame = channel.readOutbound();
+        assertNotNull(frame, "Expected a frame");
+        try {
+            return frame.text();
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    public void When_NodesHaveSubscribers_Then_PublishShouldBeForwardedToThem() throws InterruptedException {
+        TcpClusterBus first = startNode();
+        TcpClusterBus second = startNode(first);
+        TcpClusterBus third = startNode(first, second);
+
+        EmbeddedChannel secondChannel = subscribe(server(1), "news");
+        EmbeddedChannel thirdChannel = subscribe(server(2), "news");
+
+        // Interest changes arrive in order, so once a node sees the probe of a peer it also knows its interest in news
+        subscribe(server(1), "probe-2");
+        subscribe(server(2), "probe-3");
+        Util.await(() -> first.hasInterest("probe-2") && first.hasInterest("probe-3")
+                && second.hasInterest("probe-3") && third.hasInterest("probe-2"));
+
+        server(0).publish("news", "from first");
+        assertEquals("from first", readText(secondChannel));
+        assertEquals("from first", readText(thirdChannel));
+
+        // Forwarded messages are not forwarded again, so every node receives a message once
+        server(2).publish("news", "from third");
+        assertEquals("from third", readText(secondChannel));
+        assertEquals("from third", readText(thirdChannel));
+        assertNull(secondChannel.readOutbound());
+        assertNull(thirdChannel.readOutbound());
+    }
+
+    @Test
+    public void When_LastSubscriberLeaves_Then_InterestShouldBeWithdrawn() throws InterruptedException {
+        TcpClusterBus first = startNode();
+        startNode(first);
+
+        EmbeddedChannel channel = subscribe(server(1), "news");
+        Util.await(() -> first.hasInterest("news"));
+        assertFalse(first.hasInterest("orders"));
+
+        server(1).unsubscribe(server(1).getSessionByChannel(channel), "news");
+        Util.await(() -> !first.hasInterest("news"));
+    }
+
+    @Test
+    public void When_PeerSubscribesToPattern_Then_MatchingTopicsShouldBeForwarded() throws InterruptedException {
+        TcpClusterBus first = startNode();
+        startNode(first);
+
+        EmbeddedChannel channel = subscribe(server(1), "prices.*");
+        Util.await(() -> first.hasInterest("prices.usd"));
+        assertFalse(first.hasInterest("prices.usd.bid"));
+
+        server(0).publish("prices.usd", "4.02");
+        assertEquals("4.02", readText(channel));
+    }
+
+    @Test
+    public void When_InterestFilterIsUsed_Then_PublishShouldBeRoutedByFilter() throws InterruptedException {
+        TcpClusterBus first = join(new TcpClusterBus(new InetSocketAddress("127.0.0.1", 0)).setInterestFilter(1000, 0.01));
+        TcpClusterBus second = join(new TcpClusterBus(new InetSocketAddress("127.0.0.1", 0)).setInterestFilter(1000, 0.01), first);
+
+        EmbeddedChannel channel = subscribe(server(1), "news");
+        subscribe(server(1), "prices.*");
+        Util.await(() -> first.hasInterest("news") && first.hasInterest("prices.usd"));
+        assertFalse(first.hasInterest("orders"));
+        assertTrue(second.getInterestFilterFalsePositiveRate() > 0);
+        assertTrue(first.getPeerFilterFalsePositiveRate() > 0);
+        assertTrue(first.getInterestFilterMemoryUsage() > 0);
+
+        server(0).publish("news", "hello");
+        assertEquals("hello", readText(channel));
+
+        server(1).unsubscribe(server(1).getSessionByChannel(channel), "news");
+        Util.await(() -> !first.hasInterest("news"));
+    }
+
+    @Test
+    public void When_TopicIsAnnouncedTwice_Then_OneWithdrawalShouldRemoveInterest() {
+        TcpClusterBus first = startNode();
+        TcpClusterBus second = join(new TcpClusterBus(new InetSocketAddress("127.0.0.1", 0)).setInterestFilter(1000, 0.01), first);
+        Util.await(() -> first.getPeerCount() == 1);
+
+        // As when joining the cluster races the first subscriber of a topic
+        second.addInterest("news");
+        second.addInterest("news");
+        Util.await(() -> first.hasInterest("news"));
+
+        second.removeInterest("news");
+        Util.await(() -> !first.hasInterest("news"));
+    }
+
+    @Test
+    public void When_ServerJoinedCluster_Then_JoiningAgainShouldFail() {
+        TcpClusterBus bus = startNode();
+
+        assertThrows(IllegalStateException.class, () -> server(0).joinCluster(bus));
+    }
+}
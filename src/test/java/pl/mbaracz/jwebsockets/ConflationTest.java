@@ -0,0 +1,111 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConflationTest {
+
+    private static WebSocketServer<String, Object> createServer() {
+        return new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                );
+    }
+
+    /**
+     * Makes the channel not writable by writing a frame larger than the high water mark without flushing it.
+     */
+    private static void blockChannel(EmbeddedChannel channel) {
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1, 4));
+        channel.write(new TextWebSocketFrame("blocker"));
+        assertFalse(channel.isWritable(), "Channel should not be writable");
+    }
+
+    private static List<String> readTexts(EmbeddedChannel channel) {
+        List<String> texts = new ArrayList<>();
+        TextWebSocketFrame frame;
+        while ((frame = channel.readOutbound()) != null) {
+            texts.add(frame.text());
+        }
+        return texts;
+    }
+
+    @Test
+    public void When_SubscriberIsNotWritable_Then_OnlyLatestMessageShouldBeDelivered() {
+        WebSocketServer<String, Object> server = createServer();
+        server.conflateTopic("ticker");
+
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+        server.subscribe(server.getSessionByChannel(channel), "ticker");
+
+        blockChannel(channel);
+
+        server.publish("ticker", "1");
+        server.publish("ticker", "2");
+        server.publish("ticker", "3");
+
+        // Flushing the blocking frame makes the channel writable, which drains the conflated messages
+        channel.flush();
+        channel.runPendingTasks();
+
+        List<String> texts = readTexts(channel);
+        assertEquals(2, texts.size(), "Only the blocker and the latest message should be written");
+        assertEquals("blocker", texts.get(0));
+        assertEquals("3", texts.get(1));
+        assertEquals(2, server.getTopicStatistics("ticker").getDroppedMessages());
+    }
+
+    @Test
+    public void When_TopicIsConflatedByKey_Then_LatestMessagePerKeyShouldBeDelivered() {
+        WebSocketServer<String, Object> server = createServer();
+        server.conflateTopic("prices", message -> message.split("=")[0]);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+        server.subscribe(server.getSessionByChannel(channel), "prices");
+
+        blockChannel(channel);
+
+        server.publish("prices", "eur=1");
+        server.publish("prices", "usd=1");
+        server.publish("prices", "eur=2");
+
+        channel.flush();
+        channel.runPendingTasks();
+
+        List<String> texts = readTexts(channel);
+        assertEquals(3, texts.size());
+        assertEquals("eur=2", texts.get(1));
+        assertEquals("usd=1", texts.get(2));
+    }
+
+    @Test
+    public void When_TopicIsNotConflated_Then_AllMessagesShouldBeDelivered() {
+        WebSocketServer<String, Object> server = createServer();
+
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+        server.subscribe(server.getSessionByChannel(channel), "ticker");
+
+        blockChannel(channel);
+
+        server.publish("ticker", "1");
+        server.publish("ticker", "2");
+
+        channel.flush();
+
+        assertEquals(3, readTexts(channel).size());
+        assertFalse(server.isTopicConflated("ticker"));
+    }
+}
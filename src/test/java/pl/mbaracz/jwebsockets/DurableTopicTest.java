@@ -0,0 +1,100 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DurableTopicTest {
+
+    @TempDir
+    Path directory;
+
+    private WebSocketServer<String, Object> createServer() {
+        return new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                        .setTopicLogDirectory(directory)
+                        .setTopicLogSegmentSize(4096)
+                );
+    }
+
+    private static String readText(EmbeddedChannel channel) {
+        TextWebSocketFrame frame = channel.readOutbound();
+        assertNotNull(frame, "Expected a frame");
+        try {
+            return frame.text();
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    public void When_SubscribingFromSequence_Then_LogShouldBeReplayedBeforeNewMessages() {
+        WebSocketServer<String, Object> server = createServer();
+        server.persistTopic("orders");
+
+        for (int i = 1; i <= 3; i++) {
+            server.publish("orders", "order " + i);
+        }
+        assertEquals(3, server.getTopicLogSequence("orders"));
+
+        EmbeddedChannel channel = Util.connect(server);
+        server.subscribe(server.getSessionByChannel(channel), "orders", 2);
+        server.publish("orders", "order 4");
+
+        assertEquals("order 2", readText(channel));
+        assertEquals("order 3", readText(channel));
+        assertEquals("order 4", readText(channel));
+        assertNull(channel.readOutbound());
+
+        server.closeResources();
+    }
+
+    @Test
+    public void When_TopicIsPersistedAgain_Then_LogShouldSurviveRestart() {
+        WebSocketServer<String, Object> server = createServer();
+        server.persistTopic("orders");
+        server.publish("orders", "order 1");
+        server.publish("orders", "order 2");
+        server.closeResources();
+
+        WebSocketServer<String, Object> restarted = createServer();
+        restarted.persistTopic("orders");
+        assertEquals(2, restarted.getTopicLogSequence("orders"));
+        restarted.publish("orders", "order 3");
+
+        EmbeddedChannel channel = Util.connect(restarted);
+        restarted.subscribe(restarted.getSessionByChannel(channel), "orders", 1);
+
+        assertEquals("order 1", readText(channel));
+        assertEquals("order 2", readText(channel));
+        assertEquals("order 3", readText(channel));
+
+        restarted.closeResources();
+    }
+
+    @Test
+    public void When_TopicIsNotPersisted_Then_ReplayShouldBeRejected() {
+        WebSocketServer<String, Object> server = createServer();
+        EmbeddedChannel channel = Util.connect(server);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> server.subscribe(server.getSessionByChannel(channel), "orders", 1));
+        assertThrows(IllegalArgumentException.class, () -> server.persistTopic("orders.*"));
+    }
+
+    @Test
+    public void When_DirectoryIsNotConfigured_Then_PersistingShouldFail() {
+        WebSocketServer<String, Object> server = new WebSocketServer<>();
+
+        assertThrows(IllegalStateException.class, () -> server.persistTopic("orders"));
+    }
+}
@@ -0,0 +1,130 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HandshakeDecoderTest {
+
+    private static final String UPGRADE_REQUEST = "GET / HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Origin: http://localhost\r\n" +
+            "User-Agent: test\r\n" +
+            "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+            "Sec-WebSocket-Version: 13\r\n" +
+            "\r\n";
+
+    private static WebSocketServer<String, Object> createServer() {
+        return new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                        .setLightweightHandshake(true)
+                        .setMaxHandshakeHeaderSize(512)
+                );
+    }
+
+    private static EmbeddedChannel createChannel(WebSocketServer<String, Object> server) {
+        return new EmbeddedChannel(new WebSocketServerChannelInitializer<>(server));
+    }
+
+    private static String readResponse(EmbeddedChannel channel) {
+        ByteBuf response = channel.readOutbound();
+        String text = response.toString(StandardCharsets.US_ASCII);
+        response.release();
+        return text;
+    }
+
+    @Test
+    public void When_UpgradeRequestIsReceivedInParts_Then_HandshakeShouldSucceed() {
+        WebSocketServer<String, Object> server = createServer();
+        AtomicReference<String> origin = new AtomicReference<>();
+        server.onUpgrade((request, session, response) -> {
+            origin.set(request.headers().get("Origin"));
+            return request.headers().get("User-Agent") == null;
+        });
+
+        EmbeddedChannel channel = createChannel(server);
+
+        // The request is split in the middle of the final empty line
+        int split = UPGRADE_REQUEST.length() - 3;
+        channel.writeInbound(Unpooled.copiedBuffer(UPGRADE_REQUEST.substring(0, split), StandardCharsets.US_ASCII));
+        assertNull(channel.readOutbound(), "Handshake should wait for the end of headers");
+        channel.writeInbound(Unpooled.copiedBuffer(UPGRADE_REQUEST.substring(split), StandardCharsets.US_ASCII));
+
+        String response = readResponse(channel);
+        assertTrue(response.startsWith("HTTP/1.1 101"), "Upgrade should succeed");
+        assertTrue(response.contains("s3pPLMBiTxaQ9kYGzzhZRbK+xOo="), "Accept key should follow RFC 6455");
+        assertEquals("http://localhost", origin.get());
+
+        assertNull(channel.pipeline().get(HandshakeDecoder.class));
+        assertNull(channel.pipeline().get(HttpResponseEncoder.class));
+
+        // Frames are now encoded by the WebSocket frame encoder
+        server.getSessionByChannel(channel).sendMessage("hi");
+        ByteBuf frame = channel.readOutbound();
+        assertEquals(0x81, frame.getUnsignedByte(0));
+        assertEquals(2, frame.getUnsignedByte(1));
+        frame.release();
+    }
+
+    @Test
+    public void When_UpgradeRequestHasBody_Then_RequestShouldBeRejected() {
+        EmbeddedChannel channel = createChannel(createServer());
+        String request = UPGRADE_REQUEST.replace("Host:", "Content-Length: 5\r\nHost:");
+
+        channel.writeInbound(Unpooled.copiedBuffer(request, StandardCharsets.US_ASCII));
+
+        assertTrue(readResponse(channel).startsWith("HTTP/1.1 400"));
+        assertFalse(channel.isOpen(), "Channel should be closed");
+    }
+
+    @Test
+    public void When_MethodHasControlCharacters_Then_RequestShouldBeRejected() {
+        EmbeddedChannel channel = createChannel(createServer());
+        String request = UPGRADE_REQUEST.replace("GET /", "G\u0001T /");
+
+        channel.writeInbound(Unpooled.copiedBuffer(request, StandardCharsets.ISO_8859_1));
+
+        assertTrue(readResponse(channel).startsWith("HTTP/1.1 400"));
+        assertFalse(channel.isOpen(), "Channel should be closed");
+    }
+
+    @Test
+    public void When_HeadersAreTooLarge_Then_RequestShouldBeRejectedBeforeTheyEnd() {
+        EmbeddedChannel channel = createChannel(createServer());
+        StringBuilder request = new StringBuilder("GET / HTTP/1.1\r\n");
+        while (request.length() < 1024) {
+            request.append("X-Padding: aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa\r\n");
+        }
+
+        channel.writeInbound(Unpooled.copiedBuffer(request, StandardCharsets.US_ASCII));
+
+        assertTrue(readResponse(channel).startsWith("HTTP/1.1 431"));
+        assertFalse(channel.isOpen(), "Channel should be closed");
+    }
+
+    @Test
+    public void When_VersionIsNotSupported_Then_ResponseShouldBeSentAndChannelClosed() {
+        EmbeddedChannel channel = createChannel(createServer());
+        String request = UPGRADE_REQUEST.replace("Sec-WebSocket-Version: 13", "Sec-WebSocket-Version: 8");
+
+        channel.writeInbound(Unpooled.copiedBuffer(request, StandardCharsets.US_ASCII));
+
+        String response = readResponse(channel);
+        assertTrue(response.startsWith("HTTP/1.1 426"));
+        assertTrue(response.contains("13"), "Supported version should be listed");
+        assertFalse(channel.isOpen(), "Channel should be closed");
+    }
+}
@@ -0,0 +1,122 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.Correlation;
+import pl.mbaracz.jwebsockets.message.Discriminator;
+import pl.mbaracz.jwebsockets.message.MessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageRouterTest {
+
+    private final AtomicInteger decoded = new AtomicInteger();
+
+    private final MessageDecoder<String> countingDecoder = data -> {
+        decoded.incrementAndGet();
+        return new String(data, StandardCharsets.UTF_8);
+    };
+
+    private static WebSocketServer<String, Object> createServer(MessageRouter<String, Object> router) {
+        return new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                        .setAllowBinaryFrames(true)
+                )
+                .onMessage(router);
+    }
+
+    @Test
+    public void When_MessageHasRoute_Then_OnlyItsHandlerShouldReceiveDecodedMessage() {
+        List<String> chats = new ArrayList<>();
+        List<String> unrouted = new ArrayList<>();
+
+        MessageRouter<String, Object> router = new MessageRouter<String, Object>(Discriminator.jsonField("type"))
+                .route("chat", countingDecoder, (session, message) -> chats.add(message))
+                .route("ping", countingDecoder, (session, message) -> fail("Ping route should not be called"))
+                .otherwise((session, type, payload) -> unrouted.add(type + ":" + payload.toString(StandardCharsets.UTF_8)));
+        EmbeddedChannel channel = Util.connect(createServer(router));
+
+        channel.writeInbound(new TextWebSocketFrame("{\"id\":{\"nested\":[1,{\"type\":\"ping\"}]},\"type\":\"chat\",\"text\":\"hi\"}"));
+        channel.writeInbound(new TextWebSocketFrame("{\"type\":\"position\",\"x\":1}"));
+        channel.writeInbound(new TextWebSocketFrame("[\"not an object\"]"));
+
+        assertEquals(1, chats.size());
+        assertTrue(chats.get(0).contains("\"text\":\"hi\""));
+        assertEquals(1, decoded.get(), "Only the routed message should be decoded");
+        assertEquals(2, unrouted.size());
+        assertEquals("position:{\"type\":\"position\",\"x\":1}", unrouted.get(0));
+        assertTrue(unrouted.get(1).startsWith("null:"));
+    }
+
+    @Test
+    public void When_RouteHasNoDecoder_Then_SessionCodecShouldBeUsed() {
+        List<String> messages = new ArrayList<>();
+        MessageRouter<String, Object> router = new MessageRouter<String, Object>(Discriminator.typeByte(0))
+                .route(7, (session, message) -> messages.add(message));
+        EmbeddedChannel channel = Util.connect(createServer(router));
+
+        channel.writeInbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[]{7, 'o', 'k'})));
+        channel.writeInbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[]{(byte) 200, 'n', 'o'})));
+        channel.writeInbound(new BinaryWebSocketFrame(Unpooled.EMPTY_BUFFER));
+
+        assertEquals(1, messages.size());
+        assertEquals("\u0007ok", messages.get(0));
+    }
+
+    @Test
+    public void When_ResponseToRequestHasNoRoute_Then_RequestShouldBeCompleted() throws Exception {
+        List<String> chats = new ArrayList<>();
+        List<String> unrouted = new ArrayList<>();
+        MessageRouter<String, Object> router = new MessageRouter<String, Object>(Discriminator.jsonField("type"))
+                .route("chat", countingDecoder, (session, message) -> chats.add(message))
+                .otherwise((session, type, payload) -> unrouted.add(payload.toString(StandardCharsets.UTF_8)));
+        WebSocketServer<String, Object> server = createServer(router)
+                .configure(configurer -> configurer.setCorrelation(new Correlation<String>() {
+                    @Override
+                    public String setCorrelationId(String request, long id) {
+                        return id + "|" + request;
+                    }
+
+                    @Override
+                    public long getCorrelationId(String message) {
+                        int separator = message.indexOf('|');
+                        return separator > 0 ? Long.parseLong(message.substring(0, separator)) : UNCORRELATED;
+                    }
+                }));
+        EmbeddedChannel channel = Util.connect(server);
+
+        CompletableFuture<String> response = server.getSessionByChannel(channel).request("ping");
+        assertEquals("1|ping", ((TextWebSocketFrame) channel.readOutbound()).text());
+
+        channel.writeInbound(new TextWebSocketFrame("{\"type\":\"chat\"}"));
+        channel.writeInbound(new TextWebSocketFrame("1|pong"));
+
+        assertEquals("1|pong", response.get(1, TimeUnit.SECONDS));
+        assertEquals(1, chats.size());
+        assertTrue(unrouted.isEmpty(), "Response should be consumed before it is routed");
+    }
+
+    @Test
+    public void When_RouteIsRegisteredTwice_Then_IllegalStateExceptionIsThrown() {
+        MessageRouter<String, Object> router = new MessageRouter<String, Object>(Discriminator.jsonField("type"))
+                .route("chat", countingDecoder, (session, message) -> {});
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class,
+                () -> router.route("chat", countingDecoder, (session, message) -> {}));
+        assertEquals("Route 'chat' already exists!", exception.getMessage());
+    }
+}
@@ -2,6 +2,7 @@ package pl.mbaracz.jwebsockets;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
@@ -69,6 +70,37 @@ public class MessageTest {
         assertEquals(outbound.text(), "hello");
     }
 
+    @Test
+    public void When_MessageIsBroadcast_Then_ResultShouldCountDeliveredAndFailedSessions() {
+        // Construct server and listen
+        WebSocketServer<String, Object> server = new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                );
+
+        server.listen(8087);
+
+        try {
+            // Register an open session and a session whose channel is already closed
+            EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+            Util.performHandshake(channel, "/");
+
+            EmbeddedChannel closed = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+            server.addSession(new WebSocketSession<>(server.nextSessionId(), closed.pipeline().firstContext(),
+                    server.getConfiguration().getDefaultCodec()));
+            closed.close();
+
+            BroadcastResult result = server.broadcast("hello").join();
+
+            assertEquals(1, result.getDelivered());
+            assertEquals(1, result.getFailed());
+            assertEquals("hello", ((TextWebSocketFrame) channel.readOutbound()).text());
+        } finally {
+            server.stop();
+        }
+    }
+
     @Test
     public void When_UserSendBinaryFrame_And_OptionIsNotEnabled_Then_ExpectFrameIsIgnored() {
         // Construct server and listen
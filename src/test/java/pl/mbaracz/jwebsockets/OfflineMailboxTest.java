@@ -0,0 +1,199 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.mbaracz.jwebsockets.configuration.WebSocketServerConfigurer;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OfflineMailboxTest {
+
+    private final Util.FrameDecoder frames = new Util.FrameDecoder();
+
+    @TempDir
+    Path directory;
+
+    private static WebSocketServer<String, Object> createServer(WebSocketServerConfigurer<String> configurer) {
+        return new WebSocketServer<String, Object>()
+                .configure(configuration -> configuration
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE))
+                .configure(configurer)
+                .onOpen(session -> session.setData(session.getQueryParameters().get("user").get(0)))
+                .enableOfflineMailbox(data -> data);
+    }
+
+    private static EmbeddedChannel connect(WebSocketServer<String, Object> server, String user) {
+        return Util.connectThroughCodec(server, "/?user=" + user);
+    }
+
+    private static String readText(EmbeddedChannel decoder) {
+        TextWebSocketFrame frame = decoder.readInbound();
+        assertNotNull(frame, "Expected a frame");
+        try {
+            return frame.text();
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Waits until the mailbox processed the messages stored and the mailboxes drained so far.
+     */
+    private static void awaitMailbox(WebSocketServer<String, Object> server) throws Exception {
+        server.getOfflineMailbox().barrier().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void When_UserIsOffline_Then_MessagesShouldBeDrainedToNextSession() throws Exception {
+        WebSocketServer<String, Object> server = createServer(configuration -> {
+        });
+
+        assertEquals(0, server.sendToUser("alice", "one").join().getDelivered());
+        assertEquals(0, server.sendToUser("alice", "two").join().getDelivered());
+        awaitMailbox(server);
+        assertEquals(2, server.getOfflineMessageCount());
+
+        EmbeddedChannel channel = connect(server, "alice");
+        awaitMailbox(server);
+        assertEquals(0, server.getOfflineMessageCount());
+
+        EmbeddedChannel decoder = frames.decode(channel);
+        assertEquals("one", readText(decoder));
+        assertEquals("two", readText(decoder));
+        assertNull(decoder.readInbound());
+
+        // The user is online now, so messages are sent directly
+        assertEquals(1, server.sendToUser("alice", "three").join().getDelivered());
+        assertEquals("three", readText(frames.decode(channel)));
+
+        server.closeResources();
+    }
+
+    @Test
+    public void When_OnlySessionIsClosing_Then_MessageShouldBeStored() throws Exception {
+        WebSocketServer<String, Object> server = createServer(configuration -> {
+        });
+
+        EmbeddedChannel channel = connect(server, "alice");
+        awaitMailbox(server);
+
+        // Closing the channel without the handler keeps the session indexed, like a session that is still closing
+        channel.pipeline().remove(WebSocketServerHandler.class);
+        channel.close();
+
+        BroadcastResult result = server.sendToUser("alice", "one").join();
+        assertEquals(0, result.getDelivered());
+        assertEquals(1, result.getFailed());
+
+        // The mailbox finds the session still indexed, tries it on its event loop and requeues the message
+        awaitMailbox(server);
+        channel.runPendingTasks();
+        awaitMailbox(server);
+        assertEquals(1, server.getOfflineMessageCount());
+
+        server.closeResources();
+    }
+
+    @Test
+    public void When_MemoryLimitIsExceeded_Then_MessagesShouldSpillToFile() throws Exception {
+        Path spillFile = directory.resolve("mailbox.spill");
+        WebSocketServer<String, Object> server = createServer(configuration -> configuration
+                .setMailboxMemoryLimit(3)
+                .setMailboxSpillFile(spillFile));
+
+        server.sendToUser("bob", "one");
+        server.sendToUser("bob", "two");
+        server.sendToUser("bob", "three");
+        awaitMailbox(server);
+        assertEquals(3, server.getOfflineMessageCount());
+
+        // The first message fits into the memory, the others are spilled
+        assertEquals(8, Files.size(spillFile));
+
+        EmbeddedChannel channel = connect(server, "bob");
+        awaitMailbox(server);
+        assertEquals(0, server.getOfflineMessageCount());
+
+        EmbeddedChannel decoder = frames.decode(channel);
+        assertEquals("one", readText(decoder));
+        assertEquals("two", readText(decoder));
+        assertEquals("three", readText(decoder));
+        assertEquals(0, Files.size(spillFile));
+
+        server.closeResources();
+        assertFalse(Files.exists(spillFile));
+    }
+
+    @Test
+    public void When_SpilledMessagesAreDropped_Then_SpillFileShouldBeCompacted() throws Exception {
+        Path spillFile = directory.resolve("mailbox.spill");
+        WebSocketServer<String, Object> server = createServer(configuration -> configuration
+                .setMailboxCapacity(2)
+                .setMailboxMemoryLimit(0)
+                .setMailboxSpillFile(spillFile));
+        String padding = new String(new char[100]).replace('\0', 'x');
+
+        for (int i = 0; i < 2000; i++) {
+            server.sendToUser("erin", i + padding);
+        }
+        awaitMailbox(server);
+        assertEquals(2, server.getOfflineMessageCount());
+
+        // Without compaction, every message ever spilled would still take space in the file
+        assertTrue(Files.size(spillFile) <= OfflineMailbox.COMPACTION_THRESHOLD + 2 * 104 + 4);
+
+        EmbeddedChannel channel = connect(server, "erin");
+        awaitMailbox(server);
+        assertEquals(0, server.getOfflineMessageCount());
+
+        EmbeddedChannel decoder = frames.decode(channel);
+        assertEquals(1998 + padding, readText(decoder));
+        assertEquals(1999 + padding, readText(decoder));
+
+        server.closeResources();
+    }
+
+    @Test
+    public void When_MailboxIsFull_Then_OldestMessagesShouldBeDropped() throws Exception {
+        WebSocketServer<String, Object> server = createServer(configuration -> configuration.setMailboxCapacity(2));
+
+        server.sendToUser("carol", "one");
+        server.sendToUser("carol", "two");
+        server.sendToUser("carol", "three");
+        server.sendToUser("dave", "one");
+        awaitMailbox(server);
+        assertEquals(3, server.getOfflineMessageCount());
+
+        EmbeddedChannel channel = connect(server, "carol");
+        awaitMailbox(server);
+        assertEquals(1, server.getOfflineMessageCount());
+
+        EmbeddedChannel decoder = frames.decode(channel);
+        assertEquals("two", readText(decoder));
+        assertEquals("three", readText(decoder));
+        assertNull(decoder.readInbound());
+
+        server.closeResources();
+    }
+
+    @Test
+    public void When_MailboxIsNotEnabled_Then_SendingToUserShouldFail() {
+        WebSocketServer<String, Object> server = new WebSocketServer<>();
+
+        assertThrows(IllegalStateException.class, () -> server.sendToUser("alice", "one"));
+
+        server.enableOfflineMailbox(data -> data);
+        assertThrows(IllegalStateException.class, () -> server.enableOfflineMailbox(data -> data));
+
+        server.closeResources();
+    }
+}
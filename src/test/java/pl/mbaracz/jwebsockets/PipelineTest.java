@@ -0,0 +1,84 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelineTest {
+
+    private static final String UPGRADE_REQUEST = "GET / HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+            "Sec-WebSocket-Version: 13\r\n" +
+            "\r\n";
+
+    private static WebSocketServer<String, Object> createServer(boolean lightweightHandshake) {
+        return new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                        .setLightweightHandshake(lightweightHandshake)
+                );
+    }
+
+    private static EmbeddedChannel upgrade(WebSocketServerChannelInitializer<String, Object> initializer,
+                                           UnpooledByteBufAllocator allocator) throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(false, false);
+        channel.config().setAllocator(allocator);
+        channel.pipeline().addLast(initializer);
+        channel.register();
+
+        ByteBuf request = Unpooled.copiedBuffer(UPGRADE_REQUEST, StandardCharsets.US_ASCII);
+        channel.writeInbound(request);
+        assertEquals(0, request.refCnt(), "Upgrade request should be released");
+
+        ByteBuf response = channel.readOutbound();
+        assertTrue(response.toString(StandardCharsets.US_ASCII).startsWith("HTTP/1.1 101"), "Upgrade should succeed");
+        response.release();
+        return channel;
+    }
+
+    @Test
+    public void When_ConnectionIsUpgraded_Then_HttpHandlersShouldBeRemoved() throws Exception {
+        for (boolean lightweightHandshake : new boolean[]{false, true}) {
+            WebSocketServerChannelInitializer<String, Object> initializer =
+                    new WebSocketServerChannelInitializer<>(createServer(lightweightHandshake));
+            EmbeddedChannel channel = upgrade(initializer, new UnpooledByteBufAllocator(false));
+
+            List<Class<?>> handlers = new ArrayList<>();
+            channel.pipeline().forEach(entry -> handlers.add(entry.getValue().getClass()));
+            assertEquals(Arrays.asList(WebSocket13FrameEncoder.class, WebSocket13FrameDecoder.class, WebSocketServerHandler.class),
+                    handlers, "Only the frame codec and the server handler should be left");
+        }
+    }
+
+    @Test
+    public void When_ManyConnectionsAreUpgraded_Then_HandlerShouldBeSharedAndNoBuffersRetained() throws Exception {
+        WebSocketServerChannelInitializer<String, Object> initializer = new WebSocketServerChannelInitializer<>(createServer(false));
+        UnpooledByteBufAllocator allocator = new UnpooledByteBufAllocator(false);
+
+        EmbeddedChannel first = upgrade(initializer, allocator);
+        EmbeddedChannel second = upgrade(initializer, allocator);
+
+        assertSame(first.pipeline().get(WebSocketServerHandler.class), second.pipeline().get(WebSocketServerHandler.class));
+
+        // The buffers of both handshakes should all have been released
+        long retained = allocator.metric().usedHeapMemory() + allocator.metric().usedDirectMemory();
+        assertEquals(0, retained, "Idle connections should not retain any buffers");
+    }
+}
@@ -32,7 +32,7 @@ public class PubSubTest {
         Util.performHandshake(channel, "/");
 
         // Get session from channel id
-        WebSocketSession<String, Object> session = server.getSessionByChannelId(channel.id());
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
 
         // Assert session is not null
         assertNotNull(session, "Session should not be null");
@@ -61,7 +61,7 @@ public class PubSubTest {
         Util.performHandshake(channel, "/");
 
         // Get session from channel id
-        WebSocketSession<String, Object> session = server.getSessionByChannelId(channel.id());
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
 
         // Assert session is not null
         assertNotNull(session, "Session should not be null");
@@ -83,7 +83,7 @@ public class PubSubTest {
         Util.performHandshake(channel, "/");
 
         // Get session from channel id
-        WebSocketSession<String, Object> session = server.getSessionByChannelId(channel.id());
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
 
         // Assert session is not null
         assertNotNull(session, "Session should not be null");
@@ -118,7 +118,7 @@ public class PubSubTest {
         Util.performHandshake(channel, "/");
 
         // Get session from channel id
-        WebSocketSession<String, Object> session = server.getSessionByChannelId(channel.id());
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
 
         // Assert session is not null
         assertNotNull(session, "Session should not be null");
@@ -145,7 +145,7 @@ public class PubSubTest {
         Util.performHandshake(channel, "/");
 
         // Get session from channel id
-        WebSocketSession<String, Object> session = server.getSessionByChannelId(channel.id());
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
 
         // Assert session is not null
         assertNotNull(session, "Session should not be null");
@@ -168,4 +168,22 @@ public class PubSubTest {
         // then user is no longer connected and topic does not exist
         assertFalse(server.getTopics().contains("topic-test"));
     }
+
+    @Test
+    @Order(7)
+    public void When_LastSessionOfEventLoopIsRemoved_Then_PartitionShouldBeRemoved() {
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        SubscriberSet<String, Object> subscribers = new SubscriberSet<>();
+        assertTrue(subscribers.add(session));
+        assertEquals(1, subscribers.executors().size());
+
+        // An event loop without sessions must not receive fan-out tasks
+        assertTrue(subscribers.remove(session));
+        assertFalse(subscribers.remove(session));
+        assertTrue(subscribers.executors().isEmpty());
+        assertTrue(subscribers.isEmpty());
+    }
 }
@@ -0,0 +1,173 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RelayTest {
+
+    private static final int UPSTREAM_PORT = 8089;
+
+    private WebSocketServer<String, Object> upstream;
+    private WebSocketServer<String, Object> edge;
+
+    private static WebSocketServer<String, Object> createServer() {
+        return new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE));
+    }
+
+    @BeforeEach
+    public void setUp() {
+        upstream = createServer().acceptRelays().listen(UPSTREAM_PORT);
+        edge = createServer().relayFrom(URI.create("ws://127.0.0.1:" + UPSTREAM_PORT + "/"));
+        Util.await(() -> upstream.getRelayCount() == 1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        edge.closeResources();
+        upstream.stop();
+    }
+
+    private EmbeddedChannel subscribe(String topic) {
+        EmbeddedChannel channel = new EmbeddedChannel(DefaultChannelId.newInstance(), new Util.FrameCounter(),
+                new WebSocketServerHandler<>(edge));
+        channel.writeInbound(Util.createHttpRequest("/"));
+        channel.readOutbound();
+        edge.subscribe(edge.getSessionByChannel(channel), topic);
+        return channel;
+    }
+
+    /**
+     * Waits until the next frame is flushed to a subscriber, possibly by the relay connection thread, and reads it.
+     */
+    private static String readText(EmbeddedChannel channel) throws InterruptedException {
+        channel.pipeline().get(Util.FrameCounter.class).await(1);
+        TextWebSocketFrame frame = channel.readOutbound();
+        assertNotNull(frame, "Expected a frame");
+        try {
+            return frame.text();
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    public void When_EdgeSessionsSubscribe_Then_UpstreamMessagesShouldBeFannedOutLocally() throws InterruptedException {
+        EmbeddedChannel first = subscribe("news");
+        EmbeddedChannel second = subscribe("news");
+        Util.await(() -> upstream.hasRelayInterest("news"));
+        assertFalse(upstream.hasRelayInterest("orders"));
+
+        upstream.publish("news", "hello");
+        assertEquals("hello", readText(first));
+        assertEquals("hello", readText(second));
+        assertEquals(0, upstream.getSessionCount(), "Relay connection is not a session");
+
+        // Messages published on the edge stay local
+        edge.publish("news", "local");
+        assertEquals("local", readText(first));
+        assertNull(upstream.getTopicStatistics("news"));
+    }
+
+    @Test
+    public void When_LastEdgeSessionUnsubscribes_Then_UpstreamInterestShouldBeDropped() throws InterruptedException {
+        EmbeddedChannel first = subscribe("news");
+        EmbeddedChannel second = subscribe("news");
+        Util.await(() -> upstream.hasRelayInterest("news"));
+
+        edge.unsubscribe(edge.getSessionByChannel(first), "news");
+        edge.unsubscribe(edge.getSessionByChannel(second), "news");
+        Util.await(() -> !upstream.hasRelayInterest("news"));
+    }
+
+    @Test
+    public void When_EdgeSubscribesToPattern_Then_MatchingTopicsShouldBeRelayed() throws InterruptedException {
+        EmbeddedChannel channel = subscribe("prices.*");
+        Util.await(() -> upstream.hasRelayInterest("prices.usd"));
+        assertFalse(upstream.hasRelayInterest("prices.usd.bid"));
+
+        upstream.publish("prices.usd", "4.02");
+        assertEquals("4.02", readText(channel));
+    }
+
+    /**
+     * Opens a relay connection on an embedded channel of the given hub, interested in the given topic.
+     */
+    private static EmbeddedChannel openRelay(RelayHub hub, String topic) {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        hub.open(channel.pipeline().firstContext());
+
+        ByteBuf subscribe = Unpooled.buffer().writeByte(1).writeBytes(topic.getBytes(StandardCharsets.UTF_8));
+        channel.writeInbound(new BinaryWebSocketFrame(subscribe));
+        return channel;
+    }
+
+    @Test
+    public void When_RelayIsNotWritable_Then_MessagesShouldWaitAndBeFlushedTogether() {
+        RelayHub hub = new RelayHub();
+        EmbeddedChannel channel = openRelay(hub, "news");
+        assertTrue(hub.hasInterest("news"));
+
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        for (String text : new String[]{"a", "b"}) {
+            ByteBuf payload = Unpooled.copiedBuffer(text, StandardCharsets.UTF_8);
+            hub.publish("news", payload);
+            payload.release();
+        }
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound(), "Messages should wait until the relay is writable");
+
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        channel.runPendingTasks();
+
+        for (String text : new String[]{"a", "b"}) {
+            BinaryWebSocketFrame frame = channel.readOutbound();
+            assertNotNull(frame, "Expected a frame");
+            assertEquals(3, frame.content().readByte());
+            frame.content().skipBytes(frame.content().readInt());
+            assertEquals(text, frame.content().toString(StandardCharsets.UTF_8));
+            frame.release();
+        }
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void When_RelayFallsBehind_Then_ItShouldBeDisconnected() {
+        RelayHub hub = new RelayHub();
+        EmbeddedChannel channel = openRelay(hub, "news");
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+
+        ByteBuf payload = Unpooled.buffer(1024 * 1024).writerIndex(1024 * 1024);
+        for (int i = 0; i <= RelayHub.MAX_PENDING_BYTES / payload.readableBytes(); i++) {
+            hub.publish("news", payload);
+        }
+        payload.release();
+        channel.runPendingTasks();
+
+        assertFalse(channel.isOpen(), "Relay should be closed");
+        assertEquals(0, hub.size());
+        assertNull(channel.readOutbound(), "Queued messages should be released");
+    }
+
+    @Test
+    public void When_ServerAcceptsRelays_Then_AcceptingAgainShouldFail() {
+        assertThrows(IllegalStateException.class, () -> upstream.acceptRelays());
+    }
+}
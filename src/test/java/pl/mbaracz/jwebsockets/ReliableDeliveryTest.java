@@ -0,0 +1,134 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.Acknowledgement;
+import pl.mbaracz.jwebsockets.message.SequenceHeader;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReliableDeliveryTest {
+
+    private static final Acknowledgement<String> ACK_PREFIX = message -> message.startsWith("ack:")
+            ? Long.parseLong(message.substring(4))
+            : Acknowledgement.NONE;
+
+    private final List<String> handled = new ArrayList<>();
+
+    private WebSocketServer<String, Object> createServer(int capacity) {
+        return new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                        .setReliableDelivery(ACK_PREFIX, capacity)
+                )
+                .onMessage((session, message) -> handled.add(message));
+    }
+
+    private static String readText(EmbeddedChannel channel) {
+        TextWebSocketFrame frame = channel.readOutbound();
+        try {
+            return frame.text();
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    public void When_MessagesArePublished_Then_TheyShouldBeNumberedPerSession() {
+        WebSocketServer<String, Object> server = createServer(16);
+        EmbeddedChannel first = Util.connect(server);
+        EmbeddedChannel second = Util.connect(server);
+
+        server.getSessionByChannel(first).sendMessage("direct");
+        server.subscribe(server.getSessionByChannel(first), "news");
+        server.subscribe(server.getSessionByChannel(second), "news");
+        server.publish("news", "hello");
+
+        assertEquals("1:direct", readText(first));
+        assertEquals("2:hello", readText(first));
+        assertEquals("1:hello", readText(second));
+    }
+
+    @Test
+    public void When_ClientAcknowledges_Then_BufferShouldBeTrimmedAndAckConsumed() {
+        WebSocketServer<String, Object> server = createServer(16);
+        EmbeddedChannel channel = Util.connect(server);
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        for (int i = 0; i < 3; i++) {
+            session.sendMessage("message " + i);
+        }
+        assertEquals(3, session.getUnacknowledgedCount());
+
+        channel.writeInbound(new TextWebSocketFrame("ack:2"));
+        assertEquals(2, session.getAcknowledgedSequence());
+        assertEquals(1, session.getUnacknowledgedCount());
+
+        // Stale and future acknowledgements do not go beyond the sent messages
+        channel.writeInbound(new TextWebSocketFrame("ack:1"));
+        channel.writeInbound(new TextWebSocketFrame("ack:100"));
+        assertEquals(3, session.getAcknowledgedSequence());
+        assertEquals(0, session.getUnacknowledgedCount());
+
+        channel.writeInbound(new TextWebSocketFrame("hello"));
+        assertEquals(1, handled.size(), "Acknowledgements should not be passed to the message handler");
+    }
+
+    @Test
+    public void When_BufferIsFull_Then_OldestMessagesShouldBeEvicted() {
+        WebSocketServer<String, Object> server = createServer(3);
+        EmbeddedChannel channel = Util.connect(server);
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        for (int i = 0; i < 5; i++) {
+            session.sendMessage("message " + i);
+        }
+        assertEquals(3, session.getUnacknowledgedCount());
+    }
+
+    @Test
+    public void When_PayloadIsSharedBySessions_Then_BuffersShouldRetainItUntilAcknowledged() {
+        WebSocketServer<String, Object> server = createServer(16);
+        EmbeddedChannel first = Util.connect(server);
+        EmbeddedChannel second = Util.connect(server);
+
+        ByteBuf shared = Unpooled.copiedBuffer("shared", StandardCharsets.UTF_8);
+        server.getSessionByChannel(first).sendPayload(shared.retainedDuplicate());
+        server.getSessionByChannel(second).sendPayload(shared.retainedDuplicate());
+        shared.release();
+
+        assertEquals("1:shared", readText(first));
+        assertEquals("1:shared", readText(second));
+        assertEquals(2, shared.refCnt(), "Each resend buffer should hold a reference, not a copy");
+
+        first.writeInbound(new TextWebSocketFrame("ack:1"));
+        assertEquals(1, shared.refCnt());
+
+        second.close();
+        assertEquals(0, shared.refCnt(), "Closing the session should release its buffer");
+    }
+
+    @Test
+    public void When_SequenceHeaderIsWritten_Then_ItShouldContainSequenceNumber() {
+        ByteBuf out = Unpooled.buffer();
+
+        SequenceHeader.DECIMAL.write(0, out);
+        SequenceHeader.DECIMAL.write(7, out);
+        SequenceHeader.DECIMAL.write(1234567890123L, out);
+        assertEquals("0:7:1234567890123:", out.toString(StandardCharsets.US_ASCII));
+
+        out.clear();
+        SequenceHeader.BINARY.write(42, out);
+        assertEquals(42, out.readLong());
+    }
+}
@@ -0,0 +1,124 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.Correlation;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestTest {
+
+    /**
+     * Correlates messages in the form {@code <id>|<body>}.
+     */
+    private static final Correlation<String> PREFIX_CORRELATION = new Correlation<String>() {
+        @Override
+        public String setCorrelationId(String request, long id) {
+            return id + "|" + request;
+        }
+
+        @Override
+        public long getCorrelationId(String message) {
+            int separator = message.indexOf('|');
+            return separator > 0 ? Long.parseLong(message.substring(0, separator)) : UNCORRELATED;
+        }
+    };
+
+    private final List<String> handled = new ArrayList<>();
+
+    private WebSocketServer<String, Object> createServer(boolean correlated) {
+        return new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                        .setCorrelation(correlated ? PREFIX_CORRELATION : null)
+                )
+                .onMessage((session, message) -> handled.add(message));
+    }
+
+    @Test
+    public void When_ClientResponds_Then_RequestShouldBeCompletedWithResponse() throws Exception {
+        WebSocketServer<String, Object> server = createServer(true);
+        EmbeddedChannel channel = Util.connect(server);
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        CompletableFuture<String> first = session.request("ping");
+        CompletableFuture<String> second = session.request("status");
+
+        assertEquals("1|ping", ((TextWebSocketFrame) channel.readOutbound()).text());
+        assertEquals("2|status", ((TextWebSocketFrame) channel.readOutbound()).text());
+
+        channel.writeInbound(new TextWebSocketFrame("2|ok"));
+        channel.writeInbound(new TextWebSocketFrame("hello"));
+        channel.writeInbound(new TextWebSocketFrame("1|pong"));
+
+        assertEquals("1|pong", first.get(1, TimeUnit.SECONDS));
+        assertEquals("2|ok", second.get(1, TimeUnit.SECONDS));
+        assertEquals(1, handled.size(), "Only the message which is not a response should be handled");
+        assertEquals("hello", handled.get(0));
+    }
+
+    @Test
+    public void When_ClientDoesNotRespond_Then_RequestShouldTimeOut() throws Exception {
+        WebSocketServer<String, Object> server = createServer(true);
+        EmbeddedChannel channel = Util.connect(server);
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        CompletableFuture<String> future = session.request("ping", 50, TimeUnit.MILLISECONDS);
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, exception.getCause());
+
+        // A late response is not a response to a pending request anymore
+        channel.writeInbound(new TextWebSocketFrame("1|pong"));
+        assertEquals(1, handled.size());
+    }
+
+    @Test
+    public void When_ChannelIsClosed_Then_PendingRequestsShouldFail() {
+        WebSocketServer<String, Object> server = createServer(true);
+        EmbeddedChannel channel = Util.connect(server);
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        CompletableFuture<String> future = session.request("ping");
+        channel.close();
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(ClosedChannelException.class, exception.getCause());
+        assertTrue(session.request("again").isCompletedExceptionally());
+    }
+
+    @Test
+    public void When_RequestIsCancelled_Then_ItsResponseShouldBeHandledAsMessage() {
+        WebSocketServer<String, Object> server = createServer(true);
+        EmbeddedChannel channel = Util.connect(server);
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        CompletableFuture<String> future = session.request("ping");
+        assertTrue(future.cancel(false));
+
+        channel.writeInbound(new TextWebSocketFrame("1|pong"));
+        assertEquals(1, handled.size());
+    }
+
+    @Test
+    public void When_CorrelationIsNotConfigured_Then_IllegalStateExceptionIsThrown() {
+        WebSocketServer<String, Object> server = createServer(false);
+        EmbeddedChannel channel = Util.connect(server);
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> session.request("ping"));
+        assertEquals("Requests require a correlation to be configured!", exception.getMessage());
+    }
+}
@@ -0,0 +1,192 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.Acknowledgement;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResumptionTest {
+
+    private final Util.FrameDecoder frames = new Util.FrameDecoder();
+
+    private static WebSocketServer<String, Object> createServer(long gracePeriodMillis, int replayCapacity) {
+        return new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                        .setSessionResumption(gracePeriodMillis, TimeUnit.MILLISECONDS, replayCapacity)
+                );
+    }
+
+    private String readText(EmbeddedChannel channel) {
+        TextWebSocketFrame frame = frames.decode(channel).readInbound();
+        assertNotNull(frame, "Expected a frame");
+        try {
+            return frame.text();
+        } finally {
+            frame.release();
+        }
+    }
+
+    private void assertNoMoreFrames(EmbeddedChannel channel) {
+        assertNull(frames.decode(channel).readInbound());
+    }
+
+    @Test
+    public void When_ClientResumesWithToken_Then_ItShouldReceiveOnlyMissedMessages() {
+        WebSocketServer<String, Object> server = createServer(60_000, 16);
+        EmbeddedChannel first = Util.connectThroughCodec(server, "/");
+        WebSocketSession<String, Object> session = server.getSessionByChannel(first);
+        String token = session.getResumeToken();
+
+        assertNotNull(token);
+        session.setData("user-1");
+        server.subscribe(session, "news");
+        server.publish("news", "one");
+        assertEquals("one", readText(first));
+
+        first.close();
+        assertEquals(1, server.getParkedSessionCount());
+
+        server.publish("news", "two");
+        server.publish("news", "three");
+
+        EmbeddedChannel second = Util.connectThroughCodec(server, "/?" + WebSocketSession.RESUME_TOKEN_PARAMETER + "=" + token);
+        WebSocketSession<String, Object> resumed = server.getSessionByChannel(second);
+
+        assertEquals("two", readText(second));
+        assertEquals("three", readText(second));
+        assertNoMoreFrames(second);
+        assertTrue(resumed.isResumed());
+        assertTrue(resumed.isReplayComplete());
+        assertEquals(token, resumed.getResumeToken());
+        assertEquals("user-1", resumed.getData());
+        assertTrue(server.isSubscribed(resumed, "news"));
+        assertEquals(0, server.getParkedSessionCount());
+
+        server.publish("news", "four");
+        assertEquals("four", readText(second));
+    }
+
+    @Test
+    public void When_TokenIsUnknown_Then_NewSessionShouldBeOpened() {
+        WebSocketServer<String, Object> server = createServer(60_000, 16);
+        EmbeddedChannel channel = Util.connectThroughCodec(server, "/?resume=unknown");
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        assertFalse(session.isResumed());
+        assertNotNull(session.getResumeToken());
+        assertNotEquals("unknown", session.getResumeToken());
+    }
+
+    @Test
+    public void When_TokenIsUsedTwice_Then_OnlyFirstUpgradeShouldResume() {
+        WebSocketServer<String, Object> server = createServer(60_000, 16);
+        EmbeddedChannel first = Util.connectThroughCodec(server, "/");
+        String token = server.getSessionByChannel(first).getResumeToken();
+        first.close();
+
+        EmbeddedChannel second = Util.connectThroughCodec(server, "/?resume=" + token);
+        EmbeddedChannel third = Util.connectThroughCodec(server, "/?resume=" + token);
+
+        assertTrue(server.getSessionByChannel(second).isResumed());
+        assertFalse(server.getSessionByChannel(third).isResumed());
+    }
+
+    @Test
+    public void When_GracePeriodExpires_Then_SessionShouldNotBeResumed() throws InterruptedException {
+        WebSocketServer<String, Object> server = createServer(50, 16);
+        EmbeddedChannel first = Util.connectThroughCodec(server, "/");
+        WebSocketSession<String, Object> session = server.getSessionByChannel(first);
+        String token = session.getResumeToken();
+        server.subscribe(session, "news");
+        first.close();
+
+        // The timer runs its timeouts in the order of their deadlines, so this one runs after the session expired
+        CountDownLatch expired = new CountDownLatch(1);
+        PendingRequests.TIMER.newTimeout(timeout -> expired.countDown(), 100, TimeUnit.MILLISECONDS);
+        assertTrue(expired.await(5, TimeUnit.SECONDS), "Timer did not run in time");
+        assertEquals(0, server.getParkedSessionCount());
+        assertFalse(server.getTopics().contains("news"));
+
+        EmbeddedChannel second = Util.connectThroughCodec(server, "/?resume=" + token);
+        assertFalse(server.getSessionByChannel(second).isResumed());
+    }
+
+    @Test
+    public void When_ReplayBufferOverflows_Then_ReplayShouldBeIncomplete() {
+        WebSocketServer<String, Object> server = createServer(60_000, 2);
+        EmbeddedChannel first = Util.connectThroughCodec(server, "/");
+        WebSocketSession<String, Object> session = server.getSessionByChannel(first);
+        server.subscribe(session, "news");
+        first.close();
+
+        for (int i = 0; i < 3; i++) {
+            server.publish("news", "message " + i);
+        }
+
+        EmbeddedChannel second = Util.connectThroughCodec(server, "/?resume=" + session.getResumeToken());
+        WebSocketSession<String, Object> resumed = server.getSessionByChannel(second);
+
+        assertEquals("message 1", readText(second));
+        assertEquals("message 2", readText(second));
+        assertNoMoreFrames(second);
+        assertTrue(resumed.isResumed());
+        assertFalse(resumed.isReplayComplete());
+    }
+
+    @Test
+    public void When_MissedMessagesMatchSeveralSubscriptions_Then_TheyShouldBeReplayedOnceInOrder() {
+        WebSocketServer<String, Object> server = createServer(60_000, 16);
+        EmbeddedChannel first = Util.connectThroughCodec(server, "/");
+        WebSocketSession<String, Object> session = server.getSessionByChannel(first);
+        server.subscribe(session, "news.eu");
+        server.subscribe(session, "news.*");
+        first.close();
+
+        server.publish("news.us", "one");
+        server.publish("news.eu", "two");
+        server.publish("news.asia", "three");
+
+        EmbeddedChannel second = Util.connectThroughCodec(server, "/?resume=" + session.getResumeToken());
+
+        assertEquals("one", readText(second));
+        assertEquals("two", readText(second));
+        assertEquals("three", readText(second));
+        assertNoMoreFrames(second);
+    }
+
+    @Test
+    public void When_SessionIsResumedInReliableMode_Then_UnacknowledgedMessagesShouldBeResent() {
+        Acknowledgement<String> acknowledgement = message -> message.startsWith("ack:")
+                ? Long.parseLong(message.substring(4))
+                : Acknowledgement.NONE;
+        WebSocketServer<String, Object> server = createServer(60_000, 16);
+        server.configure(configurer -> configurer.setReliableDelivery(acknowledgement, 16));
+
+        EmbeddedChannel first = Util.connectThroughCodec(server, "/");
+        WebSocketSession<String, Object> session = server.getSessionByChannel(first);
+        server.subscribe(session, "news");
+        server.publish("news", "one");
+        server.publish("news", "two");
+        assertEquals("1:one", readText(first));
+        assertEquals("2:two", readText(first));
+
+        first.writeInbound(new TextWebSocketFrame("ack:1"));
+        first.close();
+        server.publish("news", "three");
+
+        EmbeddedChannel second = Util.connectThroughCodec(server, "/?resume=" + session.getResumeToken());
+
+        assertEquals("2:two", readText(second));
+        assertEquals("3:three", readText(second));
+        assertNoMoreFrames(second);
+    }
+}
@@ -0,0 +1,208 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.concurrent.EventExecutor;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetainedMessagesTest {
+
+    private static WebSocketServer<String, Object> createServer(long memoryLimit) {
+        return new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                        .setRetainedMessagesMemoryLimit(memoryLimit)
+                );
+    }
+
+    @Test
+    public void When_SessionSubscribesToRetainedTopic_Then_ShouldReceiveLastMessages() {
+        WebSocketServer<String, Object> server = createServer(1024);
+        server.retainTopic("news", 2);
+
+        // Publish before anyone is subscribed
+        server.publish("news", "1");
+        server.publish("news", "2");
+        server.publish("news", "3");
+
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+        server.subscribe(server.getSessionByChannel(channel), "news");
+
+        // Assert only the last two messages are received, in order
+        assertEquals("2", ((TextWebSocketFrame) channel.readOutbound()).text());
+        assertEquals("3", ((TextWebSocketFrame) channel.readOutbound()).text());
+        assertNull(channel.readOutbound(), "Only retained messages should be received");
+        assertEquals(2, server.getRetainedMessagesMemoryUsage());
+    }
+
+    @Test
+    public void When_SessionSubscribesToPattern_Then_ShouldReceiveRetainedMessagesOfMatchingTopics() {
+        WebSocketServer<String, Object> server = createServer(1024);
+        server.retainTopic("prices.eur", 1);
+        server.retainTopic("orders.eur", 1);
+
+        server.publish("prices.eur", "price");
+        server.publish("orders.eur", "order");
+
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+        server.subscribe(server.getSessionByChannel(channel), "prices.*");
+
+        assertEquals("price", ((TextWebSocketFrame) channel.readOutbound()).text());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void When_MemoryLimitIsExceeded_Then_LeastRecentlyUsedTopicShouldBeEvicted() {
+        WebSocketServer<String, Object> server = createServer(8);
+        server.retainTopic("first", 10);
+        server.retainTopic("second", 10);
+
+        server.publish("first", "1234");
+        server.publish("second", "5678");
+        server.publish("second", "90");
+
+        assertEquals(6, server.getRetainedMessagesMemoryUsage(), "Oldest topic should be evicted");
+
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+        server.subscribe(server.getSessionByChannel(channel), "first");
+        assertNull(channel.readOutbound(), "Evicted messages should not be received");
+
+        server.removeTopicRetention("second");
+        assertEquals(0, server.getRetainedMessagesMemoryUsage());
+    }
+
+    @Test
+    public void When_SessionSubscribesWhileTopicIsPublished_Then_MessagesShouldArriveOnceInOrder() throws Exception {
+        int messages = 2000;
+        int subscribers = 4;
+        WebSocketServer<String, Object> server = createServer(1024).listen(8091);
+        server.retainTopic("ticks", 1);
+
+        Map<WebSocketSession<String, Object>, List<Integer>> received = new ConcurrentHashMap<>();
+        CountDownLatch completed = new CountDownLatch(subscribers);
+        WebSocketClient<String, Object> client = new WebSocketClient<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE))
+                .onMessage((session, message) -> {
+                    received.computeIfAbsent(session, key -> new ArrayList<>()).add(Integer.parseInt(message));
+                    if (Integer.parseInt(message) == messages) {
+                        completed.countDown();
+                    }
+                });
+
+        try {
+            for (int i = 0; i < subscribers; i++) {
+                client.connect(URI.create("ws://127.0.0.1:8091/")).get(5, TimeUnit.SECONDS);
+            }
+            List<WebSocketSession<String, Object>> sessions = new ArrayList<>(server.getConnectedSessions());
+            assertEquals(subscribers, sessions.size());
+
+            // Every session subscribes from this thread, off its event loop, while the topic is being published
+            List<CountDownLatch> reached = new ArrayList<>();
+            for (int i = 0; i < subscribers; i++) {
+                reached.add(new CountDownLatch(1));
+            }
+            Thread publisher = new Thread(() -> {
+                for (int i = 1; i <= messages; i++) {
+                    server.publish("ticks", String.valueOf(i));
+                    if (i % (messages / (subscribers + 1)) == 0 && i / (messages / (subscribers + 1)) <= subscribers) {
+                        reached.get(i / (messages / (subscribers + 1)) - 1).countDown();
+                    }
+                }
+            });
+            publisher.start();
+            for (int i = 0; i < subscribers; i++) {
+                assertTrue(reached.get(i).await(5, TimeUnit.SECONDS));
+                server.subscribe(sessions.get(i), "ticks");
+            }
+            publisher.join();
+
+            assertTrue(completed.await(5, TimeUnit.SECONDS), "Every subscriber should receive the last message");
+            for (List<Integer> values : received.values()) {
+                for (int i = 1; i < values.size(); i++) {
+                    assertEquals(values.get(i - 1) + 1, values.get(i), "Messages should arrive once, in order");
+                }
+            }
+        } finally {
+            client.close();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void When_MatchingTopicIsPublishedWhileSnapshotIsPending_Then_MessageShouldArriveAfterSnapshot() throws Exception {
+        WebSocketServer<String, Object> server = createServer(1024).listen(8092);
+        server.retainTopic("prices.eur", 1);
+
+        Map<WebSocketSession<String, Object>, List<String>> received = new ConcurrentHashMap<>();
+        WebSocketClient<String, Object> client = new WebSocketClient<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE))
+                .onMessage((session, message) ->
+                        received.computeIfAbsent(session, key -> new CopyOnWriteArrayList<>()).add(message));
+
+        try {
+            // Two sessions owned by the same event loop, so that the loop receives the deliveries of the pattern
+            Map<EventExecutor, WebSocketSession<String, Object>> byExecutor = new HashMap<>();
+            WebSocketSession<String, Object> subscriber = null;
+            WebSocketSession<String, Object> listener = null;
+            while (listener == null) {
+                client.connect(URI.create("ws://127.0.0.1:8092/")).get(5, TimeUnit.SECONDS);
+                int count = byExecutor.size() + 1;
+                Util.await(() -> server.getSessionCount() == count);
+                for (WebSocketSession<String, Object> session : server.getConnectedSessions()) {
+                    WebSocketSession<String, Object> other = byExecutor.putIfAbsent(session.executor(), session);
+                    if (other != null && other != session) {
+                        subscriber = other;
+                        listener = session;
+                    }
+                }
+            }
+            server.subscribe(listener, "prices.*");
+            server.publish("prices.eur", "price");
+
+            // The delivery of the topic which is not retained is queued on the blocked event loop before the snapshot
+            CountDownLatch blocked = new CountDownLatch(1);
+            subscriber.executor().execute(() -> {
+                try {
+                    blocked.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            server.publish("prices.usd", "1");
+            server.subscribe(subscriber, "prices.*");
+            blocked.countDown();
+            server.publish("prices.usd", "2");
+
+            Util.await(() -> received.size() == 2 && received.values().stream().allMatch(values -> values.size() >= 3));
+            for (List<String> values : received.values()) {
+                assertEquals(Arrays.asList("price", "1", "2"), values);
+            }
+        } finally {
+            client.close();
+            server.stop();
+        }
+    }
+}
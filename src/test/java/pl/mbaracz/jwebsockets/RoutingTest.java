@@ -0,0 +1,114 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+import pl.mbaracz.jwebsockets.routing.PathTrie;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoutingTest {
+
+    private static WebSocketServer<String, Object> createServer(String path, AtomicReference<WebSocketSession<String, Object>> upgraded) {
+        return new WebSocketServer<String, Object>(path)
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                )
+                .onUpgrade((request, session, response) -> {
+                    upgraded.set(session);
+                    return true;
+                });
+    }
+
+    @Test
+    public void When_PathsAreAdded_Then_MostSpecificPatternShouldMatch() {
+        PathTrie<String> trie = new PathTrie<>();
+        trie.add("/", "root");
+        trie.add("/rooms/{room}", "room");
+        trie.add("/rooms/lobby", "lobby");
+        trie.add("/rooms/{room}/users/{user}", "user");
+
+        assertEquals("root", trie.match("/").getValue());
+        assertEquals("lobby", trie.match("/rooms/lobby").getValue());
+        assertEquals("42", trie.match("/rooms/42").getParameters().get("room"));
+        assertEquals("7", trie.match("/rooms/lobby/users/7").getParameters().get("user"));
+        assertEquals("lobby", trie.match("/rooms/lobby/users/7").getParameters().get("room"));
+        assertNull(trie.match("/rooms"));
+        assertNull(trie.match("/other"));
+
+        assertThrows(IllegalArgumentException.class, () -> trie.add("/rooms/lobby", "duplicate"));
+        assertThrows(IllegalArgumentException.class, () -> trie.add("/rooms/{id}", "conflict"));
+        assertThrows(IllegalArgumentException.class, () -> trie.add("/rooms/a{id}", "partial"));
+    }
+
+    @Test
+    public void When_UpgradeIsRouted_Then_MatchingServerShouldHandleIt() {
+        AtomicReference<WebSocketSession<String, Object>> chat = new AtomicReference<>();
+        AtomicReference<WebSocketSession<String, Object>> rooms = new AtomicReference<>();
+        WebSocketServer<String, Object> chatServer = createServer("/chat", chat);
+        WebSocketServer<String, Object> roomServer = createServer("/rooms/{room}", rooms);
+
+        PathTrie<WebSocketServerHandler<?, ?>> routes = new PathTrie<>();
+        routes.add(chatServer.getPath(), new WebSocketServerHandler<>(chatServer));
+        routes.add(roomServer.getPath(), new WebSocketServerHandler<>(roomServer));
+
+        EmbeddedChannel channel = new EmbeddedChannel(new RoutingHandler(routes));
+        Util.performHandshake(channel, "/rooms/42?token=secret");
+
+        assertNull(chat.get(), "Chat server should not receive the upgrade");
+        assertNotNull(rooms.get(), "Room server should receive the upgrade");
+        assertEquals("42", rooms.get().getPathParameters().get("room"));
+        assertEquals("secret", rooms.get().getQueryParameters().get("token").get(0));
+        assertEquals(1, roomServer.getSessionCount());
+        assertEquals(0, chatServer.getSessionCount());
+        assertNull(channel.pipeline().get(RoutingHandler.class), "Router should remove itself");
+    }
+
+    @Test
+    public void When_NoServerMatchesPath_Then_NotFoundShouldBeSent() {
+        PathTrie<WebSocketServerHandler<?, ?>> routes = new PathTrie<>();
+        EmbeddedChannel channel = new EmbeddedChannel(new RoutingHandler(routes));
+        Util.performHandshake(channel, "/unknown");
+
+        FullHttpResponse response = channel.readOutbound();
+        assertEquals(HttpResponseStatus.NOT_FOUND, response.status());
+        assertFalse(channel.isOpen(), "Channel should be closed");
+    }
+
+    @Test
+    public void When_RequestHasQueryString_Then_UpgradeShouldNotBeRejected() {
+        AtomicReference<WebSocketSession<String, Object>> upgraded = new AtomicReference<>();
+        WebSocketServer<String, Object> server = createServer("/", upgraded);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/?token=x");
+
+        assertNotNull(upgraded.get(), "Upgrade handler should be called");
+        assertEquals("x", upgraded.get().getQueryParameters().get("token").get(0));
+    }
+
+    @Test
+    public void When_ListenerIsStarted_Then_RoutedServersShouldBeRunning() {
+        WebSocketServer<String, Object> chatServer = createServer("/chat", new AtomicReference<>());
+        WebSocketServer<String, Object> roomServer = createServer("/rooms/{room}", new AtomicReference<>());
+
+        WebSocketListener listener = new WebSocketListener()
+                .route(chatServer)
+                .route(roomServer)
+                .listen(8088);
+
+        assertTrue(chatServer.isRunning() && roomServer.isRunning(), "Routed servers should be running");
+        assertThrows(IllegalStateException.class, () -> listener.route(createServer("/other", new AtomicReference<>())));
+
+        listener.stop();
+
+        assertFalse(chatServer.isRunning() || roomServer.isRunning(), "Routed servers should be stopped");
+        assertThrows(IllegalStateException.class, listener::stop);
+    }
+}
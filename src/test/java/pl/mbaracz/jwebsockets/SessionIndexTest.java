@@ -0,0 +1,131 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.index.KeySessionIndex;
+import pl.mbaracz.jwebsockets.index.LongSessionIndex;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionIndexTest {
+
+    private static WebSocketServer<String, Long> createServer() {
+        return new WebSocketServer<String, Long>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                );
+    }
+
+    private static EmbeddedChannel connect(WebSocketServer<String, Long> server, long userId) {
+        EmbeddedChannel channel = new EmbeddedChannel(DefaultChannelId.newInstance(), new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+        server.getSessionByChannel(channel).setData(userId);
+        return channel;
+    }
+
+    @Test
+    public void When_MessageIsSentToKey_Then_OnlyMatchingSessionsShouldReceiveIt() {
+        WebSocketServer<String, Long> server = createServer();
+        server.addLongIndex("user", userId -> userId);
+
+        EmbeddedChannel first = connect(server, 1);
+        EmbeddedChannel second = connect(server, 1);
+        EmbeddedChannel other = connect(server, 2);
+
+        assertEquals(2, server.sendTo("user", 1, "hello").join().getDelivered());
+
+        assertEquals("hello", ((TextWebSocketFrame) first.readOutbound()).text());
+        assertEquals("hello", ((TextWebSocketFrame) second.readOutbound()).text());
+        assertNull(other.readOutbound(), "Session of another user should not receive the message");
+    }
+
+    @Test
+    public void When_SessionDataChangesOrSessionCloses_Then_IndexShouldBeUpdated() {
+        WebSocketServer<String, Long> server = createServer();
+        server.addIndex("user", userId -> "user-" + userId);
+
+        EmbeddedChannel channel = connect(server, 1);
+        WebSocketSession<String, Long> session = server.getSessionByChannel(channel);
+
+        // Moving the session to another key
+        session.setData(2L);
+        assertTrue(server.getSessions("user", "user-1").isEmpty());
+        assertEquals(1, server.getSessions("user", "user-2").size());
+
+        // Closing the channel removes the session from the index
+        channel.close();
+        assertTrue(server.getSessions("user", "user-2").isEmpty());
+        assertEquals(0, server.sendTo("user", "user-2", "hello").join().getDelivered());
+    }
+
+    @Test
+    public void When_DataOfClosedSessionChanges_Then_SessionShouldNotBeIndexedAgain() {
+        WebSocketServer<String, Long> server = createServer();
+        server.addLongIndex("user", userId -> userId);
+
+        EmbeddedChannel channel = connect(server, 1);
+        WebSocketSession<String, Long> session = server.getSessionByChannel(channel);
+
+        channel.close();
+        session.setData(2L);
+        assertTrue(server.getSessions("user", 1).isEmpty());
+        assertTrue(server.getSessions("user", 2).isEmpty());
+    }
+
+    @Test
+    public void When_IndexIsAddedAfterSessionsConnected_Then_ExistingSessionsShouldBeIndexed() {
+        WebSocketServer<String, Long> server = createServer();
+        connect(server, 7);
+
+        server.addLongIndex("user", userId -> userId);
+
+        assertEquals(1, server.getSessions("user", 7L).size());
+        assertThrows(IllegalStateException.class, () -> server.addLongIndex("user", userId -> userId));
+        assertThrows(IllegalArgumentException.class, () -> server.sendTo("unknown", 7, "hello"));
+    }
+
+    @Test
+    public void When_ManyValuesShareLongKey_Then_AllShouldBeReturnedUntilRemoved() {
+        LongSessionIndex<Long, String> index = new LongSessionIndex<>("test", key -> key);
+
+        index.add("a", 5L);
+        index.add("b", 5L);
+        index.add("b", 5L);
+        index.add("c", 6L);
+
+        assertEquals(2, index.get(5L).size());
+        assertEquals(2, index.size());
+
+        index.remove("a");
+        assertEquals(1, index.get(5L).size());
+        assertEquals("b", index.get(5L).get(0));
+
+        index.remove("b");
+        assertTrue(index.get(5L).isEmpty());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void When_DataIsMutatedInPlace_Then_ValueShouldBeRemovedFromIndexedKey() {
+        KeySessionIndex<StringBuilder, String> index = new KeySessionIndex<>("test", StringBuilder::toString);
+        StringBuilder data = new StringBuilder("alice");
+
+        index.add("a", data);
+        data.replace(0, data.length(), "bob");
+
+        // The value is moved from the key it was indexed under, not the one extracted from the mutated data
+        index.add("a", data);
+        assertTrue(index.get("alice").isEmpty());
+        assertEquals(1, index.get("bob").size());
+
+        data.replace(0, data.length(), "carol");
+        index.remove("a");
+        assertTrue(index.get("bob").isEmpty());
+        assertEquals(0, index.size());
+    }
+}
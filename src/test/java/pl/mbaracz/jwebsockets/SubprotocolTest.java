@@ -0,0 +1,114 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.MessageEncoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubprotocolTest {
+
+    private final AtomicInteger textEncodings = new AtomicInteger();
+    private final AtomicInteger upperEncodings = new AtomicInteger();
+
+    private WebSocketServer<String, Object> createServer() {
+        MessageEncoder<String> text = message -> {
+            textEncodings.incrementAndGet();
+            return message.getBytes(StandardCharsets.UTF_8);
+        };
+        MessageEncoder<String> upper = message -> {
+            upperEncodings.incrementAndGet();
+            return message.toUpperCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+        };
+
+        return new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(text)
+                        .addSubprotocol("upper.v1", upper, PlainTextMessageDecoder.INSTANCE, true)
+                );
+    }
+
+    private static EmbeddedChannel connect(WebSocketServer<String, Object> server, String subprotocols) {
+        EmbeddedChannel channel = new EmbeddedChannel(DefaultChannelId.newInstance(), new WebSocketServerHandler<>(server));
+        FullHttpRequest request = Util.createHttpRequest("/");
+        if (subprotocols != null) {
+            request.headers().set(HttpHeaderNames.SEC_WEBSOCKET_PROTOCOL, subprotocols);
+        }
+        channel.writeInbound(request);
+        return channel;
+    }
+
+    @Test
+    public void When_ClientRequestsSupportedSubprotocol_Then_ItsCodecShouldBeUsed() {
+        WebSocketServer<String, Object> server = createServer();
+        AtomicReference<String> received = new AtomicReference<>();
+        server.onMessage((session, message) -> received.set(message));
+
+        EmbeddedChannel channel = connect(server, "unknown, upper.v1");
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        assertEquals("upper.v1", session.getSubprotocol());
+        assertTrue(session.getCodec().isBinary());
+
+        // Binary frames are accepted from sessions using a binary codec
+        channel.writeInbound(new BinaryWebSocketFrame(Unpooled.copiedBuffer("ping", StandardCharsets.UTF_8)));
+        assertEquals("ping", received.get());
+
+        session.sendMessage("hello");
+        BinaryWebSocketFrame frame = channel.readOutbound();
+        assertEquals("HELLO", frame.content().toString(StandardCharsets.UTF_8));
+        frame.release();
+    }
+
+    @Test
+    public void When_ClientRequestsNoSupportedSubprotocol_Then_DefaultCodecShouldBeUsed() {
+        WebSocketServer<String, Object> server = createServer();
+
+        EmbeddedChannel channel = connect(server, "unknown");
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        assertNull(session.getSubprotocol());
+        assertSame(server.getConfiguration().getDefaultCodec(), session.getCodec());
+    }
+
+    @Test
+    public void When_TopicHasSubscribersWithManyCodecs_Then_MessageShouldBeEncodedOncePerCodec() {
+        WebSocketServer<String, Object> server = createServer();
+        EmbeddedChannel[] textChannels = {connect(server, null), connect(server, null)};
+        EmbeddedChannel[] upperChannels = {connect(server, "upper.v1"), connect(server, "upper.v1")};
+
+        for (EmbeddedChannel channel : textChannels) {
+            server.subscribe(server.getSessionByChannel(channel), "news");
+        }
+        for (EmbeddedChannel channel : upperChannels) {
+            server.subscribe(server.getSessionByChannel(channel), "news");
+        }
+
+        server.publish("news", "hello");
+
+        assertEquals(1, textEncodings.get(), "Message should be encoded once for the text codec");
+        assertEquals(1, upperEncodings.get(), "Message should be encoded once for the subprotocol codec");
+
+        for (EmbeddedChannel channel : textChannels) {
+            assertEquals("hello", ((TextWebSocketFrame) channel.readOutbound()).text());
+        }
+        for (EmbeddedChannel channel : upperChannels) {
+            BinaryWebSocketFrame frame = channel.readOutbound();
+            assertEquals("HELLO", frame.content().toString(StandardCharsets.UTF_8));
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+import pl.mbaracz.jwebsockets.topic.HotTopic;
+import pl.mbaracz.jwebsockets.topic.HotTopicSketch;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TopicStatisticsTest {
+
+    private static WebSocketServer<String, Object> createServer() {
+        return new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                );
+    }
+
+    @Test
+    public void When_MessageIsPublished_Then_StatisticsShouldBeUpdated() {
+        WebSocketServer<String, Object> server = createServer();
+
+        // Construct channel and perform handshake
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+
+        // Subscribe to topic and publish
+        String topic = "prices";
+        server.subscribe(server.getSessionByChannel(channel), topic);
+        server.publish(topic, "hello");
+
+        // Read outgoing frame
+        TextWebSocketFrame frame = channel.readOutbound();
+        assertEquals("hello", frame.text());
+
+        // Assert statistics
+        TopicStatistics statistics = server.getTopicStatistics(topic);
+        assertNotNull(statistics, "Statistics should not be null");
+        assertEquals(1, statistics.getSubscriberCount());
+        assertEquals(1, statistics.getPublishedMessages());
+        assertEquals(1, statistics.getDeliveredMessages());
+        assertEquals("hello".length(), statistics.getBytesSent());
+        assertEquals(0, statistics.getDroppedMessages());
+
+        // Closed session should be unsubscribed automatically
+        channel.close();
+        assertNull(server.getTopicStatistics(topic), "Topic should be removed after the last subscriber disconnects");
+    }
+
+    @Test
+    public void When_TopicIsRemoved_Then_StatisticsShouldBeNull() {
+        WebSocketServer<String, Object> server = createServer();
+
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        server.subscribe(session, "foo");
+        server.unsubscribe(session, "foo");
+
+        assertNull(server.getTopicStatistics("foo"), "Statistics of removed topic should be null");
+    }
+
+    @Test
+    public void When_TopicsArePublished_Then_HottestTopicShouldBeFirst() {
+        WebSocketServer<String, Object> server = createServer();
+
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        server.subscribe(session, "cold");
+        server.subscribe(session, "hot");
+
+        for (int i = 0; i < 10; i++) {
+            server.publish("hot", "message");
+        }
+        server.publish("cold", "message");
+
+        List<HotTopic> hotTopics = server.getHotTopics(2);
+        assertEquals(2, hotTopics.size());
+        assertEquals("hot", hotTopics.get(0).getTopic());
+        assertEquals(10, hotTopics.get(0).getCount());
+    }
+
+    @Test
+    public void When_SketchIsFull_Then_HeavyTopicsShouldBeKept() {
+        HotTopicSketch sketch = new HotTopicSketch(3);
+
+        for (int i = 0; i < 100; i++) {
+            sketch.tryOffer("heavy", 5);
+            sketch.tryOffer("noise-" + i, 1);
+        }
+
+        List<HotTopic> top = sketch.top(1);
+        assertEquals("heavy", top.get(0).getTopic());
+        assertTrue(top.get(0).getCount() >= 500, "Count should never be underestimated");
+        assertTrue(top.get(0).getCount() - top.get(0).getError() <= 500, "Guaranteed count should not exceed real count");
+    }
+}
@@ -71,7 +71,7 @@ public class UpgradeHandlerTest {
         String responseContent = buffer.toString(CharsetUtil.UTF_8);
         assertTrue(responseContent.contains("101 Switching Protocols"));
 
-        WebSocketSession<String, PerSocketData> session = server.getSessionByChannelId(channel.id());
+        WebSocketSession<String, PerSocketData> session = server.getSessionByChannel(channel);
 
         // Assert that session is not null
         assertNotNull(session);
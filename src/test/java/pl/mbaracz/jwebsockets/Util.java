@@ -1,9 +1,29 @@
 package pl.mbaracz.jwebsockets;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultChannelId;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.ReferenceCountUtil;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
 
 public class Util {
 
@@ -19,6 +39,28 @@ public class Util {
         channel.writeInbound(request);
     }
 
+    /**
+     * Connects to the server with a completed handshake, discarding the handshake response, so that the frames
+     * written back to the client can be read from the channel.
+     */
+    public static <T, D> EmbeddedChannel connect(WebSocketServer<T, D> server) {
+        EmbeddedChannel channel = new EmbeddedChannel(DefaultChannelId.newInstance(), new WebSocketServerHandler<>(server));
+        performHandshake(channel, "/");
+        ReferenceCountUtil.release(channel.readOutbound());
+        return channel;
+    }
+
+    /**
+     * Connects to the server through the HTTP codec, so that the handshake completes and the open handler runs.
+     * The frames written back to the client are encoded, read them with a {@link FrameDecoder}.
+     */
+    public static <T, D> EmbeddedChannel connectThroughCodec(WebSocketServer<T, D> server, String path) {
+        EmbeddedChannel channel = new EmbeddedChannel(DefaultChannelId.newInstance(),
+                new HttpServerCodec(), new WebSocketServerHandler<>(server));
+        channel.writeInbound(createHttpRequest(path));
+        return channel;
+    }
+
     public static HttpHeaders getDefaultHeaders() {
         HttpHeaders headers = new DefaultHttpHeaders();
         headers.add(HttpHeaderNames.HOST, "http://localhost:8081");
@@ -28,4 +70,86 @@ public class Util {
         headers.add(HttpHeaderNames.SEC_WEBSOCKET_VERSION, "13");
         return headers;
     }
+
+    /**
+     * Waits up to 5 seconds for a condition changed by another thread which does not signal it, such as the interest
+     * of a remote node, backing off from a busy wait up to a millisecond between checks.
+     */
+    public static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        long backoff = 1000;
+
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError("Condition not met in time");
+            }
+            LockSupport.parkNanos(backoff);
+            backoff = Math.min(backoff * 2, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Counts the WebSocket frames flushed to a channel, so that a test can wait for frames written by another thread.
+     * Added first to the pipeline of an {@link EmbeddedChannel}, it sees the frames before they are encoded.
+     */
+    public static class FrameCounter extends ChannelOutboundHandlerAdapter {
+        private final AtomicInteger written = new AtomicInteger();
+        private final Semaphore flushed = new Semaphore(0);
+
+        @Override
+        public void write(ChannelHandlerContext context, Object message, ChannelPromise promise) {
+            if (message instanceof WebSocketFrame) {
+                written.incrementAndGet();
+            }
+            context.write(message, promise);
+        }
+
+        @Override
+        public void flush(ChannelHandlerContext context) {
+            context.flush();
+            flushed.release(written.getAndSet(0));
+        }
+
+        /**
+         * Waits up to 5 seconds until the given number of further frames were flushed.
+         */
+        public void await(int frames) throws InterruptedException {
+            if (!flushed.tryAcquire(frames, 5, TimeUnit.SECONDS)) {
+                throw new AssertionError("Expected " + frames + " frames to be flushed");
+            }
+        }
+    }
+
+    /**
+     * Decodes the frames written to channels connected through the HTTP codec, skipping the handshake response of
+     * every channel.
+     */
+    public static class FrameDecoder {
+        private final Map<EmbeddedChannel, EmbeddedChannel> decoders = new IdentityHashMap<>();
+        private final Set<EmbeddedChannel> handshaken = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        /**
+         * Decodes the frames written to a channel so far, and returns the channel to read the decoded frames from.
+         */
+        public EmbeddedChannel decode(EmbeddedChannel channel) {
+            EmbeddedChannel decoder = decoders.computeIfAbsent(channel, key ->
+                    new EmbeddedChannel(new WebSocket13FrameDecoder(false, false, 65536)));
+            ByteBuf bytes;
+
+            channel.runPendingTasks();
+            while ((bytes = channel.readOutbound()) != null) {
+                if (!handshaken.contains(channel)) {
+                    int end = ByteBufUtil.indexOf(Unpooled.wrappedBuffer("\r\n\r\n".getBytes(StandardCharsets.US_ASCII)), bytes);
+                    if (end < 0) {
+                        bytes.release();
+                        continue;
+                    }
+                    bytes.readerIndex(end + 4);
+                    handshaken.add(channel);
+                }
+                decoder.writeInbound(bytes);
+            }
+            return decoder;
+        }
+    }
 }
@@ -0,0 +1,162 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebSocketClientTest {
+
+    private static final URI SERVER_URI = URI.create("ws://127.0.0.1:8090/");
+
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private WebSocketServer<String, Object> server;
+    private WebSocketClient<String, Object> client;
+
+    @BeforeEach
+    public void setUp() {
+        server = new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE))
+                .onMessage((session, message) -> session.sendMessage(message))
+                .listen(8090);
+
+        client = new WebSocketClient<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE))
+                .onMessage((session, message) -> received.add(message));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        client.close();
+        server.stop();
+    }
+
+    private String poll() throws InterruptedException {
+        String message = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(message, "Expected a message");
+        return message;
+    }
+
+    @Test
+    public void When_ClientConnects_Then_MessagesShouldBeExchanged() throws Exception {
+        CountDownLatch opened = new CountDownLatch(1);
+        client.onOpen(session -> opened.countDown());
+
+        WebSocketSession<String, Object> session = client.connect(SERVER_URI).get(5, TimeUnit.SECONDS);
+        assertTrue(opened.await(0, TimeUnit.SECONDS), "Open handler was not called before completion");
+        assertEquals(1, client.getSessionCount());
+
+        session.sendMessage("hello");
+        assertEquals("hello", poll());
+    }
+
+    @Test
+    public void When_ConnectionsArePooled_Then_TheyShouldBeHandedOutInTurn() throws Exception {
+        client.setPoolSize(2);
+
+        WebSocketSession<String, Object> first = client.acquire(SERVER_URI).get(5, TimeUnit.SECONDS);
+        WebSocketSession<String, Object> second = client.acquire(SERVER_URI).get(5, TimeUnit.SECONDS);
+        WebSocketSession<String, Object> third = client.acquire(SERVER_URI).get(5, TimeUnit.SECONDS);
+
+        assertNotSame(first, second);
+        assertSame(first, third);
+        assertEquals(2, client.getSessionCount());
+
+        // A closed connection is reopened when its turn comes
+        second.getContext().channel().close().sync();
+        client.acquire(SERVER_URI);
+        WebSocketSession<String, Object> reopened = client.acquire(SERVER_URI).get(5, TimeUnit.SECONDS);
+        assertNotSame(second, reopened);
+        assertTrue(reopened.getContext().channel().isActive());
+    }
+
+    @Test
+    public void When_PoolSizeIsChanged_Then_ExistingPoolShouldBeResized() throws Exception {
+        WebSocketSession<String, Object> first = client.acquire(SERVER_URI).get(5, TimeUnit.SECONDS);
+        assertSame(first, client.acquire(SERVER_URI).get(5, TimeUnit.SECONDS));
+
+        client.setPoolSize(2);
+        WebSocketSession<String, Object> second = client.acquire(SERVER_URI).get(5, TimeUnit.SECONDS);
+        assertNotSame(first, second);
+        assertEquals(2, client.getSessionCount());
+
+        client.setPoolSize(1);
+        assertSame(first, client.acquire(SERVER_URI).get(5, TimeUnit.SECONDS));
+        assertSame(first, client.acquire(SERVER_URI).get(5, TimeUnit.SECONDS));
+
+        second.getContext().channel().closeFuture().await(5, TimeUnit.SECONDS);
+        assertFalse(second.getContext().channel().isActive());
+        assertTrue(first.getContext().channel().isActive());
+    }
+
+    @Test
+    public void When_BatchIsSent_Then_MessagesShouldArriveInOrder() throws Exception {
+        WebSocketSession<String, Object> session = client.connect(SERVER_URI).get(5, TimeUnit.SECONDS);
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            messages.add("message-" + i);
+        }
+
+        assertEquals(100, client.sendBatch(session, messages));
+
+        for (String message : messages) {
+            assertEquals(message, poll());
+        }
+    }
+
+    @Test
+    public void When_ClientBroadcasts_Then_EverySessionShouldSendMessage() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            client.connect(SERVER_URI).get(5, TimeUnit.SECONDS);
+        }
+
+        BroadcastResult result = client.broadcast("ping").get(5, TimeUnit.SECONDS);
+        assertEquals(3, result.getDelivered());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("ping", poll());
+        }
+    }
+
+    @Test
+    public void When_ServerClosesConnection_Then_CloseHandlerShouldBeCalled() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        client.onClose((session, reason, code) -> {
+            if (code == 1000 && "bye".equals(reason)) {
+                closed.countDown();
+            }
+        });
+        client.connect(SERVER_URI).get(5, TimeUnit.SECONDS);
+
+        for (WebSocketSession<String, Object> session : server.getConnectedSessions()) {
+            session.getContext().writeAndFlush(new CloseWebSocketFrame(1000, "bye"));
+        }
+        assertTrue(closed.await(5, TimeUnit.SECONDS), "Close handler was not called");
+    }
+
+    @Test
+    public void When_UriOrStateIsInvalid_Then_ConnectShouldFail() {
+        assertThrows(IllegalArgumentException.class, () -> client.connect(URI.create("http://127.0.0.1:8090/")));
+        assertThrows(IllegalStateException.class, () -> client.connect(URI.create("wss://127.0.0.1:8090/")));
+        assertThrows(IllegalArgumentException.class, () -> client.setPoolSize(0));
+
+        client.close();
+        assertThrows(IllegalStateException.class, () -> client.connect(SERVER_URI));
+    }
+}
@@ -1,5 +1,6 @@
 package pl.mbaracz.jwebsockets;
 
+import io.netty.channel.embedded.EmbeddedChannel;
 import org.junit.jupiter.api.*;
 import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
 import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
@@ -60,4 +61,20 @@ public class WebSocketServerTest {
                 .configure(configurer -> configurer.setMessageEncoder(PlainTextMessageEncoder.INSTANCE));
         assertThrows(IllegalStateException.class, () -> server.listen(8080), "Should throw exception");
     }
+
+    @Test
+    @Order(6)
+    public void When_SessionIsConnected_Then_ShouldBeFoundById() {
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        assertNotNull(session, "Session should be registered");
+        assertSame(session, server.getSession(session.getId()));
+        assertEquals(1, server.getSessionCount());
+
+        channel.close();
+
+        assertNull(server.getSession(session.getId()), "Session should be removed");
+        assertEquals(0, server.getSessionCount());
+    }
 }
@@ -0,0 +1,87 @@
+package pl.mbaracz.jwebsockets;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+import pl.mbaracz.jwebsockets.topic.TopicTrie;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WildcardSubscriptionTest {
+
+    private static WebSocketServer<String, Object> createServer() {
+        return new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                );
+    }
+
+    @Test
+    public void When_PatternsAreAdded_Then_OnlyMatchingPatternsShouldBeReturned() {
+        TopicTrie<String> trie = new TopicTrie<>();
+        trie.computeIfAbsent("prices.*", pattern -> pattern);
+        trie.computeIfAbsent("prices.>", pattern -> pattern);
+        trie.computeIfAbsent("prices.*.usd", pattern -> pattern);
+        trie.computeIfAbsent("orders.>", pattern -> pattern);
+
+        assertEquals(2, trie.match("prices.eur").size());
+        assertEquals(2, trie.match("prices.eur.usd").size());
+        assertEquals(1, trie.match("prices.eur.pln").size());
+        assertTrue(trie.match("prices").isEmpty(), "Multi-level wildcard should match at least one level");
+        assertTrue(trie.match("trades.eur").isEmpty());
+
+        // Removing a pattern should invalidate cached matches
+        trie.remove("prices.>");
+        List<String> matches = trie.match("prices.eur.usd");
+        assertEquals(1, matches.size());
+        assertEquals("prices.*.usd", matches.get(0));
+        assertEquals(3, trie.size());
+    }
+
+    @Test
+    public void When_PatternIsMalformed_Then_ShouldThrowException() {
+        WebSocketServer<String, Object> server = createServer();
+
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        assertThrows(IllegalArgumentException.class, () -> server.subscribe(session, "prices.>.usd"));
+        assertThrows(IllegalArgumentException.class, () -> server.subscribe(session, "prices..*"));
+        assertThrows(IllegalArgumentException.class, () -> server.publish("prices.*", "hello"));
+    }
+
+    @Test
+    public void When_SessionMatchesTopicAndPattern_Then_ShouldReceiveMessageOnce() {
+        WebSocketServer<String, Object> server = createServer();
+
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketServerHandler<>(server));
+        Util.performHandshake(channel, "/");
+        WebSocketSession<String, Object> session = server.getSessionByChannel(channel);
+
+        // Subscribe to the topic directly and via two patterns
+        server.subscribe(session, "prices.eur");
+        server.subscribe(session, "prices.*");
+        server.subscribe(session, "prices.>");
+        assertTrue(server.isSubscribed(session, "prices.*"));
+
+        server.publish("prices.eur", "1.08");
+
+        TextWebSocketFrame frame = channel.readOutbound();
+        assertEquals("1.08", frame.text());
+        assertNull(channel.readOutbound(), "Message should be delivered only once");
+
+        // Unsubscribe from patterns and publish to topic matching only the removed pattern
+        server.unsubscribe(session, "prices.*");
+        server.unsubscribe(session, "prices.>");
+        server.publish("prices.usd", "1.00");
+
+        assertNull(channel.readOutbound(), "Unsubscribed pattern should not receive messages");
+        assertEquals(1, server.getTopics().size());
+    }
+}
@@ -0,0 +1,108 @@
+package pl.mbaracz.jwebsockets.benchmark;
+
+import pl.mbaracz.jwebsockets.WebSocketClient;
+import pl.mbaracz.jwebsockets.WebSocketServer;
+import pl.mbaracz.jwebsockets.WebSocketSession;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the messages per second a {@link WebSocketClient} delivers to a local server over a pool of connections,
+ * sending every message with its own flush against {@link WebSocketClient#sendBatch} with one flush per batch.
+ * <p>
+ * Usage: {@code ClientBenchmark [connections] [messages per connection] [batch size] [port]}
+ */
+public class ClientBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 18082;
+
+        LongAdder received = new LongAdder();
+        WebSocketServer<String, Object> server = new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE))
+                .onMessage((session, message) -> received.increment())
+                .listen(port);
+
+        WebSocketClient<String, Object> client = new WebSocketClient<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE))
+                .setPoolSize(connections);
+
+        try {
+            URI uri = URI.create("ws://127.0.0.1:" + port + "/");
+            List<WebSocketSession<String, Object>> sessions = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                sessions.add(client.acquire(uri).get(5, TimeUnit.SECONDS));
+            }
+            List<String> batch = Collections.nCopies(batchSize, "{\"price\":4.02,\"symbol\":\"USD\"}");
+
+            System.out.printf("%d connections, %d messages each, batches of %d%n", connections, messages, batchSize);
+
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                runThreads(sessions, session -> {
+                    for (int i = 0; i < messages; i++) {
+                        session.sendMessage(batch.get(0));
+                    }
+                });
+                await(received, (long) connections * messages * (2L * round + 1));
+                long single = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                runThreads(sessions, session -> {
+                    for (int i = 0; i < messages; i += batchSize) {
+                        client.sendBatch(session, batch.subList(0, Math.min(batchSize, messages - i)));
+                    }
+                });
+                await(received, (long) connections * messages * (2L * round + 2));
+                long batched = System.nanoTime() - start;
+
+                double total = (double) connections * messages;
+                System.out.printf("Round %d: sendMessage %.0f msg/s, sendBatch %.0f msg/s%n",
+                        round, total / single * 1e9, total / batched * 1e9);
+            }
+        } finally {
+            client.close();
+            server.stop();
+        }
+    }
+
+    private interface SessionTask {
+        void run(WebSocketSession<String, Object> session);
+    }
+
+    /**
+     * Runs a task for every session on its own thread and waits for all of them.
+     */
+    private static void runThreads(List<WebSocketSession<String, Object>> sessions, SessionTask task)
+            throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (WebSocketSession<String, Object> session : sessions) {
+            Thread thread = new Thread(() -> task.run(session));
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static void await(LongAdder received, long expected) throws InterruptedException {
+        while (received.sum() < expected) {
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package pl.mbaracz.jwebsockets.benchmark;
+
+import pl.mbaracz.jwebsockets.message.MessageDecoder;
+import pl.mbaracz.jwebsockets.message.MessageEncoder;
+import pl.mbaracz.jwebsockets.message.impl.binary.CborMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.binary.CborMessageEncoder;
+import pl.mbaracz.jwebsockets.message.impl.binary.MessagePackMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.binary.MessagePackMessageEncoder;
+import pl.mbaracz.jwebsockets.message.impl.binary.SmileMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.binary.SmileMessageEncoder;
+import pl.mbaracz.jwebsockets.message.impl.json.JsonMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.json.JsonMessageEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the encoded size and the encode and decode time of the JSON codec with the binary codecs, on a small
+ * market tick, a chat message and a snapshot of an order book.
+ * <p>
+ * Usage: {@code CodecBenchmark [iterations]}
+ */
+public class CodecBenchmark {
+
+    public static class Tick {
+        public String symbol;
+        public double bid;
+        public double ask;
+        public long timestamp;
+    }
+
+    public static class ChatMessage {
+        public String room;
+        public String author;
+        public String text;
+        public List<String> mentions;
+        public long sentAt;
+    }
+
+    public static class Order {
+        public long id;
+        public double price;
+        public int quantity;
+        public boolean buy;
+    }
+
+    public static class OrderBook {
+        public String symbol;
+        public long sequence;
+        public List<Order> orders;
+    }
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        Tick tick = new Tick();
+        tick.symbol = "EURUSD";
+        tick.bid = 1.08423;
+        tick.ask = 1.08427;
+        tick.timestamp = 1718000000123L;
+
+        ChatMessage chat = new ChatMessage();
+        chat.room = "general";
+        chat.author = "alice";
+        chat.text = "Has anyone looked at the latency numbers from yesterday's deployment?";
+        chat.mentions = new ArrayList<>();
+        chat.mentions.add("bob");
+        chat.mentions.add("carol");
+        chat.sentAt = 1718000000456L;
+
+        OrderBook book = new OrderBook();
+        book.symbol = "BTCUSD";
+        book.sequence = 987654321L;
+        book.orders = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Order order = new Order();
+            order.id = 1_000_000L + i;
+            order.price = 67000.5 + i * 0.5;
+            order.quantity = 1 + i % 7;
+            order.buy = i % 2 == 0;
+            book.orders.add(order);
+        }
+
+        for (int round = 0; round < 2; round++) {
+            System.out.printf("Round %d%n", round);
+            run("tick", tick, Tick.class, iterations);
+            run("chat", chat, ChatMessage.class, iterations);
+            run("order book", book, OrderBook.class, iterations / 20);
+        }
+    }
+
+    private static <T> void run(String payload, T message, Class<T> clazz, int iterations) {
+        System.out.printf("  %s%n", payload);
+        measure("JSON", new JsonMessageEncoder<>(), new JsonMessageDecoder<>(clazz), message, iterations);
+        measure("Smile", new SmileMessageEncoder<>(), new SmileMessageDecoder<>(clazz), message, iterations);
+        measure("CBOR", new CborMessageEncoder<>(), new CborMessageDecoder<>(clazz), message, iterations);
+        measure("MessagePack", new MessagePackMessageEncoder<>(), new MessagePackMessageDecoder<>(clazz), message, iterations);
+    }
+
+    private static <T> void measure(String codec, MessageEncoder<T> encoder, MessageDecoder<T> decoder,
+                                    T message, int iterations) {
+        byte[] encoded = encoder.encode(message);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += encoder.encode(message).length;
+        }
+        long encode = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += decoder.decode(encoded).hashCode();
+        }
+        long decode = System.nanoTime() - start;
+
+        System.out.printf("    %-12s %6d bytes, encode %8.1f ns/op, decode %8.1f ns/op%n",
+                codec, encoded.length, (double) encode / iterations, (double) decode / iterations);
+    }
+}
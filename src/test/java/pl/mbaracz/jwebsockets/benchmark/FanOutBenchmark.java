@@ -0,0 +1,151 @@
+package pl.mbaracz.jwebsockets.benchmark;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import pl.mbaracz.jwebsockets.WebSocketServer;
+import pl.mbaracz.jwebsockets.WebSocketSession;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Compares the legacy fan-out, writing to every session from the publishing thread, with the event-loop-affine
+ * fan-out of {@link WebSocketServer#publish}, which submits a single task per event loop.
+ * <p>
+ * Usage: {@code FanOutBenchmark [subscribers] [messages] [port]}
+ */
+public class FanOutBenchmark {
+
+    private static final String TOPIC = "benchmark";
+
+    public static void main(String[] args) throws Exception {
+        int subscribers = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 18080;
+
+        WebSocketServer<String, Object> server = new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                )
+                .listen(port);
+
+        EventLoopGroup clientGroup = new NioEventLoopGroup();
+        AtomicReference<CountDownLatch> received = new AtomicReference<>(new CountDownLatch(0));
+
+        try {
+            List<Channel> clients = connect(server, clientGroup, port, subscribers, received);
+
+            for (WebSocketSession<String, Object> session : server.getConnectedSessions()) {
+                server.subscribe(session, TOPIC);
+            }
+
+            Set<Object> executors = ConcurrentHashMap.newKeySet();
+            server.getConnectedSessions().forEach(session -> executors.add(session.getContext().executor()));
+
+            System.out.printf("%d subscribers on %d event loops, %d messages%n", subscribers, executors.size(), messages);
+
+            for (int round = 0; round < 3; round++) {
+                long legacy = measure(received, subscribers, messages, message -> {
+                    for (WebSocketSession<String, Object> session : server.getConnectedSessions()) {
+                        session.sendMessage(message);
+                    }
+                });
+                long affine = measure(received, subscribers, messages, message -> server.publish(TOPIC, message));
+
+                System.out.printf("Round %d: legacy %.2f us/message, event loop affine %.2f us/message%n",
+                        round, legacy / 1000.0 / messages, affine / 1000.0 / messages);
+            }
+
+            clients.forEach(Channel::close);
+        } finally {
+            clientGroup.shutdownGracefully();
+            server.stop();
+        }
+    }
+
+    private static List<Channel> connect(WebSocketServer<String, Object> server, EventLoopGroup group, int port, int count,
+                                         AtomicReference<CountDownLatch> received) throws Exception {
+        URI uri = new URI("ws://localhost:" + port + "/");
+        CountDownLatch handshakes = new CountDownLatch(count);
+        List<Channel> channels = new ArrayList<>(count);
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        channel.pipeline()
+                                .addLast(new HttpClientCodec())
+                                .addLast(new HttpObjectAggregator(65536))
+                                .addLast(new WebSocketClientProtocolHandler(uri, WebSocketVersion.V13, null, false, null, 65536))
+                                .addLast(new SimpleChannelInboundHandler<TextWebSocketFrame>() {
+                                    @Override
+                                    public void userEventTriggered(ChannelHandlerContext context, Object event) {
+                                        if (event == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+                                            handshakes.countDown();
+                                        }
+                                        context.fireUserEventTriggered(event);
+                                    }
+
+                                    @Override
+                                    protected void channelRead0(ChannelHandlerContext context, TextWebSocketFrame frame) {
+                                        received.get().countDown();
+                                    }
+                                });
+                    }
+                });
+
+        for (int i = 0; i < count; i++) {
+            channels.add(bootstrap.connect("localhost", port).sync().channel());
+        }
+        if (!handshakes.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Clients did not complete the handshake!");
+        }
+        // Sessions are registered after the server handler completes the upgrade
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (server.getSessionCount() < count) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Sessions were not registered in time!");
+            }
+            Thread.yield();
+        }
+        return channels;
+    }
+
+    private static long measure(AtomicReference<CountDownLatch> received, int subscribers, int messages,
+                                Consumer<String> fanOut) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(subscribers * messages);
+        received.set(latch);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            fanOut.accept("message-" + i);
+        }
+        if (!latch.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Not all messages were received!");
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,72 @@
+package pl.mbaracz.jwebsockets.benchmark;
+
+import pl.mbaracz.jwebsockets.message.MessageDecoder;
+import pl.mbaracz.jwebsockets.message.MessageEncoder;
+import pl.mbaracz.jwebsockets.message.codegen.GenerateCodec;
+import pl.mbaracz.jwebsockets.message.impl.binary.SmileMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.binary.SmileMessageEncoder;
+import pl.mbaracz.jwebsockets.message.impl.json.JsonMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.json.JsonMessageEncoder;
+
+/**
+ * Compares the codecs generated for {@link GenerateCodec} classes with the databind-based JSON and Smile codecs,
+ * on a small fixed-shape message.
+ * <p>
+ * Usage: {@code GeneratedCodecBenchmark [iterations]}
+ */
+public class GeneratedCodecBenchmark {
+
+    @GenerateCodec(binary = true)
+    public static class Quote {
+        public String symbol;
+        public double bid;
+        public double ask;
+        public int bidSize;
+        public int askSize;
+        public long timestamp;
+    }
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        Quote quote = new Quote();
+        quote.symbol = "EURUSD";
+        quote.bid = 1.08423;
+        quote.ask = 1.08427;
+        quote.bidSize = 1_000_000;
+        quote.askSize = 2_500_000;
+        quote.timestamp = 1718000000123L;
+
+        for (int round = 0; round < 3; round++) {
+            System.out.printf("Round %d%n", round);
+            measure("JSON databind", new JsonMessageEncoder<>(), new JsonMessageDecoder<>(Quote.class), quote, iterations);
+            measure("JSON generated", GeneratedCodecBenchmark_QuoteCodec.JSON_ENCODER,
+                    GeneratedCodecBenchmark_QuoteCodec.JSON_DECODER, quote, iterations);
+            measure("Smile databind", new SmileMessageEncoder<>(), new SmileMessageDecoder<>(Quote.class), quote, iterations);
+            measure("Binary generated", GeneratedCodecBenchmark_QuoteCodec.BINARY_ENCODER,
+                    GeneratedCodecBenchmark_QuoteCodec.BINARY_DECODER, quote, iterations);
+        }
+    }
+
+    private static void measure(String codec, MessageEncoder<Quote> encoder, MessageDecoder<Quote> decoder,
+                                Quote message, int iterations) {
+        byte[] encoded = encoder.encode(message);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += encoder.encode(message).length;
+        }
+        long encode = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += decoder.decode(encoded).bidSize;
+        }
+        long decode = System.nanoTime() - start;
+
+        System.out.printf("  %-16s %4d bytes, encode %7.1f ns/op, decode %7.1f ns/op%n",
+                codec, encoded.length, (double) encode / iterations, (double) decode / iterations);
+    }
+}
@@ -0,0 +1,70 @@
+package pl.mbaracz.jwebsockets.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import pl.mbaracz.jwebsockets.WebSocketServer;
+import pl.mbaracz.jwebsockets.WebSocketServerChannelInitializer;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures handshakes per second on a single thread, comparing the HTTP codec and aggregator with the lightweight
+ * handshake decoder. Channels are embedded, so the result excludes the network and reflects the cost per core.
+ * <p>
+ * Usage: {@code HandshakeBenchmark [handshakes]}
+ */
+public class HandshakeBenchmark {
+
+    private static final byte[] UPGRADE_REQUEST = ("GET / HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Origin: http://localhost:8080\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0 Safari/537.36\r\n" +
+            "Accept-Encoding: gzip, deflate, br\r\n" +
+            "Accept-Language: en-US,en;q=0.9\r\n" +
+            "Cache-Control: no-cache\r\n" +
+            "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+            "Sec-WebSocket-Version: 13\r\n" +
+            "Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n" +
+            "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) {
+        int handshakes = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        for (int round = 0; round < 3; round++) {
+            double aggregated = run(false, handshakes);
+            double lightweight = run(true, handshakes);
+
+            System.out.printf("Round %d: HTTP codec %,.0f handshakes/s, lightweight %,.0f handshakes/s%n",
+                    round, aggregated, lightweight);
+        }
+    }
+
+    private static double run(boolean lightweight, int handshakes) {
+        WebSocketServer<String, Object> server = new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                        .setLightweightHandshake(lightweight)
+                );
+        WebSocketServerChannelInitializer<String, Object> initializer = new WebSocketServerChannelInitializer<>(server);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < handshakes; i++) {
+            EmbeddedChannel channel = new EmbeddedChannel(initializer);
+            channel.writeInbound(Unpooled.wrappedBuffer(UPGRADE_REQUEST));
+
+            ByteBuf response = channel.readOutbound();
+            if (response.getByte(9) != '1') {
+                throw new IllegalStateException("Handshake failed!");
+            }
+            response.release();
+            channel.finishAndReleaseAll();
+        }
+        return handshakes / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,73 @@
+package pl.mbaracz.jwebsockets.benchmark;
+
+import pl.mbaracz.jwebsockets.cluster.BloomFilter;
+import pl.mbaracz.jwebsockets.cluster.CountingBloomFilter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compares announcing the topics of a node to its peers as an exact set against a {@link CountingBloomFilter}: the
+ * bytes sent to a newly connected peer, the cost of checking a published topic on the peer, and the measured false
+ * positive rate of the filter.
+ * <p>
+ * Usage: {@code InterestFilterBenchmark [topics] [falsePositiveRate]}
+ */
+public class InterestFilterBenchmark {
+
+    private static volatile int sink;
+
+    public static void main(String[] args) {
+        int topics = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        double falsePositiveRate = args.length > 1 ? Double.parseDouble(args[1]) : 0.01;
+
+        Set<String> exact = new HashSet<>();
+        long exactBytes = 0;
+        int size = BloomFilter.optimalSize(topics, falsePositiveRate);
+        CountingBloomFilter filter = new CountingBloomFilter(size, BloomFilter.optimalHashes(size, topics));
+
+        for (int i = 0; i < topics; i++) {
+            String topic = "tenant-" + (i % 1000) + ".orders." + i;
+            exact.add(topic);
+            filter.add(topic);
+            // Type, length prefix and the topic
+            exactBytes += 5 + topic.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        BloomFilter snapshot = filter.getFilter();
+        System.out.printf("%d topics: exact interest %.1f MB, filter snapshot %.1f MB (%d bits, %d hashes), "
+                        + "estimated false positive rate %.4f%n", topics, exactBytes / 1e6,
+                snapshot.getMemoryUsage() / 1e6, snapshot.size(), snapshot.hashes(), filter.getFalsePositiveRate());
+
+        String[] probes = new String[100_000];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = "tenant-" + (i % 1000) + ".quotes." + i;
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int found = 0;
+            for (String probe : probes) {
+                if (exact.contains(probe)) {
+                    found++;
+                }
+            }
+            long exactTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int falsePositives = 0;
+            for (String probe : probes) {
+                if (snapshot.mightContain(probe)) {
+                    falsePositives++;
+                }
+            }
+            long filterTime = System.nanoTime() - start;
+            sink += found;
+
+            System.out.printf("Round %d: exact lookup %.1f ns, filter lookup %.1f ns, measured false positive rate %.4f%n",
+                    round, (double) exactTime / probes.length, (double) filterTime / probes.length,
+                    (double) falsePositives / probes.length);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package pl.mbaracz.jwebsockets.benchmark;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import pl.mbaracz.jwebsockets.MessageRouter;
+import pl.mbaracz.jwebsockets.message.Discriminator;
+import pl.mbaracz.jwebsockets.message.impl.json.JsonMessageDecoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the handling of a stream of JSON messages where only chat messages are handled and position updates are
+ * forwarded undecoded: decoding every message and switching on its type field, as with a single message handler,
+ * against peeking the type as {@link MessageRouter} does and decoding the chat messages only.
+ * <p>
+ * Usage: {@code MessageRouterBenchmark [iterations]}
+ */
+public class MessageRouterBenchmark {
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Envelope {
+        public String type;
+        public String room;
+        public String text;
+        public Map<String, Object> position;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Chat {
+        public String room;
+        public String text;
+    }
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        List<ByteBuf> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            String json = i < 8
+                    ? "{\"type\":\"position\",\"position\":{\"x\":" + i + ".5,\"y\":-3.25,\"z\":12.0,\"heading\":270}}"
+                    : "{\"type\":\"chat\",\"room\":\"general\",\"text\":\"Message number " + i + "\"}";
+            messages.add(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8));
+        }
+
+        JsonMessageDecoder<Envelope> envelopeDecoder = new JsonMessageDecoder<>(Envelope.class);
+        JsonMessageDecoder<Chat> chatDecoder = new JsonMessageDecoder<>(Chat.class);
+        Discriminator discriminator = Discriminator.jsonField("type");
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                ByteBuf payload = messages.get(i % messages.size());
+                Envelope envelope = envelopeDecoder.decode(ByteBufUtil.getBytes(payload));
+
+                switch (envelope.type) {
+                    case "chat":
+                        sink += envelope.text.length();
+                        break;
+                    default:
+                        sink += payload.readableBytes();
+                }
+            }
+            long decodeAll = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                ByteBuf payload = messages.get(i % messages.size());
+
+                if ("chat".equals(discriminator.extract(payload))) {
+                    sink += chatDecoder.decode(ByteBufUtil.getBytes(payload)).text.length();
+                } else {
+                    sink += payload.readableBytes();
+                }
+            }
+            long routed = System.nanoTime() - start;
+
+            System.out.printf("Round %d: decode and switch %.1f ns/message, peek and route %.1f ns/message%n",
+                    round, (double) decodeAll / iterations, (double) routed / iterations);
+        }
+    }
+}
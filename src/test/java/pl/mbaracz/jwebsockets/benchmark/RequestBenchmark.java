@@ -0,0 +1,200 @@
+package pl.mbaracz.jwebsockets.benchmark;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import pl.mbaracz.jwebsockets.WebSocketServer;
+import pl.mbaracz.jwebsockets.WebSocketSession;
+import pl.mbaracz.jwebsockets.message.Correlation;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Compares the round trips per second of {@link WebSocketSession#request} with a hand-written request/reply on top of
+ * {@code sendMessage}, using a {@link ConcurrentHashMap} of pending futures and a scheduled timeout per request.
+ * Clients echo every message, and each session keeps a fixed number of requests in flight.
+ * <p>
+ * Usage: {@code RequestBenchmark [clients] [requests per client] [in flight per client] [port]}
+ */
+public class RequestBenchmark {
+
+    private static final Correlation<String> CORRELATION = new Correlation<String>() {
+        @Override
+        public String setCorrelationId(String request, long id) {
+            return id + "|" + request;
+        }
+
+        @Override
+        public long getCorrelationId(String message) {
+            int separator = message.indexOf('|');
+            return separator > 0 ? Long.parseLong(message.substring(0, separator)) : UNCORRELATED;
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        int inFlight = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 18081;
+
+        Map<Long, CompletableFuture<String>> handWritten = new ConcurrentHashMap<>();
+        AtomicLong handWrittenIds = new AtomicLong(1_000_000_000L);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        WebSocketServer<String, Object> server = new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE)
+                        .setCorrelation(CORRELATION)
+                )
+                .onMessage((session, message) -> {
+                    CompletableFuture<String> future = handWritten.remove(CORRELATION.getCorrelationId(message));
+                    if (future != null) {
+                        future.complete(message);
+                    }
+                })
+                .listen(port);
+
+        EventLoopGroup clientGroup = new NioEventLoopGroup();
+
+        try {
+            List<Channel> channels = connect(clientGroup, port, clients);
+
+            System.out.printf("%d clients, %d requests each, %d in flight per client%n", clients, requests, inFlight);
+
+            for (int round = 0; round < 3; round++) {
+                double legacy = measure(server, requests, inFlight, (session, body) -> {
+                    long id = handWrittenIds.incrementAndGet();
+                    CompletableFuture<String> future = new CompletableFuture<>();
+                    handWritten.put(id, future);
+
+                    ScheduledFuture<?> timeout = scheduler.schedule(() -> {
+                        if (handWritten.remove(id) != null) {
+                            future.completeExceptionally(new TimeoutException());
+                        }
+                    }, 30, TimeUnit.SECONDS);
+                    future.whenComplete((response, error) -> timeout.cancel(false));
+
+                    session.sendMessage(CORRELATION.setCorrelationId(body, id));
+                    return future;
+                });
+                double builtIn = measure(server, requests, inFlight, WebSocketSession::request);
+
+                System.out.printf("Round %d: hand-written %.0f round trips/s, request() %.0f round trips/s%n",
+                        round, legacy, builtIn);
+            }
+
+            channels.forEach(Channel::close);
+        } finally {
+            clientGroup.shutdownGracefully();
+            scheduler.shutdownNow();
+            server.stop();
+        }
+    }
+
+    private static double measure(WebSocketServer<String, Object> server, int requests, int inFlight,
+                                  BiFunction<WebSocketSession<String, Object>, String, CompletableFuture<String>> request)
+            throws InterruptedException {
+        Collection<WebSocketSession<String, Object>> sessions = server.getConnectedSessions();
+        CountDownLatch completed = new CountDownLatch(sessions.size() * requests);
+
+        long start = System.nanoTime();
+        for (WebSocketSession<String, Object> session : sessions) {
+            AtomicLong remaining = new AtomicLong(requests);
+
+            for (int i = 0; i < inFlight; i++) {
+                sendNext(session, remaining, completed, request);
+            }
+        }
+        if (!completed.await(120, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Not all requests were completed!");
+        }
+        long elapsed = System.nanoTime() - start;
+
+        return sessions.size() * (double) requests / elapsed * TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static void sendNext(WebSocketSession<String, Object> session, AtomicLong remaining, CountDownLatch completed,
+                                 BiFunction<WebSocketSession<String, Object>, String, CompletableFuture<String>> request) {
+        if (remaining.getAndDecrement() <= 0) {
+            return;
+        }
+        request.apply(session, "ping").whenComplete((response, error) -> {
+            if (error != null) {
+                error.printStackTrace();
+            }
+            completed.countDown();
+            sendNext(session, remaining, completed, request);
+        });
+    }
+
+    private static List<Channel> connect(EventLoopGroup group, int port, int count) throws Exception {
+        URI uri = new URI("ws://localhost:" + port + "/");
+        CountDownLatch handshakes = new CountDownLatch(count);
+        List<Channel> channels = new ArrayList<>(count);
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        channel.pipeline()
+                                .addLast(new HttpClientCodec())
+                                .addLast(new HttpObjectAggregator(65536))
+                                .addLast(new WebSocketClientProtocolHandler(uri, WebSocketVersion.V13, null, false, null, 65536))
+                                .addLast(new SimpleChannelInboundHandler<TextWebSocketFrame>() {
+                                    @Override
+                                    public void userEventTriggered(ChannelHandlerContext context, Object event) {
+                                        if (event == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+                                            handshakes.countDown();
+                                        }
+                                        context.fireUserEventTriggered(event);
+                                    }
+
+                                    @Override
+                                    protected void channelRead0(ChannelHandlerContext context, TextWebSocketFrame frame) {
+                                        // Echo the request back as its response
+                                        context.writeAndFlush(new TextWebSocketFrame(frame.text()));
+                                    }
+                                });
+                    }
+                });
+
+        for (int i = 0; i < count; i++) {
+            channels.add(bootstrap.connect("localhost", port).sync().channel());
+        }
+        if (!handshakes.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Clients did not complete the handshake!");
+        }
+        // Sessions are registered after the server handler completes the upgrade
+        Thread.sleep(500);
+        return channels;
+    }
+}
@@ -0,0 +1,116 @@
+package pl.mbaracz.jwebsockets.benchmark;
+
+import pl.mbaracz.jwebsockets.WebSocketClient;
+import pl.mbaracz.jwebsockets.WebSocketServer;
+import pl.mbaracz.jwebsockets.WebSocketSession;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.plain.PlainTextMessageEncoder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the cost of the single sequence shared by all topics while session resumption is enabled. Every publisher
+ * thread publishes to its own topic, so without resumption the publishers do not contend at all, while with
+ * resumption they serialize on the sequence lock for resolving the subscribers, numbering and queueing a message.
+ * The contention only shows with at least as many cores as publishers, on a single core the threads take turns anyway.
+ * <p>
+ * Usage: {@code ResumptionBenchmark [publishers] [messages per publisher] [subscribers per topic] [port]}
+ */
+public class ResumptionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int publishers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int subscribers = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 18083;
+
+        System.out.printf("%d publishers, %d messages each, %d subscribers per topic%n", publishers, messages, subscribers);
+
+        for (int round = 0; round < 3; round++) {
+            // Every server listens on its own port, so that a stopped server does not hold it
+            double plain = run(false, publishers, messages, subscribers, port + 2 * round);
+            double resumable = run(true, publishers, messages, subscribers, port + 2 * round + 1);
+
+            System.out.printf("Round %d: without resumption %.0f msg/s, with resumption %.0f msg/s%n",
+                    round, plain, resumable);
+        }
+    }
+
+    /**
+     * Publishes from all publisher threads and waits until every subscriber received every message.
+     *
+     * @return the published messages per second.
+     */
+    private static double run(boolean resumption, int publishers, int messages, int subscribers, int port)
+            throws Exception {
+        LongAdder received = new LongAdder();
+        WebSocketServer<String, Object> server = new WebSocketServer<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE))
+                .configure(configurer -> {
+                    if (resumption) {
+                        configurer.setSessionResumption(1, TimeUnit.MINUTES, 64);
+                    }
+                })
+                .listen(port);
+
+        WebSocketClient<String, Object> client = new WebSocketClient<String, Object>()
+                .configure(configurer -> configurer
+                        .setMessageDecoder(PlainTextMessageDecoder.INSTANCE)
+                        .setMessageEncoder(PlainTextMessageEncoder.INSTANCE))
+                .onMessage((session, message) -> received.increment());
+
+        try {
+            URI uri = URI.create("ws://127.0.0.1:" + port + "/");
+            for (int i = 0; i < publishers * subscribers; i++) {
+                client.connect(uri).get(5, TimeUnit.SECONDS);
+            }
+            awaitSessions(server, publishers * subscribers);
+
+            int index = 0;
+            for (WebSocketSession<String, Object> session : server.getConnectedSessions()) {
+                server.subscribe(session, "topic-" + index++ % publishers);
+            }
+
+            List<Thread> threads = new ArrayList<>();
+            for (int p = 0; p < publishers; p++) {
+                String topic = "topic-" + p;
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < messages; i++) {
+                        server.publish(topic, "{\"price\":4.02,\"symbol\":\"USD\"}");
+                    }
+                }));
+            }
+
+            long start = System.nanoTime();
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long expected = (long) publishers * messages * subscribers;
+            while (received.sum() < expected) {
+                Thread.sleep(1);
+            }
+            return (double) publishers * messages / (System.nanoTime() - start) * 1e9;
+        } finally {
+            client.close();
+            server.stop();
+        }
+    }
+
+    private static void awaitSessions(WebSocketServer<String, Object> server, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (server.getSessionCount() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Sessions were not opened in time!");
+            }
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package pl.mbaracz.jwebsockets.benchmark;
+
+import io.netty.channel.ChannelId;
+import io.netty.channel.DefaultChannelId;
+import pl.mbaracz.jwebsockets.index.ConcurrentLongObjectMap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * Compares the heap used by the previous session registry, a {@link ConcurrentHashMap} keyed by {@link ChannelId},
+ * with the {@link ConcurrentLongObjectMap} keyed by session ids. Sessions are synthetic, so only the registries are
+ * measured. Every channel owns its {@link ChannelId} regardless of the registry, so the ids are allocated before
+ * measuring and only the map is charged to either registry. Run with a large heap, e.g. {@code -Xmx4g}.
+ * <p>
+ * Usage: {@code SessionRegistryBenchmark [sessions...]}
+ */
+public class SessionRegistryBenchmark {
+
+    private static final Object SESSION = new Object();
+
+    public static void main(String[] args) {
+        int[] counts = args.length > 0 ? new int[args.length] : new int[]{100_000, 1_000_000};
+
+        for (int i = 0; i < args.length; i++) {
+            counts[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int count : counts) {
+            ChannelId[] ids = new ChannelId[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = DefaultChannelId.newInstance();
+            }
+
+            long channelIds = measure(count, size -> {
+                Map<ChannelId, Object> sessions = new ConcurrentHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    sessions.put(ids[i], SESSION);
+                }
+                return sessions;
+            });
+            long sessionIds = measure(count, size -> {
+                ConcurrentLongObjectMap<Object> sessions = new ConcurrentLongObjectMap<>();
+                for (int i = 0; i < size; i++) {
+                    sessions.put(i + 1, SESSION);
+                }
+                return sessions;
+            });
+
+            System.out.printf("%,d sessions: ChannelId map %,d bytes (%d per session), long id map %,d bytes (%d per session)%n",
+                    count, channelIds, channelIds / count, sessionIds, sessionIds / count);
+
+            // Keeps the channel ids reachable while both registries are measured
+            if (ids[count - 1].hashCode() == System.nanoTime()) {
+                System.out.println(ids[0]);
+            }
+        }
+    }
+
+    private static long measure(int count, IntFunction<Object> factory) {
+        long before = usedMemory();
+        Object registry = factory.apply(count);
+        long after = usedMemory();
+
+        // Keeps the registry reachable until it has been measured
+        if (registry.hashCode() == System.nanoTime()) {
+            System.out.println(registry);
+        }
+        return after - before;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,76 @@
+package pl.mbaracz.jwebsockets.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import pl.mbaracz.jwebsockets.topic.TopicLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Measures the latency of appending to a {@link TopicLog}, which copies the message into a memory-mapped segment and
+ * writes it to the disk in groups, against writing every message to a file and forcing it to the disk.
+ * <p>
+ * Usage: {@code TopicLogBenchmark [messages] [messageSize]}
+ */
+public class TopicLogBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int messageSize = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int forcedMessages = Math.min(messages, 2_000);
+
+        byte[] bytes = new byte[messageSize];
+        Arrays.fill(bytes, (byte) 'x');
+        ByteBuf payload = Unpooled.wrappedBuffer(bytes);
+        Path directory = Files.createTempDirectory("topic-log-benchmark");
+
+        try {
+            for (int round = 0; round < 3; round++) {
+                long mapped = measureTopicLog(directory.resolve("log-" + round), payload, messages);
+                long forced = measureForcedWrites(directory.resolve("forced-" + round), payload, forcedMessages);
+
+                System.out.printf("Round %d: topic log %.2f us/message, write with fsync %.2f us/message%n",
+                        round, mapped / 1000.0 / messages, forced / 1000.0 / forcedMessages);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static long measureTopicLog(Path directory, ByteBuf payload, int messages) throws IOException {
+        try (TopicLog log = new TopicLog(directory, 64 * 1024 * 1024, Long.MAX_VALUE, Long.MAX_VALUE)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                log.append(payload, System.currentTimeMillis());
+            }
+            return System.nanoTime() - start;
+        }
+    }
+
+    private static long measureForcedWrites(Path file, ByteBuf payload, int messages) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = payload.nioBuffer();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                buffer.rewind();
+                channel.write(buffer);
+                channel.force(false);
+            }
+            return System.nanoTime() - start;
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted((first, second) -> second.compareTo(first)).forEach(path -> path.toFile().delete());
+        }
+    }
+}
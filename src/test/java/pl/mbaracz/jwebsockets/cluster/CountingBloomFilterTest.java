@@ -0,0 +1,86 @@
+package pl.mbaracz.jwebsockets.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CountingBloomFilterTest {
+
+    private static CountingBloomFilter createFilter(int expectedTopics, double falsePositiveRate) {
+        int size = BloomFilter.optimalSize(expectedTopics, falsePositiveRate);
+        return new CountingBloomFilter(size, BloomFilter.optimalHashes(size, expectedTopics));
+    }
+
+    @Test
+    public void When_TopicsAreAdded_Then_FalsePositiveRateShouldMatchTarget() {
+        CountingBloomFilter filter = createFilter(10_000, 0.01);
+
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("topic-" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("topic-" + i), "False negative for topic-" + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("other-" + i)) {
+                falsePositives++;
+            }
+        }
+        double measured = falsePositives / 100_000.0;
+
+        assertTrue(measured < 0.02, "Measured false positive rate " + measured);
+        assertEquals(measured, filter.getFalsePositiveRate(), 0.005);
+    }
+
+    @Test
+    public void When_TopicIsAddedAndRemoved_Then_OnlyChangedPositionsShouldBeReported() {
+        CountingBloomFilter filter = createFilter(100, 0.01);
+
+        int[] set = filter.add("news");
+        assertTrue(set.length > 0);
+        assertEquals(0, filter.add("news").length, "Counters were already non-zero");
+
+        assertEquals(0, filter.remove("news").length, "Counters are still non-zero");
+        assertTrue(filter.mightContain("news"));
+
+        int[] cleared = filter.remove("news");
+        Arrays.sort(set);
+        Arrays.sort(cleared);
+        assertArrayEquals(set, cleared);
+        assertFalse(filter.mightContain("news"));
+    }
+
+    @Test
+    public void When_DeltasAreApplied_Then_RemoteFilterShouldMatchLocalFilter() {
+        CountingBloomFilter local = createFilter(1000, 0.01);
+        BloomFilter remote = new BloomFilter(local.getFilter().size(), local.getFilter().hashes());
+
+        for (int i = 0; i < 500; i++) {
+            for (int position : local.add("topic-" + i)) {
+                remote.set(position);
+            }
+        }
+        for (int i = 0; i < 250; i++) {
+            for (int position : local.remove("topic-" + i)) {
+                remote.clear(position);
+            }
+        }
+
+        for (int i = 0; i < remote.wordCount(); i++) {
+            assertEquals(local.getFilter().word(i), remote.word(i));
+        }
+        for (int i = 250; i < 500; i++) {
+            assertTrue(remote.mightContain("topic-" + i));
+        }
+    }
+
+    @Test
+    public void When_ParametersAreInvalid_Then_FilterShouldBeRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(0, 3));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(64, 0));
+    }
+}
@@ -0,0 +1,98 @@
+package pl.mbaracz.jwebsockets.message;
+
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.configuration.WebSocketServerConfiguration;
+import pl.mbaracz.jwebsockets.message.impl.binary.CborMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.binary.CborMessageEncoder;
+import pl.mbaracz.jwebsockets.message.impl.binary.MessagePackMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.binary.MessagePackMessageEncoder;
+import pl.mbaracz.jwebsockets.message.impl.binary.SmileMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.binary.SmileMessageEncoder;
+import pl.mbaracz.jwebsockets.message.impl.json.JsonMessageDecoder;
+import pl.mbaracz.jwebsockets.message.impl.json.JsonMessageEncoder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryMessageCodecTest {
+
+    public static class TestMessage {
+        public String text;
+        public int number;
+        public List<Double> values;
+
+        public TestMessage() {}
+
+        public TestMessage(String text, int number, List<Double> values) {
+            this.text = text;
+            this.number = number;
+            this.values = values;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            TestMessage that = (TestMessage) o;
+            return number == that.number && Objects.equals(text, that.text) && Objects.equals(values, that.values);
+        }
+    }
+
+    private final TestMessage message = new TestMessage("hello", 123, Arrays.asList(1.5, -2.25));
+
+    @Test
+    public void When_MessageIsEncodedWithSmile_Then_ItCanBeDecodedToOriginalMessage() {
+        byte[] encoded = new SmileMessageEncoder<TestMessage>().encode(message);
+
+        assertEquals(message, new SmileMessageDecoder<>(TestMessage.class).decode(encoded));
+    }
+
+    @Test
+    public void When_MessageIsEncodedWithCbor_Then_ItCanBeDecodedToOriginalMessage() {
+        byte[] encoded = new CborMessageEncoder<TestMessage>().encode(message);
+
+        assertEquals(message, new CborMessageDecoder<>(TestMessage.class).decode(encoded));
+    }
+
+    @Test
+    public void When_MessageIsEncodedWithMessagePack_Then_ItCanBeDecodedToOriginalMessage() {
+        byte[] encoded = new MessagePackMessageEncoder<TestMessage>().encode(message);
+
+        assertEquals(message, new MessagePackMessageDecoder<>(TestMessage.class).decode(encoded));
+    }
+
+    @Test
+    public void When_MessageIsEncodedWithBinaryFormat_Then_ItShouldBeSmallerThanJson() {
+        int json = new JsonMessageEncoder<TestMessage>().encode(message).length;
+
+        assertTrue(new CborMessageEncoder<TestMessage>().encode(message).length < json);
+        assertTrue(new MessagePackMessageEncoder<TestMessage>().encode(message).length < json);
+    }
+
+    @Test
+    public void When_DecodingMalformedData_Then_RuntimeExceptionIsThrown() {
+        CborMessageDecoder<TestMessage> decoder = new CborMessageDecoder<>(TestMessage.class);
+
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> decoder.decode(new byte[]{(byte) 0xff, 0x01}));
+        assertTrue(exception.getMessage().contains("Failed to decode message from CBOR"));
+    }
+
+    @Test
+    public void When_BinaryEncoderIsConfigured_Then_DefaultCodecShouldUseBinaryFrames() {
+        WebSocketServerConfiguration<TestMessage> configuration = new WebSocketServerConfiguration<TestMessage>()
+                .setMessageEncoder(new JsonMessageEncoder<>())
+                .setMessageDecoder(new JsonMessageDecoder<>(TestMessage.class));
+
+        assertFalse(configuration.getDefaultCodec().isBinary());
+
+        configuration.setMessageEncoder(new SmileMessageEncoder<>())
+                .setMessageDecoder(new SmileMessageDecoder<>(TestMessage.class))
+                .addSubprotocol("msgpack", new MessagePackMessageEncoder<>(), new MessagePackMessageDecoder<>(TestMessage.class));
+
+        assertTrue(configuration.getDefaultCodec().isBinary());
+        assertTrue(configuration.getSubprotocols().get("msgpack").isBinary());
+    }
+}
@@ -0,0 +1,184 @@
+package pl.mbaracz.jwebsockets.message;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.junit.jupiter.api.Test;
+import pl.mbaracz.jwebsockets.message.codegen.CompactBinaryFactory;
+import pl.mbaracz.jwebsockets.message.codegen.GenerateCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GeneratedCodecTest {
+
+    public enum Side {
+        BUY, SELL
+    }
+
+    @GenerateCodec(binary = true)
+    public static class Order {
+        public long id;
+        public double price;
+        public Side side;
+        public Integer quantity;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Order that = (Order) o;
+            return id == that.id && price == that.price && side == that.side && Objects.equals(quantity, that.quantity);
+        }
+    }
+
+    @GenerateCodec(binary = true)
+    public static class OrderBook {
+        public String symbol;
+        public boolean snapshot;
+        public List<Order> orders;
+        public List<List<String>> tags;
+        private int sequence;
+
+        public int getSequence() {
+            return sequence;
+        }
+
+        public void setSequence(int sequence) {
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            OrderBook that = (OrderBook) o;
+            return snapshot == that.snapshot && sequence == that.sequence && Objects.equals(symbol, that.symbol)
+                    && Objects.equals(orders, that.orders) && Objects.equals(tags, that.tags);
+        }
+    }
+
+    private static OrderBook createOrderBook() {
+        Order buy = new Order();
+        buy.id = 1;
+        buy.price = 100.25;
+        buy.side = Side.BUY;
+        buy.quantity = 5;
+
+        Order sell = new Order();
+        sell.id = 2;
+        sell.price = 101.5;
+        sell.side = Side.SELL;
+
+        OrderBook book = new OrderBook();
+        book.symbol = "ACME";
+        book.snapshot = true;
+        book.orders = Arrays.asList(buy, sell, null);
+        book.tags = Arrays.asList(Collections.singletonList("a"), Arrays.asList("b", null));
+        book.setSequence(42);
+        return book;
+    }
+
+    @Test
+    public void When_MessageIsEncodedWithGeneratedJsonCodec_Then_ItCanBeDecodedToOriginalMessage() {
+        OrderBook book = createOrderBook();
+
+        byte[] encoded = GeneratedCodecTest_OrderBookCodec.JSON_ENCODER.encode(book);
+
+        assertFalse(GeneratedCodecTest_OrderBookCodec.JSON_ENCODER.isBinary());
+        assertEquals(book, GeneratedCodecTest_OrderBookCodec.JSON_DECODER.decode(encoded));
+    }
+
+    @Test
+    public void When_MessageIsEncodedWithGeneratedJsonCodec_Then_ItShouldBeCompatibleWithDatabind() throws IOException {
+        OrderBook book = createOrderBook();
+        ObjectMapper mapper = new ObjectMapper();
+
+        assertEquals(book, mapper.readValue(GeneratedCodecTest_OrderBookCodec.JSON_ENCODER.encode(book), OrderBook.class));
+        assertEquals(book, GeneratedCodecTest_OrderBookCodec.JSON_DECODER.decode(mapper.writeValueAsBytes(book)));
+    }
+
+    @Test
+    public void When_JsonHasUnknownFields_Then_GeneratedDecoderShouldSkipThem() {
+        byte[] json = "{\"unknown\":{\"nested\":[1,2]},\"id\":7,\"side\":\"SELL\",\"quantity\":null}".getBytes();
+
+        Order order = GeneratedCodecTest_OrderCodec.JSON_DECODER.decode(json);
+
+        assertEquals(7, order.id);
+        assertEquals(Side.SELL, order.side);
+        assertNull(order.quantity);
+    }
+
+    @Test
+    public void When_MessageIsEncodedWithGeneratedBinaryCodec_Then_ItCanBeDecodedToOriginalMessage() {
+        OrderBook book = createOrderBook();
+
+        byte[] encoded = GeneratedCodecTest_OrderBookCodec.BINARY_ENCODER.encode(book);
+
+        assertTrue(GeneratedCodecTest_OrderBookCodec.BINARY_ENCODER.isBinary());
+        assertEquals(book, GeneratedCodecTest_OrderBookCodec.BINARY_DECODER.decode(encoded));
+    }
+
+    @Test
+    public void When_MessageIsEncodedWithGeneratedBinaryCodec_Then_ItShouldBeSmallerThanSmile() throws IOException {
+        OrderBook book = createOrderBook();
+
+        int smile = new SmileMapper().writeValueAsBytes(book).length;
+
+        assertTrue(GeneratedCodecTest_OrderBookCodec.BINARY_ENCODER.encode(book).length < smile);
+    }
+
+    private static byte[] writeCompactArray(Object... values) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        try (JsonGenerator generator = CompactBinaryFactory.INSTANCE.createGenerator(output)) {
+            writeArray(generator, Arrays.asList(values));
+        }
+        return output.toByteArray();
+    }
+
+    private static void writeArray(JsonGenerator generator, List<?> values) throws IOException {
+        generator.writeStartArray();
+        for (Object value : values) {
+            if (value instanceof List) {
+                writeArray(generator, (List<?>) value);
+            } else {
+                generator.writeObject(value);
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    @Test
+    public void When_BinaryMessageHasFewerValues_Then_MissingFieldsShouldKeepDefaults() throws IOException {
+        Order decoded = GeneratedCodecTest_OrderCodec.BINARY_DECODER.decode(writeCompactArray(9L, 1.5));
+
+        assertEquals(9, decoded.id);
+        assertEquals(1.5, decoded.price);
+        assertNull(decoded.side);
+        assertNull(decoded.quantity);
+    }
+
+    @Test
+    public void When_BinaryMessageHasMoreValues_Then_TrailingValuesShouldBeSkipped() throws IOException {
+        byte[] encoded = writeCompactArray(9L, 1.5, "BUY", 3, "added later", Arrays.asList(1, 2));
+
+        Order decoded = GeneratedCodecTest_OrderCodec.BINARY_DECODER.decode(encoded);
+
+        assertEquals(Side.BUY, decoded.side);
+        assertEquals(3, decoded.quantity);
+    }
+
+    @Test
+    public void When_DecodingMalformedData_Then_RuntimeExceptionIsThrown() {
+        RuntimeException exception = assertThrows(RuntimeException.class,
+                () -> GeneratedCodecTest_OrderCodec.JSON_DECODER.decode("[1, 2]".getBytes()));
+        assertTrue(exception.getMessage().contains("Failed to decode message from JSON"));
+    }
+}
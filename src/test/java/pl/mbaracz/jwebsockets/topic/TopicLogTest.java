@@ -0,0 +1,162 @@
+package pl.mbaracz.jwebsockets.topic;
+
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TopicLogTest {
+
+    private static final long UNLIMITED = Long.MAX_VALUE;
+
+    @TempDir
+    Path directory;
+
+    private static long append(TopicLog log, String message) {
+        return log.append(Unpooled.copiedBuffer(message, StandardCharsets.UTF_8), System.currentTimeMillis());
+    }
+
+    private static List<String> read(TopicLog log, long from) {
+        List<String> result = new ArrayList<>();
+        log.read(from, Long.MAX_VALUE, (sequence, timestamp, payload) -> {
+            result.add(sequence + ":" + payload.toString(StandardCharsets.UTF_8));
+            payload.release();
+        });
+        return result;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void When_MessagesAreAppended_Then_TheyShouldBeReadFromSequence() throws IOException {
+        try (TopicLog log = new TopicLog(directory, 1024, UNLIMITED, UNLIMITED)) {
+            assertEquals(1, append(log, "one"));
+            assertEquals(2, append(log, "two"));
+            assertEquals(3, append(log, "three"));
+
+            assertEquals(3, log.getLastSequence());
+            assertEquals(3 * TopicLog.HEADER_SIZE + 11, log.getSize());
+            assertEquals(Arrays.asList("2:two", "3:three"), read(log, 2));
+        }
+    }
+
+    @Test
+    public void When_LogIsReopened_Then_RecordsShouldBeRecoveredAndSequencesContinue() throws IOException {
+        try (TopicLog log = new TopicLog(directory, 64, UNLIMITED, UNLIMITED)) {
+            for (int i = 1; i <= 5; i++) {
+                append(log, "message " + i);
+            }
+        }
+
+        try (TopicLog log = new TopicLog(directory, 64, UNLIMITED, UNLIMITED)) {
+            assertEquals(5, log.getLastSequence());
+            assertEquals(6, append(log, "message 6"));
+            assertEquals(Arrays.asList("5:message 5", "6:message 6"), read(log, 5));
+        }
+    }
+
+    @Test
+    public void When_EmptyMessageIsAppended_Then_FollowingRecordsShouldBeRecovered() throws IOException {
+        try (TopicLog log = new TopicLog(directory, 1024, UNLIMITED, UNLIMITED)) {
+            append(log, "");
+            append(log, "after");
+        }
+
+        try (TopicLog log = new TopicLog(directory, 1024, UNLIMITED, UNLIMITED)) {
+            assertEquals(2, log.getLastSequence());
+            assertEquals(Arrays.asList("1:", "2:after"), read(log, 1));
+        }
+    }
+
+    @Test
+    public void When_LastRecordIsTorn_Then_LogShouldBeRecoveredUpToPreviousRecord() throws IOException {
+        try (TopicLog log = new TopicLog(directory, 1024, UNLIMITED, UNLIMITED)) {
+            append(log, "one");
+            append(log, "two");
+        }
+
+        // Corrupt the payload of the second record, as if the machine crashed while writing it
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), 2L * TopicLog.HEADER_SIZE + 3);
+        }
+
+        try (TopicLog log = new TopicLog(directory, 1024, UNLIMITED, UNLIMITED)) {
+            assertEquals(1, log.getLastSequence());
+            assertEquals(2, append(log, "again"));
+            assertEquals(Arrays.asList("1:one", "2:again"), read(log, 1));
+        }
+    }
+
+    @Test
+    public void When_TimestampOfRecordIsCorrupted_Then_LogShouldBeRecoveredUpToPreviousRecord() throws IOException {
+        try (TopicLog log = new TopicLog(directory, 1024, UNLIMITED, UNLIMITED)) {
+            append(log, "one");
+            append(log, "two");
+        }
+
+        // The checksum covers the header too, so a record with a wrong timestamp is not recovered
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), TopicLog.HEADER_SIZE + 3 + 16);
+        }
+
+        try (TopicLog log = new TopicLog(directory, 1024, UNLIMITED, UNLIMITED)) {
+            assertEquals(1, log.getLastSequence());
+            assertEquals(Collections.singletonList("1:one"), read(log, 1));
+        }
+    }
+
+    @Test
+    public void When_SegmentIsFull_Then_LogShouldRollAndReadAcrossSegments() throws IOException {
+        // Every segment holds two records of 33 bytes
+        try (TopicLog log = new TopicLog(directory, 80, UNLIMITED, UNLIMITED)) {
+            for (int i = 1; i <= 5; i++) {
+                append(log, "message " + i);
+            }
+
+            // Three used segments and the prepared next one
+            assertEquals(4, segments().size());
+            assertEquals(Arrays.asList("2:message 2", "3:message 3", "4:message 4", "5:message 5"), read(log, 2));
+        }
+    }
+
+    @Test
+    public void When_LogExceedsRetentionSize_Then_OldestSegmentsShouldBeDeleted() throws IOException {
+        try (TopicLog log = new TopicLog(directory, 80, 100, UNLIMITED)) {
+            for (int i = 1; i <= 6; i++) {
+                append(log, "message " + i);
+            }
+            log.flush();
+
+            // The active segment and the prepared next one
+            assertEquals(2, segments().size());
+            assertEquals(5, log.getFirstSequence());
+            assertEquals(Arrays.asList("5:message 5", "6:message 6"), read(log, 1));
+        }
+    }
+
+    @Test
+    public void When_MessageDoesNotFitIntoSegment_Then_AppendShouldFail() throws IOException {
+        try (TopicLog log = new TopicLog(directory, 64, UNLIMITED, UNLIMITED)) {
+            assertThrows(IllegalArgumentException.class, () -> append(log, new String(new char[64])));
+        }
+    }
+}